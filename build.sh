@@ -3,3 +3,6 @@ docker build -t system/chatai:1.0 -f ./Dockerfile .
 
 # 兼容 amd、arm 构建镜像
 # docker buildx build --load --platform liunx/amd64,linux/arm64 -t xiaofuge/xfg-frame-archetype-app:1.0 -f ./Dockerfile . --push
+
+# 启动优化镜像（JDK 17 + AppCDS + faststart 配置），用 ./startup-bench.sh 对比启动耗时
+# docker build -t system/chatai:faststart -f ./Dockerfile.faststart .
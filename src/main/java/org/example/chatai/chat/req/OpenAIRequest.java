@@ -1,10 +1,19 @@
 package org.example.chatai.chat.req;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
 import java.util.List;
 
 public class OpenAIRequest {
     private String model;
     private List<Message> messages;
+    // 为空时不输出，由接口使用默认值
+    @JsonProperty("max_tokens")
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Integer maxTokens;
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Boolean stream;
 
     // Getters and Setters
     public String getModel() {
@@ -23,6 +32,22 @@ public class OpenAIRequest {
         this.messages = messages;
     }
 
+    public Integer getMaxTokens() {
+        return maxTokens;
+    }
+
+    public void setMaxTokens(Integer maxTokens) {
+        this.maxTokens = maxTokens;
+    }
+
+    public Boolean getStream() {
+        return stream;
+    }
+
+    public void setStream(Boolean stream) {
+        this.stream = stream;
+    }
+
     public static class Message {
         private String role;
         private String content;
@@ -0,0 +1,83 @@
+package org.example.chatai.common;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.example.chatai.vo.Constants;
+import org.example.chatai.vo.Response;
+import org.springframework.core.annotation.AnnotatedElementUtils;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+/**
+ * 管理接口（类级映射在 /api/v1/admin/ 下的群发、批量问答、运行时参数、统计等）要求请求头 X-Admin-Token 与
+ * chat.admin.token 一致，未配置 chat.admin.token 时拒绝所有管理请求。
+ * <p>
+ * 按 Spring MVC 已选定的处理器判断，而不是按原始请求路径：原始 URI 未解码、未规范化且带 ; 参数，
+ * /api/v1//admin/...、/api/v1/admin;x/...、/api/v1/%61dmin/... 都会被路由到管理接口。
+ */
+@Slf4j
+public class AdminAuthInterceptor implements HandlerInterceptor {
+
+    public static final String HEADER = "X-Admin-Token";
+    public static final String ADMIN_PATH = "/api/v1/admin";
+
+    private final String adminToken;
+    private final ObjectMapper objectMapper;
+
+    public AdminAuthInterceptor(String adminToken, ObjectMapper objectMapper) {
+        this.adminToken = adminToken;
+        this.objectMapper = objectMapper;
+        if (StringUtils.isBlank(adminToken)) {
+            log.warn("未配置 chat.admin.token，管理接口将拒绝所有请求");
+        }
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws IOException {
+        if (!isAdminHandler(handler) || authorized(request.getHeader(HEADER))) {
+            return true;
+        }
+        log.warn("拒绝未授权的管理请求: {} {}，来源: {}", request.getMethod(), request.getRequestURI(), request.getRemoteAddr());
+        response.setStatus(HttpServletResponse.SC_UNAUTHORIZED);
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        objectMapper.writeValue(response.getWriter(), Response.<Void>builder()
+                .code(Constants.ResponseCode.NO_LOGIN.getCode())
+                .info(Constants.ResponseCode.NO_LOGIN.getInfo())
+                .build());
+        return false;
+    }
+
+    static boolean isAdminHandler(Object handler) {
+        if (!(handler instanceof HandlerMethod)) {
+            return false;
+        }
+        RequestMapping mapping = AnnotatedElementUtils.findMergedAnnotation(((HandlerMethod) handler).getBeanType(), RequestMapping.class);
+        if (mapping == null) {
+            return false;
+        }
+        for (String path : mapping.path()) {
+            if (path.startsWith(ADMIN_PATH)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean authorized(String token) {
+        if (StringUtils.isBlank(adminToken) || token == null) {
+            return false;
+        }
+        // 定长比较，不通过耗时泄露令牌前缀
+        return MessageDigest.isEqual(adminToken.getBytes(StandardCharsets.UTF_8), token.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,173 @@
+package org.example.chatai.common;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Aho-Corasick 多模式匹配器（构建后不可变，可多线程共享）
+ * <p>
+ * 所有关键词编译进同一个自动机，一次扫描文本即可找出全部命中，耗时只与文本长度和命中数有关，与关键词数量无关。
+ * 构建完成后转成按字符排序的数组，状态转移用二分查找，适合中文这类字符集很大的场景。
+ * 同一模式的重复命中用每个线程一份的标记数组去重：数组按模式编号记下最后命中它的扫描代数，每次扫描代数加一，
+ * 不用清空，去重是 O(1)。
+ */
+public class AhoCorasickMatcher {
+
+    private final char[][] childChars;
+    private final int[][] childNodes;
+    private final int[] fail;
+    // 沿失败链最近的、本身有输出的节点
+    private final int[] outputLink;
+    private final int[][] outputs;
+    private final ThreadLocal<Marks> marks;
+
+    private AhoCorasickMatcher(char[][] childChars, int[][] childNodes, int[] fail, int[] outputLink, int[][] outputs,
+                               int patternCount) {
+        this.childChars = childChars;
+        this.childNodes = childNodes;
+        this.fail = fail;
+        this.outputLink = outputLink;
+        this.outputs = outputs;
+        this.marks = ThreadLocal.withInitial(() -> new Marks(patternCount));
+    }
+
+    // 模式编号 -> 最后一次命中时的扫描代数
+    private static final class Marks {
+        private final int[] generations;
+        private int generation;
+
+        private Marks(int patternCount) {
+            this.generations = new int[patternCount];
+        }
+
+        private int next() {
+            if (++generation == 0) {
+                // 代数回绕，清空后从 1 开始，避免与旧标记相等
+                Arrays.fill(generations, 0);
+                generation = 1;
+            }
+            return generation;
+        }
+    }
+
+    /**
+     * 构建自动机，patterns 的下标即匹配结果中的模式编号
+     */
+    public static AhoCorasickMatcher build(List<String> patterns) {
+        List<TreeMap<Character, Integer>> children = new ArrayList<>();
+        List<List<Integer>> nodeOutputs = new ArrayList<>();
+        children.add(new TreeMap<>());
+        nodeOutputs.add(null);
+        for (int p = 0; p < patterns.size(); p++) {
+            String pattern = patterns.get(p);
+            if (pattern == null || pattern.isEmpty()) {
+                continue;
+            }
+            int node = 0;
+            for (int i = 0; i < pattern.length(); i++) {
+                Integer next = children.get(node).get(pattern.charAt(i));
+                if (next == null) {
+                    next = children.size();
+                    children.add(new TreeMap<>());
+                    nodeOutputs.add(null);
+                    children.get(node).put(pattern.charAt(i), next);
+                }
+                node = next;
+            }
+            if (nodeOutputs.get(node) == null) {
+                nodeOutputs.set(node, new ArrayList<>(1));
+            }
+            nodeOutputs.get(node).add(p);
+        }
+
+        int size = children.size();
+        char[][] childChars = new char[size][];
+        int[][] childNodes = new int[size][];
+        int[][] outputs = new int[size][];
+        for (int n = 0; n < size; n++) {
+            TreeMap<Character, Integer> map = children.get(n);
+            childChars[n] = new char[map.size()];
+            childNodes[n] = new int[map.size()];
+            int i = 0;
+            for (Map.Entry<Character, Integer> entry : map.entrySet()) {
+                childChars[n][i] = entry.getKey();
+                childNodes[n][i] = entry.getValue();
+                i++;
+            }
+            List<Integer> out = nodeOutputs.get(n);
+            if (out != null) {
+                outputs[n] = out.stream().mapToInt(Integer::intValue).toArray();
+            }
+        }
+
+        // 广度优先计算失败链
+        int[] fail = new int[size];
+        int[] outputLink = new int[size];
+        Arrays.fill(outputLink, -1);
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        for (int child : childNodes[0]) {
+            queue.add(child);
+        }
+        while (!queue.isEmpty()) {
+            int node = queue.poll();
+            for (int i = 0; i < childChars[node].length; i++) {
+                char c = childChars[node][i];
+                int child = childNodes[node][i];
+                int f = fail[node];
+                int target;
+                while ((target = step(childChars, childNodes, f, c)) < 0 && f != 0) {
+                    f = fail[f];
+                }
+                fail[child] = target < 0 || target == child ? 0 : target;
+                outputLink[child] = outputs[fail[child]] != null ? fail[child] : outputLink[fail[child]];
+                queue.add(child);
+            }
+        }
+        return new AhoCorasickMatcher(childChars, childNodes, fail, outputLink, outputs, patterns.size());
+    }
+
+    /**
+     * 扫描文本，返回所有命中的模式编号（同一模式多次出现只返回一次）
+     */
+    public List<Integer> match(CharSequence text) {
+        List<Integer> hits = new ArrayList<>(4);
+        Marks seen = null;
+        int generation = 0;
+        int node = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            int next;
+            while ((next = step(childChars, childNodes, node, c)) < 0 && node != 0) {
+                node = fail[node];
+            }
+            node = next < 0 ? 0 : next;
+            for (int n = outputs[node] != null ? node : outputLink[node]; n > 0; n = outputLink[n]) {
+                if (seen == null) {
+                    // 没有命中的扫描不取线程标记
+                    seen = marks.get();
+                    generation = seen.next();
+                }
+                for (int pattern : outputs[n]) {
+                    if (seen.generations[pattern] != generation) {
+                        seen.generations[pattern] = generation;
+                        hits.add(pattern);
+                    }
+                }
+            }
+        }
+        return hits;
+    }
+
+    public int nodeCount() {
+        return fail.length;
+    }
+
+    private static int step(char[][] childChars, int[][] childNodes, int node, char c) {
+        int i = Arrays.binarySearch(childChars[node], c);
+        return i < 0 ? -1 : childNodes[node][i];
+    }
+}
@@ -0,0 +1,155 @@
+package org.example.chatai.common;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * 聊天链路的 JFR 自定义事件
+ * <p>
+ * 事件都在 ChatAI 分类下，带 openid 哈希和 MsgId（取自请求的 {@link RequestTiming}），
+ * 在 JMC 里可以把 GC、锁竞争、Socket 读写与具体的一次对话对应起来。
+ * 用法：new 事件并 begin()，结束时调用 {@link ChatEvent#finish}；未开启录制时 shouldCommit() 为 false，
+ * 不会计算 openid 哈希也不会写入，事件对象本身可被逃逸分析消除。需要带 JFR 的运行时（JDK 11+ 或 8u262+）。
+ */
+public final class ChatEvents {
+
+    private ChatEvents() {
+    }
+
+    @Category("ChatAI")
+    @StackTrace(false)
+    public abstract static class ChatEvent extends Event {
+
+        @Label("OpenID Hash")
+        public String openidHash;
+
+        @Label("MsgId")
+        public String msgId;
+
+        /**
+         * 用当前线程绑定的请求补上会话标识并提交
+         */
+        public void finish() {
+            finish(RequestTiming.current());
+        }
+
+        /**
+         * 异步完成时由调用方传入请求对象（完成回调所在线程可能没有绑定）
+         */
+        public void finish(RequestTiming timing) {
+            end();
+            if (!shouldCommit()) {
+                return;
+            }
+            if (timing != null) {
+                openidHash = timing.getOpenidHash();
+                msgId = timing.getMsgId();
+            }
+            commit();
+        }
+    }
+
+    @Name("chatai.WebhookReceive")
+    @Label("Webhook Receive")
+    @Description("公众号消息回调从收到请求到响应就绪")
+    public static final class WebhookReceive extends ChatEvent {
+
+        @Label("Message Type")
+        public String msgType;
+
+        @Label("Request Size")
+        @DataAmount
+        public long requestBytes;
+
+        @Label("Response Size")
+        @DataAmount
+        public long responseBytes;
+    }
+
+    @Name("chatai.SignatureCheck")
+    @Label("Signature Check")
+    public static final class SignatureCheck extends ChatEvent {
+
+        @Label("Valid")
+        public boolean valid;
+    }
+
+    @Name("chatai.XmlDecode")
+    @Label("XML Decode")
+    public static final class XmlDecode extends ChatEvent {
+
+        @Label("Size")
+        @DataAmount
+        public long bytes;
+    }
+
+    @Name("chatai.XmlEncode")
+    @Label("XML Encode")
+    public static final class XmlEncode extends ChatEvent {
+
+        @Label("Characters")
+        public long chars;
+    }
+
+    @Name("chatai.ContextGet")
+    @Label("Context Get")
+    @Description("读取对话上下文，source 为 near / redis / rebuild / empty")
+    public static final class ContextGet extends ChatEvent {
+
+        @Label("Source")
+        public String source;
+
+        @Label("Characters")
+        public long chars;
+    }
+
+    @Name("chatai.ContextSet")
+    @Label("Context Set")
+    @Description("写入对话上下文，operation 为 append / summary")
+    public static final class ContextSet extends ChatEvent {
+
+        @Label("Operation")
+        public String operation;
+
+        @Label("Size")
+        @DataAmount
+        public long bytes;
+    }
+
+    @Name("chatai.UpstreamCall")
+    @Label("Upstream Call")
+    @Description("调用 OpenAI 接口")
+    public static final class UpstreamCall extends ChatEvent {
+
+        @Label("Model")
+        public String model;
+
+        @Label("Bytes Out")
+        @DataAmount
+        public long bytesOut;
+
+        @Label("Bytes In")
+        @DataAmount
+        public long bytesIn;
+
+        @Label("HTTP Status")
+        public int status;
+    }
+
+    @Name("chatai.PersistenceFlush")
+    @Label("Persistence Flush")
+    @Description("聊天记录批量落库，一批包含多个用户，不带会话标识")
+    public static final class PersistenceFlush extends ChatEvent {
+
+        @Label("Records")
+        public int records;
+
+        @Label("Success")
+        public boolean success;
+    }
+}
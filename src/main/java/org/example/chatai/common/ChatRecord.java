@@ -4,7 +4,7 @@ import javax.persistence.*;
 import java.util.Date;
 
 @Entity
-@Table(name = "chat")
+@Table(name = "chat", indexes = @Index(name = "idx_user_id_id", columnList = "user_id, id"))
 public class ChatRecord {
 
     @Id
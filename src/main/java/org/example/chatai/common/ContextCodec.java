@@ -0,0 +1,205 @@
+package org.example.chatai.common;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 对话上下文的二进制编码
+ * <p>
+ * 格式：[版本 0x01][标志位][原始长度 varint，仅压缩时][问题长度 varint][问题 UTF-8][回答长度 varint][回答 UTF-8]，
+ * 正文超过阈值时使用 Deflate（BEST_SPEED）压缩，压缩后不变小则保留原文。
+ * 标志位带 SUMMARY 的是后台生成的早期对话摘要，问题为空、回答为摘要正文。
+ * 首字节不是版本号的数据按旧版纯文本读取，便于迁移期间新旧格式共存。
+ */
+@Component
+public class ContextCodec {
+
+    static final byte VERSION_1 = 0x01;
+    private static final byte FLAG_DEFLATE = 0x01;
+    private static final byte FLAG_SUMMARY = 0x02;
+
+    private static final ThreadLocal<Deflater> DEFLATER = ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_SPEED, true));
+    private static final ThreadLocal<Inflater> INFLATER = ThreadLocal.withInitial(() -> new Inflater(true));
+
+    @Value("${chat.context.compress-threshold:256}")
+    private int compressThreshold;
+
+    // 编解码统计：原始/编码后字节数与耗时，用于观察压缩率和开销
+    private final LongAdder encodeCount = new LongAdder();
+    private final LongAdder rawBytes = new LongAdder();
+    private final LongAdder encodedBytes = new LongAdder();
+    private final LongAdder encodeNanos = new LongAdder();
+    private final LongAdder decodeCount = new LongAdder();
+    private final LongAdder decodeNanos = new LongAdder();
+    private final LongAdder legacyDecodeCount = new LongAdder();
+
+    /**
+     * 编码一轮问答
+     */
+    public byte[] encode(String question, String answer) {
+        return encode(question, answer, (byte) 0);
+    }
+
+    /**
+     * 编码一段早期对话的摘要，替换被摘要的若干轮
+     */
+    public byte[] encodeSummary(String summary) {
+        return encode("", summary, FLAG_SUMMARY);
+    }
+
+    private byte[] encode(String question, String answer, byte flags) {
+        long start = System.nanoTime();
+        byte[] q = question.getBytes(StandardCharsets.UTF_8);
+        byte[] a = answer.getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream body = new ByteArrayOutputStream(q.length + a.length + 10);
+        writeVarint(body, q.length);
+        body.write(q, 0, q.length);
+        writeVarint(body, a.length);
+        body.write(a, 0, a.length);
+        byte[] raw = body.toByteArray();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length + 8);
+        out.write(VERSION_1);
+        byte[] compressed = raw.length > compressThreshold ? deflate(raw) : null;
+        if (compressed != null && compressed.length < raw.length) {
+            out.write(flags | FLAG_DEFLATE);
+            writeVarint(out, raw.length);
+            out.write(compressed, 0, compressed.length);
+        } else {
+            out.write(flags);
+            out.write(raw, 0, raw.length);
+        }
+        byte[] encoded = out.toByteArray();
+
+        encodeCount.increment();
+        rawBytes.add(formatted(q.length, a.length));
+        encodedBytes.add(encoded.length);
+        encodeNanos.add(System.nanoTime() - start);
+        return encoded;
+    }
+
+    /**
+     * 解码一轮问答为提示词中的文本格式，兼容旧版纯文本
+     */
+    public String decode(byte[] data) {
+        long start = System.nanoTime();
+        try {
+            if (data.length < 2 || data[0] != VERSION_1) {
+                legacyDecodeCount.increment();
+                return new String(data, StandardCharsets.UTF_8);
+            }
+            byte[] body;
+            int[] pos = {2};
+            if ((data[1] & FLAG_DEFLATE) != 0) {
+                int rawLength = readVarint(data, pos);
+                body = inflate(data, pos[0], data.length - pos[0], rawLength);
+                pos[0] = 0;
+            } else {
+                body = data;
+            }
+            int qLength = readVarint(body, pos);
+            String question = new String(body, pos[0], qLength, StandardCharsets.UTF_8);
+            pos[0] += qLength;
+            int aLength = readVarint(body, pos);
+            String answer = new String(body, pos[0], aLength, StandardCharsets.UTF_8);
+            if ((data[1] & FLAG_SUMMARY) != 0) {
+                return "\nSummary: " + answer;
+            }
+            return "\nUser: " + question + "\nAI: " + answer;
+        } finally {
+            decodeCount.increment();
+            decodeNanos.add(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * 编解码统计
+     */
+    public Map<String, Object> stats() {
+        long encodes = encodeCount.sum();
+        long decodes = decodeCount.sum();
+        long raw = rawBytes.sum();
+        long encoded = encodedBytes.sum();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("encodeCount", encodes);
+        stats.put("rawBytes", raw);
+        stats.put("encodedBytes", encoded);
+        stats.put("compressionRatio", encoded == 0 ? 0 : (double) raw / encoded);
+        stats.put("avgEncodeMicros", encodes == 0 ? 0 : encodeNanos.sum() / encodes / 1000.0);
+        stats.put("decodeCount", decodes);
+        stats.put("legacyDecodeCount", legacyDecodeCount.sum());
+        stats.put("avgDecodeMicros", decodes == 0 ? 0 : decodeNanos.sum() / decodes / 1000.0);
+        return stats;
+    }
+
+    // 旧版纯文本 "\nUser: q\nAI: a" 的字节数，用于计算压缩率
+    private static long formatted(int qLength, int aLength) {
+        return qLength + aLength + 11;
+    }
+
+    private static byte[] deflate(byte[] raw) {
+        Deflater deflater = DEFLATER.get();
+        deflater.reset();
+        deflater.setInput(raw);
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length / 2 + 16);
+        byte[] buffer = new byte[1024];
+        while (!deflater.finished()) {
+            int n = deflater.deflate(buffer);
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] inflate(byte[] data, int offset, int length, int rawLength) {
+        Inflater inflater = INFLATER.get();
+        inflater.reset();
+        inflater.setInput(data, offset, length);
+        byte[] raw = new byte[rawLength];
+        try {
+            int n = 0;
+            while (n < rawLength && !inflater.finished()) {
+                int read = inflater.inflate(raw, n, rawLength - n);
+                if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                n += read;
+            }
+            if (n != rawLength) {
+                throw new IllegalStateException("上下文数据损坏，解压长度不符: " + n + "/" + rawLength);
+            }
+            return raw;
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("上下文数据损坏", e);
+        }
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int readVarint(byte[] data, int[] pos) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = data[pos[0]++];
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+}
@@ -0,0 +1,172 @@
+package org.example.chatai.common;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 请求级的截止时间
+ * <p>
+ * 公众号回调在请求到达时创建并绑定到当前线程，与 {@link RequestTiming} 一样切换线程时由调用方用 {@link #attach} 传递
+ * （见 FairRequestScheduler、ChatWorkQueue）。每一跳开始前用 {@link #check} 确认还有剩余时间，
+ * HTTP 客户端的连接与读取超时取配置值与剩余时间的较小者；已超时的工作直接放弃，按放弃时所在的环节计数。
+ * 当前线程没有绑定时所有方法都是空操作，后台任务不受影响。
+ */
+public final class Deadline {
+
+    private static final ThreadLocal<Deadline> CURRENT = new ThreadLocal<>();
+
+    private static final Map<String, LongAdder> ABANDONED = new ConcurrentHashMap<>();
+    private static final LongAdder CREATED = new LongAdder();
+
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "chat-deadline-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final long deadlineNanos;
+    private final long deadlineMillis;
+
+    private Deadline(long remainingNanos) {
+        this.deadlineNanos = System.nanoTime() + remainingNanos;
+        this.deadlineMillis = System.currentTimeMillis() + TimeUnit.NANOSECONDS.toMillis(remainingNanos);
+    }
+
+    /**
+     * 从现在起 remainingMillis 毫秒后截止
+     */
+    public static Deadline after(long remainingMillis) {
+        CREATED.increment();
+        return new Deadline(TimeUnit.MILLISECONDS.toNanos(remainingMillis));
+    }
+
+    /**
+     * 以墙上时间表示的截止时间，用于跨实例传递（包含实例间的时钟偏差）
+     */
+    public static Deadline at(long epochMillis) {
+        return new Deadline(TimeUnit.MILLISECONDS.toNanos(epochMillis - System.currentTimeMillis()));
+    }
+
+    public static Deadline current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * 绑定到当前线程，返回之前绑定的对象，用完后需要再 attach 回去
+     */
+    public static Deadline attach(Deadline deadline) {
+        Deadline previous = CURRENT.get();
+        if (deadline == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(deadline);
+        }
+        return previous;
+    }
+
+    /**
+     * 进入 hop 之前检查当前线程的截止时间，已超时则计数并抛出 {@link ExceededException}
+     */
+    public static void check(String hop) {
+        Deadline deadline = CURRENT.get();
+        if (deadline != null && deadline.isExpired()) {
+            throw abandon(hop);
+        }
+    }
+
+    /**
+     * 当前线程剩余的毫秒数与 limitMillis 的较小者；没有截止时间时返回 limitMillis
+     */
+    public static int clamp(String hop, int limitMillis) {
+        Deadline deadline = CURRENT.get();
+        if (deadline == null) {
+            return limitMillis;
+        }
+        long remaining = deadline.remainingMillis();
+        if (remaining <= 0) {
+            throw abandon(hop);
+        }
+        return (int) Math.min(limitMillis, remaining);
+    }
+
+    /**
+     * 记一次在 hop 放弃的工作，返回供调用方抛出的异常
+     */
+    public static ExceededException abandon(String hop) {
+        ABANDONED.computeIfAbsent(hop, key -> new LongAdder()).increment();
+        return new ExceededException(hop);
+    }
+
+    /**
+     * 截止时仍未完成的 future 以 {@link ExceededException} 结束，不再等待仍在进行的工作
+     */
+    public <T> CompletableFuture<T> bound(CompletableFuture<T> future, String hop) {
+        long remaining = remainingNanos();
+        if (remaining <= 0) {
+            if (!future.isDone()) {
+                future.completeExceptionally(abandon(hop));
+            }
+            return future;
+        }
+        ScheduledFuture<?> timeout = TIMER.schedule(() -> {
+            if (!future.isDone() && future.completeExceptionally(new ExceededException(hop))) {
+                ABANDONED.computeIfAbsent(hop, key -> new LongAdder()).increment();
+            }
+        }, remaining, TimeUnit.NANOSECONDS);
+        future.whenComplete((result, e) -> timeout.cancel(false));
+        return future;
+    }
+
+    public long remainingNanos() {
+        return deadlineNanos - System.nanoTime();
+    }
+
+    public long remainingMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(remainingNanos());
+    }
+
+    public boolean isExpired() {
+        return remainingNanos() <= 0;
+    }
+
+    public long getDeadlineMillis() {
+        return deadlineMillis;
+    }
+
+    public static Map<String, Object> stats() {
+        Map<String, Object> stats = new TreeMap<>();
+        long total = 0;
+        for (Map.Entry<String, LongAdder> entry : ABANDONED.entrySet()) {
+            long count = entry.getValue().sum();
+            stats.put("abandoned." + entry.getKey(), count);
+            total += count;
+        }
+        stats.put("abandoned", total);
+        stats.put("deadlines", CREATED.sum());
+        return stats;
+    }
+
+    /**
+     * 截止时间已过，hop 为放弃时所在的环节
+     */
+    public static final class ExceededException extends RuntimeException {
+
+        private final String hop;
+
+        public ExceededException(String hop) {
+            super("deadline exceeded at " + hop, null, false, false);
+            this.hop = hop;
+        }
+
+        public String getHop() {
+            return hop;
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package org.example.chatai.common;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 按回复渠道的字节上限约束生成长度
+ * <p>
+ * 公众号被动回复和客服消息的文本内容都有字节上限，超出部分要么发送失败要么被截掉，生成它们既花钱又拖慢回复。
+ * 这里按渠道的字节预算推算 max_tokens（被动回复收紧，网页接口放宽），开启流式时回答达到预算即停止读取并断开上游；
+ * 送达前再按预算截断一次兜底。节省的 token 与时延按流式提前停止时的实测速度估算。
+ */
+@Component
+public class DeliveryBudget {
+
+    public enum Channel {
+        // 公众号被动回复
+        WEBHOOK,
+        // 客服消息（入站消息重放后补发）
+        CUSTOM_MESSAGE,
+        // 网页 / HTTP 接口
+        WEB
+    }
+
+    private static final String ELLIPSIS = "…";
+
+    @Value("${chat.delivery.enabled:true}")
+    private boolean enabled;
+
+    @Value("${chat.delivery.stream:false}")
+    private boolean stream;
+
+    @Value("${chat.delivery.webhook-bytes:2000}")
+    private int webhookBytes;
+
+    @Value("${chat.delivery.custom-message-bytes:2000}")
+    private int customMessageBytes;
+
+    @Value("${chat.delivery.web-bytes:16000}")
+    private int webBytes;
+
+    // 每个 token 平均对应的 UTF-8 字节数，中文一个字约 3 字节、1.5 个 token
+    @Value("${chat.delivery.bytes-per-token:2}")
+    private double bytesPerToken;
+
+    // 模型允许的 max_tokens 上限（gpt-3.5-turbo 为 4096），超出时上游直接返回 400
+    @Value("${chat.delivery.max-tokens-cap:4096}")
+    private int maxTokensCap;
+
+    private final Map<Channel, ChannelStats> stats = new EnumMap<>(Channel.class);
+
+    public DeliveryBudget() {
+        for (Channel channel : Channel.values()) {
+            stats.put(channel, new ChannelStats());
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 是否以流式请求上游，以便达到预算时提前停止
+     */
+    public boolean isStream() {
+        return enabled && stream;
+    }
+
+    /**
+     * 渠道的字节预算，未开启时返回 0 表示不限制
+     */
+    public int budgetBytes(Channel channel) {
+        if (!enabled || channel == null) {
+            return 0;
+        }
+        switch (channel) {
+            case WEBHOOK:
+                return webhookBytes;
+            case CUSTOM_MESSAGE:
+                return customMessageBytes;
+            default:
+                return webBytes;
+        }
+    }
+
+    /**
+     * 由字节预算推算的 max_tokens，不超过模型上限；不限制时返回 null
+     */
+    public Integer maxTokens(Channel channel) {
+        int budget = budgetBytes(channel);
+        return budget <= 0 ? null : Math.max(1, Math.min(maxTokensCap, (int) Math.ceil(budget / bytesPerToken)));
+    }
+
+    /**
+     * 送达前按渠道预算截断，截断处补省略号，不会切开多字节字符或代理对
+     */
+    public String fit(Channel channel, String text) {
+        int budget = budgetBytes(channel);
+        if (text == null || budget <= 0 || OpenAICodec.utf8Length(text) <= budget) {
+            return text;
+        }
+        int limit = budget - OpenAICodec.utf8Length(ELLIPSIS);
+        int bytes = 0;
+        int end = 0;
+        while (end < text.length()) {
+            int codePoint = text.codePointAt(end);
+            int size = codePoint < 0x80 ? 1 : codePoint < 0x800 ? 2 : codePoint < 0x10000 ? 3 : 4;
+            if (bytes + size > limit) {
+                break;
+            }
+            bytes += size;
+            end += Character.charCount(codePoint);
+        }
+        stats.get(channel).truncated.increment();
+        return text.substring(0, end) + ELLIPSIS;
+    }
+
+    /**
+     * 记录一次上游调用的生成情况
+     */
+    public void record(Channel channel, Integer maxTokens, OpenAICodec.Answer answer) {
+        if (channel == null || answer == null) {
+            return;
+        }
+        ChannelStats channelStats = stats.get(channel);
+        channelStats.requests.increment();
+        channelStats.completionTokens.add(answer.getCompletionTokens());
+        if ("length".equals(answer.getFinishReason())) {
+            channelStats.capped.increment();
+        }
+        String content = answer.getContent();
+        int budget = budgetBytes(channel);
+        if (content != null && budget > 0 && !answer.isCutoff()) {
+            int bytes = OpenAICodec.utf8Length(content);
+            if (bytes > budget && answer.getCompletionTokens() > 0) {
+                // 非流式时超出预算、送达前会被截掉的部分，按字节比例折算 token
+                channelStats.tokensOverBudget.add((long) answer.getCompletionTokens() * (bytes - budget) / bytes);
+            }
+        }
+        if (answer.isCutoff() && maxTokens != null) {
+            // 提前停止后本可能继续生成的 token 数上限，按停止前的实测速度折算时延
+            long avoided = Math.max(0, maxTokens - answer.getChunks());
+            channelStats.cutoffs.increment();
+            channelStats.tokensSaved.add(avoided);
+            if (answer.getChunks() > 1) {
+                channelStats.latencySavedNanos.add(answer.getStreamNanos() / (answer.getChunks() - 1) * avoided);
+            }
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("enabled", enabled);
+        result.put("stream", isStream());
+        result.put("maxTokensCap", maxTokensCap);
+        for (Channel channel : Channel.values()) {
+            ChannelStats channelStats = stats.get(channel);
+            long requests = channelStats.requests.sum();
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("budgetBytes", budgetBytes(channel));
+            item.put("maxTokens", maxTokens(channel));
+            item.put("requests", requests);
+            item.put("avgCompletionTokens", requests == 0 ? 0 : channelStats.completionTokens.sum() / (double) requests);
+            item.put("capped", channelStats.capped.sum());
+            item.put("cutoffs", channelStats.cutoffs.sum());
+            item.put("truncated", channelStats.truncated.sum());
+            item.put("tokensOverBudget", channelStats.tokensOverBudget.sum());
+            item.put("tokensSavedEstimate", channelStats.tokensSaved.sum());
+            item.put("latencySavedMillisEstimate", channelStats.latencySavedNanos.sum() / 1_000_000);
+            result.put(channel.name().toLowerCase(), item);
+        }
+        return result;
+    }
+
+    private static final class ChannelStats {
+        private final LongAdder requests = new LongAdder();
+        private final LongAdder completionTokens = new LongAdder();
+        // finish_reason=length，即被 max_tokens 截住
+        private final LongAdder capped = new LongAdder();
+        private final LongAdder cutoffs = new LongAdder();
+        private final LongAdder truncated = new LongAdder();
+        private final LongAdder tokensOverBudget = new LongAdder();
+        private final LongAdder tokensSaved = new LongAdder();
+        private final LongAdder latencySavedNanos = new LongAdder();
+    }
+}
@@ -0,0 +1,393 @@
+package org.example.chatai.common;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 入站消息预写日志
+ * <p>
+ * 公众号消息在进入调度队列之前先追加到内存映射的分段文件，处理完成后把记录的状态字节置为已完成。
+ * 进程重启（包括被强杀）时页缓存中的写入不会丢，启动时扫描所有分段，把未完成的记录交给
+ * {@link #recover()} 的调用方重放。分段写满后滚动到新文件（下一个分段在后台提前创建并映射，
+ * 滚动时不在追加锁内做文件操作），旧分段的记录全部完成后整段删除。
+ * <p>
+ * 微信在 5 秒内没收到回复会用同一个 MsgId 重试，同一条消息可能有多条记录：
+ * 重放时跳过已有完成记录的 MsgId，未完成的重复记录只重放一次。
+ * <p>
+ * 记录格式：[int 长度][byte 状态][long 序号][payload]，长度字段最后写入，
+ * 长度为 0 即视为分段结尾，写到一半的记录不会被当作有效记录。
+ * payload 为 [short openid 长度][openid][int 内容长度][内容][short MsgId 长度][MsgId]，
+ * 旧版本写入的记录没有 MsgId 部分，按没有 MsgId 处理。
+ * 默认不做 fsync（只防进程重启，不防整机掉电），需要时打开 chat.ingress.fsync。
+ */
+@Slf4j
+@Component
+public class IngressLog {
+
+    private static final int HEADER_BYTES = 4 + 1 + 8;
+    private static final byte STATE_PENDING = 0;
+    private static final byte STATE_DONE = 1;
+    private static final String SEGMENT_PREFIX = "ingress-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    @Value("${chat.ingress.enabled:true}")
+    private boolean enabled;
+
+    @Value("${chat.ingress.dir:data/ingress}")
+    private String dir;
+
+    @Value("${chat.ingress.segment-bytes:67108864}")
+    private int segmentBytes;
+
+    @Value("${chat.ingress.fsync:false}")
+    private boolean fsync;
+
+    private final Map<Integer, Segment> segments = new ConcurrentHashMap<>();
+    private Segment active;
+    private CompletableFuture<Segment> next;
+    private long sequence;
+    private List<Entry> recovered = new ArrayList<>();
+
+    private final LongAdder appends = new LongAdder();
+    private final LongAdder appendNanos = new LongAdder();
+    private volatile long maxAppendNanos;
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder skippedDuplicates = new LongAdder();
+    private final LongAdder deletedSegments = new LongAdder();
+
+    /**
+     * 一条入站消息
+     */
+    public static final class Entry {
+        private final long handle;
+        private final String openid;
+        private final String content;
+        private final String msgId;
+
+        private Entry(long handle, String openid, String content, String msgId) {
+            this.handle = handle;
+            this.openid = openid;
+            this.content = content;
+            this.msgId = msgId;
+        }
+
+        public long getHandle() {
+            return handle;
+        }
+
+        public String getMsgId() {
+            return msgId;
+        }
+
+        public String getOpenid() {
+            return openid;
+        }
+
+        public String getContent() {
+            return content;
+        }
+    }
+
+    @PostConstruct
+    public void init() throws IOException {
+        if (!enabled) {
+            return;
+        }
+        File directory = new File(dir);
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("无法创建入站日志目录: " + directory.getAbsolutePath());
+        }
+        int lastId = 0;
+        Set<String> doneMsgIds = new HashSet<>();
+        File[] files = directory.listFiles((d, name) -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX));
+        if (files != null) {
+            Arrays.sort(files);
+            for (File file : files) {
+                int id = Integer.parseInt(file.getName().substring(SEGMENT_PREFIX.length(),
+                        file.getName().length() - SEGMENT_SUFFIX.length()));
+                lastId = Math.max(lastId, id);
+                Segment segment = open(id, file, (int) file.length());
+                segments.put(id, segment);
+                scan(segment, doneMsgIds);
+            }
+        }
+        dropDuplicates(doneMsgIds);
+        // 重启后总是写新分段，旧分段只等待重放完成后删除
+        active = open(lastId + 1, segmentFile(lastId + 1), segmentBytes);
+        segments.put(active.id, active);
+        prepareNext();
+        if (!recovered.isEmpty()) {
+            log.warn("入站日志中有 {} 条未处理完成的消息，将在启动后重放", recovered.size());
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        if (active != null) {
+            active.buffer.force();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 追加一条消息，返回用于 {@link #complete(long)} 的句柄；未启用时返回 -1
+     */
+    public long append(String openid, String msgId, String content) {
+        if (!enabled) {
+            return -1;
+        }
+        long start = System.nanoTime();
+        byte[] openidBytes = openid.getBytes(StandardCharsets.UTF_8);
+        byte[] contentBytes = content == null ? new byte[0] : content.getBytes(StandardCharsets.UTF_8);
+        byte[] msgIdBytes = msgId == null ? new byte[0] : msgId.getBytes(StandardCharsets.UTF_8);
+        int length = 2 + openidBytes.length + 4 + contentBytes.length + 2 + msgIdBytes.length;
+        int recordBytes = HEADER_BYTES + length;
+        long handle;
+        synchronized (this) {
+            if (active.position + recordBytes + 4 > active.capacity) {
+                roll(recordBytes);
+            }
+            Segment segment = active;
+            int offset = segment.position;
+            MappedByteBuffer buffer = segment.buffer;
+            buffer.position(offset + 4);
+            buffer.put(STATE_PENDING);
+            buffer.putLong(++sequence);
+            buffer.putShort((short) openidBytes.length);
+            buffer.put(openidBytes);
+            buffer.putInt(contentBytes.length);
+            buffer.put(contentBytes);
+            buffer.putShort((short) msgIdBytes.length);
+            buffer.put(msgIdBytes);
+            // 长度最后写，之前的内容都写完才算一条有效记录
+            buffer.putInt(offset, length);
+            if (fsync) {
+                buffer.force();
+            }
+            segment.position = offset + recordBytes;
+            segment.pending.incrementAndGet();
+            handle = ((long) segment.id << 32) | offset;
+        }
+        long elapsed = System.nanoTime() - start;
+        appends.increment();
+        appendNanos.add(elapsed);
+        if (elapsed > maxAppendNanos) {
+            maxAppendNanos = elapsed;
+        }
+        return handle;
+    }
+
+    /**
+     * 标记消息已处理完成，分段内记录全部完成且不再写入时删除分段
+     */
+    public void complete(long handle) {
+        if (handle < 0) {
+            return;
+        }
+        Segment segment = segments.get((int) (handle >>> 32));
+        if (segment == null) {
+            return;
+        }
+        segment.buffer.put((int) handle + 4, STATE_DONE);
+        completed.increment();
+        if (segment.pending.decrementAndGet() == 0) {
+            deleteIfDrained(segment);
+        }
+    }
+
+    /**
+     * 取出启动时扫描到的未完成消息（只返回一次）
+     */
+    public synchronized List<Entry> recover() {
+        List<Entry> entries = recovered;
+        recovered = new ArrayList<>();
+        // 没有未完成记录的旧分段可以直接删掉
+        for (Segment segment : new ArrayList<>(segments.values())) {
+            if (segment.pending.get() == 0) {
+                deleteIfDrained(segment);
+            }
+        }
+        return entries;
+    }
+
+    public Map<String, Object> stats() {
+        long count = appends.sum();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("segments", segments.size());
+        int pending = 0;
+        for (Segment segment : segments.values()) {
+            pending += segment.pending.get();
+        }
+        stats.put("pending", pending);
+        stats.put("appends", count);
+        stats.put("completed", completed.sum());
+        stats.put("skippedDuplicates", skippedDuplicates.sum());
+        stats.put("avgAppendMicros", count == 0 ? 0 : appendNanos.sum() / count / 1000.0);
+        stats.put("maxAppendMicros", maxAppendNanos / 1000.0);
+        stats.put("deletedSegments", deletedSegments.sum());
+        stats.put("fsync", fsync);
+        return stats;
+    }
+
+    private void scan(Segment segment, Set<String> doneMsgIds) {
+        MappedByteBuffer buffer = segment.buffer;
+        int offset = 0;
+        while (offset + HEADER_BYTES <= segment.capacity) {
+            int length = buffer.getInt(offset);
+            if (length <= 0 || offset + HEADER_BYTES + length > segment.capacity) {
+                break;
+            }
+            sequence = Math.max(sequence, buffer.getLong(offset + 5));
+            int end = offset + HEADER_BYTES + length;
+            boolean pending = buffer.get(offset + 4) == STATE_PENDING;
+            buffer.position(offset + HEADER_BYTES);
+            int openidLength = buffer.getShort();
+            if (!pending) {
+                // 已完成的记录只需要 MsgId
+                buffer.position(buffer.position() + openidLength);
+                int contentLength = buffer.getInt();
+                buffer.position(buffer.position() + contentLength);
+                String msgId = readMsgId(buffer, end);
+                if (msgId != null) {
+                    doneMsgIds.add(msgId);
+                }
+            } else {
+                byte[] openidBytes = new byte[openidLength];
+                buffer.get(openidBytes);
+                byte[] contentBytes = new byte[buffer.getInt()];
+                buffer.get(contentBytes);
+                recovered.add(new Entry(((long) segment.id << 32) | offset, new String(openidBytes, StandardCharsets.UTF_8),
+                        new String(contentBytes, StandardCharsets.UTF_8), readMsgId(buffer, end)));
+                segment.pending.incrementAndGet();
+            }
+            offset = end;
+        }
+        segment.position = offset;
+    }
+
+    private static String readMsgId(MappedByteBuffer buffer, int end) {
+        if (buffer.position() + 2 > end) {
+            return null;
+        }
+        byte[] msgIdBytes = new byte[buffer.getShort()];
+        if (msgIdBytes.length == 0) {
+            return null;
+        }
+        buffer.get(msgIdBytes);
+        return new String(msgIdBytes, StandardCharsets.UTF_8);
+    }
+
+    // 已处理过的 MsgId 的重试记录与未完成的重复记录直接置为完成，不再重放
+    private void dropDuplicates(Set<String> doneMsgIds) {
+        List<Entry> entries = new ArrayList<>(recovered.size());
+        for (Entry entry : recovered) {
+            if (entry.msgId != null && !doneMsgIds.add(entry.msgId)) {
+                Segment segment = segments.get((int) (entry.handle >>> 32));
+                segment.buffer.put((int) entry.handle + 4, STATE_DONE);
+                segment.pending.decrementAndGet();
+                skippedDuplicates.increment();
+                continue;
+            }
+            entries.add(entry);
+        }
+        if (entries.size() < recovered.size()) {
+            log.info("入站日志中 {} 条重复的 MsgId 已处理过，不再重放", recovered.size() - entries.size());
+        }
+        recovered = entries;
+    }
+
+    private void roll(int recordBytes) {
+        Segment previous = active;
+        Segment segment = next.join();
+        if (segment.capacity < recordBytes + 4) {
+            // 单条记录超过分段大小，单独开一个足够大的分段
+            try {
+                segment = open(segment.id, segment.file, recordBytes + 4);
+            } catch (IOException e) {
+                throw new IllegalStateException("入站日志滚动失败", e);
+            }
+        }
+        active = segment;
+        segments.put(segment.id, segment);
+        prepareNext();
+        log.info("入站日志滚动到分段 {}", segment.id);
+        if (previous.pending.get() == 0) {
+            deleteIfDrained(previous);
+        }
+    }
+
+    private void deleteIfDrained(Segment segment) {
+        synchronized (this) {
+            if (segment == active || segment.pending.get() != 0 || segments.remove(segment.id) == null) {
+                return;
+            }
+        }
+        // Linux 上删除仍在映射中的文件是安全的，映射随 buffer 被回收释放
+        if (segment.file.delete()) {
+            deletedSegments.increment();
+            log.info("入站日志分段 {} 已全部处理，删除", segment.id);
+        }
+    }
+
+    private void prepareNext() {
+        int id = active.id + 1;
+        next = CompletableFuture.supplyAsync(() -> {
+            try {
+                return open(id, segmentFile(id), segmentBytes);
+            } catch (IOException e) {
+                throw new IllegalStateException("入站日志创建分段失败", e);
+            }
+        });
+    }
+
+    private static Segment open(int id, File file, int capacity) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw"); FileChannel channel = raf.getChannel()) {
+            return new Segment(id, file, channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity), capacity);
+        }
+    }
+
+    private File segmentFile(int id) {
+        return new File(dir, String.format("%s%010d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX));
+    }
+
+    private static final class Segment {
+        private final int id;
+        private final File file;
+        private final MappedByteBuffer buffer;
+        private final int capacity;
+        private final AtomicInteger pending = new AtomicInteger();
+        private int position;
+
+        private Segment(int id, File file, MappedByteBuffer buffer, int capacity) {
+            this.id = id;
+            this.file = file;
+            this.buffer = buffer;
+            this.capacity = capacity;
+        }
+    }
+}
@@ -0,0 +1,690 @@
+package org.example.chatai.common;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 按用户分区的磁盘倒排索引
+ * <p>
+ * 词项键为 userId + '\u0001' + term，倒排表是该用户包含此词项的文档 ID（递增、差值变长编码），
+ * 所以一次查询只读当前用户的倒排表，耗时与用户自己的记录数有关，与总记录数无关。
+ * <p>
+ * 新文档先进内存缓冲，攒够 flushDocs 条写成一个不可变分段（.dic 有序词典、.pst 倒排表、.idx 稀疏索引），
+ * 同一层级的分段数达到 mergeFactor 时在后台线程多路归并成上一层级的大分段，分段数量保持在对数级别。
+ * 查询时稀疏索引在内存里二分定位词典块，每个分段每个词项只需两次定位读。
+ * 清单文件（manifest）原子替换，记录分段列表和已索引的最大文档 ID，进程重启后从该 ID 之后补建。
+ */
+@Slf4j
+public class InvertedIndex implements Closeable {
+
+    private static final String MANIFEST = "manifest";
+    private static final char KEY_SEPARATOR = '\u0001';
+    // 稀疏索引每隔多少个词典项记录一次
+    private static final int BLOCK_ENTRIES = 64;
+
+    private final File dir;
+    private final int flushDocs;
+    private final int mergeFactor;
+    private final ExecutorService merger;
+
+    private Map<String, LongList> buffer = new HashMap<>();
+    private int bufferedDocs;
+    private long maxDocId;
+    // 已写入分段的最大文档 ID，清单里只记录这个
+    private long flushedMaxDocId;
+    private int nextSegmentId;
+    private volatile List<Segment> segments = Collections.emptyList();
+    private boolean merging;
+
+    public InvertedIndex(File dir, int flushDocs, int mergeFactor) throws IOException {
+        this.dir = dir;
+        this.flushDocs = flushDocs;
+        this.mergeFactor = Math.max(2, mergeFactor);
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("无法创建索引目录: " + dir.getAbsolutePath());
+        }
+        this.merger = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "chat-search-merge");
+            thread.setDaemon(true);
+            return thread;
+        });
+        loadManifest();
+    }
+
+    /**
+     * 索引一条文档，文档 ID 需大于 0
+     */
+    public synchronized void add(long docId, String userId, Collection<String> terms) throws IOException {
+        for (String term : terms) {
+            buffer.computeIfAbsent(key(userId, term), k -> new LongList()).add(docId);
+        }
+        bufferedDocs++;
+        maxDocId = Math.max(maxDocId, docId);
+        if (bufferedDocs >= flushDocs) {
+            flush();
+        }
+    }
+
+    /**
+     * 把内存缓冲写成分段并更新清单
+     */
+    public synchronized void flush() throws IOException {
+        if (bufferedDocs == 0) {
+            return;
+        }
+        List<String> keys = new ArrayList<>(buffer.keySet());
+        Collections.sort(keys);
+        String name = "seg-" + (nextSegmentId++);
+        try (SegmentWriter writer = new SegmentWriter(dir, name)) {
+            for (String key : keys) {
+                writer.add(key, buffer.get(key).sortedUnique());
+            }
+            writer.docs = bufferedDocs;
+        }
+        List<Segment> next = new ArrayList<>(segments);
+        next.add(Segment.open(dir, name, bufferedDocs));
+        segments = next;
+        buffer = new HashMap<>();
+        bufferedDocs = 0;
+        flushedMaxDocId = maxDocId;
+        writeManifest();
+        maybeMerge();
+    }
+
+    /**
+     * 查询某个用户同时包含全部词项的文档 ID，按 ID 倒序返回最多 limit 个
+     */
+    public List<Long> search(String userId, Collection<String> terms, int limit) throws IOException {
+        if (terms.isEmpty()) {
+            return Collections.emptyList();
+        }
+        try {
+            return doSearch(userId, terms, limit);
+        } catch (ClosedChannelException e) {
+            // 查询期间分段被合并替换，用新的分段列表重试一次
+            return doSearch(userId, terms, limit);
+        }
+    }
+
+    private List<Long> doSearch(String userId, Collection<String> terms, int limit) throws IOException {
+        List<Segment> snapshot;
+        Map<String, long[]> buffered = new HashMap<>();
+        synchronized (this) {
+            snapshot = segments;
+            for (String term : terms) {
+                LongList list = buffer.get(key(userId, term));
+                if (list != null) {
+                    buffered.put(term, list.sortedUnique());
+                }
+            }
+        }
+        long[] result = null;
+        // 逐个词项取并集（跨分段）后求交集
+        for (String term : terms) {
+            String key = key(userId, term);
+            List<long[]> parts = new ArrayList<>();
+            for (Segment segment : snapshot) {
+                long[] postings = segment.postings(key);
+                if (postings != null) {
+                    parts.add(postings);
+                }
+            }
+            if (buffered.containsKey(term)) {
+                parts.add(buffered.get(term));
+            }
+            long[] union = union(parts);
+            result = result == null ? union : intersect(result, union);
+            if (result.length == 0) {
+                return Collections.emptyList();
+            }
+        }
+        List<Long> ids = new ArrayList<>(Math.min(limit, result.length));
+        for (int i = result.length - 1; i >= 0 && ids.size() < limit; i--) {
+            ids.add(result[i]);
+        }
+        return ids;
+    }
+
+    public synchronized long getMaxDocId() {
+        return maxDocId;
+    }
+
+    public synchronized Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long docs = 0;
+        long keys = 0;
+        long bytes = 0;
+        for (Segment segment : segments) {
+            docs += segment.docs;
+            keys += segment.keyCount;
+            bytes += segment.bytes();
+        }
+        stats.put("dir", dir.getAbsolutePath());
+        stats.put("segments", segments.size());
+        stats.put("segmentDocs", docs);
+        stats.put("segmentKeys", keys);
+        stats.put("diskBytes", bytes);
+        stats.put("bufferedDocs", bufferedDocs);
+        stats.put("bufferedKeys", buffer.size());
+        stats.put("maxDocId", maxDocId);
+        stats.put("merging", merging);
+        return stats;
+    }
+
+    @Override
+    public void close() throws IOException {
+        merger.shutdown();
+        try {
+            merger.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            flush();
+            for (Segment segment : segments) {
+                segment.close();
+            }
+        }
+    }
+
+    /**
+     * 关闭并删除整个索引目录（重建完成后清理旧索引）
+     */
+    public void destroy() throws IOException {
+        close();
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                Files.deleteIfExists(file.toPath());
+            }
+        }
+        Files.deleteIfExists(dir.toPath());
+    }
+
+    // 分段按文档数分层（每 mergeFactor 倍一层），同层凑够 mergeFactor 个就合并
+    private void maybeMerge() {
+        if (merging || merger.isShutdown()) {
+            return;
+        }
+        Map<Integer, List<Segment>> levels = new HashMap<>();
+        for (Segment segment : segments) {
+            int level = 0;
+            for (long docs = segment.docs; docs >= (long) flushDocs * mergeFactor; docs /= mergeFactor) {
+                level++;
+            }
+            levels.computeIfAbsent(level, k -> new ArrayList<>()).add(segment);
+        }
+        for (List<Segment> level : levels.values()) {
+            if (level.size() >= mergeFactor) {
+                List<Segment> sources = new ArrayList<>(level.subList(0, mergeFactor));
+                String name = "seg-" + (nextSegmentId++);
+                merging = true;
+                merger.execute(() -> merge(sources, name));
+                return;
+            }
+        }
+    }
+
+    private void merge(List<Segment> sources, String name) {
+        long start = System.currentTimeMillis();
+        try {
+            long docs = 0;
+            try (SegmentWriter writer = new SegmentWriter(dir, name)) {
+                PriorityQueue<SegmentCursor> queue = new PriorityQueue<>((a, b) -> a.key.compareTo(b.key));
+                for (Segment source : sources) {
+                    docs += source.docs;
+                    SegmentCursor cursor = new SegmentCursor(source);
+                    if (cursor.next()) {
+                        queue.add(cursor);
+                    } else {
+                        cursor.close();
+                    }
+                }
+                List<long[]> parts = new ArrayList<>();
+                while (!queue.isEmpty()) {
+                    String key = queue.peek().key;
+                    parts.clear();
+                    while (!queue.isEmpty() && queue.peek().key.equals(key)) {
+                        SegmentCursor cursor = queue.poll();
+                        parts.add(cursor.postings);
+                        if (cursor.next()) {
+                            queue.add(cursor);
+                        } else {
+                            cursor.close();
+                        }
+                    }
+                    writer.add(key, union(parts));
+                }
+                writer.docs = docs;
+            }
+            Segment merged = Segment.open(dir, name, docs);
+            synchronized (this) {
+                List<Segment> next = new ArrayList<>(segments);
+                next.removeAll(sources);
+                next.add(merged);
+                segments = next;
+                writeManifest();
+                merging = false;
+            }
+            // 正在读旧分段的查询会收到 ClosedChannelException 并用新分段列表重试
+            for (Segment source : sources) {
+                source.close();
+                source.delete();
+            }
+            log.info("合并 {} 个索引分段为 {}，文档 {} 条，耗时 {} ms", sources.size(), name, docs,
+                    System.currentTimeMillis() - start);
+            synchronized (this) {
+                maybeMerge();
+            }
+        } catch (Exception e) {
+            log.error("合并索引分段失败", e);
+            synchronized (this) {
+                merging = false;
+            }
+        }
+    }
+
+    private void loadManifest() throws IOException {
+        File manifest = new File(dir, MANIFEST);
+        if (!manifest.exists()) {
+            return;
+        }
+        List<Segment> loaded = new ArrayList<>();
+        for (String line : Files.readAllLines(manifest.toPath(), StandardCharsets.UTF_8)) {
+            String[] parts = line.split("=", 2);
+            if (parts.length != 2) {
+                continue;
+            }
+            switch (parts[0]) {
+                case "maxDocId":
+                    maxDocId = Long.parseLong(parts[1]);
+                    flushedMaxDocId = maxDocId;
+                    break;
+                case "nextSegment":
+                    nextSegmentId = Integer.parseInt(parts[1]);
+                    break;
+                case "segment":
+                    String[] segment = parts[1].split(",");
+                    loaded.add(Segment.open(dir, segment[0], Long.parseLong(segment[1])));
+                    break;
+                default:
+                    break;
+            }
+        }
+        segments = loaded;
+    }
+
+    private void writeManifest() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        sb.append("maxDocId=").append(flushedMaxDocId).append('\n');
+        sb.append("nextSegment=").append(nextSegmentId).append('\n');
+        for (Segment segment : segments) {
+            sb.append("segment=").append(segment.name).append(',').append(segment.docs).append('\n');
+        }
+        File tmp = new File(dir, MANIFEST + ".tmp");
+        Files.write(tmp.toPath(), sb.toString().getBytes(StandardCharsets.UTF_8));
+        Files.move(tmp.toPath(), new File(dir, MANIFEST).toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static String key(String userId, String term) {
+        return userId + KEY_SEPARATOR + term;
+    }
+
+    private static long[] union(List<long[]> parts) {
+        if (parts.isEmpty()) {
+            return new long[0];
+        }
+        if (parts.size() == 1) {
+            return parts.get(0);
+        }
+        int total = 0;
+        for (long[] part : parts) {
+            total += part.length;
+        }
+        long[] all = new long[total];
+        int n = 0;
+        for (long[] part : parts) {
+            System.arraycopy(part, 0, all, n, part.length);
+            n += part.length;
+        }
+        Arrays.sort(all);
+        return dedupe(all, all.length);
+    }
+
+    private static long[] intersect(long[] a, long[] b) {
+        long[] out = new long[Math.min(a.length, b.length)];
+        int i = 0;
+        int j = 0;
+        int n = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                out[n++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(out, n);
+    }
+
+    private static long[] dedupe(long[] sorted, int length) {
+        int n = 0;
+        for (int i = 0; i < length; i++) {
+            if (n == 0 || sorted[n - 1] != sorted[i]) {
+                sorted[n++] = sorted[i];
+            }
+        }
+        return n == sorted.length ? sorted : Arrays.copyOf(sorted, n);
+    }
+
+    private static void writeVarLong(OutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static long readVarLong(InputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException();
+            }
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+    }
+
+    private static long[] decodePostings(byte[] bytes, int count) throws IOException {
+        long[] ids = new long[count];
+        ByteArrayInputStream in = new ByteArrayInputStream(bytes);
+        long previous = 0;
+        for (int i = 0; i < count; i++) {
+            previous += readVarLong(in);
+            ids[i] = previous;
+        }
+        return ids;
+    }
+
+    private static final class LongList {
+        private long[] values = new long[2];
+        private int size;
+
+        private void add(long value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        private long[] sortedUnique() {
+            long[] copy = Arrays.copyOf(values, size);
+            Arrays.sort(copy);
+            return dedupe(copy, copy.length);
+        }
+    }
+
+    /**
+     * 顺序写分段：倒排表与词典同时按键序追加，每 BLOCK_ENTRIES 项记一条稀疏索引
+     */
+    private static final class SegmentWriter implements Closeable {
+        private final FileOutputStream dicFile;
+        private final FileOutputStream pstFile;
+        private final FileOutputStream idxFile;
+        private final CountingOutputStream dicCounter;
+        private final DataOutputStream dic;
+        private final CountingOutputStream pst;
+        private final ByteArrayOutputStream postingsBuffer = new ByteArrayOutputStream();
+        private final ByteArrayOutputStream idxBuffer = new ByteArrayOutputStream();
+        private int entries;
+        private long docs;
+
+        private SegmentWriter(File dir, String name) throws IOException {
+            dicFile = new FileOutputStream(new File(dir, name + ".dic"));
+            pstFile = new FileOutputStream(new File(dir, name + ".pst"));
+            idxFile = new FileOutputStream(new File(dir, name + ".idx"));
+            dicCounter = new CountingOutputStream(new BufferedOutputStream(dicFile, 1 << 16));
+            dic = new DataOutputStream(dicCounter);
+            pst = new CountingOutputStream(new BufferedOutputStream(pstFile, 1 << 16));
+        }
+
+        private void add(String key, long[] ids) throws IOException {
+            if (ids.length == 0) {
+                return;
+            }
+            if (entries % BLOCK_ENTRIES == 0) {
+                DataOutputStream out = new DataOutputStream(idxBuffer);
+                out.writeUTF(key);
+                out.writeLong(dicCounter.count);
+            }
+            postingsBuffer.reset();
+            long previous = 0;
+            for (long id : ids) {
+                writeVarLong(postingsBuffer, id - previous);
+                previous = id;
+            }
+            dic.writeUTF(key);
+            writeVarLong(dic, pst.count);
+            writeVarLong(dic, postingsBuffer.size());
+            writeVarLong(dic, ids.length);
+            postingsBuffer.writeTo(pst);
+            entries++;
+        }
+
+        // 写清单前先把分段文件刷到磁盘，清单引用的分段一定完整
+        @Override
+        public void close() throws IOException {
+            DataOutputStream idx = new DataOutputStream(new BufferedOutputStream(idxFile));
+            idx.writeInt((entries + BLOCK_ENTRIES - 1) / BLOCK_ENTRIES);
+            idx.writeInt(entries);
+            idxBuffer.writeTo(idx);
+            dic.flush();
+            pst.flush();
+            idx.flush();
+            dicFile.getFD().sync();
+            pstFile.getFD().sync();
+            idxFile.getFD().sync();
+            dic.close();
+            pst.close();
+            idx.close();
+        }
+    }
+
+    private static final class CountingOutputStream extends FilterOutputStream {
+        private long count;
+
+        private CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+
+    /**
+     * 只读分段：稀疏索引常驻内存，词典块与倒排表按需定位读
+     */
+    private static final class Segment {
+        private final File dir;
+        private final String name;
+        private final long docs;
+        private final int keyCount;
+        private final String[] blockKeys;
+        private final long[] blockOffsets;
+        private final FileChannel dic;
+        private final FileChannel pst;
+        private final long dicLength;
+
+        private Segment(File dir, String name, long docs, int keyCount, String[] blockKeys, long[] blockOffsets,
+                        FileChannel dic, FileChannel pst) throws IOException {
+            this.dir = dir;
+            this.name = name;
+            this.docs = docs;
+            this.keyCount = keyCount;
+            this.blockKeys = blockKeys;
+            this.blockOffsets = blockOffsets;
+            this.dic = dic;
+            this.pst = pst;
+            this.dicLength = dic.size();
+        }
+
+        private static Segment open(File dir, String name, long docs) throws IOException {
+            try (DataInputStream idx = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(new File(dir, name + ".idx"))))) {
+                int blocks = idx.readInt();
+                int keyCount = idx.readInt();
+                String[] blockKeys = new String[blocks];
+                long[] blockOffsets = new long[blocks];
+                for (int i = 0; i < blocks; i++) {
+                    blockKeys[i] = idx.readUTF();
+                    blockOffsets[i] = idx.readLong();
+                }
+                return new Segment(dir, name, docs, keyCount, blockKeys, blockOffsets,
+                        FileChannel.open(new File(dir, name + ".dic").toPath(), StandardOpenOption.READ),
+                        FileChannel.open(new File(dir, name + ".pst").toPath(), StandardOpenOption.READ));
+            }
+        }
+
+        private long[] postings(String key) throws IOException {
+            int block = Arrays.binarySearch(blockKeys, key);
+            if (block < 0) {
+                block = -block - 2;
+            }
+            if (block < 0) {
+                return null;
+            }
+            long start = blockOffsets[block];
+            long end = block + 1 < blockOffsets.length ? blockOffsets[block + 1] : dicLength;
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(read(dic, start, (int) (end - start))));
+            while (in.available() > 0) {
+                String entryKey = in.readUTF();
+                long offset = readVarLong(in);
+                int length = (int) readVarLong(in);
+                int count = (int) readVarLong(in);
+                int cmp = entryKey.compareTo(key);
+                if (cmp == 0) {
+                    return decodePostings(read(pst, offset, length), count);
+                }
+                if (cmp > 0) {
+                    return null;
+                }
+            }
+            return null;
+        }
+
+        private long bytes() {
+            long bytes = 0;
+            for (String suffix : new String[]{".dic", ".pst", ".idx"}) {
+                bytes += new File(dir, name + suffix).length();
+            }
+            return bytes;
+        }
+
+        private void close() throws IOException {
+            dic.close();
+            pst.close();
+        }
+
+        private void delete() throws IOException {
+            for (String suffix : new String[]{".dic", ".pst", ".idx"}) {
+                Files.deleteIfExists(new File(dir, name + suffix).toPath());
+            }
+        }
+
+        private static byte[] read(FileChannel channel, long position, int length) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(length);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position()) < 0) {
+                    throw new EOFException();
+                }
+            }
+            return buffer.array();
+        }
+    }
+
+    /**
+     * 合并时顺序读取一个分段的词典与倒排表
+     */
+    private static final class SegmentCursor implements Closeable {
+        private final DataInputStream dic;
+        private final DataInputStream pst;
+        private String key;
+        private long[] postings;
+
+        private SegmentCursor(Segment segment) throws IOException {
+            dic = new DataInputStream(new BufferedInputStream(new FileInputStream(new File(segment.dir, segment.name + ".dic")), 1 << 16));
+            pst = new DataInputStream(new BufferedInputStream(new FileInputStream(new File(segment.dir, segment.name + ".pst")), 1 << 16));
+        }
+
+        private boolean next() throws IOException {
+            if (dic.available() <= 0) {
+                return false;
+            }
+            key = dic.readUTF();
+            readVarLong(dic);
+            int length = (int) readVarLong(dic);
+            int count = (int) readVarLong(dic);
+            byte[] bytes = new byte[length];
+            pst.readFully(bytes);
+            postings = decodePostings(bytes, count);
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            dic.close();
+            pst.close();
+        }
+    }
+}
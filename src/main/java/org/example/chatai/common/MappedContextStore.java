@@ -0,0 +1,349 @@
+package org.example.chatai.common;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+
+/**
+ * 本机内存映射的对话上下文存储
+ * <p>
+ * 上下文写在一个固定大小的映射文件里（堆外，不占 JVM 堆），按环形日志组织：每次追加把该用户的全部轮次
+ * （{@link ContextCodec} 编码）连同过期时间写成一条新记录，旧记录作废；写满后从头覆盖最早的记录，
+ * 总占用不超过 capacity-bytes，被覆盖的用户视为淘汰。堆上只保留用户到记录位置的索引。
+ * 进程重启后页缓存中的写入不会丢，启动时从文件头记录的最早位置扫描重建索引（不防整机掉电）。
+ * <p>
+ * 文件头：[int 魔数][int 版本][int 最早记录位置][int 写入位置][int 环内记录数]；
+ * 记录：[int 正文长度][long 过期时间][int 正文 CRC32][正文：short 用户长度、用户、short 轮数、各轮 int 长度 + 内容]。
+ * 与入站日志一样长度最后写入，写到一半的记录不会被当作有效记录；长度为 -1 表示此处折回文件开头。
+ */
+@Slf4j
+@Component
+public class MappedContextStore {
+
+    private static final int MAGIC = 0x43545831;
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_BYTES = 32;
+    private static final int RECORD_HEADER_BYTES = 4 + 8 + 4;
+    private static final int WRAP = -1;
+
+    private static final int OFFSET_HEAD = 8;
+    private static final int OFFSET_TAIL = 12;
+    private static final int OFFSET_RECORDS = 16;
+
+    // 只有 local / degrade 模式用到本地存储，redis 模式不创建文件
+    @Value("${chat.context.store:redis}")
+    private String store;
+
+    @Value("${chat.context.local.file:data/context/context.dat}")
+    private String path;
+
+    @Value("${chat.context.local.capacity-bytes:67108864}")
+    private int capacity;
+
+    private MappedByteBuffer buffer;
+    // 用户 -> 最新记录位置
+    private final Map<String, Integer> index = new HashMap<>();
+    private int head;
+    private int tail;
+    private int records;
+    private long liveBytes;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder expired = new LongAdder();
+    private final LongAdder evicted = new LongAdder();
+    private final LongAdder appends = new LongAdder();
+    private final LongAdder appendNanos = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+
+    @PostConstruct
+    public void init() throws IOException {
+        if (!isEnabled()) {
+            return;
+        }
+        File file = new File(path);
+        File directory = file.getAbsoluteFile().getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("无法创建本地上下文目录: " + directory.getAbsolutePath());
+        }
+        boolean exists = file.isFile() && file.length() == capacity;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw"); FileChannel channel = raf.getChannel()) {
+            if (!exists) {
+                // 容量变化时旧文件作废，上下文从 Redis / 聊天记录重新积累
+                raf.setLength(0);
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        }
+        if (exists && buffer.getInt(0) == MAGIC && buffer.getInt(4) == FORMAT_VERSION) {
+            scan();
+            log.info("本地上下文存储已加载 {} 个用户，占用 {} / {} 字节", index.size(), usedBytes(), capacity);
+        } else {
+            head = HEADER_BYTES;
+            tail = HEADER_BYTES;
+            records = 0;
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, FORMAT_VERSION);
+            writeHeader();
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        if (buffer != null) {
+            buffer.force();
+        }
+    }
+
+    public boolean isEnabled() {
+        return !"redis".equalsIgnoreCase(store);
+    }
+
+    /**
+     * 读取用户的各轮编码，不存在或已过期返回 null
+     */
+    public synchronized List<byte[]> get(String userId) {
+        Integer offset = index.get(userId);
+        if (offset == null) {
+            misses.increment();
+            return null;
+        }
+        if (buffer.getLong(offset + 4) <= System.currentTimeMillis()) {
+            remove(userId, offset);
+            expired.increment();
+            return null;
+        }
+        buffer.position(offset + RECORD_HEADER_BYTES);
+        buffer.position(buffer.position() + 2 + buffer.getShort(buffer.position()));
+        int count = buffer.getShort();
+        List<byte[]> turns = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            byte[] turn = new byte[buffer.getInt()];
+            buffer.get(turn);
+            turns.add(turn);
+        }
+        hits.increment();
+        return turns;
+    }
+
+    /**
+     * 在已有轮次后追加一轮，只保留最近 maxTurns 轮并刷新过期时间
+     */
+    public synchronized void append(String userId, byte[] turn, int maxTurns, long ttlMillis) {
+        List<byte[]> turns = get(userId);
+        if (turns == null) {
+            turns = new ArrayList<>(1);
+        }
+        turns.add(turn);
+        if (turns.size() > maxTurns) {
+            turns = new ArrayList<>(turns.subList(turns.size() - maxTurns, turns.size()));
+        }
+        put(userId, turns, ttlMillis);
+    }
+
+    /**
+     * 整体写入用户的各轮；超过文件容量时从最早的轮次开始丢弃
+     */
+    public synchronized void put(String userId, List<byte[]> turns, long ttlMillis) {
+        long start = System.nanoTime();
+        byte[] id = userId.getBytes(StandardCharsets.UTF_8);
+        int from = 0;
+        int bodyLength = bodyLength(id, turns, from);
+        while (RECORD_HEADER_BYTES + bodyLength > capacity - HEADER_BYTES && from < turns.size()) {
+            bodyLength -= 4 + turns.get(from++).length;
+        }
+        if (from == turns.size()) {
+            dropped.increment();
+            log.warn("用户 [{}] 的上下文超过本地存储容量，不写入", userId);
+            return;
+        }
+        int recordBytes = RECORD_HEADER_BYTES + bodyLength;
+        int offset = reserve(recordBytes);
+
+        buffer.position(offset + RECORD_HEADER_BYTES);
+        buffer.putShort((short) id.length);
+        buffer.put(id);
+        buffer.putShort((short) (turns.size() - from));
+        for (int i = from; i < turns.size(); i++) {
+            byte[] turn = turns.get(i);
+            buffer.putInt(turn.length);
+            buffer.put(turn);
+        }
+        buffer.putLong(offset + 4, System.currentTimeMillis() + ttlMillis);
+        buffer.putInt(offset + 12, crc(offset + RECORD_HEADER_BYTES, bodyLength));
+        // 长度最后写，之前的内容都写完才算一条有效记录
+        buffer.putInt(offset, bodyLength);
+
+        Integer previous = index.put(userId, offset);
+        if (previous != null) {
+            liveBytes -= RECORD_HEADER_BYTES + buffer.getInt(previous);
+        }
+        liveBytes += recordBytes;
+        tail = offset + recordBytes;
+        records++;
+        writeHeader();
+        appends.increment();
+        appendNanos.add(System.nanoTime() - start);
+    }
+
+    public synchronized Map<String, Object> stats() {
+        long count = appends.sum();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", isEnabled());
+        stats.put("capacityBytes", capacity);
+        stats.put("usedBytes", usedBytes());
+        stats.put("liveBytes", liveBytes);
+        stats.put("users", index.size());
+        stats.put("hits", hits.sum());
+        stats.put("misses", misses.sum());
+        stats.put("expired", expired.sum());
+        stats.put("evicted", evicted.sum());
+        stats.put("dropped", dropped.sum());
+        stats.put("appends", count);
+        stats.put("avgAppendMicros", count == 0 ? 0 : appendNanos.sum() / count / 1000.0);
+        return stats;
+    }
+
+    // 为 recordBytes 字节的新记录腾出位置并返回写入位置：放不下就折回开头，覆盖到的最早记录依次淘汰
+    private int reserve(int recordBytes) {
+        if (tail + recordBytes > capacity) {
+            // 折回前，写入位置之后的记录（环已经绕过一圈时）都会被覆盖
+            while (records > 0 && head >= tail) {
+                evictHead();
+            }
+            if (capacity - tail >= 4) {
+                buffer.putInt(tail, WRAP);
+            }
+            tail = HEADER_BYTES;
+        }
+        while (records > 0 && head >= tail && head < tail + recordBytes) {
+            evictHead();
+        }
+        if (records == 0) {
+            head = tail;
+        }
+        writeHeader();
+        return tail;
+    }
+
+    private void evictHead() {
+        if (capacity - head < 4 || buffer.getInt(head) == WRAP) {
+            head = HEADER_BYTES;
+            return;
+        }
+        int length = buffer.getInt(head);
+        String userId = userId(head);
+        if (index.remove(userId, head)) {
+            liveBytes -= RECORD_HEADER_BYTES + length;
+            // 过期的记录不算被淘汰
+            if (buffer.getLong(head + 4) > System.currentTimeMillis()) {
+                evicted.increment();
+            }
+        }
+        head += RECORD_HEADER_BYTES + length;
+        records--;
+    }
+
+    // 从最早的记录开始按写入顺序扫描，同一用户后写的覆盖先写的；遇到损坏的记录即视为写入位置
+    private void scan() {
+        head = buffer.getInt(OFFSET_HEAD);
+        int count = buffer.getInt(OFFSET_RECORDS);
+        int offset = head;
+        int valid = 0;
+        boolean wrapped = false;
+        long now = System.currentTimeMillis();
+        while (valid < count) {
+            if (capacity - offset < 4 || buffer.getInt(offset) == WRAP) {
+                if (wrapped) {
+                    break;
+                }
+                wrapped = true;
+                offset = HEADER_BYTES;
+                continue;
+            }
+            int length = buffer.getInt(offset);
+            if (length <= 0 || offset + RECORD_HEADER_BYTES + length > capacity
+                    || buffer.getInt(offset + 12) != crc(offset + RECORD_HEADER_BYTES, length)) {
+                log.warn("本地上下文存储在位置 {} 的记录损坏，之后的 {} 条记录丢弃", offset, count - valid);
+                break;
+            }
+            String userId = userId(offset);
+            Integer previous = index.remove(userId);
+            if (previous != null) {
+                liveBytes -= RECORD_HEADER_BYTES + buffer.getInt(previous);
+            }
+            if (buffer.getLong(offset + 4) > now) {
+                index.put(userId, offset);
+                liveBytes += RECORD_HEADER_BYTES + length;
+            }
+            offset += RECORD_HEADER_BYTES + length;
+            valid++;
+        }
+        tail = offset;
+        records = valid;
+        if (records == 0) {
+            head = tail;
+        }
+        writeHeader();
+    }
+
+    private void remove(String userId, int offset) {
+        if (index.remove(userId, offset)) {
+            liveBytes -= RECORD_HEADER_BYTES + buffer.getInt(offset);
+        }
+    }
+
+    private String userId(int offset) {
+        int length = buffer.getShort(offset + RECORD_HEADER_BYTES);
+        byte[] id = new byte[length];
+        buffer.position(offset + RECORD_HEADER_BYTES + 2);
+        buffer.get(id);
+        return new String(id, StandardCharsets.UTF_8);
+    }
+
+    private int crc(int offset, int length) {
+        ByteBuffer body = buffer.duplicate();
+        body.limit(offset + length);
+        body.position(offset);
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        return (int) crc.getValue();
+    }
+
+    private void writeHeader() {
+        buffer.putInt(OFFSET_HEAD, head);
+        buffer.putInt(OFFSET_TAIL, tail);
+        buffer.putInt(OFFSET_RECORDS, records);
+    }
+
+    private long usedBytes() {
+        if (records == 0) {
+            return 0;
+        }
+        return head < tail ? tail - head : capacity - head + tail - HEADER_BYTES;
+    }
+
+    private static int bodyLength(byte[] id, List<byte[]> turns, int from) {
+        int length = 2 + id.length + 2;
+        for (int i = from; i < turns.size(); i++) {
+            length += 4 + turns.get(i).length;
+        }
+        return length;
+    }
+}
@@ -0,0 +1,96 @@
+package org.example.chatai.common;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 检索分词：中文按单字 + 相邻二元组切分，字母数字按整词切分，统一小写
+ * <p>
+ * 不依赖词典，新词、错别字也能检索；查询时优先用二元组（更有区分度），单字查询才用单字。
+ */
+public final class NgramTokenizer {
+
+    private NgramTokenizer() {
+    }
+
+    /**
+     * 文档分词：去重后的全部单字、二元组和整词
+     */
+    public static Set<String> indexTerms(String text) {
+        Set<String> terms = new LinkedHashSet<>();
+        if (text == null) {
+            return terms;
+        }
+        for (String run : runs(text)) {
+            if (isCjk(run.charAt(0))) {
+                for (int i = 0; i < run.length(); i++) {
+                    terms.add(run.substring(i, i + 1));
+                    if (i + 1 < run.length()) {
+                        terms.add(run.substring(i, i + 2));
+                    }
+                }
+            } else {
+                terms.add(run);
+            }
+        }
+        return terms;
+    }
+
+    /**
+     * 查询分词：中文连续两字以上只取二元组，所有词项都要命中
+     */
+    public static Set<String> queryTerms(String query) {
+        Set<String> terms = new LinkedHashSet<>();
+        if (query == null) {
+            return terms;
+        }
+        for (String run : runs(query)) {
+            if (isCjk(run.charAt(0)) && run.length() > 1) {
+                for (int i = 0; i + 1 < run.length(); i++) {
+                    terms.add(run.substring(i, i + 2));
+                }
+            } else {
+                terms.add(run);
+            }
+        }
+        return terms;
+    }
+
+    /**
+     * 切成连续的中文段和字母数字段（小写），其余字符作为分隔；检索回表校验时按同样的切分比对原文
+     */
+    public static List<String> runs(String text) {
+        List<String> runs = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        boolean cjk = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            boolean isCjk = isCjk(c);
+            boolean isWord = !isCjk && Character.isLetterOrDigit(c);
+            if ((!isCjk && !isWord) || (current.length() > 0 && cjk != isCjk)) {
+                if (current.length() > 0) {
+                    runs.add(current.toString());
+                    current.setLength(0);
+                }
+            }
+            if (isCjk || isWord) {
+                current.append(Character.toLowerCase(c));
+                cjk = isCjk;
+            }
+        }
+        if (current.length() > 0) {
+            runs.add(current.toString());
+        }
+        return runs;
+    }
+
+    private static boolean isCjk(char c) {
+        Character.UnicodeScript script = Character.UnicodeScript.of(c);
+        return script == Character.UnicodeScript.HAN
+                || script == Character.UnicodeScript.HIRAGANA
+                || script == Character.UnicodeScript.KATAKANA
+                || script == Character.UnicodeScript.HANGUL;
+    }
+}
@@ -0,0 +1,294 @@
+package org.example.chatai.common;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.example.chatai.chat.req.OpenAIRequest;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * OpenAI 请求 / 响应编解码
+ * <p>
+ * 请求用预先构建好的 ObjectWriter 直接写入请求体（HTTP 客户端缓冲后带 Content-Length 发送），只序列化一次，不经过中间字符串；
+ * 响应用流式解析器只取 choices[0].message.content、finish_reason 和 usage，其余字段整段跳过，不做完整的对象绑定。
+ * 流式响应（stream=true，SSE）逐条解析 delta，可在回答达到字节预算时停止读取。
+ */
+@Component
+public class OpenAICodec {
+
+    private final ObjectWriter requestWriter;
+    private final JsonFactory jsonFactory;
+
+    private final LongAdder writes = new LongAdder();
+    private final LongAdder writeNanos = new LongAdder();
+    private final LongAdder reads = new LongAdder();
+    private final LongAdder readNanos = new LongAdder();
+    private final LongAdder streams = new LongAdder();
+    private final LongAdder streamCutoffs = new LongAdder();
+    private final LongAdder promptTokens = new LongAdder();
+    private final LongAdder completionTokens = new LongAdder();
+
+    /**
+     * 响应中用到的部分，content 为空表示没有回答
+     */
+    public static final class Answer {
+        private String content;
+        private int promptTokens;
+        private int completionTokens;
+        private int totalTokens;
+        private String finishReason;
+        // 以下仅流式响应：是否因达到字节预算而提前停止读取、收到的内容分片数、首个分片到停止读取的耗时
+        private boolean cutoff;
+        private int chunks;
+        private long streamNanos;
+
+        public String getContent() {
+            return content;
+        }
+
+        public String getFinishReason() {
+            return finishReason;
+        }
+
+        public boolean isCutoff() {
+            return cutoff;
+        }
+
+        public int getChunks() {
+            return chunks;
+        }
+
+        public long getStreamNanos() {
+            return streamNanos;
+        }
+
+        public int getPromptTokens() {
+            return promptTokens;
+        }
+
+        public int getCompletionTokens() {
+            return completionTokens;
+        }
+
+        public int getTotalTokens() {
+            return totalTokens;
+        }
+    }
+
+    public OpenAICodec(ObjectMapper objectMapper) {
+        // 输出流由 HTTP 客户端管理，写完不关闭
+        this.requestWriter = objectMapper.writerFor(OpenAIRequest.class)
+                .without(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        this.jsonFactory = objectMapper.getFactory();
+    }
+
+    public void writeRequest(OpenAIRequest request, OutputStream out) throws IOException {
+        long start = System.nanoTime();
+        requestWriter.writeValue(out, request);
+        writes.increment();
+        writeNanos.add(System.nanoTime() - start);
+    }
+
+    /**
+     * 仅用于调试日志，调用方先判断日志级别
+     */
+    public String render(OpenAIRequest request) throws IOException {
+        return requestWriter.writeValueAsString(request);
+    }
+
+    public Answer readAnswer(InputStream in) throws IOException {
+        long start = System.nanoTime();
+        Answer answer = new Answer();
+        try (JsonParser parser = jsonFactory.createParser(in)) {
+            readObject(parser, answer);
+        }
+        reads.increment();
+        readNanos.add(System.nanoTime() - start);
+        promptTokens.add(answer.promptTokens);
+        completionTokens.add(answer.completionTokens);
+        return answer;
+    }
+
+    /**
+     * 读取 SSE 流式响应，回答的 UTF-8 字节数达到 budgetBytes（大于 0 时）即停止读取并标记 cutoff，
+     * 由调用方关闭响应流以断开上游连接。流中没有 usage 时以内容分片数估算 completion tokens（每个分片约一个 token）
+     */
+    public Answer readStream(InputStream in, int budgetBytes) throws IOException {
+        long start = System.nanoTime();
+        Answer answer = new Answer();
+        StringBuilder content = new StringBuilder();
+        long bytes = 0;
+        long firstChunkNanos = 0;
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (!line.startsWith("data:")) {
+                continue;
+            }
+            String data = line.substring(5).trim();
+            if ("[DONE]".equals(data)) {
+                break;
+            }
+            // 套接字读超时只约束单次读取，流式时逐块检查请求的截止时间
+            Deadline.check("upstream_stream");
+            Answer chunk = new Answer();
+            try (JsonParser parser = jsonFactory.createParser(data)) {
+                readObject(parser, chunk);
+            }
+            if (chunk.finishReason != null) {
+                answer.finishReason = chunk.finishReason;
+            }
+            if (chunk.totalTokens > 0) {
+                answer.promptTokens = chunk.promptTokens;
+                answer.completionTokens = chunk.completionTokens;
+                answer.totalTokens = chunk.totalTokens;
+            }
+            if (chunk.content != null && !chunk.content.isEmpty()) {
+                if (firstChunkNanos == 0) {
+                    firstChunkNanos = System.nanoTime();
+                }
+                content.append(chunk.content);
+                answer.chunks++;
+                bytes += utf8Length(chunk.content);
+                if (budgetBytes > 0 && bytes >= budgetBytes) {
+                    answer.cutoff = true;
+                    break;
+                }
+            }
+        }
+        if (firstChunkNanos != 0) {
+            answer.streamNanos = System.nanoTime() - firstChunkNanos;
+        }
+        answer.content = content.length() == 0 ? null : content.toString();
+        if (answer.completionTokens == 0) {
+            answer.completionTokens = answer.chunks;
+        }
+        streams.increment();
+        if (answer.cutoff) {
+            streamCutoffs.increment();
+        }
+        reads.increment();
+        readNanos.add(System.nanoTime() - start);
+        promptTokens.add(answer.promptTokens);
+        completionTokens.add(answer.completionTokens);
+        return answer;
+    }
+
+    /**
+     * 字符串按 UTF-8 编码的字节数，不实际编码
+     */
+    public static int utf8Length(CharSequence text) {
+        int length = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isSurrogate(c)) {
+                // 代理对两个 char 共 4 字节
+                length += 2;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    public Map<String, Object> stats() {
+        long writeCount = writes.sum();
+        long readCount = reads.sum();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("requestsWritten", writeCount);
+        stats.put("avgWriteMicros", writeCount == 0 ? 0 : writeNanos.sum() / writeCount / 1000.0);
+        stats.put("responsesRead", readCount);
+        stats.put("avgReadMicros", readCount == 0 ? 0 : readNanos.sum() / readCount / 1000.0);
+        stats.put("streamsRead", streams.sum());
+        stats.put("streamCutoffs", streamCutoffs.sum());
+        stats.put("promptTokens", promptTokens.sum());
+        stats.put("completionTokens", completionTokens.sum());
+        return stats;
+    }
+
+    private static void readObject(JsonParser parser, Answer answer) throws IOException {
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            return;
+        }
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            if ("choices".equals(field) && value == JsonToken.START_ARRAY) {
+                readChoices(parser, answer);
+            } else if ("usage".equals(field) && value == JsonToken.START_OBJECT) {
+                readUsage(parser, answer);
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    // 只取第一个 choice 的 message.content（流式响应为 delta.content）和 finish_reason，后面的 choice 直接跳过
+    private static void readChoices(JsonParser parser, Answer answer) throws IOException {
+        boolean first = true;
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            if (!first || parser.currentToken() != JsonToken.START_OBJECT) {
+                parser.skipChildren();
+                continue;
+            }
+            first = false;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if (("message".equals(field) || "delta".equals(field)) && value == JsonToken.START_OBJECT) {
+                    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                        String messageField = parser.getCurrentName();
+                        parser.nextToken();
+                        if ("content".equals(messageField)) {
+                            answer.content = parser.getValueAsString();
+                        } else {
+                            parser.skipChildren();
+                        }
+                    }
+                } else if ("finish_reason".equals(field)) {
+                    answer.finishReason = parser.getValueAsString();
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+    }
+
+    private static void readUsage(JsonParser parser, Answer answer) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            parser.nextToken();
+            switch (field) {
+                case "prompt_tokens":
+                    answer.promptTokens = parser.getValueAsInt();
+                    break;
+                case "completion_tokens":
+                    answer.completionTokens = parser.getValueAsInt();
+                    break;
+                case "total_tokens":
+                    answer.totalTokens = parser.getValueAsInt();
+                    break;
+                default:
+                    parser.skipChildren();
+                    break;
+            }
+        }
+    }
+}
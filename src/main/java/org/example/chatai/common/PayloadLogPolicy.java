@@ -0,0 +1,85 @@
+package org.example.chatai.common;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 热路径上报文类日志的输出策略
+ * <p>
+ * 报文默认截断到 max-length，按 full-sample-rate 的比例抽样输出完整内容；HTTP 客户端的调试日志只记方法与 URL，
+ * 需要输出请求头时先经 {@link #redact(HttpHeaders)} 把 Authorization 换成占位符。
+ */
+@Component
+public class PayloadLogPolicy {
+
+    private static final String REDACTED = "******";
+
+    @Value("${logging.payload.max-length:256}")
+    private int maxLength;
+
+    @Value("${logging.payload.full-sample-rate:0.01}")
+    private double fullSampleRate;
+
+    // 日志开销统计
+    private final LongAdder renderCount = new LongAdder();
+    private final LongAdder fullCount = new LongAdder();
+    private final LongAdder truncatedChars = new LongAdder();
+    private final LongAdder renderNanos = new LongAdder();
+
+    /**
+     * 按策略生成要写入日志的报文：抽中时输出全文，否则截断
+     */
+    public String render(String payload) {
+        if (payload == null) {
+            return null;
+        }
+        long start = System.nanoTime();
+        renderCount.increment();
+        String rendered;
+        if (payload.length() <= maxLength) {
+            rendered = payload;
+        } else if (fullSampleRate > 0 && ThreadLocalRandom.current().nextDouble() < fullSampleRate) {
+            fullCount.increment();
+            rendered = payload;
+        } else {
+            truncatedChars.add(payload.length() - maxLength);
+            rendered = payload.substring(0, maxLength) + "...(" + payload.length() + " chars)";
+        }
+        renderNanos.add(System.nanoTime() - start);
+        return rendered;
+    }
+
+    /**
+     * 返回 Authorization 已脱敏的请求头副本，没有该请求头时原样返回
+     */
+    public static HttpHeaders redact(HttpHeaders headers) {
+        if (!headers.containsKey(HttpHeaders.AUTHORIZATION)) {
+            return headers;
+        }
+        HttpHeaders copy = new HttpHeaders();
+        copy.putAll(headers);
+        copy.set(HttpHeaders.AUTHORIZATION, REDACTED);
+        return copy;
+    }
+
+    /**
+     * 日志开销统计
+     */
+    public Map<String, Object> stats() {
+        long count = renderCount.sum();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("maxLength", maxLength);
+        stats.put("fullSampleRate", fullSampleRate);
+        stats.put("renderCount", count);
+        stats.put("fullCount", fullCount.sum());
+        stats.put("truncatedChars", truncatedChars.sum());
+        stats.put("avgRenderNanos", count == 0 ? 0 : renderNanos.sum() / count);
+        return stats;
+    }
+}
@@ -0,0 +1,166 @@
+package org.example.chatai.common;
+
+import com.google.common.hash.Hashing;
+import org.apache.commons.lang3.StringUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 单个请求的分阶段耗时
+ * <p>
+ * 由 {@link RequestTimingFilter} 在请求开始时创建并绑定到当前线程，业务代码通过静态方法记录阶段耗时，
+ * 当前线程没有绑定时记录为空操作。切换线程时由调用方用 {@link #attach} 传递（见 FairRequestScheduler）。
+ * 同一请求的阶段按先后顺序记录，不会被并发写入。
+ * 解析出消息后通过 {@link #identify} 记下 openid 与 MsgId，供 {@link ChatEvents} 关联到具体的一次对话。
+ */
+public final class RequestTiming {
+
+    private static final ThreadLocal<RequestTiming> CURRENT = new ThreadLocal<>();
+
+    private final long startNanos = System.nanoTime();
+    private final long startMillis = System.currentTimeMillis();
+    private final String name;
+    private String[] phases = new String[8];
+    private long[] nanos = new long[8];
+    private int size;
+    private String openid;
+    private String openidHash;
+    private String msgId;
+
+    public RequestTiming(String name) {
+        this.name = name;
+    }
+
+    public static RequestTiming current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * 绑定到当前线程，返回之前绑定的对象，用完后需要再 attach 回去
+     */
+    public static RequestTiming attach(RequestTiming timing) {
+        RequestTiming previous = CURRENT.get();
+        if (timing == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(timing);
+        }
+        return previous;
+    }
+
+    /**
+     * 记录从 startNanos 到现在的阶段耗时
+     */
+    public static void record(String phase, long startNanos) {
+        add(phase, System.nanoTime() - startNanos);
+    }
+
+    public static void add(String phase, long elapsedNanos) {
+        RequestTiming timing = CURRENT.get();
+        if (timing != null) {
+            timing.addPhase(phase, elapsedNanos);
+        }
+    }
+
+    /**
+     * 记录当前请求属于哪个用户的哪条消息
+     */
+    public static void identify(String openid, String msgId) {
+        RequestTiming timing = CURRENT.get();
+        if (timing != null) {
+            timing.setIdentity(openid, msgId);
+        }
+    }
+
+    public synchronized void setIdentity(String openid, String msgId) {
+        if (!StringUtils.equals(this.openid, openid)) {
+            this.openidHash = null;
+        }
+        this.openid = openid;
+        this.msgId = msgId;
+    }
+
+    /**
+     * openid 的 SHA-256 前 16 位，只在需要时计算，事件和日志里不出现原始 openid
+     */
+    public synchronized String getOpenidHash() {
+        if (openidHash == null && openid != null) {
+            openidHash = hash(openid);
+        }
+        return openidHash;
+    }
+
+    public static String hash(String openid) {
+        return Hashing.sha256().hashString(openid, StandardCharsets.UTF_8).toString().substring(0, 16);
+    }
+
+    public synchronized String getMsgId() {
+        return msgId;
+    }
+
+    public synchronized void addPhase(String phase, long elapsedNanos) {
+        for (int i = 0; i < size; i++) {
+            if (phases[i].equals(phase)) {
+                nanos[i] += elapsedNanos;
+                return;
+            }
+        }
+        if (size == phases.length) {
+            phases = Arrays.copyOf(phases, size * 2);
+            nanos = Arrays.copyOf(nanos, size * 2);
+        }
+        phases[size] = phase;
+        nanos[size] = elapsedNanos;
+        size++;
+    }
+
+    /**
+     * 某个阶段累计的耗时，没有记录过时返回 -1
+     */
+    public synchronized long phaseNanos(String phase) {
+        for (int i = 0; i < size; i++) {
+            if (phases[i].equals(phase)) {
+                return nanos[i];
+            }
+        }
+        return -1;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getStartMillis() {
+        return startMillis;
+    }
+
+    public long elapsedNanos() {
+        return System.nanoTime() - startNanos;
+    }
+
+    /**
+     * Server-Timing 响应头，单位毫秒
+     */
+    public synchronized String toServerTiming(long totalNanos) {
+        StringBuilder sb = new StringBuilder(size * 24 + 24);
+        for (int i = 0; i < size; i++) {
+            sb.append(phases[i]).append(";dur=").append(millis(nanos[i])).append(", ");
+        }
+        return sb.append("total;dur=").append(millis(totalNanos)).toString();
+    }
+
+    public synchronized Map<String, Double> phaseMillis() {
+        Map<String, Double> map = new LinkedHashMap<>();
+        for (int i = 0; i < size; i++) {
+            map.put(phases[i], millis(nanos[i]));
+        }
+        return map;
+    }
+
+    private static double millis(long nanos) {
+        return Math.round(nanos / 10_000.0) / 100.0;
+    }
+}
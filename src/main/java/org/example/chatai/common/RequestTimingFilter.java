@@ -0,0 +1,41 @@
+package org.example.chatai.common;
+
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * 为 /api 下的请求创建 {@link RequestTiming}，保存在请求属性中并绑定到处理线程
+ */
+@Component
+public class RequestTimingFilter extends OncePerRequestFilter {
+
+    public static final String ATTRIBUTE = RequestTiming.class.getName();
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        String uri = request.getRequestURI();
+        return !uri.startsWith("/api/") || uri.startsWith("/api/v1/admin/");
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        // 名称会保留在慢请求记录中，只记 openid 的摘要
+        String openid = request.getParameter("openid");
+        RequestTiming timing = new RequestTiming(request.getMethod() + " " + request.getRequestURI()
+                + (openid == null ? "" : " openid=" + RequestTiming.hash(openid)));
+        request.setAttribute(ATTRIBUTE, timing);
+        RequestTiming previous = RequestTiming.attach(timing);
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            RequestTiming.attach(previous);
+        }
+    }
+}
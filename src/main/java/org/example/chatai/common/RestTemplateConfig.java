@@ -3,38 +3,58 @@ package org.example.chatai.common;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.http.HttpRequest;
-import org.springframework.http.client.*;
+import org.springframework.context.annotation.Primary;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
 import org.springframework.web.client.ResponseErrorHandler;
 import org.springframework.web.client.RestTemplate;
 
 import java.io.IOException;
+import java.net.HttpURLConnection;
 
 
 @Configuration
 @Slf4j
 public class RestTemplateConfig {
 
+    private static final String USER_AGENT = "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/91.0.4472.124 Safari/537.36";
+
     @Bean
-    public RestTemplate restTemplate() {
-        SimpleClientHttpRequestFactory factory = new SimpleClientHttpRequestFactory();
-        factory.setConnectTimeout(5000);
-        factory.setReadTimeout(5000);
+    @Primary
+    public RestTemplate restTemplate(RuntimeSettings runtimeSettings) {
+        return build(runtimeSettings, RuntimeSettings.HTTP_READ_TIMEOUT_MS);
+    }
 
-        RestTemplate restTemplate = new RestTemplate(factory);
+    // 网页接口不受公众号 5 秒回复时限约束，回答也更长，单独使用较长的读超时
+    @Bean
+    public RestTemplate webRestTemplate(RuntimeSettings runtimeSettings) {
+        return build(runtimeSettings, RuntimeSettings.HTTP_WEB_READ_TIMEOUT_MS);
+    }
 
-        // 添加默认的拦截器
-        restTemplate.getInterceptors().add((HttpRequest request, byte[] body, ClientHttpRequestExecution execution) -> {
-            // 添加默认 User-Agent
-            request.getHeaders().add("User-Agent", "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/91.0.4472.124 Safari/537.36");
+    // 批量问答和后台摘要没有用户在等待，回答可能很长，使用更长的读超时，避免整段生成完才超时并重复计费
+    @Bean
+    public RestTemplate offlineRestTemplate(RuntimeSettings runtimeSettings) {
+        return build(runtimeSettings, RuntimeSettings.HTTP_OFFLINE_READ_TIMEOUT_MS);
+    }
 
-            // 打印请求日志
-            log.info("Request URI: {}", request.getURI());
-            log.info("Request Method: {}", request.getMethod());
-            log.info("Request Headers: {}", request.getHeaders());
+    private static RestTemplate build(RuntimeSettings runtimeSettings, String readTimeoutSetting) {
+        // 超时在每次建立连接时从运行时参数读取，调整后对新请求立即生效；
+        // 当前线程带有请求截止时间时取二者中较小的，截止时间已过则不再发起连接
+        SimpleClientHttpRequestFactory factory = new SimpleClientHttpRequestFactory() {
+            @Override
+            protected void prepareConnection(HttpURLConnection connection, String httpMethod) throws IOException {
+                super.prepareConnection(connection, httpMethod);
+                connection.setConnectTimeout(Deadline.clamp("http_connect", runtimeSettings.getInt(RuntimeSettings.HTTP_CONNECT_TIMEOUT_MS)));
+                connection.setReadTimeout(Deadline.clamp("http_read", runtimeSettings.getInt(readTimeoutSetting)));
+                // 在连接上直接设置默认 User-Agent，不用拦截器：拦截器会让 RestTemplate 把整个请求体先缓冲成 byte[] 再复制一遍
+                connection.setRequestProperty("User-Agent", USER_AGENT);
+                if (log.isDebugEnabled()) {
+                    log.debug("Request: {} {}", httpMethod, connection.getURL());
+                }
+            }
+        };
 
-            return execution.execute(request, body);
-        });
+        RestTemplate restTemplate = new RestTemplate(factory);
 
         // 设置错误处理器
         restTemplate.setErrorHandler(new ResponseErrorHandler() {
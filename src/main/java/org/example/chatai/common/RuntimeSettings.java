@@ -0,0 +1,328 @@
+package org.example.chatai.common;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * 运行时可调参数
+ * <p>
+ * 参数名与启动配置相同，启动配置（application-*.properties）作为默认值，
+ * Redis Hash chat:runtime:settings 中的同名字段作为覆盖值，所有实例定时拉取，管理接口修改后本机立即生效。
+ * 每次变更先整体校验再一次性替换快照，任何一项不合法则整批拒绝；变更逐项记日志并计数，
+ * 线程池、缓存等需要重建或调整大小的组件通过 {@link #onChange} 订阅。
+ */
+@Slf4j
+@Component
+public class RuntimeSettings {
+
+    public static final String HTTP_CONNECT_TIMEOUT_MS = "chat.http.connect-timeout-ms";
+    public static final String HTTP_READ_TIMEOUT_MS = "chat.http.read-timeout-ms";
+    public static final String HTTP_WEB_READ_TIMEOUT_MS = "chat.http.web-read-timeout-ms";
+    public static final String HTTP_OFFLINE_READ_TIMEOUT_MS = "chat.http.offline-read-timeout-ms";
+    public static final String OPENAI_MODEL = "openai.api.model";
+    public static final String CONTEXT_TTL_MINUTES = "chat.context.ttl-minutes";
+    public static final String CONTEXT_MAX_TURNS = "chat.context.max-turns";
+    public static final String CONTEXT_NEAR_CACHE_MAX_BYTES = "chat.context.near-cache-max-bytes";
+    public static final String SEMANTIC_CACHE_MAX_ENTRIES = "chat.semantic-cache.max-entries";
+    public static final String SEMANTIC_CACHE_TTL_MINUTES = "chat.semantic-cache.ttl-minutes";
+    public static final String SCHEDULER_MAX_CONCURRENCY = "chat.scheduler.max-concurrency";
+    public static final String BROADCAST_RATE_PER_SECOND = "chat.broadcast.rate-per-second";
+
+    private static final String REDIS_KEY = "chat:runtime:settings";
+
+    // 一次提交多项修改，值为空串表示删除覆盖；其他实例拉取时不会看到只改了一半的配置
+    private static final RedisScript<Long> UPDATE_SCRIPT = new DefaultRedisScript<>(
+            "for i = 1, #ARGV, 2 do " +
+            "  if ARGV[i + 1] == '' then redis.call('HDEL', KEYS[1], ARGV[i]) " +
+            "  else redis.call('HSET', KEYS[1], ARGV[i], ARGV[i + 1]) end " +
+            "end " +
+            "return redis.call('HLEN', KEYS[1])", Long.class);
+    private static final int HISTORY_SIZE = 50;
+
+    // 可调参数定义：名称 -> 类型、取值范围与未配置时的默认值
+    private static final Map<String, Definition> DEFINITIONS = new LinkedHashMap<>();
+
+    static {
+        define(HTTP_CONNECT_TIMEOUT_MS, Kind.INT, 100, 60000, "5000");
+        define(HTTP_READ_TIMEOUT_MS, Kind.INT, 100, 600000, "5000");
+        define(HTTP_WEB_READ_TIMEOUT_MS, Kind.INT, 100, 600000, "60000");
+        define(HTTP_OFFLINE_READ_TIMEOUT_MS, Kind.INT, 100, 600000, "120000");
+        define(OPENAI_MODEL, Kind.STRING, 0, 0, "gpt-3.5-turbo");
+        define(CONTEXT_TTL_MINUTES, Kind.LONG, 1, 7 * 24 * 60, "30");
+        define(CONTEXT_MAX_TURNS, Kind.INT, 1, 200, "20");
+        define(CONTEXT_NEAR_CACHE_MAX_BYTES, Kind.LONG, 0, 1L << 34, "67108864");
+        define(SEMANTIC_CACHE_MAX_ENTRIES, Kind.INT, 1, 10_000_000, "10000");
+        define(SEMANTIC_CACHE_TTL_MINUTES, Kind.LONG, 1, 7 * 24 * 60, "60");
+        define(SCHEDULER_MAX_CONCURRENCY, Kind.INT, 1, 1024, "16");
+        define(BROADCAST_RATE_PER_SECOND, Kind.DOUBLE, 0.1, 10000, "50");
+    }
+
+    private enum Kind {
+        INT,
+        LONG,
+        DOUBLE,
+        STRING
+    }
+
+    private static final class Definition {
+        private final Kind kind;
+        private final double min;
+        private final double max;
+        private final String fallback;
+
+        private Definition(Kind kind, double min, double max, String fallback) {
+            this.kind = kind;
+            this.min = min;
+            this.max = max;
+            this.fallback = fallback;
+        }
+    }
+
+    private final StringRedisTemplate redisTemplate;
+    private final Map<String, Object> defaults;
+
+    @Value("${chat.runtime.enabled:true}")
+    private boolean enabled;
+
+    // 当前生效的快照，只整体替换
+    private volatile Map<String, Object> current;
+    private volatile Map<String, String> overrides = Collections.emptyMap();
+
+    private final Map<String, List<Consumer<Object>>> listeners = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> changeCounts = new ConcurrentHashMap<>();
+    private final LongAdder applied = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final ArrayDeque<Map<String, Object>> history = new ArrayDeque<>();
+    private volatile long lastChangeMillis;
+    private volatile String lastError;
+
+    public RuntimeSettings(StringRedisTemplate redisTemplate, Environment environment) {
+        this.redisTemplate = redisTemplate;
+        Map<String, Object> values = new LinkedHashMap<>();
+        for (Map.Entry<String, Definition> entry : DEFINITIONS.entrySet()) {
+            String raw = environment.getProperty(entry.getKey(), entry.getValue().fallback);
+            values.put(entry.getKey(), parse(entry.getKey(), entry.getValue(), raw));
+        }
+        this.defaults = Collections.unmodifiableMap(values);
+        this.current = defaults;
+    }
+
+    public int getInt(String name) {
+        return (Integer) current.get(name);
+    }
+
+    public long getLong(String name) {
+        return (Long) current.get(name);
+    }
+
+    public double getDouble(String name) {
+        return (Double) current.get(name);
+    }
+
+    public String getString(String name) {
+        return (String) current.get(name);
+    }
+
+    /**
+     * 订阅某个参数的变更，回调在应用变更的线程上执行，参数为新值
+     */
+    public void onChange(String name, Consumer<Object> listener) {
+        if (!DEFINITIONS.containsKey(name)) {
+            throw new IllegalArgumentException("未知的运行时参数: " + name);
+        }
+        listeners.computeIfAbsent(name, key -> new CopyOnWriteArrayList<>()).add(listener);
+    }
+
+    /**
+     * 从 Redis 拉取覆盖值并应用
+     */
+    @Scheduled(fixedDelayString = "${chat.runtime.poll-interval-ms:5000}")
+    public void refresh() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            Map<Object, Object> hash = redisTemplate.opsForHash().entries(REDIS_KEY);
+            Map<String, String> fetched = new HashMap<>();
+            for (Map.Entry<Object, Object> entry : hash.entrySet()) {
+                fetched.put(String.valueOf(entry.getKey()), String.valueOf(entry.getValue()));
+            }
+            apply(fetched, "redis");
+        } catch (IllegalArgumentException e) {
+            // 已在 apply 中记录
+        } catch (Exception e) {
+            log.warn("拉取运行时参数失败，继续使用当前配置", e);
+        }
+    }
+
+    /**
+     * 管理接口修改参数：值为空表示删除覆盖、恢复默认；先整体校验，通过后写入 Redis 并在本机立即生效
+     */
+    public Map<String, Object> update(Map<String, String> changes) {
+        Map<String, String> merged = new HashMap<>(overrides);
+        for (Map.Entry<String, String> entry : changes.entrySet()) {
+            if (StringUtils.isBlank(entry.getValue())) {
+                merged.remove(entry.getKey());
+            } else {
+                merged.put(entry.getKey(), entry.getValue().trim());
+            }
+        }
+        // 校验失败直接抛出，Redis 中的覆盖值保持不变
+        resolve(merged);
+        List<String> args = new ArrayList<>(changes.size() * 2);
+        for (Map.Entry<String, String> entry : changes.entrySet()) {
+            args.add(entry.getKey());
+            args.add(StringUtils.trimToEmpty(entry.getValue()));
+        }
+        redisTemplate.execute(UPDATE_SCRIPT, Collections.singletonList(REDIS_KEY), args.toArray());
+        apply(merged, "admin");
+        return stats();
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("current", current);
+        stats.put("overrides", overrides);
+        stats.put("applied", applied.sum());
+        stats.put("rejected", rejected.sum());
+        Map<String, Long> counts = new LinkedHashMap<>();
+        for (String name : DEFINITIONS.keySet()) {
+            LongAdder count = changeCounts.get(name);
+            counts.put(name, count == null ? 0 : count.sum());
+        }
+        stats.put("changeCounts", counts);
+        stats.put("lastChangeMillis", lastChangeMillis);
+        stats.put("lastError", lastError);
+        synchronized (history) {
+            stats.put("history", new ArrayList<>(history));
+        }
+        return stats;
+    }
+
+    private synchronized void apply(Map<String, String> fetched, String source) {
+        Map<String, Object> next;
+        try {
+            next = resolve(fetched);
+        } catch (IllegalArgumentException e) {
+            rejected.increment();
+            // 同一个错误的覆盖值每次拉取都会被拒绝，只在错误变化时记日志
+            if (!e.getMessage().equals(lastError)) {
+                log.error("运行时参数校验失败，整批拒绝（来源 {}）: {}", source, e.getMessage());
+            }
+            lastError = e.getMessage();
+            throw e;
+        }
+        Map<String, Object> previous = current;
+        List<String> changed = new ArrayList<>();
+        for (Map.Entry<String, Object> entry : next.entrySet()) {
+            if (!Objects.equals(entry.getValue(), previous.get(entry.getKey()))) {
+                changed.add(entry.getKey());
+            }
+        }
+        overrides = Collections.unmodifiableMap(new LinkedHashMap<>(fetched));
+        if (changed.isEmpty()) {
+            return;
+        }
+        current = next;
+        lastError = null;
+        lastChangeMillis = System.currentTimeMillis();
+        applied.increment();
+        for (String name : changed) {
+            log.info("运行时参数变更（来源 {}）: {} {} -> {}", source, name, previous.get(name), next.get(name));
+            changeCounts.computeIfAbsent(name, key -> new LongAdder()).increment();
+            Map<String, Object> record = new LinkedHashMap<>();
+            record.put("time", lastChangeMillis);
+            record.put("source", source);
+            record.put("name", name);
+            record.put("from", previous.get(name));
+            record.put("to", next.get(name));
+            synchronized (history) {
+                if (history.size() >= HISTORY_SIZE) {
+                    history.pollFirst();
+                }
+                history.addLast(record);
+            }
+        }
+        for (String name : changed) {
+            for (Consumer<Object> listener : listeners.getOrDefault(name, Collections.emptyList())) {
+                try {
+                    listener.accept(next.get(name));
+                } catch (Exception e) {
+                    log.error("应用运行时参数 {} 失败", name, e);
+                }
+            }
+        }
+    }
+
+    // 默认值叠加覆盖值并逐项校验，生成新的快照
+    private Map<String, Object> resolve(Map<String, String> fetched) {
+        Map<String, Object> next = new LinkedHashMap<>(defaults);
+        for (Map.Entry<String, String> entry : fetched.entrySet()) {
+            Definition definition = DEFINITIONS.get(entry.getKey());
+            if (definition == null) {
+                throw new IllegalArgumentException("未知的运行时参数: " + entry.getKey());
+            }
+            next.put(entry.getKey(), parse(entry.getKey(), definition, entry.getValue()));
+        }
+        return Collections.unmodifiableMap(next);
+    }
+
+    private static Object parse(String name, Definition definition, String raw) {
+        String value = StringUtils.trimToEmpty(raw);
+        if (definition.kind == Kind.STRING) {
+            if (value.isEmpty()) {
+                throw new IllegalArgumentException(name + " 不能为空");
+            }
+            return value;
+        }
+        double number;
+        Object parsed;
+        try {
+            switch (definition.kind) {
+                case INT:
+                    parsed = Integer.parseInt(value);
+                    number = (Integer) parsed;
+                    break;
+                case LONG:
+                    parsed = Long.parseLong(value);
+                    number = (Long) parsed;
+                    break;
+                default:
+                    parsed = Double.parseDouble(value);
+                    number = (Double) parsed;
+                    break;
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(name + " 不是合法的数值: " + raw);
+        }
+        if (Double.isNaN(number) || number < definition.min || number > definition.max) {
+            throw new IllegalArgumentException(name + " 超出范围 [" + definition.min + ", " + definition.max + "]: " + raw);
+        }
+        return parsed;
+    }
+
+    private static void define(String name, Kind kind, double min, double max, String fallback) {
+        DEFINITIONS.put(name, new Definition(kind, min, max, fallback));
+    }
+}
@@ -0,0 +1,48 @@
+package org.example.chatai.common;
+
+import org.springframework.core.MethodParameter;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.http.server.ServletServerHttpRequest;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyAdvice;
+
+import javax.annotation.Resource;
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * 写响应体之前补上 Server-Timing 响应头，并把本次耗时交给 {@link SlowRequestLog}
+ * <p>
+ * 异步返回（CompletableFuture）的接口在结果写出时才会走到这里，总耗时包含排队与调用上游的时间。
+ */
+@ControllerAdvice
+public class ServerTimingAdvice implements ResponseBodyAdvice<Object> {
+
+    @Resource
+    private SlowRequestLog slowRequestLog;
+
+    @Override
+    public boolean supports(MethodParameter returnType, Class<? extends HttpMessageConverter<?>> converterType) {
+        return true;
+    }
+
+    @Override
+    public Object beforeBodyWrite(Object body, MethodParameter returnType, MediaType selectedContentType,
+                                  Class<? extends HttpMessageConverter<?>> selectedConverterType,
+                                  ServerHttpRequest request, ServerHttpResponse response) {
+        if (request instanceof ServletServerHttpRequest) {
+            HttpServletRequest servletRequest = ((ServletServerHttpRequest) request).getServletRequest();
+            Object attribute = servletRequest.getAttribute(RequestTimingFilter.ATTRIBUTE);
+            if (attribute instanceof RequestTiming) {
+                servletRequest.removeAttribute(RequestTimingFilter.ATTRIBUTE);
+                RequestTiming timing = (RequestTiming) attribute;
+                long total = timing.elapsedNanos();
+                response.getHeaders().set("Server-Timing", timing.toServerTiming(total));
+                slowRequestLog.offer(timing, total);
+            }
+        }
+        return body;
+    }
+}
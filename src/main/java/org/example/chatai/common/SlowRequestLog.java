@@ -0,0 +1,113 @@
+package org.example.chatai.common;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 最慢的 N 个请求及其分阶段耗时
+ * <p>
+ * 固定大小的槽位数组，写入时找到最快的一条用 CAS 替换，全程无锁；比当前最快一条还快的请求直接跳过，
+ * 绝大多数请求只需读一次 volatile 下限。
+ */
+@Component
+public class SlowRequestLog {
+
+    @Value("${chat.timing.slow-request-capacity:32}")
+    private int capacity;
+
+    private AtomicReferenceArray<Entry> slots;
+    // 当前保留请求中最短的耗时，用于快速跳过
+    private volatile long floorNanos;
+
+    @PostConstruct
+    public void init() {
+        slots = new AtomicReferenceArray<>(capacity);
+    }
+
+    public void offer(RequestTiming timing, long totalNanos) {
+        if (totalNanos <= floorNanos) {
+            return;
+        }
+        Entry entry = null;
+        while (true) {
+            int victim = -1;
+            long victimNanos = Long.MAX_VALUE;
+            Entry victimEntry = null;
+            for (int i = 0; i < capacity; i++) {
+                Entry current = slots.get(i);
+                long nanos = current == null ? -1 : current.totalNanos;
+                if (nanos < victimNanos) {
+                    victim = i;
+                    victimNanos = nanos;
+                    victimEntry = current;
+                }
+            }
+            if (victim < 0 || totalNanos <= victimNanos) {
+                return;
+            }
+            if (entry == null) {
+                entry = new Entry(timing.getName(), timing.getStartMillis(), totalNanos, timing.phaseMillis());
+            }
+            if (slots.compareAndSet(victim, victimEntry, entry)) {
+                updateFloor();
+                return;
+            }
+        }
+    }
+
+    public List<Map<String, Object>> snapshot() {
+        List<Entry> entries = new ArrayList<>(capacity);
+        for (int i = 0; i < capacity; i++) {
+            Entry entry = slots.get(i);
+            if (entry != null) {
+                entries.add(entry);
+            }
+        }
+        entries.sort(Comparator.comparingLong((Entry e) -> e.totalNanos).reversed());
+        List<Map<String, Object>> result = new ArrayList<>(entries.size());
+        for (Entry entry : entries) {
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("request", entry.name);
+            item.put("startMillis", entry.startMillis);
+            item.put("totalMillis", entry.totalNanos / 1_000_000.0);
+            item.put("phases", entry.phases);
+            result.add(item);
+        }
+        return result;
+    }
+
+    private void updateFloor() {
+        long min = Long.MAX_VALUE;
+        for (int i = 0; i < capacity; i++) {
+            Entry entry = slots.get(i);
+            if (entry == null) {
+                floorNanos = 0;
+                return;
+            }
+            min = Math.min(min, entry.totalNanos);
+        }
+        floorNanos = min;
+    }
+
+    private static final class Entry {
+        private final String name;
+        private final long startMillis;
+        private final long totalNanos;
+        private final Map<String, Double> phases;
+
+        private Entry(String name, long startMillis, long totalNanos, Map<String, Double> phases) {
+            this.name = name;
+            this.startMillis = startMillis;
+            this.totalNanos = totalNanos;
+            this.phases = phases;
+        }
+    }
+}
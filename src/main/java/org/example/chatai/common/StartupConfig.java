@@ -0,0 +1,59 @@
+package org.example.chatai.common;
+
+import lombok.extern.slf4j.Slf4j;
+import org.example.chatai.controller.WeixinPortalController;
+import org.example.chatai.service.AdaptiveConcurrencyLimiter;
+import org.example.chatai.service.AutoReplyService;
+import org.example.chatai.service.ChatContextService;
+import org.example.chatai.service.FairRequestScheduler;
+import org.example.chatai.service.IConversationStore;
+import org.example.chatai.service.OpenAIService;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.LazyInitializationExcludeFilter;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.web.client.RestTemplate;
+
+/**
+ * 启动优化
+ * <p>
+ * faststart 配置开启全局懒加载时，公众号消息链路上的 Bean 仍然在启动时创建，避免第一条消息承担初始化开销；
+ * 其余（登录、Retrofit、JPA 仓库、管理接口等）在首次使用时才初始化。
+ */
+@Slf4j
+@Configuration
+public class StartupConfig {
+
+    // 仅用于 Docker 构建阶段生成 AppCDS 归档：启动完成后立即退出
+    @Value("${chat.startup.exit-after-ready:false}")
+    private boolean exitAfterReady;
+
+    @Bean
+    public static LazyInitializationExcludeFilter webhookPathEagerBeans() {
+        return LazyInitializationExcludeFilter.forBeanTypes(
+                WeixinPortalController.class,
+                OpenAIService.class,
+                ChatContextService.class,
+                IConversationStore.class,
+                FairRequestScheduler.class,
+                AutoReplyService.class,
+                AdaptiveConcurrencyLimiter.class,
+                StartupMetrics.class,
+                RestTemplate.class,
+                StringRedisTemplate.class);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onReady(ApplicationReadyEvent event) {
+        if (exitAfterReady) {
+            log.info("chat.startup.exit-after-ready 已开启，启动完成后退出");
+            ApplicationContext context = event.getApplicationContext();
+            System.exit(SpringApplication.exit(context, () -> 0));
+        }
+    }
+}
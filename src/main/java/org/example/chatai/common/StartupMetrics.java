@@ -0,0 +1,48 @@
+package org.example.chatai.common;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 启动耗时：JVM 启动到应用就绪、到第一次成功处理公众号请求
+ */
+@Slf4j
+@Component
+public class StartupMetrics {
+
+    private final long jvmStartMillis = ManagementFactory.getRuntimeMXBean().getStartTime();
+    private volatile long readyMillis;
+    private final AtomicLong firstWebhookMillis = new AtomicLong();
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onReady() {
+        readyMillis = System.currentTimeMillis() - jvmStartMillis;
+        log.info("应用就绪，距 JVM 启动 {} ms", readyMillis);
+    }
+
+    /**
+     * 记录第一次成功处理公众号请求的时间，只记录一次
+     */
+    public void markWebhookServed() {
+        if (firstWebhookMillis.get() == 0) {
+            long elapsed = System.currentTimeMillis() - jvmStartMillis;
+            if (firstWebhookMillis.compareAndSet(0, elapsed)) {
+                log.info("首次成功处理公众号请求，距 JVM 启动 {} ms", elapsed);
+            }
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("readyMillis", readyMillis);
+        stats.put("firstWebhookMillis", firstWebhookMillis.get());
+        return stats;
+    }
+}
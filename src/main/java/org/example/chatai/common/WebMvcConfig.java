@@ -0,0 +1,25 @@
+package org.example.chatai.common;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import javax.annotation.Resource;
+
+@Configuration
+public class WebMvcConfig implements WebMvcConfigurer {
+
+    @Value("${chat.admin.token:}")
+    private String adminToken;
+
+    @Resource
+    private ObjectMapper objectMapper;
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        // 不限定路径，由拦截器按选中的处理器判断是否为管理接口
+        registry.addInterceptor(new AdminAuthInterceptor(adminToken, objectMapper));
+    }
+}
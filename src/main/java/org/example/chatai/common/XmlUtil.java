@@ -124,10 +124,16 @@ public class XmlUtil {
      * bean转成微信的xml消息格式
      */
     public static String beanToXml(Object object) {
+        long start = System.nanoTime();
+        ChatEvents.XmlEncode event = new ChatEvents.XmlEncode();
+        event.begin();
         XStream xStream = getMyXStream();
         xStream.alias("xml", object.getClass());
         xStream.processAnnotations(object.getClass());
         String xml = xStream.toXML(object);
+        RequestTiming.record("xml_render", start);
+        event.chars = xml == null ? 0 : xml.length();
+        event.finish();
         if (!StringUtils.isEmpty(xml)) {
             return xml;
         } else {
@@ -139,6 +145,7 @@ public class XmlUtil {
      * xml转成bean泛型方法
      */
     public static <T> T xmlToBean(String resultXml, Class clazz) {
+        long start = System.nanoTime();
         // XStream对象设置默认安全防护，同时设置允许的类
         XStream stream = new XStream(new DomDriver());
         stream.addPermission(AnyTypePermission.ANY);
@@ -147,7 +154,9 @@ public class XmlUtil {
         stream.processAnnotations(new Class[]{clazz});
         stream.setMode(XStream.NO_REFERENCES);
         stream.alias("xml", clazz);
-        return (T) stream.fromXML(resultXml);
+        T bean = (T) stream.fromXML(resultXml);
+        RequestTiming.record("xml_parse", start);
+        return bean;
     }
 
 }
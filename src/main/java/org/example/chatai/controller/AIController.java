@@ -1,16 +1,17 @@
 package org.example.chatai.controller;
 
 import lombok.extern.slf4j.Slf4j;
-import org.example.chatai.chat.config.OpenAIConfig;
 import org.example.chatai.chat.req.OpenAIRequest;
-import org.example.chatai.chat.res.OpenAIResponse;
+import org.example.chatai.common.DeliveryBudget;
+import org.example.chatai.common.OpenAICodec;
+import org.example.chatai.common.PayloadLogPolicy;
+import org.example.chatai.common.RuntimeSettings;
+import org.example.chatai.service.OpenAIService;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.http.*;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
-import org.springframework.web.client.RestTemplate;
 
 import java.util.Collections;
 
@@ -20,38 +21,31 @@ import java.util.Collections;
 public class AIController {
 
     @Autowired
-    private OpenAIConfig openAIConfig;
+    private OpenAIService openAIService;
 
-    private final RestTemplate restTemplate = new RestTemplate();
+    @Autowired
+    private RuntimeSettings runtimeSettings;
+
+    @Autowired
+    private PayloadLogPolicy payloadLogPolicy;
 
     @PostMapping("/ask")
     public String askQuestion(@RequestBody String question) {
-        // 设置请求头
-        HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.APPLICATION_JSON);
-        headers.set("Authorization", "Bearer " + openAIConfig.getKey());
-
         // 构建请求体
         OpenAIRequest request = new OpenAIRequest();
-        request.setModel("gpt-3.5-turbo"); // 使用 GPT-3.5 模型
+        request.setModel(runtimeSettings.getString(RuntimeSettings.OPENAI_MODEL)); // 与公众号对话使用同一个模型，可在运行时切换
         OpenAIRequest.Message message = new OpenAIRequest.Message();
         message.setRole("user");
         message.setContent(question);
         request.setMessages(Collections.singletonList(message));
 
-        // 发送请求
-        HttpEntity<OpenAIRequest> entity = new HttpEntity<>(request, headers);
-        ResponseEntity<OpenAIResponse> response = restTemplate.exchange(
-                openAIConfig.getEndpoint(),
-                HttpMethod.POST,
-                entity,
-                OpenAIResponse.class
-        );
+        // 走共用的上游客户端，生成长度按网页接口的字节预算限制
+        OpenAICodec.Answer answer = openAIService.complete(request, DeliveryBudget.Channel.WEB);
 
         // 处理响应
-        if (response.getStatusCode() == HttpStatus.OK && response.getBody() != null) {
-            log.info("Response from OpenAI: {}", response.getBody().getChoices().get(0).getMessage().getContent());
-            return response.getBody().getChoices().get(0).getMessage().getContent();
+        if (answer != null && answer.getContent() != null) {
+            log.info("Response from OpenAI: {}", payloadLogPolicy.render(answer.getContent()));
+            return answer.getContent();
         } else {
             return "Error: Unable to get response from OpenAI";
         }
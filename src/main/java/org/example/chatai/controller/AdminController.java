@@ -0,0 +1,269 @@
+package org.example.chatai.controller;
+
+import lombok.extern.slf4j.Slf4j;
+import org.example.chatai.common.ContextCodec;
+import org.example.chatai.common.Deadline;
+import org.example.chatai.common.DeliveryBudget;
+import org.example.chatai.common.IngressLog;
+import org.example.chatai.common.OpenAICodec;
+import org.example.chatai.common.PayloadLogPolicy;
+import org.example.chatai.common.RuntimeSettings;
+import org.example.chatai.common.SlowRequestLog;
+import org.example.chatai.common.StartupMetrics;
+import org.example.chatai.service.AdaptiveConcurrencyLimiter;
+import org.example.chatai.service.AutoReplyService;
+import org.example.chatai.service.ChatContextService;
+import org.example.chatai.service.ChatSearchService;
+import org.example.chatai.service.ChatWorkQueue;
+import org.example.chatai.service.ConversationSummaryService;
+import org.example.chatai.service.FairRequestScheduler;
+import org.example.chatai.service.IConversationStore;
+import org.example.chatai.service.QrTicketPool;
+import org.example.chatai.service.SemanticAnswerCache;
+import org.example.chatai.service.UsageStatsService;
+import org.example.chatai.vo.Constants;
+import org.example.chatai.vo.Response;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.annotation.Resource;
+import java.util.List;
+import java.util.Map;
+
+@Slf4j
+@RestController()
+@RequestMapping("/api/v1/admin/")
+public class AdminController {
+
+    @Resource
+    private ContextCodec contextCodec;
+
+    @Resource
+    private PayloadLogPolicy payloadLogPolicy;
+
+    @Resource
+    private FairRequestScheduler fairRequestScheduler;
+
+    @Resource
+    private StartupMetrics startupMetrics;
+
+    @Resource
+    private SemanticAnswerCache semanticAnswerCache;
+
+    @Resource
+    private AutoReplyService autoReplyService;
+
+    @Resource
+    private ChatContextService chatContextService;
+
+    @Resource
+    private IConversationStore conversationStore;
+
+    @Resource
+    private AdaptiveConcurrencyLimiter concurrencyLimiter;
+
+    @Resource
+    private SlowRequestLog slowRequestLog;
+
+    @Resource
+    private IngressLog ingressLog;
+
+    @Resource
+    private UsageStatsService usageStatsService;
+
+    @Resource
+    private ChatSearchService chatSearchService;
+
+    @Resource
+    private OpenAICodec openAICodec;
+
+    @Resource
+    private RuntimeSettings runtimeSettings;
+
+    @Resource
+    private ConversationSummaryService conversationSummaryService;
+
+    @Resource
+    private DeliveryBudget deliveryBudget;
+
+    @Resource
+    private ChatWorkQueue chatWorkQueue;
+
+    @Resource
+    private QrTicketPool qrTicketPool;
+
+    // 上下文编解码统计：压缩率与编解码耗时
+    @RequestMapping(value = "context_codec_stats", method = RequestMethod.GET)
+    public Response<Map<String, Object>> contextCodecStats() {
+        return success(contextCodec.stats());
+    }
+
+    // 报文日志统计：截断、抽样与渲染耗时
+    @RequestMapping(value = "payload_log_stats", method = RequestMethod.GET)
+    public Response<Map<String, Object>> payloadLogStats() {
+        return success(payloadLogPolicy.stats());
+    }
+
+    // 公平调度统计：各优先级等待时间与用户排队深度
+    @RequestMapping(value = "scheduler_stats", method = RequestMethod.GET)
+    public Response<Map<String, Object>> schedulerStats() {
+        return success(fairRequestScheduler.stats());
+    }
+
+    // 启动耗时：就绪时间与首次成功处理公众号请求的时间
+    @RequestMapping(value = "startup_stats", method = RequestMethod.GET)
+    public Response<Map<String, Object>> startupStats() {
+        return success(startupMetrics.stats());
+    }
+
+    // 语义缓存统计：命中率与检索耗时
+    @RequestMapping(value = "semantic_cache_stats", method = RequestMethod.GET)
+    public Response<Map<String, Object>> semanticCacheStats() {
+        return success(semanticAnswerCache.stats());
+    }
+
+    // 自动回复统计：规则规模、自动机构建与匹配耗时
+    @RequestMapping(value = "auto_reply_stats", method = RequestMethod.GET)
+    public Response<Map<String, Object>> autoReplyStats() {
+        return success(autoReplyService.stats());
+    }
+
+    // 上下文重建统计：从聊天记录重建的次数与耗时
+    @RequestMapping(value = "context_rebuild_stats", method = RequestMethod.GET)
+    public Response<Map<String, Object>> contextRebuildStats() {
+        return success(chatContextService.stats());
+    }
+
+    // 自适应并发限制：当前上限、在途与拒绝次数
+    @RequestMapping(value = "limiter_stats", method = RequestMethod.GET)
+    public Response<Map<String, Object>> limiterStats() {
+        return success(concurrencyLimiter.stats());
+    }
+
+    // 最慢的 N 个请求及其分阶段耗时
+    @RequestMapping(value = "slow_requests", method = RequestMethod.GET)
+    public Response<List<Map<String, Object>>> slowRequests() {
+        return success(slowRequestLog.snapshot());
+    }
+
+    // 入站日志：追加耗时、未完成消息数与分段数
+    @RequestMapping(value = "ingress_stats", method = RequestMethod.GET)
+    public Response<Map<String, Object>> ingressStats() {
+        return success(ingressLog.stats());
+    }
+
+    // 用量统计：日活、消息数、回答耗时分位与消息最多的用户，day 为 yyyyMMdd，默认当天
+    @RequestMapping(value = "usage_stats", method = RequestMethod.GET)
+    public Response<Map<String, Object>> usageStats(@RequestParam(required = false) String day,
+                                                    @RequestParam(defaultValue = "10") int top) {
+        return success(usageStatsService.daily(day == null ? usageStatsService.today() : day, top));
+    }
+
+    // 单个用户的消息数
+    @RequestMapping(value = "user_usage", method = RequestMethod.GET)
+    public Response<Map<String, Object>> userUsage(@RequestParam String openid,
+                                                   @RequestParam(required = false) String day) {
+        return success(usageStatsService.user(openid, day == null ? usageStatsService.today() : day));
+    }
+
+    // 从聊天记录回填用量统计，异步执行，重复调用返回正在执行的任务
+    @RequestMapping(value = "usage_backfill", method = RequestMethod.POST)
+    public Response<String> usageBackfill(@RequestParam(defaultValue = "1000") int batchSize) {
+        usageStatsService.backfill(batchSize).whenComplete((result, e) -> {
+            if (e != null) {
+                log.error("用量统计回填失败", e);
+            }
+        });
+        return success("backfill started");
+    }
+
+    // 对话检索索引：分段、词项与查询耗时
+    @RequestMapping(value = "search_stats", method = RequestMethod.GET)
+    public Response<Map<String, Object>> searchStats() {
+        return success(chatSearchService.stats());
+    }
+
+    // 从聊天记录全量重建检索索引，异步执行，期间查询继续使用旧索引
+    @RequestMapping(value = "search_rebuild", method = RequestMethod.POST)
+    public Response<String> searchRebuild() {
+        chatSearchService.rebuild().whenComplete((result, e) -> {
+            if (e != null) {
+                log.error("重建对话检索索引失败", e);
+            }
+        });
+        return success("rebuild started");
+    }
+
+    // OpenAI 报文编解码：序列化与解析耗时、累计 token
+    @RequestMapping(value = "openai_codec_stats", method = RequestMethod.GET)
+    public Response<Map<String, Object>> openAICodecStats() {
+        return success(openAICodec.stats());
+    }
+
+    // 运行时参数：当前值、覆盖值、变更次数与最近的变更记录
+    @RequestMapping(value = "runtime_settings", method = RequestMethod.GET)
+    public Response<Map<String, Object>> runtimeSettings() {
+        return success(runtimeSettings.stats());
+    }
+
+    // 修改运行时参数，所有实例生效；值为空表示恢复启动配置中的默认值
+    @RequestMapping(value = "runtime_settings", method = RequestMethod.POST)
+    public Response<Map<String, Object>> updateRuntimeSettings(@RequestBody Map<String, String> changes) {
+        try {
+            return success(runtimeSettings.update(changes));
+        } catch (IllegalArgumentException e) {
+            log.warn("修改运行时参数被拒绝: {}", e.getMessage());
+            return Response.<Map<String, Object>>builder()
+                    .code(Constants.ResponseCode.ILLEGAL_PARAMETER.getCode())
+                    .info(e.getMessage())
+                    .build();
+        }
+    }
+
+    // 后台对话摘要：待处理数、完成/冲突/失败次数与压缩前后字节数
+    @RequestMapping(value = "summary_stats", method = RequestMethod.GET)
+    public Response<Map<String, Object>> summaryStats() {
+        return success(conversationSummaryService.stats());
+    }
+
+    // 按渠道的生成长度限制：max_tokens 截断、流式提前停止、送达截断次数与估算节省的 token / 时延
+    @RequestMapping(value = "delivery_stats", method = RequestMethod.GET)
+    public Response<Map<String, Object>> deliveryStats() {
+        return success(deliveryBudget.stats());
+    }
+
+    // 共享任务队列：积压与待确认数、回收次数、各实例处理速率的均衡程度、多一跳的时延
+    @RequestMapping(value = "work_queue_stats", method = RequestMethod.GET)
+    public Response<Map<String, Object>> workQueueStats() {
+        return success(chatWorkQueue.stats());
+    }
+
+    // 扫码登录 ticket 池：池中数量、目标数量、取用速率、未命中与过期丢弃次数
+    @RequestMapping(value = "qr_ticket_pool_stats", method = RequestMethod.GET)
+    public Response<Map<String, Object>> qrTicketPoolStats() {
+        return success(qrTicketPool.stats());
+    }
+
+    // 请求截止时间：创建数量与按环节统计的放弃次数（排队、Redis、上游连接 / 读取、共享队列）
+    @RequestMapping(value = "deadline_stats", method = RequestMethod.GET)
+    public Response<Map<String, Object>> deadlineStats() {
+        return success(Deadline.stats());
+    }
+
+    // 上下文存储：当前后端、本机存储占用与淘汰、降级状态与待补写的轮次
+    @RequestMapping(value = "conversation_store_stats", method = RequestMethod.GET)
+    public Response<Map<String, Object>> conversationStoreStats() {
+        return success(conversationStore.stats());
+    }
+
+    private static <T> Response<T> success(T data) {
+        return Response.<T>builder()
+                .code(Constants.ResponseCode.SUCCESS.getCode())
+                .info(Constants.ResponseCode.SUCCESS.getInfo())
+                .data(data)
+                .build();
+    }
+}
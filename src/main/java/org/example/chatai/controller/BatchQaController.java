@@ -0,0 +1,104 @@
+package org.example.chatai.controller;
+
+import lombok.extern.slf4j.Slf4j;
+import org.example.chatai.service.IBatchQaService;
+import org.example.chatai.vo.BatchQaReq;
+import org.example.chatai.vo.Constants;
+import org.example.chatai.vo.Response;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.annotation.Resource;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+@Slf4j
+@RestController()
+@RequestMapping("/api/v1/admin/batch_qa/")
+public class BatchQaController {
+
+    @Resource
+    private IBatchQaService batchQaService;
+
+    // 创建批量问答任务
+    @RequestMapping(value = "create", method = RequestMethod.POST)
+    public Response<String> create(@RequestBody BatchQaReq req) {
+        try {
+            String jobId = batchQaService.submit(req);
+            return Response.<String>builder()
+                    .code(Constants.ResponseCode.SUCCESS.getCode())
+                    .info(Constants.ResponseCode.SUCCESS.getInfo())
+                    .data(jobId)
+                    .build();
+        } catch (IllegalArgumentException e) {
+            log.warn("创建批量问答任务参数错误: {}", e.getMessage());
+            return Response.<String>builder()
+                    .code(Constants.ResponseCode.ILLEGAL_PARAMETER.getCode())
+                    .info(e.getMessage())
+                    .build();
+        } catch (Exception e) {
+            log.error("创建批量问答任务失败", e);
+            return Response.<String>builder()
+                    .code(Constants.ResponseCode.UN_ERROR.getCode())
+                    .info(Constants.ResponseCode.UN_ERROR.getInfo())
+                    .build();
+        }
+    }
+
+    // 任务进度：成功、失败、在途数量、检查点与吞吐
+    @RequestMapping(value = "progress", method = RequestMethod.GET)
+    public Response<Map<String, Object>> progress(@RequestParam String jobId) {
+        Map<String, Object> progress = batchQaService.progress(jobId);
+        if (progress == null) {
+            return Response.<Map<String, Object>>builder()
+                    .code(Constants.ResponseCode.ILLEGAL_PARAMETER.getCode())
+                    .info(Constants.ResponseCode.ILLEGAL_PARAMETER.getInfo())
+                    .build();
+        }
+        return Response.<Map<String, Object>>builder()
+                .code(Constants.ResponseCode.SUCCESS.getCode())
+                .info(Constants.ResponseCode.SUCCESS.getInfo())
+                .data(progress)
+                .build();
+    }
+
+    // 按完成顺序输出结果，每行一个 JSON；follow=true 时边完成边输出，直到任务结束或客户端断开
+    @RequestMapping(value = "results", method = RequestMethod.GET)
+    public void results(@RequestParam String jobId,
+                        @RequestParam(defaultValue = "0") long from,
+                        @RequestParam(defaultValue = "false") boolean follow,
+                        HttpServletResponse response) throws IOException {
+        if (batchQaService.progress(jobId) == null) {
+            response.sendError(HttpStatus.NOT_FOUND.value());
+            return;
+        }
+        response.setContentType("application/x-ndjson");
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        batchQaService.streamResults(jobId, from, follow, response.getOutputStream());
+    }
+
+    @RequestMapping(value = "cancel", method = RequestMethod.POST)
+    public Response<Boolean> cancel(@RequestParam String jobId) {
+        return Response.<Boolean>builder()
+                .code(Constants.ResponseCode.SUCCESS.getCode())
+                .info(Constants.ResponseCode.SUCCESS.getInfo())
+                .data(batchQaService.cancel(jobId))
+                .build();
+    }
+
+    @RequestMapping(value = "list", method = RequestMethod.GET)
+    public Response<List<Map<String, Object>>> list() {
+        return Response.<List<Map<String, Object>>>builder()
+                .code(Constants.ResponseCode.SUCCESS.getCode())
+                .info(Constants.ResponseCode.SUCCESS.getInfo())
+                .data(batchQaService.jobs())
+                .build();
+    }
+}
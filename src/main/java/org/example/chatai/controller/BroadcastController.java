@@ -0,0 +1,85 @@
+package org.example.chatai.controller;
+
+import lombok.extern.slf4j.Slf4j;
+import org.example.chatai.service.IBroadcastService;
+import org.example.chatai.vo.BroadcastReq;
+import org.example.chatai.vo.Constants;
+import org.example.chatai.vo.Response;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.annotation.Resource;
+import java.util.List;
+import java.util.Map;
+
+@Slf4j
+@RestController()
+@RequestMapping("/api/v1/admin/broadcast/")
+public class BroadcastController {
+
+    @Resource
+    private IBroadcastService broadcastService;
+
+    // 创建模板消息群发任务
+    @RequestMapping(value = "create", method = RequestMethod.POST)
+    public Response<String> create(@RequestBody BroadcastReq req) {
+        try {
+            String jobId = broadcastService.submit(req);
+            return Response.<String>builder()
+                    .code(Constants.ResponseCode.SUCCESS.getCode())
+                    .info(Constants.ResponseCode.SUCCESS.getInfo())
+                    .data(jobId)
+                    .build();
+        } catch (IllegalArgumentException e) {
+            log.warn("创建群发任务参数错误: {}", e.getMessage());
+            return Response.<String>builder()
+                    .code(Constants.ResponseCode.ILLEGAL_PARAMETER.getCode())
+                    .info(e.getMessage())
+                    .build();
+        } catch (Exception e) {
+            log.error("创建群发任务失败", e);
+            return Response.<String>builder()
+                    .code(Constants.ResponseCode.UN_ERROR.getCode())
+                    .info(Constants.ResponseCode.UN_ERROR.getInfo())
+                    .build();
+        }
+    }
+
+    // 任务进度：成功、失败、检查点与吞吐
+    @RequestMapping(value = "progress", method = RequestMethod.GET)
+    public Response<Map<String, Object>> progress(@RequestParam String jobId) {
+        Map<String, Object> progress = broadcastService.progress(jobId);
+        if (progress == null) {
+            return Response.<Map<String, Object>>builder()
+                    .code(Constants.ResponseCode.ILLEGAL_PARAMETER.getCode())
+                    .info(Constants.ResponseCode.ILLEGAL_PARAMETER.getInfo())
+                    .build();
+        }
+        return Response.<Map<String, Object>>builder()
+                .code(Constants.ResponseCode.SUCCESS.getCode())
+                .info(Constants.ResponseCode.SUCCESS.getInfo())
+                .data(progress)
+                .build();
+    }
+
+    @RequestMapping(value = "cancel", method = RequestMethod.POST)
+    public Response<Boolean> cancel(@RequestParam String jobId) {
+        return Response.<Boolean>builder()
+                .code(Constants.ResponseCode.SUCCESS.getCode())
+                .info(Constants.ResponseCode.SUCCESS.getInfo())
+                .data(broadcastService.cancel(jobId))
+                .build();
+    }
+
+    @RequestMapping(value = "list", method = RequestMethod.GET)
+    public Response<List<Map<String, Object>>> list() {
+        return Response.<List<Map<String, Object>>>builder()
+                .code(Constants.ResponseCode.SUCCESS.getCode())
+                .info(Constants.ResponseCode.SUCCESS.getInfo())
+                .data(broadcastService.jobs())
+                .build();
+    }
+}
@@ -0,0 +1,60 @@
+package org.example.chatai.controller;
+
+import lombok.extern.slf4j.Slf4j;
+import org.example.chatai.service.ChatSearchService;
+import org.example.chatai.service.ILoginService;
+import org.example.chatai.vo.Constants;
+import org.example.chatai.vo.Response;
+import org.springframework.web.bind.annotation.CookieValue;
+import org.springframework.web.bind.annotation.CrossOrigin;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.annotation.Resource;
+import java.util.List;
+import java.util.Map;
+
+@Slf4j
+@RestController()
+@CrossOrigin("*")
+@RequestMapping("/api/v1/chat/")
+public class ChatSearchController {
+
+    @Resource
+    private ChatSearchService chatSearchService;
+
+    @Resource
+    private ILoginService loginService;
+
+    // 在用户自己的历史对话中全文检索：用户由 check_login 发放的登录 token 在服务端解析，不接受前端传入的 openid
+    @RequestMapping(value = "search", method = RequestMethod.GET)
+    public Response<List<Map<String, Object>>> search(@RequestHeader(value = LoginController.LOGIN_TOKEN_HEADER, required = false) String headerToken,
+                                                      @CookieValue(value = "authToken", required = false) String cookieToken,
+                                                      @RequestParam String q,
+                                                      @RequestParam(defaultValue = "20") int limit) {
+        String openid = loginService.resolveOpenid(headerToken != null ? headerToken : cookieToken);
+        if (openid == null) {
+            return Response.<List<Map<String, Object>>>builder()
+                    .code(Constants.ResponseCode.NO_LOGIN.getCode())
+                    .info(Constants.ResponseCode.NO_LOGIN.getInfo())
+                    .build();
+        }
+        try {
+            List<Map<String, Object>> results = chatSearchService.search(openid, q, Math.min(Math.max(limit, 1), 100));
+            return Response.<List<Map<String, Object>>>builder()
+                    .code(Constants.ResponseCode.SUCCESS.getCode())
+                    .info(Constants.ResponseCode.SUCCESS.getInfo())
+                    .data(results)
+                    .build();
+        } catch (Exception e) {
+            log.error("检索历史对话失败 openid:{} q:{}", openid, q, e);
+            return Response.<List<Map<String, Object>>>builder()
+                    .code(Constants.ResponseCode.UN_ERROR.getCode())
+                    .info(Constants.ResponseCode.UN_ERROR.getInfo())
+                    .build();
+        }
+    }
+}
@@ -10,6 +10,7 @@ import org.springframework.web.bind.annotation.*;
 
 
 import javax.annotation.Resource;
+import javax.servlet.http.HttpServletResponse;
 
 @Slf4j
 @RestController()
@@ -17,6 +18,8 @@ import javax.annotation.Resource;
 @RequestMapping("/api/v1/login/")
 public class LoginController {
 
+    public static final String LOGIN_TOKEN_HEADER = "X-Login-Token";
+
     @Resource
     private ILoginService loginService;
 
@@ -39,12 +42,15 @@ public class LoginController {
         }
     }
 
+    // data 仍为 openid，兼容已有页面；登录 token 放在 X-Login-Token 响应头，检索等需要确认身份的接口只认 token
+    @CrossOrigin(origins = "*", exposedHeaders = LOGIN_TOKEN_HEADER)
     @RequestMapping(value = "check_login", method = RequestMethod.GET)
-    public Response<String> checkLogin(@RequestParam String ticket) {
+    public Response<String> checkLogin(@RequestParam String ticket, HttpServletResponse response) {
         try {
             String openidToken = loginService.checkLogin(ticket);
             log.info("扫码检测登录结果 ticket:{} openidToken:{}", ticket, openidToken);
             if (StringUtils.isNotBlank(openidToken)) {
+                response.setHeader(LOGIN_TOKEN_HEADER, loginService.issueLoginToken(openidToken));
                 return Response.<String>builder()
                         .code(Constants.ResponseCode.SUCCESS.getCode())
                         .info(Constants.ResponseCode.SUCCESS.getInfo())
@@ -2,9 +2,20 @@ package org.example.chatai.controller;
 
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
+import org.example.chatai.common.ChatEvents;
+import org.example.chatai.common.Deadline;
+import org.example.chatai.common.DeliveryBudget;
+import org.example.chatai.common.IngressLog;
 import org.example.chatai.common.MessageTextEntity;
+import org.example.chatai.common.PayloadLogPolicy;
+import org.example.chatai.common.RequestTiming;
 import org.example.chatai.common.SignatureUtil;
+import org.example.chatai.common.StartupMetrics;
 import org.example.chatai.common.XmlUtil;
+import org.example.chatai.service.AdaptiveConcurrencyLimiter;
+import org.example.chatai.service.AutoReplyService;
+import org.example.chatai.service.ChatWorkQueue;
+import org.example.chatai.service.FairRequestScheduler;
 import org.example.chatai.service.ILoginService;
 import org.example.chatai.service.OpenAIService;
 import org.springframework.beans.factory.annotation.Value;
@@ -13,9 +24,9 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Resource;
-import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 @Slf4j
 @RestController
@@ -29,12 +40,43 @@ public class WeixinPortalController {
     @Value("${weixin.config.token}")
     private String token;
 
+    @Value("${chat.deadline.enabled:true}")
+    private boolean deadlineEnabled;
+
+    // 微信等待被动回复 5 秒，留出回包的余量
+    @Value("${chat.deadline.webhook-ms:4500}")
+    private long webhookDeadlineMillis;
+
     @Resource
     private ILoginService loginService;
 
     @Resource
     private OpenAIService openAIService;
 
+    @Resource
+    private PayloadLogPolicy payloadLogPolicy;
+
+    @Resource
+    private FairRequestScheduler fairRequestScheduler;
+
+    @Resource
+    private StartupMetrics startupMetrics;
+
+    @Resource
+    private AutoReplyService autoReplyService;
+
+    @Resource
+    private AdaptiveConcurrencyLimiter concurrencyLimiter;
+
+    @Resource
+    private IngressLog ingressLog;
+
+    @Resource
+    private DeliveryBudget deliveryBudget;
+
+    @Resource
+    private ChatWorkQueue chatWorkQueue;
+
     // 验签接口
     @GetMapping(value = "receive", produces = "text/plain;charset=utf-8")
     public ResponseEntity<String> validate(
@@ -50,9 +92,11 @@ public class WeixinPortalController {
             }
             boolean check = SignatureUtil.check(token, signature, timestamp, nonce);
             log.info("微信公众号验签结果：{}", check);
-            return check
-                    ? ResponseEntity.ok(echostr)
-                    : ResponseEntity.status(403).body("验签失败");
+            if (!check) {
+                return ResponseEntity.status(403).body("验签失败");
+            }
+            startupMetrics.markWebhookServed();
+            return ResponseEntity.ok(echostr);
         } catch (Exception e) {
             log.error("微信公众号验签异常", e);
             return ResponseEntity.status(500).body("服务器内部错误");
@@ -71,10 +115,44 @@ public class WeixinPortalController {
             @RequestParam("timestamp") String timestamp,
             @RequestParam("nonce") String nonce,
             @RequestParam("openid") String openid) {
+        ChatEvents.WebhookReceive event = new ChatEvents.WebhookReceive();
+        event.begin();
+        event.requestBytes = requestBytes.length;
+        // 完成回调可能在调度线程上执行，提前取出本请求的计时对象
+        RequestTiming timing = RequestTiming.current();
+        RequestTiming.identify(openid, null);
+        // 截止时间从请求到达时算起，后续每一跳只使用剩余的时间
+        Deadline previous = Deadline.attach(deadlineEnabled ? arrivalDeadline(timing) : null);
+        try {
+            return receive(requestBytes, signature, timestamp, nonce, openid, event)
+                    .whenComplete((response, e) -> {
+                        if (response != null && response.getBody() != null) {
+                            event.responseBytes = response.getBody().length();
+                        }
+                        event.finish(timing);
+                    });
+        } finally {
+            Deadline.attach(previous);
+        }
+    }
+
+    private Deadline arrivalDeadline(RequestTiming timing) {
+        long elapsedMillis = timing == null ? 0 : timing.elapsedNanos() / 1_000_000;
+        return Deadline.after(webhookDeadlineMillis - elapsedMillis);
+    }
 
+    private CompletableFuture<ResponseEntity<String>> receive(byte[] requestBytes, String signature, String timestamp,
+                                                              String nonce, String openid,
+                                                              ChatEvents.WebhookReceive event) {
         try {
             // 验签
+            long signatureStart = System.nanoTime();
+            ChatEvents.SignatureCheck signatureEvent = new ChatEvents.SignatureCheck();
+            signatureEvent.begin();
             boolean check = SignatureUtil.check(token, signature, timestamp, nonce);
+            signatureEvent.valid = check;
+            signatureEvent.finish();
+            RequestTiming.record("signature", signatureStart);
             if (!check) {
                 log.warn("验签失败，openid: {}, signature: {}", openid, signature);
                 return CompletableFuture.completedFuture(
@@ -84,20 +162,29 @@ public class WeixinPortalController {
 
             // 解析请求体
             String requestBody = new String(requestBytes, StandardCharsets.UTF_8);
-            log.info("收到来自用户 [{}] 的原始请求:\n{}", openid, requestBody);
+            log.info("收到来自用户 [{}] 的原始请求:\n{}", openid, payloadLogPolicy.render(requestBody));
 
             // 解析XML
+            ChatEvents.XmlDecode decodeEvent = new ChatEvents.XmlDecode();
+            decodeEvent.begin();
             MessageTextEntity message = XmlUtil.xmlToBean(requestBody, MessageTextEntity.class);
-            log.info("解析后的消息对象: {}", message);
+            RequestTiming.identify(openid, message.getMsgId());
+            decodeEvent.bytes = requestBytes.length;
+            decodeEvent.finish();
+            event.msgType = message.getMsgType();
+            // 原始请求已按策略记录，解析结果只在 debug 时输出
+            if (log.isDebugEnabled()) {
+                log.debug("解析后的消息对象: {}", payloadLogPolicy.render(String.valueOf(message)));
+            }
 
             // 消息处理
             switch (message.getMsgType()) {
                 case "event":
                     return handleEvent(message, openid)
-                            .thenApply(response -> ResponseEntity.ok(response));
+                            .thenApply(this::served);
                 case "text":
                     return handleTextMessage(message, openid)
-                            .thenApply(response -> ResponseEntity.ok(response));
+                            .thenApply(this::served);
                 default:
                     log.warn("不支持的消息类型: {}", message.getMsgType());
                     return CompletableFuture.completedFuture(
@@ -114,14 +201,19 @@ public class WeixinPortalController {
     }
 
     // 事件处理逻辑
-    private CompletableFuture<String> handleEvent(MessageTextEntity message, String openid) throws IOException {
+    private CompletableFuture<String> handleEvent(MessageTextEntity message, String openid) {
         log.info("处理事件消息，openid: {}, event: {}", openid, message.getEvent());
         switch (message.getEvent()) {
             case "SCAN":
-                loginService.saveLoginState(message.getTicket(), openid);
-                return CompletableFuture.completedFuture(
-                        buildResponse(openid, "扫码成功！我是杨济赫创造的AI助手")
-                );
+                // 在请求线程上同步处理：不与聊天请求争用调度并发、不排在该用户进行中的聊天后面，也不受截止时间丢弃，
+                // 否则登录状态可能根本不会保存
+                try {
+                    loginService.saveLoginState(message.getTicket(), openid);
+                    return CompletableFuture.completedFuture(buildResponse(openid, "扫码成功！我是杨济赫创造的AI助手"));
+                } catch (Exception e) {
+                    log.error("保存登录状态失败，openid: {}", openid, e);
+                    return CompletableFuture.completedFuture(buildErrorResponse(openid, "服务暂时不可用，请稍后重试"));
+                }
             case "subscribe":
                 return CompletableFuture.completedFuture(
                         buildResponse(openid, "感谢关注！我是杨济赫创造的AI助手")
@@ -138,26 +230,84 @@ public class WeixinPortalController {
     }
 
     // 文本消息处理逻辑
-// 文本消息处理逻辑
     private CompletableFuture<String> handleTextMessage(MessageTextEntity message, String openid) {
-        log.info("处理文本消息，openid: {}, content: {}", openid, message.getContent());
-        return openAIService.askQuestion(openid, message.getContent())
+        log.info("处理文本消息，openid: {}, content: {}", openid, payloadLogPolicy.render(message.getContent()));
+        // 关键词 / FAQ 命中时直接回复，不调用大模型
+        String autoReply = autoReplyService.match(openid, message.getContent());
+        if (autoReply != null) {
+            return CompletableFuture.completedFuture(buildResponse(openid, autoReply));
+        }
+        // 超过自适应并发上限时立即拒绝，避免上游变慢时所有请求一起超时
+        if (!concurrencyLimiter.tryAcquire()) {
+            log.warn("聊天请求过多，拒绝处理，openid: {}", openid);
+            return CompletableFuture.completedFuture(buildResponse(openid, "当前咨询人数较多，请稍后再试"));
+        }
+        long start = System.nanoTime();
+        // 先写入站日志再排队，进程重启时未处理完的消息启动后重放
+        long ingressHandle;
+        try {
+            ingressHandle = ingressLog.append(openid, message.getMsgId(), message.getContent());
+        } catch (RuntimeException e) {
+            concurrencyLimiter.release();
+            throw e;
+        }
+        RequestTiming.record("ingress_log", start);
+        // 开启共享任务队列时交给任意实例处理；否则在本实例按用户公平排队：同一用户一次只有一个请求在途，后续消息排在其后
+        boolean remote = chatWorkQueue.isEnabled();
+        CompletableFuture<String> work;
+        try {
+            work = remote
+                    ? chatWorkQueue.submit(openid, message.getContent())
+                    : fairRequestScheduler.submit(openid, () -> openAIService.ask(openid, message.getContent(), DeliveryBudget.Channel.WEBHOOK));
+        } catch (RuntimeException e) {
+            concurrencyLimiter.release();
+            throw e;
+        }
+        // 名额在处理真正结束时释放（回复按截止时间放弃后上游可能仍在生成），用上游耗时调整上限；
+        // 共享队列模式下上游在其他实例执行，以等待回答的总耗时近似
+        RequestTiming timing = RequestTiming.current();
+        work.whenComplete((response, e) -> {
+            long upstreamNanos = remote || timing == null ? System.nanoTime() - start : timing.phaseNanos("upstream");
+            if (upstreamNanos < 0) {
+                concurrencyLimiter.release();
+            } else {
+                concurrencyLimiter.release(upstreamNanos);
+            }
+        });
+        // 到截止时间仍未得到回答时放弃等待，不影响进行中的处理；尚未开始的排队任务到期后不再执行
+        CompletableFuture<String> answer = work;
+        Deadline deadline = Deadline.current();
+        if (deadline != null) {
+            answer = deadline.bound(work.thenApply(response -> response), "webhook");
+        }
+        return answer
+                .whenComplete((response, e) -> ingressLog.complete(ingressHandle))
                 .thenApply(response -> {
                     if (StringUtils.isBlank(response)) {
                         log.warn("AI返回空结果，openid: {}", openid);
                         return buildResponse(openid, "抱歉，我暂时无法回答这个问题");
                     }
-                    // 处理 AI 的回复，去掉换行符和 "AI:" 前缀
+                    // 处理 AI 的回复，去掉换行符和 "AI:" 前缀，并截断到被动回复的字节上限
                     String processedResponse = formatAIResponse(response);
-                    log.info("AI回复用户 [{}]: {}", openid, processedResponse);
+                    log.info("AI回复用户 [{}]: {}", openid, payloadLogPolicy.render(processedResponse));
                     return buildResponse(openid, processedResponse);
                 })
                 .exceptionally(e -> {
+                    Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                    if (cause instanceof Deadline.ExceededException) {
+                        log.warn("回答超过截止时间，放弃处理，openid: {}, 环节: {}", openid, ((Deadline.ExceededException) cause).getHop());
+                        return buildErrorResponse(openid, "回答超时，请稍后重试");
+                    }
                     log.error("调用OpenAI服务失败，openid: {}", openid, e);
                     return buildErrorResponse(openid, "AI服务暂时不可用");
                 });
     }
 
+    private ResponseEntity<String> served(String response) {
+        startupMetrics.markWebhookServed();
+        return ResponseEntity.ok(response);
+    }
+
     // 格式化 AI 回复内容的方法
     private String formatAIResponse(String response) {
         if (response == null) {
@@ -169,7 +319,7 @@ public class WeixinPortalController {
         if (formattedResponse.startsWith("AI:")) {
             formattedResponse = formattedResponse.substring(3).trim();
         }
-        return formattedResponse;
+        return deliveryBudget.fit(DeliveryBudget.Channel.WEBHOOK, formattedResponse);
     }
 
     // 构建成功响应
@@ -191,7 +341,9 @@ public class WeixinPortalController {
         res.setContent(content);
 
         String xml = XmlUtil.beanToXml(res);
-        log.info("生成响应XML:\n{}", xml);
+        if (log.isDebugEnabled()) {
+            log.debug("生成响应XML:\n{}", payloadLogPolicy.render(xml));
+        }
         return xml;
     }
 }
@@ -0,0 +1,552 @@
+package org.example.chatai.impl;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.util.concurrent.RateLimiter;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.example.chatai.chat.req.OpenAIRequest;
+import org.example.chatai.common.OpenAICodec;
+import org.example.chatai.common.RuntimeSettings;
+import org.example.chatai.service.IBatchQaService;
+import org.example.chatai.service.OpenAIService;
+import org.example.chatai.vo.BatchQaReq;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 批量问答任务
+ * <p>
+ * 问题列表与任务状态保存在 Redis，每个任务一个派发线程，按任务自己的令牌桶限速、用信号量限制同时在途的请求数，
+ * 实际调用在所有任务共用的工作线程池里执行，走与聊天请求相同的 {@link OpenAIService#complete}。
+ * 每条结果完成时即以一行 JSON 追加到结果列表（NDJSON），并在完成位图里置位，两步在同一个 Lua 脚本里完成，
+ * 因此重复执行同一条问题不会产生重复结果。检查点记录最小的未完成下标，
+ * 进程重启或其他实例接管后从检查点继续，检查点之后已完成的问题按位图跳过。
+ */
+@Slf4j
+@Service
+public class BatchQaServiceImpl implements IBatchQaService {
+
+    private static final String JOBS_KEY = "chat:batchqa:jobs";
+    private static final String JOB_KEY_PREFIX = "chat:batchqa:job:";
+
+    private static final String STATUS_RUNNING = "RUNNING";
+    private static final String STATUS_COMPLETED = "COMPLETED";
+    private static final String STATUS_CANCELLED = "CANCELLED";
+
+    private static final String FIELD_SUCCEEDED = "succeeded";
+    private static final String FIELD_FAILED = "failed";
+
+    // 每次从 Redis 读取的问题数与结果行数
+    private static final int PAGE_SIZE = 100;
+
+    /**
+     * 记录一条结果：完成位图中已置位说明是重复执行，丢弃；否则追加结果行并累加计数
+     * KEYS[1] 完成位图，KEYS[2] 结果列表，KEYS[3] 任务 hash；ARGV[1] 下标，ARGV[2] 结果行，ARGV[3] 计数字段
+     */
+    private static final RedisScript<Long> RECORD_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('SETBIT', KEYS[1], ARGV[1], 1) == 1 then return 0 end "
+                    + "redis.call('RPUSH', KEYS[2], ARGV[2]) "
+                    + "redis.call('HINCRBY', KEYS[3], ARGV[3], 1) "
+                    + "return 1", Long.class);
+
+    @Value("${chat.batch-qa.max-concurrency:16}")
+    private int maxConcurrency;
+
+    @Value("${chat.batch-qa.default-concurrency:4}")
+    private int defaultConcurrency;
+
+    @Value("${chat.batch-qa.default-rate-per-second:2}")
+    private double defaultRatePerSecond;
+
+    @Value("${chat.batch-qa.max-questions:10000}")
+    private int maxQuestions;
+
+    @Value("${chat.batch-qa.max-attempts:3}")
+    private int maxAttempts;
+
+    @Value("${chat.batch-qa.lease-seconds:60}")
+    private long leaseSeconds;
+
+    @Value("${chat.batch-qa.checkpoint-interval-ms:1000}")
+    private long checkpointIntervalMillis;
+
+    @Value("${chat.batch-qa.follow-poll-ms:500}")
+    private long followPollMillis;
+
+    @Resource
+    private OpenAIService openAIService;
+    @Resource
+    private StringRedisTemplate redisTemplate;
+    @Resource
+    private ObjectMapper objectMapper;
+    @Resource
+    private RuntimeSettings runtimeSettings;
+
+    // 标识本实例，用于任务租约
+    private final String instanceId = UUID.randomUUID().toString();
+    private final Map<String, Job> running = new ConcurrentHashMap<>();
+
+    private ExecutorService jobExecutor;
+    private ExecutorService workerExecutor;
+
+    @PostConstruct
+    public void init() {
+        AtomicInteger jobIndex = new AtomicInteger();
+        jobExecutor = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "chat-batchqa-job-" + jobIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        AtomicInteger workerIndex = new AtomicInteger();
+        workerExecutor = Executors.newFixedThreadPool(maxConcurrency, r -> {
+            Thread thread = new Thread(r, "chat-batchqa-worker-" + workerIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void destroy() {
+        for (Job job : running.values()) {
+            job.stopped = true;
+        }
+        jobExecutor.shutdown();
+        workerExecutor.shutdown();
+    }
+
+    @Override
+    public String submit(BatchQaReq req) throws Exception {
+        List<String> questions = req.getQuestions();
+        if (questions == null || questions.isEmpty()) {
+            throw new IllegalArgumentException("questions 不能为空");
+        }
+        if (questions.size() > maxQuestions) {
+            throw new IllegalArgumentException("单个任务最多 " + maxQuestions + " 个问题");
+        }
+        for (String question : questions) {
+            if (StringUtils.isBlank(question)) {
+                throw new IllegalArgumentException("问题不能为空白");
+            }
+        }
+        int concurrency = req.getConcurrency() == null ? defaultConcurrency : req.getConcurrency();
+        if (concurrency < 1 || concurrency > maxConcurrency) {
+            throw new IllegalArgumentException("concurrency 取值范围为 1 - " + maxConcurrency);
+        }
+        double rate = req.getRatePerSecond() == null ? defaultRatePerSecond : req.getRatePerSecond();
+        if (!(rate > 0)) {
+            throw new IllegalArgumentException("ratePerSecond 必须大于 0");
+        }
+
+        String jobId = UUID.randomUUID().toString().replace("-", "").substring(0, 16);
+        for (int from = 0; from < questions.size(); from += 1000) {
+            redisTemplate.opsForList().rightPushAll(questionsKey(jobId),
+                    questions.subList(from, Math.min(questions.size(), from + 1000)));
+        }
+        Map<String, String> fields = new HashMap<>();
+        fields.put("status", STATUS_RUNNING);
+        fields.put("total", String.valueOf(questions.size()));
+        fields.put("concurrency", String.valueOf(concurrency));
+        fields.put("ratePerSecond", String.valueOf(rate));
+        fields.put("model", StringUtils.defaultIfBlank(req.getModel(), runtimeSettings.getString(RuntimeSettings.OPENAI_MODEL)));
+        fields.put("systemPrompt", StringUtils.defaultString(req.getSystemPrompt()));
+        fields.put("resumeFrom", "0");
+        fields.put("dispatched", "0");
+        fields.put(FIELD_SUCCEEDED, "0");
+        fields.put(FIELD_FAILED, "0");
+        fields.put("createdAt", String.valueOf(System.currentTimeMillis()));
+        redisTemplate.opsForHash().putAll(jobKey(jobId), fields);
+        redisTemplate.opsForSet().add(JOBS_KEY, jobId);
+        log.info("创建批量问答任务 {}，问题 {} 个，并发 {}，限速 {}/s", jobId, questions.size(), concurrency, rate);
+        start(jobId);
+        return jobId;
+    }
+
+    @Override
+    public Map<String, Object> progress(String jobId) {
+        Map<Object, Object> fields = redisTemplate.opsForHash().entries(jobKey(jobId));
+        if (fields.isEmpty()) {
+            return null;
+        }
+        long succeeded = Long.parseLong((String) fields.get(FIELD_SUCCEEDED));
+        long failed = Long.parseLong((String) fields.get(FIELD_FAILED));
+        Map<String, Object> progress = new LinkedHashMap<>();
+        progress.put("jobId", jobId);
+        progress.put("status", fields.get("status"));
+        progress.put("model", fields.get("model"));
+        progress.put("concurrency", Integer.parseInt((String) fields.get("concurrency")));
+        progress.put("ratePerSecond", Double.parseDouble((String) fields.get("ratePerSecond")));
+        progress.put("total", Long.parseLong((String) fields.get("total")));
+        progress.put("succeeded", succeeded);
+        progress.put("failed", failed);
+        Job job = running.get(jobId);
+        if (job != null) {
+            // 本实例正在执行，补充在途数量与吞吐
+            long elapsedNanos = System.nanoTime() - job.startedNanos;
+            progress.put("runningOn", "local");
+            progress.put("inFlight", job.inFlight.size());
+            progress.put("throughputPerSecond", elapsedNanos == 0 ? 0
+                    : job.processed.sum() * 1e9 / elapsedNanos);
+        }
+        progress.put("resumeFrom", Long.parseLong((String) fields.get("resumeFrom")));
+        progress.put("createdAt", Long.parseLong((String) fields.get("createdAt")));
+        return progress;
+    }
+
+    @Override
+    public boolean cancel(String jobId) {
+        if (!redisTemplate.hasKey(jobKey(jobId))) {
+            return false;
+        }
+        // 其他实例上的任务在下一个检查点看到状态后停止，已发出的请求完成后照常记录结果
+        redisTemplate.opsForHash().put(jobKey(jobId), "status", STATUS_CANCELLED);
+        Job job = running.get(jobId);
+        if (job != null) {
+            job.stopped = true;
+        }
+        log.info("取消批量问答任务 {}", jobId);
+        return true;
+    }
+
+    @Override
+    public List<Map<String, Object>> jobs() {
+        Set<String> jobIds = redisTemplate.opsForSet().members(JOBS_KEY);
+        List<Map<String, Object>> jobs = new ArrayList<>();
+        if (jobIds != null) {
+            for (String jobId : jobIds) {
+                Map<String, Object> progress = progress(jobId);
+                if (progress != null) {
+                    jobs.add(progress);
+                }
+            }
+        }
+        jobs.sort((a, b) -> Long.compare((Long) b.get("createdAt"), (Long) a.get("createdAt")));
+        return jobs;
+    }
+
+    @Override
+    public void streamResults(String jobId, long from, boolean follow, OutputStream out) throws IOException {
+        long next = Math.max(0, from);
+        while (true) {
+            // 先读状态再读结果：状态已结束时读到的结果一定是完整的
+            Object status = redisTemplate.opsForHash().get(jobKey(jobId), "status");
+            List<String> lines = redisTemplate.opsForList().range(resultsKey(jobId), next, next + PAGE_SIZE - 1);
+            if (lines != null && !lines.isEmpty()) {
+                for (String line : lines) {
+                    out.write(line.getBytes(StandardCharsets.UTF_8));
+                    out.write('\n');
+                }
+                out.flush();
+                next += lines.size();
+                continue;
+            }
+            if (!follow || status == null || !STATUS_RUNNING.equals(status)) {
+                return;
+            }
+            try {
+                TimeUnit.MILLISECONDS.sleep(followPollMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * 启动时以及定时检查：接管未完成且租约已过期的任务（本实例重启或执行它的实例宕机）
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Scheduled(fixedDelayString = "${chat.batch-qa.resume-interval-ms:60000}", initialDelayString = "${chat.batch-qa.resume-interval-ms:60000}")
+    public void resumeJobs() {
+        try {
+            Set<String> jobIds = redisTemplate.opsForSet().members(JOBS_KEY);
+            if (jobIds == null) {
+                return;
+            }
+            for (String jobId : jobIds) {
+                if (!running.containsKey(jobId)
+                        && STATUS_RUNNING.equals(redisTemplate.opsForHash().get(jobKey(jobId), "status"))) {
+                    start(jobId);
+                }
+            }
+        } catch (Exception e) {
+            log.error("检查未完成的批量问答任务失败", e);
+        }
+    }
+
+    private void start(String jobId) {
+        Boolean acquired = redisTemplate.opsForValue().setIfAbsent(leaseKey(jobId), instanceId, leaseSeconds, TimeUnit.SECONDS);
+        if (!Boolean.TRUE.equals(acquired)) {
+            return;
+        }
+        try {
+            Job job = loadJob(jobId);
+            running.put(jobId, job);
+            jobExecutor.execute(() -> run(job));
+        } catch (Exception e) {
+            redisTemplate.delete(leaseKey(jobId));
+            log.error("启动批量问答任务 {} 失败", jobId, e);
+        }
+    }
+
+    private Job loadJob(String jobId) {
+        Map<Object, Object> fields = redisTemplate.opsForHash().entries(jobKey(jobId));
+        int concurrency = Integer.parseInt((String) fields.get("concurrency"));
+        Job job = new Job(jobId, concurrency, Double.parseDouble((String) fields.get("ratePerSecond")));
+        job.model = (String) fields.get("model");
+        job.systemPrompt = (String) fields.get("systemPrompt");
+        job.total = Long.parseLong((String) fields.get("total"));
+        job.resumeFrom = Long.parseLong((String) fields.get("resumeFrom"));
+        job.dispatched = Long.parseLong((String) fields.get("dispatched"));
+        job.next = job.resumeFrom;
+        return job;
+    }
+
+    private void run(Job job) {
+        log.info("开始执行批量问答任务 {}，检查点: {}", job.jobId, job.resumeFrom);
+        boolean completed = false;
+        try {
+            long index = job.resumeFrom;
+            job.lastCheckpointNanos = System.nanoTime();
+            List<String> page = Collections.emptyList();
+            long pageStart = index;
+            while (!job.stopped && index < job.total) {
+                if (index - pageStart >= page.size()) {
+                    pageStart = index;
+                    page = redisTemplate.opsForList().range(questionsKey(job.jobId), index, index + PAGE_SIZE - 1);
+                    if (page == null || page.isEmpty()) {
+                        break;
+                    }
+                }
+                String question = page.get((int) (index - pageStart));
+                long current = index++;
+                // 上次执行时检查点之后已完成的问题
+                if (current < job.dispatched && Boolean.TRUE.equals(redisTemplate.opsForValue().getBit(doneKey(job.jobId), current))) {
+                    continue;
+                }
+                if (!acquire(job, 1)) {
+                    break;
+                }
+                job.rateLimiter.acquire();
+                job.inFlight.add(current);
+                job.next = index;
+                try {
+                    workerExecutor.execute(() -> {
+                        try {
+                            answer(job, current, question);
+                        } finally {
+                            job.inFlight.remove(current);
+                            job.permits.release();
+                        }
+                    });
+                } catch (RuntimeException e) {
+                    job.inFlight.remove(current);
+                    job.permits.release();
+                    throw e;
+                }
+                if (System.nanoTime() - job.lastCheckpointNanos >= TimeUnit.MILLISECONDS.toNanos(checkpointIntervalMillis)
+                        && !checkpoint(job)) {
+                    break;
+                }
+            }
+            job.next = index;
+            // 等在途请求全部完成
+            completed = acquire(job, job.concurrency) && !job.stopped && index >= job.total;
+            job.permits.release(job.concurrency);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            // 保留检查点与租约，租约过期后由定时检查重新接管
+            log.error("批量问答任务 {} 执行异常，稍后从检查点继续", job.jobId, e);
+            running.remove(job.jobId);
+            return;
+        }
+        if (completed) {
+            Map<String, String> fields = new HashMap<>();
+            fields.put("status", STATUS_COMPLETED);
+            fields.put("resumeFrom", String.valueOf(job.total));
+            fields.put("dispatched", String.valueOf(job.total));
+            fields.put("finishedAt", String.valueOf(System.currentTimeMillis()));
+            redisTemplate.opsForHash().putAll(jobKey(job.jobId), fields);
+            log.info("批量问答任务 {} 完成，共 {} 个问题", job.jobId, job.total);
+        } else if (running.containsKey(job.jobId)) {
+            // 被取消：记下停止的位置；租约已被接管的不再写
+            checkpoint(job);
+        }
+        running.remove(job.jobId);
+        if (instanceId.equals(redisTemplate.opsForValue().get(leaseKey(job.jobId)))) {
+            redisTemplate.delete(leaseKey(job.jobId));
+        }
+    }
+
+    // 等待在途名额，等待期间按间隔写检查点续租；派发单条时返回 false 表示任务已停止，等待全部名额时一直等到在途请求结束
+    private boolean acquire(Job job, int permits) throws InterruptedException {
+        while (!job.permits.tryAcquire(permits, checkpointIntervalMillis, TimeUnit.MILLISECONDS)) {
+            // 任务停止后只等在途请求结束，不再写检查点
+            if ((job.stopped || !checkpoint(job)) && permits == 1) {
+                return false;
+            }
+        }
+        if (permits == 1 && job.stopped) {
+            job.permits.release();
+            return false;
+        }
+        return true;
+    }
+
+    // 写检查点并续租，返回 false 表示任务已被取消或租约已被其他实例接管
+    private boolean checkpoint(Job job) {
+        job.lastCheckpointNanos = System.nanoTime();
+        String owner = redisTemplate.opsForValue().get(leaseKey(job.jobId));
+        if (!instanceId.equals(owner)) {
+            log.warn("批量问答任务 {} 的租约已失效，停止执行", job.jobId);
+            job.stopped = true;
+            running.remove(job.jobId);
+            return false;
+        }
+        long next = job.next;
+        Long lowest = job.inFlight.isEmpty() ? null : job.inFlight.first();
+        Map<String, String> fields = new HashMap<>();
+        fields.put("resumeFrom", String.valueOf(lowest == null ? next : Math.min(lowest, next)));
+        fields.put("dispatched", String.valueOf(Math.max(next, job.dispatched)));
+        fields.put("updatedAt", String.valueOf(System.currentTimeMillis()));
+        redisTemplate.opsForHash().putAll(jobKey(job.jobId), fields);
+        redisTemplate.expire(leaseKey(job.jobId), leaseSeconds, TimeUnit.SECONDS);
+        if (STATUS_CANCELLED.equals(redisTemplate.opsForHash().get(jobKey(job.jobId), "status"))) {
+            job.stopped = true;
+        }
+        return !job.stopped;
+    }
+
+    private void answer(Job job, long index, String question) {
+        OpenAIRequest request = new OpenAIRequest();
+        request.setModel(job.model);
+        request.setMessages(StringUtils.isEmpty(job.systemPrompt)
+                ? Collections.singletonList(new OpenAIRequest.Message("user", question))
+                : Arrays.asList(new OpenAIRequest.Message("system", job.systemPrompt),
+                new OpenAIRequest.Message("user", question)));
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("index", index);
+        result.put("question", question);
+        long start = System.nanoTime();
+        String error = null;
+        for (int attempt = 1; ; attempt++) {
+            try {
+                OpenAICodec.Answer answer = openAIService.complete(request);
+                if (answer != null && StringUtils.isNotBlank(answer.getContent())) {
+                    result.put("status", "ok");
+                    result.put("answer", answer.getContent().trim());
+                    result.put("promptTokens", answer.getPromptTokens());
+                    result.put("completionTokens", answer.getCompletionTokens());
+                    error = null;
+                    break;
+                }
+                error = answer == null ? "unexpected response" : "empty answer";
+            } catch (Exception e) {
+                error = e.getMessage();
+            }
+            if (attempt >= maxAttempts || job.stopped) {
+                break;
+            }
+            try {
+                TimeUnit.MILLISECONDS.sleep(500L << (attempt - 1));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        if (error != null) {
+            result.put("status", "error");
+            result.put("error", error);
+        }
+        result.put("latencyMillis", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        try {
+            redisTemplate.execute(RECORD_SCRIPT,
+                    Arrays.asList(doneKey(job.jobId), resultsKey(job.jobId), jobKey(job.jobId)),
+                    String.valueOf(index), objectMapper.writeValueAsString(result),
+                    error == null ? FIELD_SUCCEEDED : FIELD_FAILED);
+            job.processed.increment();
+        } catch (Exception e) {
+            // 未置位的问题在接管或重启后从检查点重新执行
+            log.warn("批量问答任务 {} 记录第 {} 条结果失败", job.jobId, index, e);
+        }
+    }
+
+    private static String jobKey(String jobId) {
+        return JOB_KEY_PREFIX + jobId;
+    }
+
+    private static String questionsKey(String jobId) {
+        return JOB_KEY_PREFIX + jobId + ":questions";
+    }
+
+    private static String resultsKey(String jobId) {
+        return JOB_KEY_PREFIX + jobId + ":results";
+    }
+
+    private static String doneKey(String jobId) {
+        return JOB_KEY_PREFIX + jobId + ":done";
+    }
+
+    private static String leaseKey(String jobId) {
+        return JOB_KEY_PREFIX + jobId + ":lease";
+    }
+
+    private static final class Job {
+        private final String jobId;
+        private final int concurrency;
+        private final Semaphore permits;
+        private final RateLimiter rateLimiter;
+        private final long startedNanos = System.nanoTime();
+        // 已派发但未记录结果的下标，最小值即检查点
+        private final ConcurrentSkipListSet<Long> inFlight = new ConcurrentSkipListSet<>();
+        // 本次执行处理的数量，用于计算吞吐
+        private final LongAdder processed = new LongAdder();
+        private String model;
+        private String systemPrompt;
+        private long total;
+        private long resumeFrom;
+        // 上次执行派发到的位置，检查点与它之间的问题可能已完成
+        private long dispatched;
+        private volatile long next;
+        private long lastCheckpointNanos;
+        private volatile boolean stopped;
+
+        private Job(String jobId, int concurrency, double ratePerSecond) {
+            this.jobId = jobId;
+            this.concurrency = concurrency;
+            this.permits = new Semaphore(concurrency);
+            this.rateLimiter = RateLimiter.create(ratePerSecond);
+        }
+    }
+}
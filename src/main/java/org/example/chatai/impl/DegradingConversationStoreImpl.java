@@ -0,0 +1,255 @@
+package org.example.chatai.impl;
+
+import lombok.extern.slf4j.Slf4j;
+import org.example.chatai.common.ContextCodec;
+import org.example.chatai.common.MappedContextStore;
+import org.example.chatai.common.RuntimeSettings;
+import org.example.chatai.service.ChatContextService;
+import org.example.chatai.service.IConversationStore;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.Resource;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Redis 故障时自动降级的上下文存储
+ * <p>
+ * 平时读写 Redis，同时把每轮问答写一份到本机内存映射存储。连续 failure-threshold 次 Redis 调用出错或耗时超过 latency-ms 后
+ * 切换为降级模式：读写都只走本机，期间追加的轮次按顺序记下。定时探测 Redis，PING 恢复正常后把记下的轮次依次补写回 Redis，
+ * 最后一段在锁内补完并同时退出降级，退出前一刻追加的轮次不会落在后面直接写入的轮次之后。
+ * 用户还有待补写的轮次时（降级期间追加过，或单次写入 Redis 失败），该用户的新轮次继续排队，读取也走本机，
+ * 避免 Redis 中的上下文缺少前面的轮次或顺序颠倒。本机存储只有本实例处理过的轮次，降级期间其他实例写入的上下文看不到。
+ * 记下的轮次只在内存中，降级期间重启会丢失（上下文过期后仍可从聊天记录重建）。
+ */
+@Slf4j
+@Service
+@ConditionalOnProperty(name = "chat.context.store", havingValue = "degrade")
+public class DegradingConversationStoreImpl implements IConversationStore {
+
+    @Value("${chat.context.degrade.latency-ms:200}")
+    private long latencyMillis;
+
+    @Value("${chat.context.degrade.failure-threshold:3}")
+    private int failureThreshold;
+
+    @Value("${chat.context.degrade.max-pending-turns:10000}")
+    private int maxPendingTurns;
+
+    @Resource
+    private ChatContextService chatContextService;
+
+    @Resource
+    private MappedContextStore mappedContextStore;
+
+    @Resource
+    private ContextCodec contextCodec;
+
+    @Resource
+    private RuntimeSettings runtimeSettings;
+
+    @Resource
+    private StringRedisTemplate redisTemplate;
+
+    private volatile boolean degraded;
+    private volatile long degradedSince;
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+
+    // 降级期间追加、尚未补写回 Redis 的轮次
+    private final ConcurrentLinkedQueue<PendingTurn> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingSize = new AtomicInteger();
+    // 用户 -> 待补写轮数，有记录的用户读写都不直接走 Redis
+    private final Map<String, Integer> pendingUsers = new ConcurrentHashMap<>();
+    // 入队与退出降级互斥
+    private final Object pendingLock = new Object();
+
+    private final LongAdder redisCalls = new LongAdder();
+    private final LongAdder redisErrors = new LongAdder();
+    private final LongAdder redisSlow = new LongAdder();
+    private final LongAdder localReads = new LongAdder();
+    private final LongAdder degradeCount = new LongAdder();
+    private final LongAdder recoverCount = new LongAdder();
+    private final LongAdder degradedMillis = new LongAdder();
+    private final LongAdder resynced = new LongAdder();
+    private final LongAdder pendingDropped = new LongAdder();
+
+    private static final class PendingTurn {
+        private final String userId;
+        private final String question;
+        private final String answer;
+
+        private PendingTurn(String userId, String question, String answer) {
+            this.userId = userId;
+            this.question = question;
+            this.answer = answer;
+        }
+    }
+
+    @Override
+    public String load(String userId) {
+        // 待补写的轮次只在本机，Redis 中的上下文不完整
+        if (!degraded && !pendingUsers.containsKey(userId)) {
+            long start = System.nanoTime();
+            try {
+                String context = chatContextService.load(userId);
+                observe(System.nanoTime() - start, null);
+                return context;
+            } catch (RuntimeException e) {
+                observe(System.nanoTime() - start, e);
+                log.warn("读取 Redis 上下文失败，改读本机存储，user [{}]", userId, e);
+            }
+        }
+        localReads.increment();
+        List<byte[]> turns = mappedContextStore.get(userId);
+        if (turns == null) {
+            return "";
+        }
+        StringBuilder context = new StringBuilder();
+        for (byte[] turn : turns) {
+            context.append(contextCodec.decode(turn));
+        }
+        return context.toString();
+    }
+
+    @Override
+    public void append(String userId, String question, String answer) {
+        // 本机始终保留一份，降级时读到的上下文尽量完整
+        mappedContextStore.append(userId, contextCodec.encode(question, answer),
+                runtimeSettings.getInt(RuntimeSettings.CONTEXT_MAX_TURNS),
+                TimeUnit.MINUTES.toMillis(runtimeSettings.getLong(RuntimeSettings.CONTEXT_TTL_MINUTES)));
+        if (!degraded && !pendingUsers.containsKey(userId)) {
+            long start = System.nanoTime();
+            try {
+                chatContextService.append(userId, question, answer);
+                observe(System.nanoTime() - start, null);
+                return;
+            } catch (RuntimeException e) {
+                observe(System.nanoTime() - start, e);
+                log.warn("写入 Redis 上下文失败，恢复后补写，user [{}]", userId, e);
+            }
+        }
+        synchronized (pendingLock) {
+            if (pendingSize.get() >= maxPendingTurns) {
+                // 本机和聊天记录里仍有这一轮，只是不再补写回 Redis
+                pendingDropped.increment();
+                return;
+            }
+            pending.offer(new PendingTurn(userId, question, answer));
+            pendingSize.incrementAndGet();
+            pendingUsers.merge(userId, 1, Integer::sum);
+        }
+    }
+
+    /**
+     * 降级或有待补写的轮次时探测 Redis，恢复后按顺序补写并退出降级
+     */
+    @Scheduled(fixedDelayString = "${chat.context.degrade.probe-interval-ms:5000}")
+    public void probe() {
+        if (!degraded && pending.isEmpty()) {
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            redisTemplate.execute((RedisCallback<String>) RedisConnection::ping);
+        } catch (RuntimeException e) {
+            log.debug("Redis 仍不可用", e);
+            return;
+        }
+        if (System.nanoTime() - start > TimeUnit.MILLISECONDS.toNanos(latencyMillis)) {
+            return;
+        }
+        // 先在锁外补写大部分，锁内只补最后追加的几轮
+        if (!resync()) {
+            return;
+        }
+        synchronized (pendingLock) {
+            if (!resync() || !degraded) {
+                return;
+            }
+            degraded = false;
+            consecutiveFailures.set(0);
+            recoverCount.increment();
+            degradedMillis.add(System.currentTimeMillis() - degradedSince);
+            log.info("Redis 已恢复，上下文存储退出降级，降级 {} ms", System.currentTimeMillis() - degradedSince);
+        }
+    }
+
+    @Override
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("store", "degrade");
+        stats.put("degraded", degraded);
+        stats.put("degradedForMillis", degraded ? System.currentTimeMillis() - degradedSince : 0);
+        stats.put("consecutiveFailures", consecutiveFailures.get());
+        stats.put("redisCalls", redisCalls.sum());
+        stats.put("redisErrors", redisErrors.sum());
+        stats.put("redisSlow", redisSlow.sum());
+        stats.put("localReads", localReads.sum());
+        stats.put("degradeCount", degradeCount.sum());
+        stats.put("recoverCount", recoverCount.sum());
+        stats.put("totalDegradedMillis", degradedMillis.sum());
+        stats.put("pendingTurns", pendingSize.get());
+        stats.put("pendingUsers", pendingUsers.size());
+        stats.put("resyncedTurns", resynced.sum());
+        stats.put("pendingDropped", pendingDropped.sum());
+        stats.put("local", mappedContextStore.stats());
+        return stats;
+    }
+
+    // 依次补写，失败时停在当前轮次等下次探测，保证同一用户的轮次顺序不乱
+    private boolean resync() {
+        PendingTurn turn;
+        while ((turn = pending.peek()) != null) {
+            try {
+                chatContextService.append(turn.userId, turn.question, turn.answer);
+            } catch (RuntimeException e) {
+                log.warn("补写上下文到 Redis 失败，剩余 {} 轮", pendingSize.get(), e);
+                return false;
+            }
+            pending.poll();
+            pendingSize.decrementAndGet();
+            pendingUsers.computeIfPresent(turn.userId, (userId, count) -> count == 1 ? null : count - 1);
+            resynced.increment();
+        }
+        return true;
+    }
+
+    // 出错或慢调用连续达到阈值时降级，任何一次正常调用都会清零
+    private void observe(long elapsedNanos, RuntimeException error) {
+        redisCalls.increment();
+        if (error == null && elapsedNanos <= TimeUnit.MILLISECONDS.toNanos(latencyMillis)) {
+            consecutiveFailures.set(0);
+            return;
+        }
+        if (error != null) {
+            redisErrors.increment();
+        } else {
+            redisSlow.increment();
+        }
+        if (consecutiveFailures.incrementAndGet() >= failureThreshold) {
+            degrade();
+        }
+    }
+
+    private synchronized void degrade() {
+        if (degraded) {
+            return;
+        }
+        degradedSince = System.currentTimeMillis();
+        degraded = true;
+        degradeCount.increment();
+        log.warn("Redis 连续 {} 次出错或超过 {} ms，上下文存储切换到本机", consecutiveFailures.get(), latencyMillis);
+    }
+}
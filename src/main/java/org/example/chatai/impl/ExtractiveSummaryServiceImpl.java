@@ -0,0 +1,38 @@
+package org.example.chatai.impl;
+
+import org.apache.commons.lang3.StringUtils;
+import org.example.chatai.service.ISummaryService;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+/**
+ * 本地抽取式摘要：保留上一次的摘要和各轮用户的提问，按长度上限截断，不调用外部接口
+ */
+@Service
+@ConditionalOnProperty(name = "chat.summary.provider", havingValue = "local", matchIfMissing = true)
+public class ExtractiveSummaryServiceImpl implements ISummaryService {
+
+    private static final String SUMMARY = "Summary: ";
+    private static final String USER = "User: ";
+
+    @Value("${chat.summary.max-chars:500}")
+    private int maxChars;
+
+    @Override
+    public String summarize(String conversation) {
+        StringBuilder summary = new StringBuilder();
+        for (String line : StringUtils.split(conversation, '\n')) {
+            if (line.startsWith(SUMMARY)) {
+                summary.append(StringUtils.removeEnd(line.substring(SUMMARY.length()), "；")).append('；');
+            } else if (line.startsWith(USER)) {
+                summary.append("用户问过：").append(StringUtils.abbreviate(line.substring(USER.length()).trim(), 60)).append('；');
+            }
+        }
+        if (summary.length() == 0) {
+            return null;
+        }
+        // 超长时保留最近的部分
+        return summary.length() <= maxChars ? summary.toString() : summary.substring(summary.length() - maxChars);
+    }
+}
@@ -0,0 +1,71 @@
+package org.example.chatai.impl;
+
+import org.example.chatai.service.IEmbeddingService;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * 本地哈希向量：字符一元、二元组按哈希落到固定维度并带符号累加，最后做 L2 归一化
+ * <p>
+ * 不依赖外部模型，结果确定，可以识别字面相近的问法（“怎么登录” / “如何登录呢”）。
+ */
+@Service
+public class HashingEmbeddingServiceImpl implements IEmbeddingService {
+
+    @Value("${chat.semantic-cache.dimension:256}")
+    private int dimension;
+
+    @Override
+    public float[] embed(String text) {
+        float[] vector = new float[dimension];
+        String normalized = normalize(text);
+        for (int i = 0; i < normalized.length(); i++) {
+            add(vector, normalized.charAt(i), 1f);
+            if (i + 1 < normalized.length()) {
+                add(vector, normalized.charAt(i) * 31 + normalized.charAt(i + 1), 1.5f);
+            }
+        }
+        double norm = 0;
+        for (float v : vector) {
+            norm += v * v;
+        }
+        if (norm > 0) {
+            float scale = (float) (1 / Math.sqrt(norm));
+            for (int i = 0; i < vector.length; i++) {
+                vector[i] *= scale;
+            }
+        }
+        return vector;
+    }
+
+    @Override
+    public int dimension() {
+        return dimension;
+    }
+
+    private void add(float[] vector, int feature, float weight) {
+        int hash = mix(feature);
+        vector[Math.floorMod(hash, dimension)] += (hash & 0x80000000) == 0 ? weight : -weight;
+    }
+
+    // 去掉空白与标点，统一小写
+    private static String normalize(String text) {
+        StringBuilder sb = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                sb.append(Character.toLowerCase(c));
+            }
+        }
+        return sb.toString();
+    }
+
+    private static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+}
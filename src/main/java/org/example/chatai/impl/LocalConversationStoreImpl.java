@@ -0,0 +1,59 @@
+package org.example.chatai.impl;
+
+import org.example.chatai.common.ContextCodec;
+import org.example.chatai.common.MappedContextStore;
+import org.example.chatai.common.RuntimeSettings;
+import org.example.chatai.service.IConversationStore;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.Resource;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 本机上下文存储：读写都在内存映射文件上完成，不经过网络，只适合单实例部署（多实例之间不共享）
+ */
+@Service
+@ConditionalOnProperty(name = "chat.context.store", havingValue = "local")
+public class LocalConversationStoreImpl implements IConversationStore {
+
+    @Resource
+    private MappedContextStore mappedContextStore;
+
+    @Resource
+    private ContextCodec contextCodec;
+
+    @Resource
+    private RuntimeSettings runtimeSettings;
+
+    @Override
+    public String load(String userId) {
+        List<byte[]> turns = mappedContextStore.get(userId);
+        if (turns == null) {
+            return "";
+        }
+        StringBuilder context = new StringBuilder();
+        for (byte[] turn : turns) {
+            context.append(contextCodec.decode(turn));
+        }
+        return context.toString();
+    }
+
+    @Override
+    public void append(String userId, String question, String answer) {
+        mappedContextStore.append(userId, contextCodec.encode(question, answer),
+                runtimeSettings.getInt(RuntimeSettings.CONTEXT_MAX_TURNS),
+                TimeUnit.MINUTES.toMillis(runtimeSettings.getLong(RuntimeSettings.CONTEXT_TTL_MINUTES)));
+    }
+
+    @Override
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("store", "local");
+        stats.putAll(mappedContextStore.stats());
+        return stats;
+    }
+}
@@ -0,0 +1,41 @@
+package org.example.chatai.impl;
+
+import org.example.chatai.chat.req.OpenAIRequest;
+import org.example.chatai.common.OpenAICodec;
+import org.example.chatai.common.RuntimeSettings;
+import org.example.chatai.service.ISummaryService;
+import org.example.chatai.service.OpenAIService;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.Resource;
+import java.util.Arrays;
+
+/**
+ * 调用 OpenAI 生成对话摘要，只在后台摘要任务中调用，不占用用户请求的时延
+ */
+@Service
+@ConditionalOnProperty(name = "chat.summary.provider", havingValue = "openai")
+public class OpenAISummaryServiceImpl implements ISummaryService {
+
+    @Resource
+    private OpenAIService openAIService;
+    @Resource
+    private RuntimeSettings runtimeSettings;
+
+    @Value("${chat.summary.max-chars:500}")
+    private int maxChars;
+
+    @Override
+    public String summarize(String conversation) {
+        OpenAIRequest request = new OpenAIRequest();
+        request.setModel(runtimeSettings.getString(RuntimeSettings.OPENAI_MODEL));
+        request.setMessages(Arrays.asList(
+                new OpenAIRequest.Message("system", "把下面的对话压缩成一段摘要，保留用户的身份信息、偏好、已给出的结论和尚未解决的问题，"
+                        + "不超过 " + maxChars + " 字，只输出摘要本身。"),
+                new OpenAIRequest.Message("user", conversation)));
+        OpenAICodec.Answer answer = openAIService.complete(request);
+        return answer == null ? null : answer.getContent();
+    }
+}
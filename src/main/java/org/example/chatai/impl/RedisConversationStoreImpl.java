@@ -0,0 +1,39 @@
+package org.example.chatai.impl;
+
+import org.example.chatai.service.ChatContextService;
+import org.example.chatai.service.IConversationStore;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.Resource;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Redis 上下文存储：多实例共享，带近端缓存和从聊天记录重建，细节见 {@link ChatContextService}
+ */
+@Service
+@ConditionalOnProperty(name = "chat.context.store", havingValue = "redis", matchIfMissing = true)
+public class RedisConversationStoreImpl implements IConversationStore {
+
+    @Resource
+    private ChatContextService chatContextService;
+
+    @Override
+    public String load(String userId) {
+        return chatContextService.load(userId);
+    }
+
+    @Override
+    public void append(String userId, String question, String answer) {
+        chatContextService.append(userId, question, answer);
+    }
+
+    @Override
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("store", "redis");
+        stats.putAll(chatContextService.stats());
+        return stats;
+    }
+}
@@ -0,0 +1,501 @@
+package org.example.chatai.impl;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.util.concurrent.RateLimiter;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.example.chatai.common.RuntimeSettings;
+import org.example.chatai.service.ChatRecordRepository;
+import org.example.chatai.service.IBroadcastService;
+import org.example.chatai.service.IWeixinApiService;
+import org.example.chatai.service.WeixinAccessTokenService;
+import org.example.chatai.vo.BroadcastReq;
+import org.example.chatai.vo.WeixinTemplateMessageRes;
+import org.example.chatai.vo.WeixinTemplateMessageVO;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 模板消息群发
+ * <p>
+ * 任务状态与接收人列表保存在 Redis：接收人按批读取，批内用固定大小的发送线程池并发发送，
+ * 所有任务共用一个令牌桶限速（公众号的接口额度是按账号算的）。每批发完写一次检查点，
+ * 进程重启或其他实例接管后从最近的检查点继续，最多重发一批。任务租约由独立的心跳定时续期，
+ * 限速调低、一批发送耗时超过租约时也不会被其他实例接管而重复发送。
+ * 失败按错误码区分：token 失效刷新后重试，限流和系统繁忙退避重试，用户未关注等直接记为失败。
+ */
+@Slf4j
+@Service
+public class WeixinBroadcastServiceImpl implements IBroadcastService {
+
+    private static final String JOBS_KEY = "chat:broadcast:jobs";
+    private static final String JOB_KEY_PREFIX = "chat:broadcast:job:";
+
+    private static final String SOURCE_OPENIDS = "openids";
+    private static final String SOURCE_CHAT_USERS = "chat_users";
+
+    private static final String STATUS_RUNNING = "RUNNING";
+    private static final String STATUS_COMPLETED = "COMPLETED";
+    private static final String STATUS_CANCELLED = "CANCELLED";
+
+    /**
+     * 租约仍属于本实例时续期，返回 1；已过期或被其他实例持有返回 0
+     * KEYS[1] 租约；ARGV[1] 实例标识，ARGV[2] 租期秒数
+     */
+    private static final RedisScript<Long> RENEW_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('GET', KEYS[1]) == ARGV[1] then return redis.call('EXPIRE', KEYS[1], ARGV[2]) end "
+                    + "return 0", Long.class);
+
+    /**
+     * 租约仍属于本实例时删除
+     */
+    private static final RedisScript<Long> RELEASE_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('GET', KEYS[1]) == ARGV[1] then return redis.call('DEL', KEYS[1]) end "
+                    + "return 0", Long.class);
+
+    @Value("${weixin.config.template_id}")
+    private String defaultTemplateId;
+
+    @Value("${chat.broadcast.concurrency:8}")
+    private int concurrency;
+
+    @Value("${chat.broadcast.max-attempts:3}")
+    private int maxAttempts;
+
+    @Value("${chat.broadcast.batch-size:200}")
+    private int batchSize;
+
+    @Value("${chat.broadcast.lease-seconds:60}")
+    private long leaseSeconds;
+
+    @Value("${chat.broadcast.heartbeat-interval-ms:15000}")
+    private long heartbeatIntervalMillis;
+
+    @Resource
+    private WeixinAccessTokenService accessTokenService;
+    @Resource
+    private IWeixinApiService weixinApiService;
+    @Resource
+    private StringRedisTemplate redisTemplate;
+    @Resource
+    private ChatRecordRepository chatRecordRepository;
+    @Resource
+    private ObjectMapper objectMapper;
+    @Resource
+    private RuntimeSettings runtimeSettings;
+
+    // 标识本实例，用于任务租约
+    private final String instanceId = UUID.randomUUID().toString();
+    private final Map<String, Job> running = new ConcurrentHashMap<>();
+
+    private RateLimiter rateLimiter;
+    private ExecutorService jobExecutor;
+    private ExecutorService sendExecutor;
+    // 续租专用线程：Spring 默认调度器只有一个线程，与索引追赶、记录落库等阻塞任务共用，续租可能被拖过租期
+    private ScheduledExecutorService leaseExecutor;
+
+    @PostConstruct
+    public void init() {
+        rateLimiter = RateLimiter.create(runtimeSettings.getDouble(RuntimeSettings.BROADCAST_RATE_PER_SECOND));
+        // 限速可在运行时调整，进行中的任务随即按新速率发送
+        runtimeSettings.onChange(RuntimeSettings.BROADCAST_RATE_PER_SECOND, value -> rateLimiter.setRate((Double) value));
+        AtomicInteger jobIndex = new AtomicInteger();
+        jobExecutor = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "chat-broadcast-job-" + jobIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        AtomicInteger sendIndex = new AtomicInteger();
+        sendExecutor = Executors.newFixedThreadPool(concurrency, r -> {
+            Thread thread = new Thread(r, "chat-broadcast-send-" + sendIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        leaseExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "chat-broadcast-lease");
+            thread.setDaemon(true);
+            return thread;
+        });
+        leaseExecutor.scheduleWithFixedDelay(this::heartbeat, heartbeatIntervalMillis, heartbeatIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        for (Job job : running.values()) {
+            job.stopped = true;
+        }
+        leaseExecutor.shutdownNow();
+        jobExecutor.shutdown();
+        sendExecutor.shutdown();
+    }
+
+    @Override
+    public String submit(BroadcastReq req) throws Exception {
+        String source = StringUtils.defaultIfBlank(req.getSource(), SOURCE_OPENIDS);
+        long total;
+        if (SOURCE_OPENIDS.equals(source)) {
+            if (req.getOpenids() == null || req.getOpenids().isEmpty()) {
+                throw new IllegalArgumentException("openids 不能为空");
+            }
+            total = req.getOpenids().size();
+        } else if (SOURCE_CHAT_USERS.equals(source)) {
+            total = chatRecordRepository.countDistinctUserIds();
+        } else {
+            throw new IllegalArgumentException("不支持的接收人来源: " + source);
+        }
+
+        String jobId = UUID.randomUUID().toString().replace("-", "").substring(0, 16);
+        if (SOURCE_OPENIDS.equals(source)) {
+            List<String> openids = req.getOpenids();
+            for (int from = 0; from < openids.size(); from += 1000) {
+                redisTemplate.opsForList().rightPushAll(recipientsKey(jobId),
+                        openids.subList(from, Math.min(openids.size(), from + 1000)));
+            }
+        }
+        Map<String, String> fields = new HashMap<>();
+        fields.put("status", STATUS_RUNNING);
+        fields.put("source", source);
+        fields.put("templateId", StringUtils.defaultIfBlank(req.getTemplateId(), defaultTemplateId));
+        fields.put("url", StringUtils.defaultString(req.getUrl()));
+        fields.put("data", objectMapper.writeValueAsString(req.getData() == null ? Collections.emptyMap() : req.getData()));
+        fields.put("cursor", SOURCE_OPENIDS.equals(source) ? "0" : "");
+        fields.put("total", String.valueOf(total));
+        fields.put("sent", "0");
+        fields.put("failed", "0");
+        fields.put("createdAt", String.valueOf(System.currentTimeMillis()));
+        redisTemplate.opsForHash().putAll(jobKey(jobId), fields);
+        redisTemplate.opsForSet().add(JOBS_KEY, jobId);
+        log.info("创建群发任务 {}，来源: {}，接收人 {} 个", jobId, source, total);
+        start(jobId);
+        return jobId;
+    }
+
+    @Override
+    public Map<String, Object> progress(String jobId) {
+        Map<Object, Object> fields = redisTemplate.opsForHash().entries(jobKey(jobId));
+        if (fields.isEmpty()) {
+            return null;
+        }
+        Map<String, Object> progress = new LinkedHashMap<>();
+        progress.put("jobId", jobId);
+        progress.put("status", fields.get("status"));
+        progress.put("source", fields.get("source"));
+        progress.put("total", Long.parseLong((String) fields.get("total")));
+        long sent = Long.parseLong((String) fields.get("sent"));
+        long failed = Long.parseLong((String) fields.get("failed"));
+        Job job = running.get(jobId);
+        if (job != null) {
+            // 本实例正在执行，用内存中的实时计数
+            sent = job.sent.sum();
+            failed = job.failed.sum();
+            long elapsedNanos = System.nanoTime() - job.startedNanos;
+            progress.put("runningOn", "local");
+            progress.put("throughputPerSecond", elapsedNanos == 0 ? 0
+                    : job.processed.sum() * 1e9 / elapsedNanos);
+        }
+        progress.put("sent", sent);
+        progress.put("failed", failed);
+        progress.put("failedSample", redisTemplate.opsForList().range(failedKey(jobId), 0, 19));
+        progress.put("cursor", fields.get("cursor"));
+        progress.put("createdAt", Long.parseLong((String) fields.get("createdAt")));
+        return progress;
+    }
+
+    @Override
+    public boolean cancel(String jobId) {
+        if (!redisTemplate.hasKey(jobKey(jobId))) {
+            return false;
+        }
+        // 其他实例上的任务在下一个检查点看到状态后停止
+        redisTemplate.opsForHash().put(jobKey(jobId), "status", STATUS_CANCELLED);
+        Job job = running.get(jobId);
+        if (job != null) {
+            job.stopped = true;
+        }
+        log.info("取消群发任务 {}", jobId);
+        return true;
+    }
+
+    @Override
+    public List<Map<String, Object>> jobs() {
+        Set<String> jobIds = redisTemplate.opsForSet().members(JOBS_KEY);
+        List<Map<String, Object>> jobs = new ArrayList<>();
+        if (jobIds != null) {
+            for (String jobId : jobIds) {
+                Map<String, Object> progress = progress(jobId);
+                if (progress != null) {
+                    jobs.add(progress);
+                }
+            }
+        }
+        jobs.sort((a, b) -> Long.compare((Long) b.get("createdAt"), (Long) a.get("createdAt")));
+        return jobs;
+    }
+
+    /**
+     * 为本实例正在执行的任务续租，与发送进度无关；租约已失去的任务停止执行，最多多发当前这一批。
+     * 在专用线程上执行，不受其他定时任务阻塞影响
+     */
+    void heartbeat() {
+        for (Job job : running.values()) {
+            try {
+                if (!renewLease(job.jobId)) {
+                    log.warn("群发任务 {} 的租约已失效，停止执行", job.jobId);
+                    job.stopped = true;
+                    running.remove(job.jobId);
+                }
+            } catch (Exception e) {
+                // Redis 暂时不可用时保留任务，下次心跳或检查点再确认
+                log.warn("群发任务 {} 续租失败", job.jobId, e);
+            }
+        }
+    }
+
+    /**
+     * 启动时以及定时检查：接管未完成且租约已过期的任务（本实例重启或执行它的实例宕机）
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Scheduled(fixedDelayString = "${chat.broadcast.resume-interval-ms:60000}", initialDelayString = "${chat.broadcast.resume-interval-ms:60000}")
+    public void resumeJobs() {
+        try {
+            Set<String> jobIds = redisTemplate.opsForSet().members(JOBS_KEY);
+            if (jobIds == null) {
+                return;
+            }
+            for (String jobId : jobIds) {
+                if (!running.containsKey(jobId)
+                        && STATUS_RUNNING.equals(redisTemplate.opsForHash().get(jobKey(jobId), "status"))) {
+                    start(jobId);
+                }
+            }
+        } catch (Exception e) {
+            log.error("检查未完成的群发任务失败", e);
+        }
+    }
+
+    private void start(String jobId) {
+        Boolean acquired = redisTemplate.opsForValue().setIfAbsent(leaseKey(jobId), instanceId, leaseSeconds, TimeUnit.SECONDS);
+        if (!Boolean.TRUE.equals(acquired)) {
+            return;
+        }
+        try {
+            Job job = loadJob(jobId);
+            running.put(jobId, job);
+            jobExecutor.execute(() -> run(job));
+        } catch (Exception e) {
+            redisTemplate.delete(leaseKey(jobId));
+            log.error("启动群发任务 {} 失败", jobId, e);
+        }
+    }
+
+    private Job loadJob(String jobId) throws IOException {
+        Map<Object, Object> fields = redisTemplate.opsForHash().entries(jobKey(jobId));
+        Job job = new Job(jobId);
+        job.source = (String) fields.get("source");
+        job.templateId = (String) fields.get("templateId");
+        job.url = (String) fields.get("url");
+        job.data = objectMapper.readValue((String) fields.get("data"), new TypeReference<Map<String, String>>() {
+        });
+        job.cursor = (String) fields.get("cursor");
+        job.sent.add(Long.parseLong((String) fields.get("sent")));
+        job.failed.add(Long.parseLong((String) fields.get("failed")));
+        return job;
+    }
+
+    private void run(Job job) {
+        log.info("开始执行群发任务 {}，检查点: {}", job.jobId, job.cursor);
+        String finalStatus = null;
+        try {
+            while (!job.stopped) {
+                List<String> batch = nextBatch(job);
+                if (batch.isEmpty()) {
+                    finalStatus = STATUS_COMPLETED;
+                    break;
+                }
+                List<Future<?>> futures = new ArrayList<>(batch.size());
+                for (String openid : batch) {
+                    futures.add(sendExecutor.submit(() -> send(job, openid)));
+                }
+                for (Future<?> future : futures) {
+                    future.get();
+                }
+                job.cursor = SOURCE_OPENIDS.equals(job.source)
+                        ? String.valueOf(Long.parseLong(job.cursor) + batch.size())
+                        : batch.get(batch.size() - 1);
+                if (!checkpoint(job)) {
+                    break;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            // 保留检查点与租约，租约过期后由定时检查重新接管
+            log.error("群发任务 {} 执行异常，稍后从检查点继续", job.jobId, e);
+            running.remove(job.jobId);
+            return;
+        }
+        if (finalStatus != null) {
+            Map<String, String> fields = new HashMap<>();
+            fields.put("status", finalStatus);
+            fields.put("sent", String.valueOf(job.sent.sum()));
+            fields.put("failed", String.valueOf(job.failed.sum()));
+            fields.put("finishedAt", String.valueOf(System.currentTimeMillis()));
+            redisTemplate.opsForHash().putAll(jobKey(job.jobId), fields);
+            log.info("群发任务 {} 完成，成功 {}，失败 {}", job.jobId, job.sent.sum(), job.failed.sum());
+        }
+        running.remove(job.jobId);
+        // 租约可能已被其他实例接管，只删除自己持有的
+        redisTemplate.execute(RELEASE_SCRIPT, Collections.singletonList(leaseKey(job.jobId)), instanceId);
+    }
+
+    private List<String> nextBatch(Job job) {
+        if (SOURCE_OPENIDS.equals(job.source)) {
+            long from = Long.parseLong(job.cursor);
+            List<String> batch = redisTemplate.opsForList().range(recipientsKey(job.jobId), from, from + batchSize - 1);
+            return batch == null ? Collections.emptyList() : batch;
+        }
+        return chatRecordRepository.findDistinctUserIdsAfter(job.cursor, PageRequest.of(0, batchSize));
+    }
+
+    // 写检查点并续租，返回 false 表示任务已被取消或租约已被其他实例接管
+    private boolean checkpoint(Job job) {
+        if (!renewLease(job.jobId)) {
+            log.warn("群发任务 {} 的租约已失效，停止执行", job.jobId);
+            job.stopped = true;
+            running.remove(job.jobId);
+            return false;
+        }
+        Map<String, String> fields = new HashMap<>();
+        fields.put("cursor", job.cursor);
+        fields.put("sent", String.valueOf(job.sent.sum()));
+        fields.put("failed", String.valueOf(job.failed.sum()));
+        fields.put("updatedAt", String.valueOf(System.currentTimeMillis()));
+        redisTemplate.opsForHash().putAll(jobKey(job.jobId), fields);
+        if (STATUS_CANCELLED.equals(redisTemplate.opsForHash().get(jobKey(job.jobId), "status"))) {
+            job.stopped = true;
+        }
+        return !job.stopped;
+    }
+
+    private boolean renewLease(String jobId) {
+        Long renewed = redisTemplate.execute(RENEW_SCRIPT, Collections.singletonList(leaseKey(jobId)),
+                instanceId, String.valueOf(leaseSeconds));
+        return renewed != null && renewed == 1;
+    }
+
+    private void send(Job job, String openid) {
+        WeixinTemplateMessageVO message = new WeixinTemplateMessageVO(openid, job.templateId);
+        if (StringUtils.isNotBlank(job.url)) {
+            message.setUrl(job.url);
+        }
+        Map<String, Map<String, String>> data = new HashMap<>();
+        for (Map.Entry<String, String> entry : job.data.entrySet()) {
+            data.put(entry.getKey(), Collections.singletonMap("value", entry.getValue().replace("{openid}", openid)));
+        }
+        message.setData(data);
+
+        for (int attempt = 1; ; attempt++) {
+            rateLimiter.acquire();
+            int errcode;
+            String errmsg;
+            try {
+                WeixinTemplateMessageRes res = weixinApiService.sendTemplateMessage(accessTokenService.get(), message).execute().body();
+                errcode = res == null ? -1 : res.getErrcode();
+                errmsg = res == null ? "empty response" : res.getErrmsg();
+            } catch (Exception e) {
+                errcode = -1;
+                errmsg = e.getMessage();
+            }
+            if (errcode == 0) {
+                job.sent.increment();
+                job.processed.increment();
+                return;
+            }
+            if (errcode == 40001 || errcode == 42001) {
+                accessTokenService.invalidate();
+            }
+            if (!retryable(errcode) || attempt >= maxAttempts) {
+                job.failed.increment();
+                job.processed.increment();
+                redisTemplate.opsForList().rightPush(failedKey(job.jobId), openid + " " + errcode + " " + errmsg);
+                log.debug("群发任务 {} 发送失败，openid: {}，errcode: {}", job.jobId, openid, errcode);
+                return;
+            }
+            try {
+                // 限流退避更久一些
+                TimeUnit.MILLISECONDS.sleep((errcode == 45009 ? 1000L : 200L) << (attempt - 1));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private static boolean retryable(int errcode) {
+        return errcode == -1 || errcode == 40001 || errcode == 42001 || errcode == 45009;
+    }
+
+    private static String jobKey(String jobId) {
+        return JOB_KEY_PREFIX + jobId;
+    }
+
+    private static String recipientsKey(String jobId) {
+        return JOB_KEY_PREFIX + jobId + ":recipients";
+    }
+
+    private static String failedKey(String jobId) {
+        return JOB_KEY_PREFIX + jobId + ":failed";
+    }
+
+    private static String leaseKey(String jobId) {
+        return JOB_KEY_PREFIX + jobId + ":lease";
+    }
+
+    private static final class Job {
+        private final String jobId;
+        private final long startedNanos = System.nanoTime();
+        private final LongAdder sent = new LongAdder();
+        private final LongAdder failed = new LongAdder();
+        // 本次执行处理的数量，用于计算吞吐
+        private final LongAdder processed = new LongAdder();
+        private String source;
+        private String templateId;
+        private String url;
+        private Map<String, String> data;
+        private String cursor;
+        private volatile boolean stopped;
+
+        private Job(String jobId) {
+            this.jobId = jobId;
+        }
+    }
+}
@@ -1,14 +1,14 @@
 package org.example.chatai.impl;
 
 import com.google.common.cache.Cache;
+import org.apache.commons.lang3.StringUtils;
 
-import org.example.chatai.vo.WeixinQrCodeReq;
-import org.example.chatai.vo.WeixinQrCodeRes;
 import org.example.chatai.vo.WeixinTemplateMessageVO;
-import org.example.chatai.vo.WeixinTokenRes;
 
 import org.example.chatai.service.ILoginService;
 import org.example.chatai.service.IWeixinApiService;
+import org.example.chatai.service.QrTicketPool;
+import org.example.chatai.service.WeixinAccessTokenService;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import retrofit2.Call;
@@ -17,72 +17,60 @@ import javax.annotation.Resource;
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.UUID;
 
 @Service
 public class WeixinLoginServiceImpl implements ILoginService
 {
-    @Value("${weixin.config.app-id}")
-    private String appid;
-    @Value("${weixin.config.app-secret}")
-    private String appSecret;
     @Value("${weixin.config.template_id}")
     private String template_id;
 
     @Resource
-    private Cache<String, String> weixinAccessToken;
+    private WeixinAccessTokenService weixinAccessTokenService;
     @Resource
     private IWeixinApiService weixinApiService;
     @Resource
     private Cache<String, String> openidToken;
+    @Resource
+    private Cache<String, String> loginToken;
+    @Resource
+    private QrTicketPool qrTicketPool;
 
 
     @Override
     public String createQrCodeTicket() throws Exception {
-        // 1. 获取 accessToken
-        String accessToken = weixinAccessToken.getIfPresent(appid);
-        if (null == accessToken) {
-            Call<WeixinTokenRes> call = weixinApiService.getToken("client_credential", appid, appSecret);
-            WeixinTokenRes weixinTokenRes = call.execute().body();
-            assert weixinTokenRes != null;
-            accessToken = weixinTokenRes.getAccess_token();
-            weixinAccessToken.put(appid, accessToken);
+        // 从预生成的池中取出，不在页面请求里等待微信接口
+        return qrTicketPool.take().getTicket();
+    }
+
+    @Override
+    public String checkLogin(String ticket) {
+        String openid = openidToken.getIfPresent(ticket);
+        if (openid != null) {
+            openidToken.invalidate(ticket);
         }
+        return openid;
+    }
 
-        // 2. 生成 ticket
-        WeixinQrCodeReq weixinQrCodeReq = WeixinQrCodeReq.builder()
-                .expire_seconds(2592000)
-                .action_name(WeixinQrCodeReq.ActionNameTypeVO.QR_SCENE.getCode())
-                .action_info(WeixinQrCodeReq.ActionInfo.builder()
-                        .scene(WeixinQrCodeReq.ActionInfo.Scene.builder()
-                                .scene_id(100601)
-                                .build())
-                        .build())
-                .build();
-
-        Call<WeixinQrCodeRes> call = weixinApiService.createQrCode(accessToken, weixinQrCodeReq);
-        WeixinQrCodeRes weixinQrCodeRes = call.execute().body();
-        assert null != weixinQrCodeRes;
-        return weixinQrCodeRes.getTicket();
+    @Override
+    public String issueLoginToken(String openid) {
+        // openid 会交给前端且可能泄露，检索等接口不能只凭 openid 确认身份
+        String token = UUID.randomUUID().toString().replace("-", "");
+        loginToken.put(token, openid);
+        return token;
     }
 
     @Override
-    public String checkLogin(String ticket) {
-        return openidToken.getIfPresent(ticket);
+    public String resolveOpenid(String token) {
+        return StringUtils.isBlank(token) ? null : loginToken.getIfPresent(token);
     }
 
     @Override
     public void saveLoginState(String ticket, String openid) throws IOException {
         openidToken.put(ticket, openid);
 
-        // 1. 获取 accessToken 【实际业务场景，按需处理下异常】
-        String accessToken = weixinAccessToken.getIfPresent(appid);
-        if (null == accessToken){
-            Call<WeixinTokenRes> call = weixinApiService.getToken("client_credential", appid, appSecret);
-            WeixinTokenRes weixinTokenRes = call.execute().body();
-            assert weixinTokenRes != null;
-            accessToken = weixinTokenRes.getAccess_token();
-            weixinAccessToken.put(appid, accessToken);
-        }
+        // 1. 获取 accessToken，与其他发送方共用，过期时只请求一次
+        String accessToken = weixinAccessTokenService.get();
 
         // 2. 发送模板消息
         Map<String, Map<String, String>> data = new HashMap<>();
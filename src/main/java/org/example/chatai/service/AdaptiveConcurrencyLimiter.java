@@ -0,0 +1,108 @@
+package org.example.chatai.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 聊天链路的自适应并发限制（AIMD）
+ * <p>
+ * 每个请求的上游调用真正结束时释放名额，并用上游（大模型）耗时调整上限：不超过目标耗时且上限被用满时加性增长（每个窗口约 +1），
+ * 超过目标耗时时乘性减小（每个目标耗时窗口最多减一次，避免一批慢请求把上限打到底）。
+ * 排队、读写上下文等本地耗时不计入，回复已按截止时间放弃而上游仍在生成时名额继续占用，
+ * 上限反映的是上游实际承受的并发。在途请求达到上限后新请求直接拒绝，上游变慢时不再无限堆积，保证已接收的请求能在微信超时前返回。
+ */
+@Slf4j
+@Service
+public class AdaptiveConcurrencyLimiter {
+
+    @Value("${chat.limiter.enabled:true}")
+    private boolean enabled;
+
+    @Value("${chat.limiter.initial-limit:20}")
+    private int initialLimit;
+
+    @Value("${chat.limiter.min-limit:4}")
+    private int minLimit;
+
+    @Value("${chat.limiter.max-limit:200}")
+    private int maxLimit;
+
+    @Value("${chat.limiter.target-latency-ms:3000}")
+    private long targetLatencyMillis;
+
+    @Value("${chat.limiter.backoff-ratio:0.8}")
+    private double backoffRatio;
+
+    private double limit;
+    private int inFlight;
+    private long lastDecreaseNanos;
+
+    private final LongAdder admitted = new LongAdder();
+    private final LongAdder shed = new LongAdder();
+    private final LongAdder slow = new LongAdder();
+
+    @PostConstruct
+    public void init() {
+        limit = initialLimit;
+    }
+
+    /**
+     * 尝试占用一个并发名额，返回 false 表示应当拒绝
+     */
+    public synchronized boolean tryAcquire() {
+        if (enabled && inFlight >= (int) limit) {
+            shed.increment();
+            return false;
+        }
+        inFlight++;
+        admitted.increment();
+        return true;
+    }
+
+    /**
+     * 释放名额，不调整上限（未调用上游，如语义缓存命中或排队时已超时）
+     */
+    public synchronized void release() {
+        inFlight--;
+    }
+
+    /**
+     * 释放名额并按本次上游耗时调整上限
+     */
+    public synchronized void release(long latencyNanos) {
+        int used = inFlight;
+        inFlight--;
+        long targetNanos = TimeUnit.MILLISECONDS.toNanos(targetLatencyMillis);
+        long now = System.nanoTime();
+        if (latencyNanos > targetNanos) {
+            slow.increment();
+            if (now - lastDecreaseNanos > targetNanos) {
+                lastDecreaseNanos = now;
+                double previous = limit;
+                limit = Math.max(minLimit, limit * backoffRatio);
+                log.info("聊天链路耗时 {} ms 超过目标，并发上限 {} -> {}",
+                        TimeUnit.NANOSECONDS.toMillis(latencyNanos), (int) previous, (int) limit);
+            }
+        } else if (used >= (int) limit) {
+            limit = Math.min(maxLimit, limit + 1 / limit);
+        }
+    }
+
+    public synchronized Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("limit", (int) limit);
+        stats.put("inFlight", inFlight);
+        stats.put("admitted", admitted.sum());
+        stats.put("shed", shed.sum());
+        stats.put("slow", slow.sum());
+        return stats;
+    }
+}
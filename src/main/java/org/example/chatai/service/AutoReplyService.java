@@ -0,0 +1,285 @@
+package org.example.chatai.service;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.example.chatai.common.AhoCorasickMatcher;
+import org.example.chatai.vo.AutoReplyRule;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * 关键词 / FAQ 自动回复
+ * <p>
+ * 在调用大模型之前执行：全部规则的关键词编译进一个 Aho-Corasick 自动机，一次扫描消息找出候选规则，
+ * 再按 exact / regex 条件校验，命中即直接回复。只有正则没有关键词的规则无法进自动机，这些正则合并成一个分支正则
+ * 先对消息整体扫描一次，没有任何一条能匹配时直接跳过，匹配上才逐条校验；含反向引用的正则合并后编号会错位，
+ * 存在这类规则时不做合并、每条消息都逐条校验，数量应尽量少。规则文件修改后定时热加载，新自动机构建完成后整体替换。
+ * <p>
+ * 规则文件默认放在工作目录下的 config/auto-reply-rules.json，修改后无需重新打包；文件不存在时使用 jar 内置的规则，
+ * 之后创建的文件同样会被加载。
+ */
+@Slf4j
+@Service
+public class AutoReplyService {
+
+    @Value("${chat.auto-reply.enabled:true}")
+    private boolean enabled;
+
+    private static final String BUILTIN_RULES = "classpath:auto-reply-rules.json";
+
+    // \1 或 \k<name> 形式的反向引用
+    private static final Pattern BACK_REFERENCE = Pattern.compile("\\\\[1-9]|\\\\k<");
+
+    @Value("${chat.auto-reply.rules-location:file:config/auto-reply-rules.json}")
+    private String rulesLocation;
+
+    private final ResourceLoader resourceLoader;
+    private final ObjectMapper objectMapper;
+
+    private volatile Compiled compiled = Compiled.EMPTY;
+
+    private final LongAdder matchCount = new LongAdder();
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder matchNanos = new LongAdder();
+
+    public AutoReplyService(ResourceLoader resourceLoader, ObjectMapper objectMapper) {
+        this.resourceLoader = resourceLoader;
+        this.objectMapper = objectMapper;
+    }
+
+    @PostConstruct
+    public void init() {
+        if (enabled) {
+            reload();
+        }
+    }
+
+    /**
+     * 规则文件有变化时重新加载
+     */
+    @Scheduled(fixedDelayString = "${chat.auto-reply.reload-interval-ms:10000}")
+    public void reloadIfModified() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            if (rulesResource().lastModified() != compiled.lastModified) {
+                reload();
+            }
+        } catch (Exception e) {
+            log.debug("检查自动回复规则文件失败: {}", rulesLocation, e);
+        }
+    }
+
+    /**
+     * 匹配自动回复，未命中返回 null
+     */
+    public String match(String openid, String content) {
+        Compiled current = compiled;
+        if (!enabled || current.rules.length == 0 || StringUtils.isBlank(content)) {
+            return null;
+        }
+        long start = System.nanoTime();
+        matchCount.increment();
+        String normalized = normalize(content);
+        AutoReplyRule best = null;
+        for (int pattern : current.matcher.match(normalized)) {
+            int index = current.patternRule[pattern];
+            AutoReplyRule rule = current.rules[index];
+            if (best != null && rule.getPriority() <= best.getPriority()) {
+                continue;
+            }
+            if (rule.isExact() && !current.patterns.get(pattern).equals(normalized)) {
+                continue;
+            }
+            if (current.regex[index] != null && !current.regex[index].matcher(content).find()) {
+                continue;
+            }
+            best = rule;
+        }
+        if (current.regexOnly.length > 0
+                && (current.regexOnlyFilter == null || current.regexOnlyFilter.matcher(content).find())) {
+            for (int index : current.regexOnly) {
+                AutoReplyRule rule = current.rules[index];
+                if ((best == null || rule.getPriority() > best.getPriority()) && current.regex[index].matcher(content).find()) {
+                    best = rule;
+                }
+            }
+        }
+        matchNanos.add(System.nanoTime() - start);
+        if (best == null) {
+            return null;
+        }
+        hitCount.increment();
+        log.info("命中自动回复规则 [{}]，openid: {}", best.getId(), openid);
+        return best.getReply().replace("{openid}", openid).replace("{content}", content);
+    }
+
+    public Map<String, Object> stats() {
+        Compiled current = compiled;
+        long count = matchCount.sum();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("rules", current.rules.length);
+        stats.put("keywords", current.patterns.size());
+        stats.put("regexOnlyRules", current.regexOnly.length);
+        stats.put("regexOnlyPrefiltered", current.regexOnlyFilter != null);
+        stats.put("skippedRules", current.skipped);
+        stats.put("automatonNodes", current.matcher.nodeCount());
+        stats.put("buildMillis", current.buildMillis);
+        stats.put("matchCount", count);
+        stats.put("hitCount", hitCount.sum());
+        stats.put("avgMatchMicros", count == 0 ? 0 : matchNanos.sum() / count / 1000.0);
+        return stats;
+    }
+
+    private synchronized void reload() {
+        Resource resource = rulesResource();
+        try (InputStream in = resource.getInputStream()) {
+            long lastModified = resource.lastModified();
+            List<AutoReplyRule> rules = objectMapper.readValue(in, new TypeReference<List<AutoReplyRule>>() {
+            });
+            compiled = compile(rules, lastModified);
+            log.info("加载自动回复规则 {} 条（其中仅正则 {} 条，跳过 {} 条），关键词 {} 个，耗时 {} ms，来源: {}",
+                    compiled.rules.length, compiled.regexOnly.length, compiled.skipped, compiled.patterns.size(),
+                    compiled.buildMillis, resource.getDescription());
+        } catch (Exception e) {
+            // 加载失败保留旧规则
+            log.error("加载自动回复规则失败: {}", rulesLocation, e);
+        }
+    }
+
+    // 配置的文件不存在时退回 jar 内置规则
+    private Resource rulesResource() {
+        Resource resource = resourceLoader.getResource(rulesLocation);
+        return resource.exists() ? resource : resourceLoader.getResource(BUILTIN_RULES);
+    }
+
+    private static Compiled compile(List<AutoReplyRule> rules, long lastModified) {
+        long start = System.currentTimeMillis();
+        List<AutoReplyRule> valid = new ArrayList<>(rules.size());
+        List<Pattern> validRegex = new ArrayList<>(rules.size());
+        int skipped = 0;
+        for (AutoReplyRule rule : rules) {
+            boolean hasKeywords = rule.getKeywords() != null && !rule.getKeywords().isEmpty();
+            if (StringUtils.isBlank(rule.getReply()) || (!hasKeywords && StringUtils.isBlank(rule.getRegex()))) {
+                log.warn("自动回复规则 [{}] 缺少回复内容，或既没有关键词也没有正则，已跳过", rule.getId());
+                skipped++;
+                continue;
+            }
+            Pattern regex = null;
+            if (StringUtils.isNotBlank(rule.getRegex())) {
+                try {
+                    regex = Pattern.compile(rule.getRegex());
+                } catch (PatternSyntaxException e) {
+                    log.warn("自动回复规则 [{}] 的正则不合法，已跳过: {}", rule.getId(), e.getMessage());
+                    skipped++;
+                    continue;
+                }
+            }
+            valid.add(rule);
+            validRegex.add(regex);
+        }
+        AutoReplyRule[] ruleArray = valid.toArray(new AutoReplyRule[0]);
+        Pattern[] regex = validRegex.toArray(new Pattern[0]);
+        List<String> patterns = new ArrayList<>();
+        List<Integer> patternRule = new ArrayList<>();
+        List<Integer> regexOnly = new ArrayList<>();
+        for (int i = 0; i < ruleArray.length; i++) {
+            if (ruleArray[i].getKeywords() == null || ruleArray[i].getKeywords().isEmpty()) {
+                regexOnly.add(i);
+                continue;
+            }
+            for (String keyword : ruleArray[i].getKeywords()) {
+                String normalized = normalize(keyword);
+                if (!normalized.isEmpty()) {
+                    patterns.add(normalized);
+                    patternRule.add(i);
+                }
+            }
+        }
+        AhoCorasickMatcher matcher = AhoCorasickMatcher.build(patterns);
+        return new Compiled(matcher, patterns, patternRule.stream().mapToInt(Integer::intValue).toArray(),
+                ruleArray, regex, regexOnly.stream().mapToInt(Integer::intValue).toArray(),
+                regexOnlyFilter(ruleArray, regexOnly), skipped, lastModified, System.currentTimeMillis() - start);
+    }
+
+    // 仅正则的规则合并成 (?:r1)|(?:r2)|...，任何一条能匹配时合并后的正则也能匹配
+    private static Pattern regexOnlyFilter(AutoReplyRule[] rules, List<Integer> regexOnly) {
+        if (regexOnly.size() < 2) {
+            return null;
+        }
+        StringBuilder alternation = new StringBuilder();
+        for (int index : regexOnly) {
+            String regex = rules[index].getRegex();
+            if (BACK_REFERENCE.matcher(regex).find()) {
+                log.warn("自动回复规则 [{}] 的正则含反向引用，仅正则的规则不做合并预筛，每条消息逐条校验", rules[index].getId());
+                return null;
+            }
+            if (alternation.length() > 0) {
+                alternation.append('|');
+            }
+            alternation.append("(?:").append(regex).append(')');
+        }
+        return Pattern.compile(alternation.toString());
+    }
+
+    // 去掉空白与标点，统一小写
+    private static String normalize(String text) {
+        StringBuilder sb = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                sb.append(Character.toLowerCase(c));
+            }
+        }
+        return sb.toString();
+    }
+
+    private static final class Compiled {
+        private static final Compiled EMPTY = compile(new ArrayList<>(), -1);
+
+        private final AhoCorasickMatcher matcher;
+        private final List<String> patterns;
+        private final int[] patternRule;
+        private final AutoReplyRule[] rules;
+        private final Pattern[] regex;
+        // 没有关键词、每条消息都要校验正则的规则下标
+        private final int[] regexOnly;
+        // 仅正则规则的合并预筛，为 null 时逐条校验
+        private final Pattern regexOnlyFilter;
+        private final int skipped;
+        private final long lastModified;
+        private final long buildMillis;
+
+        private Compiled(AhoCorasickMatcher matcher, List<String> patterns, int[] patternRule, AutoReplyRule[] rules,
+                         Pattern[] regex, int[] regexOnly, Pattern regexOnlyFilter, int skipped, long lastModified,
+                         long buildMillis) {
+            this.matcher = matcher;
+            this.patterns = patterns;
+            this.patternRule = patternRule;
+            this.rules = rules;
+            this.regex = regex;
+            this.regexOnly = regexOnly;
+            this.regexOnlyFilter = regexOnlyFilter;
+            this.skipped = skipped;
+            this.lastModified = lastModified;
+            this.buildMillis = buildMillis;
+        }
+    }
+}
@@ -0,0 +1,489 @@
+package org.example.chatai.service;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import lombok.extern.slf4j.Slf4j;
+import org.example.chatai.common.ChatRecord;
+import org.example.chatai.common.ChatEvents;
+import org.example.chatai.common.ContextCodec;
+import org.example.chatai.common.RuntimeSettings;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.serializer.GenericToStringSerializer;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 对话上下文存储
+ * <p>
+ * 上下文以 Redis List 保存，每个元素是一轮问答。追加、裁剪、续期由一个 Lua 脚本在服务端原子完成，
+ * 同一用户并发的两条消息都会被追加，不会再互相覆盖；每次写入只携带新的一轮，带宽与对话长度无关。
+ * 每轮以 {@link ContextCodec} 的二进制格式存储，较长的轮次会被压缩。
+ * Redis 中的上下文过期或被淘汰后，从 MySQL 读取最近 N 轮重建并回填，同一用户的并发重建只查一次库。
+ * <p>
+ * 每次写入同时更新版本号 key（单调递增，取 Redis 服务端微秒时间与旧版本 +1 的较大者，key 过期重建后也不会回退）。
+ * 本机保留一份按字节限容的近端缓存，读取时把缓存的版本号交给读取脚本，与 Redis 一致时脚本只返回版本号，
+ * 只有其他节点改过这个用户的上下文时才在同一次往返里返回完整列表。
+ * <p>
+ * 轮数达到摘要阈值的用户在追加时顺带记入待摘要集合（ZSET），由 {@link ConversationSummaryService} 在后台把较早的轮次
+ * 替换为一条摘要；替换时比对被替换前缀的摘要值，期间新追加的轮次不受影响，前缀变了则放弃本次替换。
+ */
+@Slf4j
+@Service
+public class ChatContextService {
+
+    private static final String KEY_PREFIX = "chat:context:";
+
+    // 不放在 chat:context: 下，按前缀扫描或清理上下文时不会混入
+    private static final String VERSION_PREFIX = "chat:context-ver:";
+    private static final String DIRTY_KEY = "chat:context-dirty";
+
+    // 生成新版本号并与上下文同步过期，返回 {旧版本, 新版本}；
+    // 用到 TIME，需在任何写命令之前切换为按效果复制（Redis 5 起默认如此）
+    private static final String BUMP_VERSION =
+            "redis.replicate_commands() " +
+            "local function bump(k, ttl) " +
+            "  local t = redis.call('TIME') " +
+            "  local old = tonumber(redis.call('GET', k) or '0') " +
+            "  local v = tonumber(t[1]) * 1000000 + tonumber(t[2]) " +
+            "  if v <= old then v = old + 1 end " +
+            "  redis.call('SET', k, string.format('%d', v), 'PX', ttl) " +
+            "  return {old, v} " +
+            "end ";
+
+    // 读取脚本：ARGV[1] 为近端缓存中的版本号（没有为 0）。上下文不存在返回空数组；版本一致只返回 {版本}；
+    // 否则第一个元素是版本号（无版本为 0），其后是各轮；兼容旧版整串存储的上下文（String 类型）
+    private static final byte[] LOAD_SCRIPT = (
+            "local t = redis.call('TYPE', KEYS[1])['ok'] " +
+            "if t == 'none' then return {} end " +
+            "local v = tonumber(redis.call('GET', KEYS[2]) or '0') " +
+            "if v > 0 and v == tonumber(ARGV[1]) then return {v} end " +
+            "if t == 'string' then return {v, redis.call('GET', KEYS[1])} end " +
+            "if t == 'list' then " +
+            "  local turns = redis.call('LRANGE', KEYS[1], 0, -1) " +
+            "  table.insert(turns, 1, v) " +
+            "  return turns " +
+            "end " +
+            "return {}").getBytes(StandardCharsets.UTF_8);
+
+    // 追加脚本：旧版 String 先迁移为 List，再追加新一轮、裁剪到最近 N 轮并刷新过期时间，返回 {旧版本, 新版本}；
+    // 上下文已不存在（过期或被淘汰）时旧版本返回 -1，各节点的近端缓存都不能就地推进；
+    // 轮数达到摘要阈值（ARGV[4]，0 为关闭）时把用户记入待摘要集合，已在集合中的保留原时间
+    @SuppressWarnings("rawtypes")
+    private static final RedisScript<List> APPEND_SCRIPT = new DefaultRedisScript<>(BUMP_VERSION +
+            "local existed = redis.call('EXISTS', KEYS[1]) " +
+            "if redis.call('TYPE', KEYS[1])['ok'] == 'string' then " +
+            "  local old = redis.call('GET', KEYS[1]) " +
+            "  redis.call('DEL', KEYS[1]) " +
+            "  redis.call('RPUSH', KEYS[1], old) " +
+            "end " +
+            "redis.call('RPUSH', KEYS[1], ARGV[1]) " +
+            "redis.call('LTRIM', KEYS[1], -tonumber(ARGV[2]), -1) " +
+            "redis.call('PEXPIRE', KEYS[1], ARGV[3]) " +
+            "local r = bump(KEYS[2], ARGV[3]) " +
+            "if existed == 0 then r[1] = -1 end " +
+            "local trigger = tonumber(ARGV[4]) " +
+            "if trigger > 0 and redis.call('LLEN', KEYS[1]) >= trigger then " +
+            "  redis.call('ZADD', KEYS[3], 'NX', ARGV[6], ARGV[5]) " +
+            "end " +
+            "return r", List.class);
+
+    // 摘要替换脚本：前 n 个元素的摘要值与读取时一致才替换为一条摘要，返回新版本号，前缀已变化返回 0
+    private static final RedisScript<Long> REPLACE_PREFIX_SCRIPT = new DefaultRedisScript<>(BUMP_VERSION +
+            "local n = tonumber(ARGV[2]) " +
+            "local head = redis.call('LRANGE', KEYS[1], 0, n - 1) " +
+            "if #head ~= n then return 0 end " +
+            "local parts = {} " +
+            "for i = 1, n do parts[i] = string.len(head[i]) .. ':' .. head[i] end " +
+            "if redis.sha1hex(table.concat(parts)) ~= ARGV[1] then return 0 end " +
+            "redis.call('LTRIM', KEYS[1], n, -1) " +
+            "redis.call('LPUSH', KEYS[1], ARGV[3]) " +
+            "redis.call('PEXPIRE', KEYS[1], ARGV[4]) " +
+            "return bump(KEYS[2], ARGV[4])[2]", Long.class);
+
+    // 认领脚本：取出到期的待摘要用户并从集合中移除，多个实例不会重复处理同一用户
+    @SuppressWarnings("rawtypes")
+    private static final RedisScript<List> CLAIM_DIRTY_SCRIPT = new DefaultRedisScript<>(
+            "local users = redis.call('ZRANGEBYSCORE', KEYS[1], '-inf', ARGV[1], 'LIMIT', 0, tonumber(ARGV[2])) " +
+            "if #users > 0 then redis.call('ZREM', KEYS[1], unpack(users)) end " +
+            "return users", List.class);
+
+    // 回填脚本：key 已存在（期间有新的追加）时不覆盖，返回新版本号，未回填返回 0
+    private static final RedisScript<Long> POPULATE_SCRIPT = new DefaultRedisScript<>(BUMP_VERSION +
+            "if redis.call('EXISTS', KEYS[1]) == 1 then return 0 end " +
+            "for i = 2, #ARGV do redis.call('RPUSH', KEYS[1], ARGV[i]) end " +
+            "redis.call('PEXPIRE', KEYS[1], ARGV[1]) " +
+            "return bump(KEYS[2], ARGV[1])[2]", Long.class);
+
+    // 近端缓存条目：各轮文本不可变，追加时整体替换
+    private static final class NearEntry {
+        final long version;
+        final List<String> turns;
+        final int weight;
+
+        NearEntry(long version, List<String> turns) {
+            this.version = version;
+            this.turns = turns;
+            int chars = 0;
+            for (String turn : turns) {
+                chars += turn.length();
+            }
+            // 按 UTF-16 字符估算，另计对象头与列表开销
+            this.weight = chars * 2 + turns.size() * 48 + 64;
+        }
+    }
+
+    private static final RedisSerializer<Long> LONG_SERIALIZER = new GenericToStringSerializer<>(Long.class);
+
+    // 脚本返回的整数数组元素本身就是 Long，结果序列化器只会作用于 byte[] 元素，这里不会被调用
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    private static final RedisSerializer<List> VERSIONS_SERIALIZER = (RedisSerializer) LONG_SERIALIZER;
+
+    private final StringRedisTemplate redisTemplate;
+    private final ContextCodec contextCodec;
+    private final ChatRecordRepository chatRecordRepository;
+    private final RuntimeSettings runtimeSettings;
+
+    @Value("${chat.context.rebuild-enabled:true}")
+    private boolean rebuildEnabled;
+
+    @Value("${chat.context.near-cache-enabled:true}")
+    private boolean nearCacheEnabled;
+
+    @Value("${chat.summary.enabled:false}")
+    private boolean summaryEnabled;
+
+    @Value("${chat.summary.trigger-turns:12}")
+    private int summaryTriggerTurns;
+
+    // 容量或过期时间调整时整体重建
+    private volatile Cache<String, NearEntry> nearCache;
+    private final LongAdder nearHits = new LongAdder();
+    private final LongAdder nearStale = new LongAdder();
+    private final LongAdder nearMisses = new LongAdder();
+
+    // 进行中的重建，同一用户的并发未命中共享一次查询
+    private final ConcurrentHashMap<String, CompletableFuture<String>> rebuilding = new ConcurrentHashMap<>();
+    private final LongAdder rebuildCount = new LongAdder();
+    private final LongAdder rebuildSharedCount = new LongAdder();
+    private final LongAdder rebuildEmptyCount = new LongAdder();
+    private final LongAdder rebuildRows = new LongAdder();
+    private final LongAdder rebuildNanos = new LongAdder();
+
+    @Autowired
+    public ChatContextService(StringRedisTemplate redisTemplate, ContextCodec contextCodec,
+                              ChatRecordRepository chatRecordRepository, RuntimeSettings runtimeSettings) {
+        this.redisTemplate = redisTemplate;
+        this.contextCodec = contextCodec;
+        this.chatRecordRepository = chatRecordRepository;
+        this.runtimeSettings = runtimeSettings;
+        this.nearCache = buildNearCache();
+        runtimeSettings.onChange(RuntimeSettings.CONTEXT_NEAR_CACHE_MAX_BYTES, value -> resizeNearCache());
+        runtimeSettings.onChange(RuntimeSettings.CONTEXT_TTL_MINUTES, value -> resizeNearCache());
+    }
+
+    /**
+     * 读取用户的历史上下文，Redis 中不存在时从聊天记录重建，仍没有则返回空字符串
+     */
+    public String load(String userId) {
+        ChatEvents.ContextGet event = new ChatEvents.ContextGet();
+        event.begin();
+        String context = loadCached(userId, event);
+        if (context == null) {
+            context = rebuildEnabled ? rebuild(userId) : "";
+            event.source = context.isEmpty() ? "empty" : "rebuild";
+        }
+        event.chars = context.length();
+        event.finish();
+        return context;
+    }
+
+    /**
+     * 重建统计：次数、共享次数与耗时
+     */
+    public Map<String, Object> stats() {
+        long count = rebuildCount.sum();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("rebuildCount", count);
+        stats.put("rebuildSharedCount", rebuildSharedCount.sum());
+        stats.put("rebuildEmptyCount", rebuildEmptyCount.sum());
+        stats.put("rebuildRows", rebuildRows.sum());
+        stats.put("avgRebuildMillis", count == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(rebuildNanos.sum() / count));
+        stats.put("nearCacheEnabled", nearCacheEnabled);
+        stats.put("nearCacheEntries", nearCache.size());
+        stats.put("nearCacheBytes", nearCacheBytes());
+        stats.put("nearHits", nearHits.sum());
+        stats.put("nearStale", nearStale.sum());
+        stats.put("nearMisses", nearMisses.sum());
+        return stats;
+    }
+
+    // Redis 中不存在时返回 null；近端缓存的版本校验与完整读取由同一个脚本完成，缓存过期时也只有一次往返
+    private String loadCached(String userId, ChatEvents.ContextGet event) {
+        NearEntry entry = nearCacheEnabled ? nearCache.getIfPresent(userId) : null;
+        if (nearCacheEnabled && entry == null) {
+            nearMisses.increment();
+        }
+        byte[] key = key(userId).getBytes(StandardCharsets.UTF_8);
+        byte[] versionKey = versionKey(userId).getBytes(StandardCharsets.UTF_8);
+        byte[] knownVersion = bytes(String.valueOf(entry == null ? 0 : entry.version));
+        Object reply = redisTemplate.execute((RedisCallback<Object>) connection ->
+                connection.eval(LOAD_SCRIPT, ReturnType.MULTI, 2, key, versionKey, knownVersion));
+        List<?> elements = reply instanceof List ? (List<?>) reply : Collections.emptyList();
+        if (elements.size() == 1 && entry != null) {
+            nearHits.increment();
+            event.source = "near";
+            return String.join("", entry.turns);
+        }
+        if (entry != null) {
+            nearStale.increment();
+            nearCache.asMap().remove(userId, entry);
+        }
+        if (elements.size() < 2) {
+            return null;
+        }
+        event.source = "redis";
+        List<String> turns = decode(elements.subList(1, elements.size()));
+        long version = elements.get(0) instanceof Long ? (Long) elements.get(0) : 0;
+        // 旧数据没有版本号，不进近端缓存
+        if (nearCacheEnabled && version > 0) {
+            nearCache.put(userId, new NearEntry(version, turns));
+        }
+        return String.join("", turns);
+    }
+
+    private String rebuild(String userId) {
+        CompletableFuture<String> mine = new CompletableFuture<>();
+        CompletableFuture<String> existing = rebuilding.putIfAbsent(userId, mine);
+        if (existing != null) {
+            rebuildSharedCount.increment();
+            return existing.join();
+        }
+        long start = System.nanoTime();
+        String context = "";
+        try {
+            List<ChatRecord> records = chatRecordRepository.findByUserIdOrderByIdDesc(userId, PageRequest.of(0, maxTurns()));
+            rebuildRows.add(records.size());
+            if (records.isEmpty()) {
+                rebuildEmptyCount.increment();
+            } else {
+                // 按时间正序回填
+                Object[] args = new Object[records.size() + 1];
+                args[0] = bytes(String.valueOf(TimeUnit.MINUTES.toMillis(ttlMinutes())));
+                List<String> turns = new ArrayList<>(records.size());
+                for (int i = records.size() - 1, arg = 1; i >= 0; i--, arg++) {
+                    ChatRecord record = records.get(i);
+                    args[arg] = contextCodec.encode(record.getQuestion(), record.getAnswer());
+                    turns.add("\nUser: " + record.getQuestion() + "\nAI: " + record.getAnswer());
+                }
+                context = String.join("", turns);
+                Long version = redisTemplate.execute(POPULATE_SCRIPT, RedisSerializer.byteArray(), LONG_SERIALIZER,
+                        Arrays.asList(key(userId), versionKey(userId)), args);
+                if (nearCacheEnabled && version != null && version > 0) {
+                    nearCache.put(userId, new NearEntry(version, turns));
+                }
+                log.info("Rebuilt context for user [{}] from {} chat records", userId, records.size());
+            }
+        } catch (Exception e) {
+            log.warn("Failed to rebuild context for user [{}] from chat records", userId, e);
+        } finally {
+            rebuildCount.increment();
+            rebuildNanos.add(System.nanoTime() - start);
+            mine.complete(context);
+            rebuilding.remove(userId, mine);
+        }
+        return context;
+    }
+
+    /**
+     * 追加一轮问答，单次往返完成追加、裁剪与续期
+     */
+    public void append(String userId, String question, String answer) {
+        ChatEvents.ContextSet event = new ChatEvents.ContextSet();
+        event.begin();
+        byte[] turn = contextCodec.encode(question, answer);
+        List<?> versions = redisTemplate.execute(APPEND_SCRIPT, RedisSerializer.byteArray(), VERSIONS_SERIALIZER,
+                Arrays.asList(key(userId), versionKey(userId), DIRTY_KEY), turn, bytes(String.valueOf(maxTurns())),
+                bytes(String.valueOf(TimeUnit.MINUTES.toMillis(ttlMinutes()))),
+                bytes(String.valueOf(summaryEnabled ? summaryTriggerTurns : 0)), bytes(userId),
+                bytes(String.valueOf(System.currentTimeMillis())));
+        event.operation = "append";
+        event.bytes = turn.length;
+        event.finish();
+        log.debug("Appended turn to context for user [{}], versions={}", userId, versions);
+        if (nearCacheEnabled) {
+            advanceNear(userId, versions, "\nUser: " + question + "\nAI: " + answer);
+        }
+    }
+
+    /**
+     * 读取用户上下文的原始编码列表（含摘要），供后台摘要使用
+     */
+    public List<byte[]> rawTurns(String userId) {
+        List<byte[]> turns = redisTemplate.execute((RedisCallback<List<byte[]>>) connection ->
+                connection.lRange(bytes(key(userId)), 0, -1));
+        return turns == null ? Collections.emptyList() : turns;
+    }
+
+    /**
+     * 把上下文开头的 prefix 几个元素替换为一条摘要；prefix 已被追加裁剪或其他摘要改动时返回 false
+     */
+    public boolean replacePrefix(String userId, List<byte[]> prefix, byte[] summary) {
+        ChatEvents.ContextSet event = new ChatEvents.ContextSet();
+        event.begin();
+        Long version = redisTemplate.execute(REPLACE_PREFIX_SCRIPT, RedisSerializer.byteArray(), LONG_SERIALIZER,
+                Arrays.asList(key(userId), versionKey(userId)), bytes(prefixDigest(prefix)),
+                bytes(String.valueOf(prefix.size())), summary,
+                bytes(String.valueOf(TimeUnit.MINUTES.toMillis(ttlMinutes()))));
+        event.operation = "summary";
+        event.bytes = summary.length;
+        event.finish();
+        if (version == null || version == 0) {
+            return false;
+        }
+        // 版本号已变，其他节点的近端缓存会在下次读取时发现；本机直接丢弃，省一次版本校验
+        nearCache.invalidate(userId);
+        return true;
+    }
+
+    /**
+     * 认领最多 limit 个到期的待摘要用户
+     */
+    public List<String> claimDirty(int limit) {
+        List<?> users = redisTemplate.execute(CLAIM_DIRTY_SCRIPT, Collections.singletonList(DIRTY_KEY),
+                String.valueOf(System.currentTimeMillis()), String.valueOf(limit));
+        List<String> result = new ArrayList<>();
+        if (users != null) {
+            for (Object user : users) {
+                result.add(String.valueOf(user));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 把用户重新放回待摘要集合，delayMillis 后才会再被认领
+     */
+    public void markDirty(String userId, long delayMillis) {
+        redisTemplate.opsForZSet().add(DIRTY_KEY, userId, System.currentTimeMillis() + delayMillis);
+    }
+
+    public long dirtyCount() {
+        Long count = redisTemplate.opsForZSet().zCard(DIRTY_KEY);
+        return count == null ? 0 : count;
+    }
+
+    // 与替换脚本中的计算方式一致：各元素按 "长度:内容" 拼接后取 SHA-1
+    private static String prefixDigest(List<byte[]> prefix) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            for (byte[] element : prefix) {
+                digest.update(bytes(element.length + ":"));
+                digest.update(element);
+            }
+            StringBuilder hex = new StringBuilder(40);
+            for (byte b : digest.digest()) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // 本机缓存的正是追加前的版本时就地推进，否则说明别的节点也写过，丢弃等下次整读
+    private void advanceNear(String userId, List<?> versions, String turn) {
+        NearEntry entry = nearCache.getIfPresent(userId);
+        if (entry == null) {
+            return;
+        }
+        if (versions == null || versions.size() != 2 || !(versions.get(0) instanceof Long)
+                || entry.version != (Long) versions.get(0)) {
+            nearCache.asMap().remove(userId, entry);
+            return;
+        }
+        List<String> turns = new ArrayList<>(entry.turns);
+        turns.add(turn);
+        int maxTurns = maxTurns();
+        if (turns.size() > maxTurns) {
+            turns = new ArrayList<>(turns.subList(turns.size() - maxTurns, turns.size()));
+        }
+        if (!nearCache.asMap().replace(userId, entry, new NearEntry((Long) versions.get(1), turns))) {
+            nearCache.invalidate(userId);
+        }
+    }
+
+    private Cache<String, NearEntry> buildNearCache() {
+        return CacheBuilder.newBuilder()
+                .maximumWeight(runtimeSettings.getLong(RuntimeSettings.CONTEXT_NEAR_CACHE_MAX_BYTES))
+                .weigher((String userId, NearEntry entry) -> entry.weight)
+                .expireAfterAccess(ttlMinutes(), TimeUnit.MINUTES)
+                .build();
+    }
+
+    // Guava 缓存不能改容量，新建一个并搬入现有条目，超出新容量的部分随即被淘汰
+    private synchronized void resizeNearCache() {
+        Cache<String, NearEntry> resized = buildNearCache();
+        resized.putAll(nearCache.asMap());
+        nearCache = resized;
+        log.info("Rebuilt context near-cache, entries={}", resized.size());
+    }
+
+    private int maxTurns() {
+        return runtimeSettings.getInt(RuntimeSettings.CONTEXT_MAX_TURNS);
+    }
+
+    private long ttlMinutes() {
+        return runtimeSettings.getLong(RuntimeSettings.CONTEXT_TTL_MINUTES);
+    }
+
+    private long nearCacheBytes() {
+        long bytes = 0;
+        for (NearEntry entry : nearCache.asMap().values()) {
+            bytes += entry.weight;
+        }
+        return bytes;
+    }
+
+    private static String key(String userId) {
+        return KEY_PREFIX + userId;
+    }
+
+    private static String versionKey(String userId) {
+        return VERSION_PREFIX + userId;
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private List<String> decode(List<?> encoded) {
+        List<String> turns = new ArrayList<>(encoded.size());
+        for (Object turn : encoded) {
+            if (turn instanceof byte[]) {
+                turns.add(contextCodec.decode((byte[]) turn));
+            }
+        }
+        return turns;
+    }
+}
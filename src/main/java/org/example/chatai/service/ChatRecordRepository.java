@@ -1,9 +1,30 @@
 package org.example.chatai.service;
 
 import org.example.chatai.common.ChatRecord;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.List;
+
 @Repository
 public interface ChatRecordRepository extends JpaRepository<ChatRecord, Long> {
+
+    // 用户最近的 N 条记录，走 (user_id, id) 联合索引
+    List<ChatRecord> findByUserIdOrderByIdDesc(String userId, Pageable pageable);
+
+    // 按 user_id 游标分页取去重用户，同样走联合索引
+    @Query("select distinct c.userId from ChatRecord c where c.userId > :after order by c.userId")
+    List<String> findDistinctUserIdsAfter(@Param("after") String after, Pageable pageable);
+
+    @Query("select count(distinct c.userId) from ChatRecord c")
+    long countDistinctUserIds();
+
+    @Query("select max(c.id) from ChatRecord c")
+    Long findMaxId();
+
+    // 按主键游标顺序扫描，用于回填等批处理
+    List<ChatRecord> findByIdGreaterThanAndIdLessThanEqualOrderByIdAsc(long after, long maxId, Pageable pageable);
 }
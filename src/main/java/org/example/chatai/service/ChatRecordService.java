@@ -0,0 +1,75 @@
+package org.example.chatai.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.example.chatai.common.ChatEvents;
+import org.example.chatai.common.ChatRecord;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * 聊天记录持久化
+ * <p>
+ * 写入先进内存队列，定时批量落库，不占用回复用户的时间；队列满时丢弃并告警，Redis 上下文不受影响。
+ */
+@Slf4j
+@Service
+public class ChatRecordService {
+
+    @Resource
+    private ChatRecordRepository chatRecordRepository;
+
+    @Value("${chat.record.batch-size:200}")
+    private int batchSize;
+
+    private final LinkedBlockingQueue<ChatRecord> pending;
+
+    public ChatRecordService(@Value("${chat.record.queue-capacity:10000}") int queueCapacity) {
+        this.pending = new LinkedBlockingQueue<>(queueCapacity);
+    }
+
+    /**
+     * 记录一轮问答，异步批量落库
+     */
+    public void record(String userId, String question, String answer) {
+        ChatRecord record = new ChatRecord();
+        record.setUserId(userId);
+        record.setQuestion(question);
+        record.setAnswer(answer);
+        record.setCreatedAt(new Date());
+        if (!pending.offer(record)) {
+            log.warn("聊天记录队列已满，丢弃记录，userId: {}", userId);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${chat.record.flush-interval-ms:1000}")
+    public void flush() {
+        List<ChatRecord> batch = new ArrayList<>(batchSize);
+        while (pending.drainTo(batch, batchSize) > 0) {
+            ChatEvents.PersistenceFlush event = new ChatEvents.PersistenceFlush();
+            event.begin();
+            event.records = batch.size();
+            try {
+                chatRecordRepository.saveAll(batch);
+                event.success = true;
+            } catch (Exception e) {
+                log.error("聊天记录落库失败，丢弃 {} 条", batch.size(), e);
+            } finally {
+                event.finish();
+            }
+            batch.clear();
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        flush();
+    }
+}
@@ -0,0 +1,265 @@
+package org.example.chatai.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.example.chatai.common.ChatRecord;
+import org.example.chatai.common.InvertedIndex;
+import org.example.chatai.common.NgramTokenizer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 历史对话全文检索
+ * <p>
+ * 定时按主键从 chat 表追新写入 {@link InvertedIndex}（多实例各自追表，不依赖本机是否写过这条记录，
+ * 每次回看最近 rescan-window 个 ID，补上比更大 ID 晚提交的记录），
+ * 查询时先用索引求出候选记录 ID，再回表取记录并确认原文确实包含查询词（二元组索引会有少量误命中）。
+ * 重建任务在新目录里从头建索引，完成后切换 CURRENT 指针并删除旧目录，期间查询继续使用旧索引。
+ */
+@Slf4j
+@Service
+public class ChatSearchService {
+
+    private static final String CURRENT = "CURRENT";
+
+    @Resource
+    private ChatRecordRepository chatRecordRepository;
+
+    @Value("${chat.search.enabled:true}")
+    private boolean enabled;
+
+    @Value("${chat.search.dir:data/search}")
+    private String dir;
+
+    @Value("${chat.search.flush-docs:20000}")
+    private int flushDocs;
+
+    @Value("${chat.search.merge-factor:10}")
+    private int mergeFactor;
+
+    @Value("${chat.search.batch-size:1000}")
+    private int batchSize;
+
+    // 每次追新回看的 ID 数：自增 ID 按分配而不是提交顺序可见，多实例并发写入时较小的 ID 可能更晚提交
+    @Value("${chat.search.rescan-window:500}")
+    private int rescanWindow;
+
+    private volatile InvertedIndex index;
+    private final Object indexLock = new Object();
+    private CompletableFuture<Map<String, Object>> rebuild;
+    // 回看窗口内已索引的 ID，避免每次追新重复写入（重复写入本身无害，倒排表合并时去重）
+    private TreeSet<Long> recentIds = new TreeSet<>();
+    private final LongAdder lateRecords = new LongAdder();
+
+    private final LongAdder searches = new LongAdder();
+    private final LongAdder searchNanos = new LongAdder();
+
+    @PostConstruct
+    public void init() throws IOException {
+        if (!enabled) {
+            return;
+        }
+        File base = new File(dir);
+        File current = new File(base, CURRENT);
+        String name = current.exists()
+                ? new String(Files.readAllBytes(current.toPath()), StandardCharsets.UTF_8).trim()
+                : "index-" + System.currentTimeMillis();
+        index = new InvertedIndex(new File(base, name), flushDocs, mergeFactor);
+        if (!current.exists()) {
+            writeCurrent(base, name);
+        }
+        log.info("打开对话检索索引 {}，已索引到记录 {}", name, index.getMaxDocId());
+    }
+
+    @PreDestroy
+    public void destroy() throws IOException {
+        if (index != null) {
+            index.close();
+        }
+    }
+
+    /**
+     * 把新落库的聊天记录追加到索引
+     */
+    @Scheduled(fixedDelayString = "${chat.search.poll-interval-ms:2000}")
+    public void catchUp() {
+        if (!enabled) {
+            return;
+        }
+        synchronized (indexLock) {
+            try {
+                long maxDocId = index.getMaxDocId();
+                long floor = Math.max(0, maxDocId - rescanWindow);
+                recentIds.headSet(floor, true).clear();
+                indexRange(index, floor, maxDocId, recentIds);
+            } catch (Exception e) {
+                log.error("对话检索索引追新失败", e);
+            }
+        }
+    }
+
+    /**
+     * 在某个用户的历史对话中检索，所有词都要命中，按时间倒序
+     */
+    public List<Map<String, Object>> search(String userId, String query, int limit) throws IOException {
+        if (!enabled || StringUtils.isBlank(query)) {
+            return Collections.emptyList();
+        }
+        long start = System.nanoTime();
+        Set<String> terms = NgramTokenizer.queryTerms(query);
+        // 多取一些候选，回表校验后可能会过滤掉一部分
+        List<Long> ids = index.search(userId, terms, limit * 2);
+        Map<Long, ChatRecord> records = new HashMap<>();
+        for (ChatRecord record : chatRecordRepository.findAllById(ids)) {
+            records.put(record.getId(), record);
+        }
+        // 与分词一致按字符段比对，标点、空白都只是分隔符
+        List<String> words = NgramTokenizer.runs(query);
+        List<Map<String, Object>> results = new ArrayList<>();
+        for (Long id : ids) {
+            ChatRecord record = records.get(id);
+            if (record == null || !userId.equals(record.getUserId()) || !containsAll(record, words)) {
+                continue;
+            }
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("id", record.getId());
+            result.put("question", record.getQuestion());
+            result.put("answer", record.getAnswer());
+            result.put("createdAt", record.getCreatedAt());
+            results.add(result);
+            if (results.size() >= limit) {
+                break;
+            }
+        }
+        searches.increment();
+        searchNanos.add(System.nanoTime() - start);
+        return results;
+    }
+
+    /**
+     * 从 chat 表全量重建索引，重复调用返回正在执行的任务
+     */
+    public synchronized CompletableFuture<Map<String, Object>> rebuild() {
+        if (rebuild != null && !rebuild.isDone()) {
+            return rebuild;
+        }
+        rebuild = CompletableFuture.supplyAsync(() -> {
+            try {
+                return runRebuild();
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        return rebuild;
+    }
+
+    public Map<String, Object> stats() {
+        long count = searches.sum();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        if (index != null) {
+            stats.putAll(index.stats());
+        }
+        stats.put("searches", count);
+        stats.put("avgSearchMillis", count == 0 ? 0 : searchNanos.sum() / count / 1e6);
+        stats.put("rebuilding", rebuild != null && !rebuild.isDone());
+        // 回看窗口补上的记录（含重启 / 重建后窗口内的重复写入）
+        stats.put("lateRecords", lateRecords.sum());
+        return stats;
+    }
+
+    private Map<String, Object> runRebuild() throws IOException {
+        long start = System.currentTimeMillis();
+        File base = new File(dir);
+        String name = "index-" + start;
+        InvertedIndex fresh = new InvertedIndex(new File(base, name), flushDocs, mergeFactor);
+        // 大部分数据在锁外建，最后在锁内补上重建期间的新记录再切换
+        long indexed = indexRange(fresh, 0, 0, null);
+        InvertedIndex previous;
+        synchronized (indexLock) {
+            indexed += indexRange(fresh, fresh.getMaxDocId(), fresh.getMaxDocId(), null);
+            fresh.flush();
+            writeCurrent(base, name);
+            previous = index;
+            index = fresh;
+            // 切换后第一次追新把回看窗口整体补一遍
+            recentIds = new TreeSet<>();
+        }
+        previous.destroy();
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("index", name);
+        result.put("records", indexed);
+        result.put("elapsedMillis", System.currentTimeMillis() - start);
+        log.info("对话检索索引重建完成，记录 {} 条，耗时 {} ms", indexed, result.get("elapsedMillis"));
+        return result;
+    }
+
+    // 按主键顺序索引 after 之后的记录，返回新索引的条数；seen 不为空时跳过其中已有的 ID，
+    // 不大于 indexedMax 却是第一次见到的记录即晚提交的记录
+    private long indexRange(InvertedIndex target, long after, long indexedMax, Set<Long> seen) throws IOException {
+        Long maxId = chatRecordRepository.findMaxId();
+        long count = 0;
+        while (maxId != null && after < maxId) {
+            List<ChatRecord> page = chatRecordRepository.findByIdGreaterThanAndIdLessThanEqualOrderByIdAsc(
+                    after, maxId, PageRequest.of(0, batchSize));
+            if (page.isEmpty()) {
+                break;
+            }
+            for (ChatRecord record : page) {
+                if (seen != null && !seen.add(record.getId())) {
+                    continue;
+                }
+                if (record.getId() <= indexedMax) {
+                    lateRecords.increment();
+                }
+                Set<String> terms = new LinkedHashSet<>(NgramTokenizer.indexTerms(record.getQuestion()));
+                terms.addAll(NgramTokenizer.indexTerms(record.getAnswer()));
+                target.add(record.getId(), record.getUserId(), terms);
+                count++;
+            }
+            after = page.get(page.size() - 1).getId();
+        }
+        return count;
+    }
+
+    // 原文同样切成字符段后以分隔符拼接，查询段只能在某一段内命中，不会跨过标点
+    private static boolean containsAll(ChatRecord record, List<String> words) {
+        String question = String.join(" ", NgramTokenizer.runs(record.getQuestion() == null ? "" : record.getQuestion()));
+        String answer = String.join(" ", NgramTokenizer.runs(record.getAnswer() == null ? "" : record.getAnswer()));
+        for (String word : words) {
+            if (!question.contains(word) && !answer.contains(word)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void writeCurrent(File base, String name) throws IOException {
+        File tmp = new File(base, CURRENT + ".tmp");
+        Files.write(tmp.toPath(), name.getBytes(StandardCharsets.UTF_8));
+        Files.move(tmp.toPath(), new File(base, CURRENT).toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,546 @@
+package org.example.chatai.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.example.chatai.common.Deadline;
+import org.example.chatai.common.DeliveryBudget;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.DefaultStringRedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.RedisStreamCommands;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.PendingMessage;
+import org.springframework.data.redis.connection.stream.PendingMessages;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
+import org.springframework.data.redis.connection.stream.StreamRecords;
+import org.springframework.data.redis.connection.stream.StringRecord;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 跨实例共享的聊天任务队列（Redis Streams）
+ * <p>
+ * 开启后收到消息的实例不再自己调用大模型，而是把任务写入 Stream，由消费组里任意实例的工作线程认领，
+ * 忙的实例认领得少、闲的实例认领得多，负载按各实例的实际处理能力分摊。
+ * 工作线程处理完后把结果写入按任务的 key，并发布到发起实例的频道，发起实例收到后完成对应的请求；
+ * 发布丢失时在超时前再查一次结果 key。
+ * 认领后长时间未确认的任务（实例宕机或卡死）由定时任务 XCLAIM 给本实例重新处理，投递次数超限的直接丢弃。
+ * 统计各实例的处理速率以观察负载是否均衡，并在发起实例上统计多出的一跳（入队、认领、回传）带来的时延。
+ */
+@Slf4j
+@Service
+public class ChatWorkQueue {
+
+    private static final String STREAM_KEY = "chat:jobs:stream";
+    private static final String GROUP = "chat-workers";
+    private static final String RESULT_KEY_PREFIX = "chat:jobs:result:";
+    private static final String CHANNEL_PREFIX = "chat:jobs:done:";
+    // 各实例心跳与处理计数：nodeId -> startedAt:lastSeen:processed
+    private static final String NODES_KEY = "chat:jobs:nodes";
+
+    @Value("${chat.work-queue.enabled:false}")
+    private boolean enabled;
+
+    @Value("${chat.work-queue.workers:8}")
+    private int workers;
+
+    @Value("${chat.work-queue.result-timeout-ms:4500}")
+    private long resultTimeoutMillis;
+
+    @Value("${chat.work-queue.result-ttl-ms:60000}")
+    private long resultTtlMillis;
+
+    @Value("${chat.work-queue.block-ms:2000}")
+    private long blockMillis;
+
+    // 需大于单个任务的最长处理时间，否则仍在处理的任务会被其他实例重复认领
+    @Value("${chat.work-queue.reclaim-idle-ms:15000}")
+    private long reclaimIdleMillis;
+
+    @Value("${chat.work-queue.max-deliveries:3}")
+    private long maxDeliveries;
+
+    // 超过这个时间的任务发起方早已超时，认领后直接确认丢弃
+    @Value("${chat.work-queue.max-age-ms:30000}")
+    private long maxAgeMillis;
+
+    @Value("${chat.work-queue.stream-max-len:10000}")
+    private long streamMaxLen;
+
+    @Resource
+    private StringRedisTemplate redisTemplate;
+    @Resource
+    private RedisConnectionFactory connectionFactory;
+    @Resource
+    private OpenAIService openAIService;
+    @Resource
+    private FairRequestScheduler fairRequestScheduler;
+    @Resource
+    private ObjectMapper objectMapper;
+
+    private final String nodeId = UUID.randomUUID().toString().replace("-", "").substring(0, 12);
+    private final long startedAt = System.currentTimeMillis();
+    private final Map<String, Waiting> waiting = new ConcurrentHashMap<>();
+    // 本实例正在处理的记录，回收时跳过
+    private final Set<String> processing = ConcurrentHashMap.newKeySet();
+    private final LinkedBlockingQueue<StringRecord> reclaimed = new LinkedBlockingQueue<>();
+
+    private volatile boolean running;
+    private List<Thread> workerThreads;
+    private ScheduledExecutorService timer;
+    private RedisMessageListenerContainer listenerContainer;
+
+    // 发起方
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder completedLocal = new LongAdder();
+    private final LongAdder completedRemote = new LongAdder();
+    private final LongAdder recoveredFromKey = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder endToEndNanos = new LongAdder();
+    private final LongAdder hopNanos = new LongAdder();
+    private final LongAccumulator maxHopNanos = new LongAccumulator(Math::max, 0);
+    // 工作方
+    private final LongAdder processed = new LongAdder();
+    private final LongAdder processNanos = new LongAdder();
+    private final LongAdder queueWaitMillis = new LongAdder();
+    private final LongAdder reclaimedCount = new LongAdder();
+    private final LongAdder expired = new LongAdder();
+    private final LongAdder deadLettered = new LongAdder();
+    private final LongAdder workerErrors = new LongAdder();
+
+    @PostConstruct
+    public void init() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            redisTemplate.execute((RedisCallback<String>) connection ->
+                    ((StringRedisConnection) connection).xGroupCreate(STREAM_KEY, ReadOffset.from("0"), GROUP, true));
+        } catch (DataAccessException e) {
+            // BUSYGROUP：消费组已由其他实例创建
+            log.debug("聊天任务消费组已存在: {}", e.getMessage());
+        }
+        timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "chat-work-queue-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        listenerContainer = new RedisMessageListenerContainer();
+        listenerContainer.setConnectionFactory(connectionFactory);
+        listenerContainer.addMessageListener((message, pattern) ->
+                onResult(new String(message.getBody(), StandardCharsets.UTF_8)), new ChannelTopic(CHANNEL_PREFIX + nodeId));
+        listenerContainer.afterPropertiesSet();
+        listenerContainer.start();
+
+        running = true;
+        workerThreads = new ArrayList<>(workers);
+        AtomicInteger threadIndex = new AtomicInteger();
+        for (int i = 0; i < workers; i++) {
+            Thread thread = new Thread(this::work, "chat-work-queue-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            thread.start();
+            workerThreads.add(thread);
+        }
+        heartbeat();
+        log.info("聊天任务队列已开启，实例 {}，工作线程 {}", nodeId, workers);
+    }
+
+    @PreDestroy
+    public void destroy() throws Exception {
+        if (!enabled) {
+            return;
+        }
+        running = false;
+        for (Thread thread : workerThreads) {
+            thread.interrupt();
+        }
+        timer.shutdownNow();
+        listenerContainer.destroy();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 发布聊天任务，任意实例处理完成后返回回答；超时未完成时以 TimeoutException 结束
+     */
+    public CompletableFuture<String> submit(String openid, String content) {
+        String jobId = UUID.randomUUID().toString().replace("-", "");
+        Waiting job = new Waiting();
+        waiting.put(jobId, job);
+        Map<String, String> fields = new HashMap<>();
+        fields.put("jobId", jobId);
+        fields.put("openid", openid);
+        fields.put("content", content);
+        fields.put("origin", nodeId);
+        fields.put("enqueuedAt", String.valueOf(System.currentTimeMillis()));
+        // 请求的截止时间随任务带给处理实例（墙上时间，包含实例间的时钟偏差）
+        Deadline deadline = Deadline.current();
+        long timeoutMillis = resultTimeoutMillis;
+        if (deadline != null) {
+            fields.put("deadlineAt", String.valueOf(deadline.getDeadlineMillis()));
+            timeoutMillis = Math.max(0, Math.min(timeoutMillis, deadline.remainingMillis()));
+        }
+        try {
+            redisTemplate.execute((RedisCallback<RecordId>) connection ->
+                    ((StringRedisConnection) connection).xAdd(StreamRecords.string(fields).withStreamKey(STREAM_KEY),
+                            RedisStreamCommands.XAddOptions.maxlen(streamMaxLen)));
+        } catch (RuntimeException e) {
+            waiting.remove(jobId);
+            throw e;
+        }
+        submitted.increment();
+        timer.schedule(() -> expire(jobId), timeoutMillis, TimeUnit.MILLISECONDS);
+        return job.future;
+    }
+
+    /**
+     * 定时心跳、回收长时间未确认的任务、清理已下线实例
+     */
+    @Scheduled(fixedDelayString = "${chat.work-queue.reclaim-interval-ms:5000}")
+    public void reclaim() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            heartbeat();
+            PendingMessages pendingMessages = redisTemplate.opsForStream().pending(STREAM_KEY, GROUP, Range.unbounded(), 100);
+            List<String> ids = new ArrayList<>();
+            for (PendingMessage message : pendingMessages) {
+                if (message.getElapsedTimeSinceLastDelivery().toMillis() < reclaimIdleMillis
+                        || processing.contains(message.getIdAsString())) {
+                    continue;
+                }
+                if (message.getTotalDeliveryCount() >= maxDeliveries) {
+                    acknowledge(message.getIdAsString());
+                    deadLettered.increment();
+                    log.warn("聊天任务 {} 已投递 {} 次仍未完成，丢弃", message.getIdAsString(), message.getTotalDeliveryCount());
+                    continue;
+                }
+                ids.add(message.getIdAsString());
+            }
+            if (!ids.isEmpty()) {
+                // XCLAIM 再次校验空闲时间，两个实例同时回收时只有一个能认领成功
+                List<StringRecord> records = redisTemplate.execute((RedisCallback<List<StringRecord>>) connection ->
+                        ((StringRedisConnection) connection).xClaim(STREAM_KEY, GROUP, nodeId,
+                                RedisStreamCommands.XClaimOptions.minIdleMs(reclaimIdleMillis).ids(ids.toArray(new String[0]))));
+                if (records != null) {
+                    for (StringRecord record : records) {
+                        if (record != null && record.getValue() != null && !record.getValue().isEmpty()) {
+                            reclaimedCount.increment();
+                            reclaimed.offer(record);
+                        }
+                    }
+                }
+            }
+            removeDeadNodes();
+        } catch (Exception e) {
+            log.error("回收聊天任务失败", e);
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("nodeId", nodeId);
+        if (!enabled) {
+            return stats;
+        }
+        long completed = completedLocal.sum() + completedRemote.sum();
+        Map<String, Object> origin = new LinkedHashMap<>();
+        origin.put("submitted", submitted.sum());
+        origin.put("waiting", waiting.size());
+        origin.put("completedLocal", completedLocal.sum());
+        origin.put("completedRemote", completedRemote.sum());
+        origin.put("recoveredFromKey", recoveredFromKey.sum());
+        origin.put("timeouts", timeouts.sum());
+        origin.put("avgEndToEndMillis", completed == 0 ? 0 : endToEndNanos.sum() / completed / 1e6);
+        // 端到端耗时减去工作方的处理耗时，即入队、认领、回传多出来的时延
+        origin.put("avgHopMillis", completed == 0 ? 0 : hopNanos.sum() / completed / 1e6);
+        origin.put("maxHopMillis", maxHopNanos.get() / 1e6);
+        stats.put("origin", origin);
+
+        long count = processed.sum();
+        Map<String, Object> worker = new LinkedHashMap<>();
+        worker.put("processed", count);
+        worker.put("processing", processing.size());
+        worker.put("avgProcessMillis", count == 0 ? 0 : processNanos.sum() / count / 1e6);
+        // 入队时间来自发起实例的时钟，跨实例时包含时钟偏差
+        worker.put("avgQueueWaitMillis", count == 0 ? 0 : queueWaitMillis.sum() / (double) count);
+        worker.put("reclaimed", reclaimedCount.sum());
+        worker.put("expired", expired.sum());
+        worker.put("deadLettered", deadLettered.sum());
+        worker.put("errors", workerErrors.sum());
+        stats.put("worker", worker);
+
+        stats.put("streamLength", redisTemplate.opsForStream().size(STREAM_KEY));
+        stats.put("pending", redisTemplate.opsForStream().pending(STREAM_KEY, GROUP).getTotalPendingMessages());
+        stats.put("balance", balance());
+        return stats;
+    }
+
+    // 各在线实例的处理速率，以及速率的变异系数与最大值/平均值之比，越接近 0 / 1 越均衡
+    private Map<String, Object> balance() {
+        long now = System.currentTimeMillis();
+        Map<Object, Object> entries = redisTemplate.opsForHash().entries(NODES_KEY);
+        Map<String, Object> nodes = new LinkedHashMap<>();
+        List<Double> rates = new ArrayList<>();
+        for (Map.Entry<Object, Object> entry : entries.entrySet()) {
+            String[] parts = ((String) entry.getValue()).split(":");
+            long nodeStartedAt = Long.parseLong(parts[0]);
+            long lastSeen = Long.parseLong(parts[1]);
+            long nodeProcessed = Long.parseLong(parts[2]);
+            if (now - lastSeen > reclaimIdleMillis) {
+                continue;
+            }
+            double minutes = Math.max(1, lastSeen - nodeStartedAt) / 60000.0;
+            double rate = nodeProcessed / minutes;
+            rates.add(rate);
+            Map<String, Object> node = new LinkedHashMap<>();
+            node.put("processed", nodeProcessed);
+            node.put("perMinute", rate);
+            nodes.put((String) entry.getKey(), node);
+        }
+        Map<String, Object> balance = new LinkedHashMap<>();
+        balance.put("nodes", nodes);
+        if (!rates.isEmpty()) {
+            double mean = rates.stream().mapToDouble(Double::doubleValue).average().orElse(0);
+            double max = rates.stream().mapToDouble(Double::doubleValue).max().orElse(0);
+            double variance = rates.stream().mapToDouble(rate -> (rate - mean) * (rate - mean)).average().orElse(0);
+            balance.put("coefficientOfVariation", mean == 0 ? 0 : Math.sqrt(variance) / mean);
+            balance.put("maxToMean", mean == 0 ? 0 : max / mean);
+        }
+        return balance;
+    }
+
+    private void work() {
+        StringRedisConnection connection = null;
+        while (running) {
+            try {
+                StringRecord record = reclaimed.poll();
+                if (record == null) {
+                    // 阻塞读取在独立连接上进行，每个工作线程长期持有一个连接
+                    if (connection == null) {
+                        connection = new DefaultStringRedisConnection(connectionFactory.getConnection());
+                    }
+                    List<StringRecord> records = connection.xReadGroupAsString(Consumer.from(GROUP, nodeId),
+                            StreamReadOptions.empty().count(1).block(Duration.ofMillis(blockMillis)),
+                            StreamOffset.create(STREAM_KEY, ReadOffset.lastConsumed()));
+                    if (records == null || records.isEmpty()) {
+                        continue;
+                    }
+                    record = records.get(0);
+                }
+                process(record);
+            } catch (Exception e) {
+                if (!running) {
+                    break;
+                }
+                workerErrors.increment();
+                log.warn("聊天任务工作线程异常，稍后重试", e);
+                if (connection != null) {
+                    closeQuietly(connection);
+                    connection = null;
+                }
+                try {
+                    TimeUnit.SECONDS.sleep(1);
+                } catch (InterruptedException interrupted) {
+                    break;
+                }
+            }
+        }
+        if (connection != null) {
+            closeQuietly(connection);
+        }
+    }
+
+    private void process(StringRecord record) throws Exception {
+        String id = record.getId().getValue();
+        Map<String, String> fields = record.getValue();
+        long enqueuedAt = Long.parseLong(fields.get("enqueuedAt"));
+        long now = System.currentTimeMillis();
+        if (now - enqueuedAt > maxAgeMillis) {
+            acknowledge(id);
+            expired.increment();
+            return;
+        }
+        String deadlineAt = fields.get("deadlineAt");
+        Deadline deadline = deadlineAt == null ? null : Deadline.at(Long.parseLong(deadlineAt));
+        if (deadline != null && deadline.isExpired()) {
+            // 发布方已经回复了超时，不再处理
+            acknowledge(id);
+            Deadline.abandon("work_queue");
+            return;
+        }
+        processing.add(id);
+        Deadline previous = Deadline.attach(deadline);
+        try {
+            long start = System.nanoTime();
+            String openid = fields.get("openid");
+            String answer;
+            try {
+                answer = fairRequestScheduler.submit(openid,
+                        () -> openAIService.ask(openid, fields.get("content"), DeliveryBudget.Channel.WEBHOOK)).get();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof Deadline.ExceededException) {
+                    // 已按放弃的环节计数，确认掉以免被回收后重试
+                    acknowledge(id);
+                    return;
+                }
+                throw e;
+            }
+            long elapsed = System.nanoTime() - start;
+
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("jobId", fields.get("jobId"));
+            result.put("answer", answer);
+            result.put("worker", nodeId);
+            result.put("processNanos", elapsed);
+            String payload = objectMapper.writeValueAsString(result);
+            String origin = fields.get("origin");
+            redisTemplate.execute((RedisCallback<Object>) connection -> {
+                StringRedisConnection conn = (StringRedisConnection) connection;
+                conn.pSetEx(RESULT_KEY_PREFIX + fields.get("jobId"), resultTtlMillis, payload);
+                conn.publish(CHANNEL_PREFIX + origin, payload);
+                return null;
+            });
+            acknowledge(id);
+            processed.increment();
+            processNanos.add(elapsed);
+            queueWaitMillis.add(Math.max(0, now - enqueuedAt));
+        } finally {
+            Deadline.attach(previous);
+            processing.remove(id);
+        }
+    }
+
+    private void acknowledge(String id) {
+        redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            conn.xAck(STREAM_KEY, GROUP, id);
+            conn.xDel(STREAM_KEY, id);
+            return null;
+        });
+    }
+
+    private void onResult(String payload) {
+        try {
+            JsonNode result = objectMapper.readTree(payload);
+            Waiting job = waiting.remove(result.path("jobId").asText());
+            if (job == null) {
+                // 已超时或已从结果 key 取到
+                return;
+            }
+            complete(job, result);
+        } catch (Exception e) {
+            log.warn("解析聊天任务结果失败", e);
+        }
+    }
+
+    private void expire(String jobId) {
+        Waiting job = waiting.remove(jobId);
+        if (job == null) {
+            return;
+        }
+        try {
+            // 结果可能已写入但发布丢失（订阅连接重连期间）
+            String payload = redisTemplate.opsForValue().get(RESULT_KEY_PREFIX + jobId);
+            if (payload != null) {
+                recoveredFromKey.increment();
+                complete(job, objectMapper.readTree(payload));
+                return;
+            }
+        } catch (Exception e) {
+            log.warn("读取聊天任务 {} 结果失败", jobId, e);
+        }
+        timeouts.increment();
+        job.future.completeExceptionally(new TimeoutException("聊天任务 " + jobId + " 未在 " + resultTimeoutMillis + " ms 内完成"));
+    }
+
+    private void complete(Waiting job, JsonNode result) {
+        long endToEnd = System.nanoTime() - job.submittedNanos;
+        long hop = Math.max(0, endToEnd - result.path("processNanos").asLong());
+        if (nodeId.equals(result.path("worker").asText())) {
+            completedLocal.increment();
+        } else {
+            completedRemote.increment();
+        }
+        endToEndNanos.add(endToEnd);
+        hopNanos.add(hop);
+        maxHopNanos.accumulate(hop);
+        job.future.complete(result.path("answer").isNull() ? null : result.path("answer").asText());
+    }
+
+    private void heartbeat() {
+        redisTemplate.opsForHash().put(NODES_KEY, nodeId,
+                startedAt + ":" + System.currentTimeMillis() + ":" + processed.sum());
+    }
+
+    // 心跳超过十分钟的实例：待处理任务已被回收后删除消费者与心跳记录
+    private void removeDeadNodes() {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<Object, Object> entry : redisTemplate.opsForHash().entries(NODES_KEY).entrySet()) {
+            String node = (String) entry.getKey();
+            long lastSeen = Long.parseLong(((String) entry.getValue()).split(":")[1]);
+            if (now - lastSeen < TimeUnit.MINUTES.toMillis(10)) {
+                continue;
+            }
+            PendingMessages pendingMessages = redisTemplate.opsForStream()
+                    .pending(STREAM_KEY, Consumer.from(GROUP, node), Range.unbounded(), 1);
+            if (pendingMessages.isEmpty()) {
+                redisTemplate.opsForStream().deleteConsumer(STREAM_KEY, Consumer.from(GROUP, node));
+                redisTemplate.opsForHash().delete(NODES_KEY, node);
+                log.info("移除已下线的聊天任务实例 {}", node);
+            }
+        }
+    }
+
+    private static void closeQuietly(StringRedisConnection connection) {
+        try {
+            connection.close();
+        } catch (Exception e) {
+            log.debug("关闭聊天任务连接失败", e);
+        }
+    }
+
+    private static final class Waiting {
+        private final long submittedNanos = System.nanoTime();
+        private final CompletableFuture<String> future = new CompletableFuture<>();
+    }
+}
@@ -0,0 +1,167 @@
+package org.example.chatai.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.example.chatai.common.ContextCodec;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 后台对话摘要
+ * <p>
+ * 追加上下文时轮数达到阈值的用户会被记入待摘要集合（见 {@link ChatContextService}），本任务定时认领这些用户，
+ * 在独立的低优先级线程池里把除最近 keep-turns 轮以外的内容交给 {@link ISummaryService} 压缩成一条摘要，
+ * 再以比对前缀的方式替换回 Redis。摘要调用完全不在用户请求路径上，每次请求携带的上下文长度因此保持有界。
+ * <p>
+ * 摘要会丢弃原始对话内容，默认关闭，需显式配置 chat.summary.enabled=true 才会启用。
+ */
+@Slf4j
+@Service
+public class ConversationSummaryService {
+
+    @Resource
+    private ChatContextService chatContextService;
+    @Resource
+    private ContextCodec contextCodec;
+    @Resource
+    private ISummaryService summaryService;
+
+    @Value("${chat.summary.enabled:false}")
+    private boolean enabled;
+
+    @Value("${chat.summary.keep-turns:4}")
+    private int keepTurns;
+
+    @Value("${chat.summary.threads:1}")
+    private int threads;
+
+    @Value("${chat.summary.queue-capacity:32}")
+    private int queueCapacity;
+
+    @Value("${chat.summary.retry-delay-ms:60000}")
+    private long retryDelayMillis;
+
+    private ThreadPoolExecutor executor;
+
+    private final LongAdder summarized = new LongAdder();
+    private final LongAdder skipped = new LongAdder();
+    private final LongAdder conflicts = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder turnsReplaced = new LongAdder();
+    private final LongAdder bytesBefore = new LongAdder();
+    private final LongAdder bytesAfter = new LongAdder();
+    private final LongAdder summaryNanos = new LongAdder();
+
+    @PostConstruct
+    public void init() {
+        AtomicInteger threadIndex = new AtomicInteger();
+        executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), r -> {
+                    Thread thread = new Thread(r, "chat-summary-" + threadIndex.incrementAndGet());
+                    thread.setDaemon(true);
+                    // 与请求线程争抢 CPU 时让路
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                });
+    }
+
+    @PreDestroy
+    public void destroy() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * 按线程池的空余队列认领待摘要用户，队列满时留在集合里等下一轮
+     */
+    @Scheduled(fixedDelayString = "${chat.summary.poll-interval-ms:10000}")
+    public void poll() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            int capacity = executor.getQueue().remainingCapacity();
+            if (capacity == 0) {
+                return;
+            }
+            for (String userId : chatContextService.claimDirty(capacity)) {
+                executor.execute(() -> summarize(userId));
+            }
+        } catch (Exception e) {
+            log.error("认领待摘要对话失败", e);
+        }
+    }
+
+    public Map<String, Object> stats() {
+        long count = summarized.sum();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("summarizer", summaryService.getClass().getSimpleName());
+        stats.put("pending", enabled ? chatContextService.dirtyCount() : 0);
+        stats.put("queued", executor.getQueue().size());
+        stats.put("active", executor.getActiveCount());
+        stats.put("summarized", count);
+        stats.put("skipped", skipped.sum());
+        stats.put("conflicts", conflicts.sum());
+        stats.put("failures", failures.sum());
+        stats.put("turnsReplaced", turnsReplaced.sum());
+        stats.put("bytesBefore", bytesBefore.sum());
+        stats.put("bytesAfter", bytesAfter.sum());
+        stats.put("avgSummaryMillis", count == 0 ? 0 : summaryNanos.sum() / count / 1e6);
+        return stats;
+    }
+
+    private void summarize(String userId) {
+        long start = System.nanoTime();
+        try {
+            List<byte[]> turns = chatContextService.rawTurns(userId);
+            if (turns.size() <= keepTurns + 1) {
+                // 已被其他实例摘要过或上下文已过期
+                skipped.increment();
+                return;
+            }
+            List<byte[]> prefix = turns.subList(0, turns.size() - keepTurns);
+            StringBuilder conversation = new StringBuilder();
+            long prefixBytes = 0;
+            for (byte[] turn : prefix) {
+                conversation.append(contextCodec.decode(turn));
+                prefixBytes += turn.length;
+            }
+            String summary = summaryService.summarize(conversation.toString());
+            if (StringUtils.isBlank(summary)) {
+                failures.increment();
+                chatContextService.markDirty(userId, retryDelayMillis);
+                return;
+            }
+            byte[] encoded = contextCodec.encodeSummary(summary.trim());
+            if (!chatContextService.replacePrefix(userId, prefix, encoded)) {
+                // 摘要期间较早的轮次被裁剪或改动，下一轮重新读取后再做
+                conflicts.increment();
+                chatContextService.markDirty(userId, 0);
+                return;
+            }
+            summarized.increment();
+            turnsReplaced.add(prefix.size());
+            bytesBefore.add(prefixBytes);
+            bytesAfter.add(encoded.length);
+            summaryNanos.add(System.nanoTime() - start);
+            log.info("Summarized {} turns for user [{}], {} -> {} bytes", prefix.size(), userId, prefixBytes, encoded.length);
+        } catch (Exception e) {
+            failures.increment();
+            log.warn("Failed to summarize context for user [{}]", userId, e);
+            chatContextService.markDirty(userId, retryDelayMillis);
+        }
+    }
+}
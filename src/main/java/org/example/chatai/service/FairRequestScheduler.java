@@ -0,0 +1,275 @@
+package org.example.chatai.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.example.chatai.common.Deadline;
+import org.example.chatai.common.RequestTiming;
+import org.example.chatai.common.RuntimeSettings;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 按用户公平调度的请求执行器
+ * <p>
+ * 每个 openid 一个 FIFO 队列，同一用户同时最多一个请求在执行，后续消息排在它后面；
+ * 有排队任务的用户按轮转派发，少数高频用户不会再占满线程池让其他人的问题排队。
+ * 扫码登录不经过这里，在请求线程上同步处理（见 WeixinPortalController）。
+ */
+@Slf4j
+@Service
+public class FairRequestScheduler {
+
+    // 最大并发可在运行时调整
+    @Resource
+    private RuntimeSettings runtimeSettings;
+
+    private final Object lock = new Object();
+    private final Map<String, UserQueue> queues = new HashMap<>();
+    private final ArrayDeque<UserQueue> ready = new ArrayDeque<>();
+    private final WaitStats waitStats = new WaitStats();
+    private int maxConcurrency;
+    private int permits;
+
+    private ThreadPoolExecutor executor;
+
+    @PostConstruct
+    public void init() {
+        maxConcurrency = runtimeSettings.getInt(RuntimeSettings.SCHEDULER_MAX_CONCURRENCY);
+        permits = maxConcurrency;
+        AtomicInteger threadIndex = new AtomicInteger();
+        executor = new ThreadPoolExecutor(maxConcurrency, maxConcurrency, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+                    Thread thread = new Thread(r, "chat-scheduler-" + threadIndex.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        runtimeSettings.onChange(RuntimeSettings.SCHEDULER_MAX_CONCURRENCY, value -> resize((Integer) value));
+    }
+
+    @PreDestroy
+    public void destroy() {
+        executor.shutdown();
+    }
+
+    /**
+     * 提交一个用户请求，按用户公平排队执行
+     */
+    public <T> CompletableFuture<T> submit(String userId, Callable<T> work) {
+        Task<T> task = new Task<>(work);
+        List<Dispatch> dispatches;
+        synchronized (lock) {
+            UserQueue queue = queues.computeIfAbsent(userId, UserQueue::new);
+            queue.tasks.addLast(task);
+            if (!queue.inFlight && !queue.linked) {
+                link(queue);
+            }
+            dispatches = dispatch();
+        }
+        start(dispatches);
+        return task.future;
+    }
+
+    /**
+     * 调度统计：排队等待时间与排队最深的用户
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        List<Map<String, Object>> users = new ArrayList<>();
+        synchronized (lock) {
+            stats.put("maxConcurrency", maxConcurrency);
+            stats.put("inFlight", maxConcurrency - permits);
+            stats.put("activeUsers", queues.size());
+            for (UserQueue queue : queues.values()) {
+                if (queue.tasks.isEmpty()) {
+                    continue;
+                }
+                Map<String, Object> user = new LinkedHashMap<>();
+                user.put("userId", queue.userId);
+                user.put("queued", queue.tasks.size());
+                user.put("inFlight", queue.inFlight);
+                user.put("headWaitMillis", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - queue.tasks.peekFirst().enqueuedAt));
+                users.add(user);
+            }
+        }
+        users.sort((a, b) -> Integer.compare((Integer) b.get("queued"), (Integer) a.get("queued")));
+        stats.put("topQueuedUsers", users.size() > 20 ? users.subList(0, 20) : users);
+        stats.put("wait", waitStats.snapshot());
+        return stats;
+    }
+
+    /**
+     * 调整最大并发：调大时立即派发排队中的任务，调小时已在执行的任务照常完成，许可降到新上限以下后才派发新任务
+     */
+    public void resize(int newMaxConcurrency) {
+        List<Dispatch> dispatches;
+        synchronized (lock) {
+            permits += newMaxConcurrency - maxConcurrency;
+            maxConcurrency = newMaxConcurrency;
+            // 先放宽再收紧，避免 core > max 的非法中间状态
+            if (newMaxConcurrency > executor.getMaximumPoolSize()) {
+                executor.setMaximumPoolSize(newMaxConcurrency);
+                executor.setCorePoolSize(newMaxConcurrency);
+            } else {
+                executor.setCorePoolSize(newMaxConcurrency);
+                executor.setMaximumPoolSize(newMaxConcurrency);
+            }
+            dispatches = dispatch();
+        }
+        log.info("调度器最大并发调整为 {}", newMaxConcurrency);
+        start(dispatches);
+    }
+
+    private void link(UserQueue queue) {
+        queue.linked = true;
+        ready.addLast(queue);
+    }
+
+    // 在锁内选出可以开始执行的任务，实际执行放到锁外
+    private List<Dispatch> dispatch() {
+        List<Dispatch> dispatches = null;
+        while (permits > 0) {
+            UserQueue queue = ready.pollFirst();
+            if (queue == null) {
+                break;
+            }
+            queue.linked = false;
+            queue.inFlight = true;
+            permits--;
+            Task<?> task = queue.tasks.peekFirst();
+            task.waitNanos = System.nanoTime() - task.enqueuedAt;
+            waitStats.record(task.waitNanos);
+            if (dispatches == null) {
+                dispatches = new ArrayList<>();
+            }
+            dispatches.add(new Dispatch(queue, task));
+        }
+        return dispatches;
+    }
+
+    private void start(List<Dispatch> dispatches) {
+        if (dispatches == null) {
+            return;
+        }
+        for (Dispatch dispatch : dispatches) {
+            executor.execute(() -> {
+                try {
+                    dispatch.task.run();
+                } finally {
+                    complete(dispatch.queue);
+                }
+            });
+        }
+    }
+
+    private void complete(UserQueue queue) {
+        List<Dispatch> dispatches;
+        synchronized (lock) {
+            queue.tasks.pollFirst();
+            queue.inFlight = false;
+            permits++;
+            if (queue.tasks.isEmpty()) {
+                queues.remove(queue.userId);
+            } else {
+                link(queue);
+            }
+            dispatches = dispatch();
+        }
+        start(dispatches);
+    }
+
+    private static final class UserQueue {
+        private final String userId;
+        private final ArrayDeque<Task<?>> tasks = new ArrayDeque<>();
+        private boolean inFlight;
+        private boolean linked;
+
+        private UserQueue(String userId) {
+            this.userId = userId;
+        }
+    }
+
+    private static final class Task<T> {
+        private final Callable<T> work;
+        private final CompletableFuture<T> future = new CompletableFuture<>();
+        private final long enqueuedAt = System.nanoTime();
+        // 提交线程上的请求计时，执行时带到工作线程
+        private final RequestTiming timing = RequestTiming.current();
+        // 提交线程上的截止时间，排队期间已过期的任务不再执行
+        private final Deadline deadline = Deadline.current();
+        private long waitNanos;
+
+        private Task(Callable<T> work) {
+            this.work = work;
+        }
+
+        private void run() {
+            // 调用方已按截止时间放弃等待
+            if (future.isDone()) {
+                return;
+            }
+            if (deadline != null && deadline.isExpired()) {
+                future.completeExceptionally(Deadline.abandon("queue"));
+                return;
+            }
+            RequestTiming previous = RequestTiming.attach(timing);
+            Deadline previousDeadline = Deadline.attach(deadline);
+            try {
+                RequestTiming.add("queue_wait", waitNanos);
+                future.complete(work.call());
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            } finally {
+                Deadline.attach(previousDeadline);
+                RequestTiming.attach(previous);
+            }
+        }
+    }
+
+    private static final class Dispatch {
+        private final UserQueue queue;
+        private final Task<?> task;
+
+        private Dispatch(UserQueue queue, Task<?> task) {
+            this.queue = queue;
+            this.task = task;
+        }
+    }
+
+    private static final class WaitStats {
+        private final LongAdder dispatched = new LongAdder();
+        private final LongAdder totalWaitNanos = new LongAdder();
+        private volatile long maxWaitNanos;
+
+        private void record(long waitNanos) {
+            dispatched.increment();
+            totalWaitNanos.add(waitNanos);
+            if (waitNanos > maxWaitNanos) {
+                maxWaitNanos = waitNanos;
+            }
+        }
+
+        private Map<String, Object> snapshot() {
+            long count = dispatched.sum();
+            Map<String, Object> snapshot = new LinkedHashMap<>();
+            snapshot.put("dispatched", count);
+            snapshot.put("avgWaitMillis", count == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalWaitNanos.sum() / count));
+            snapshot.put("maxWaitMillis", TimeUnit.NANOSECONDS.toMillis(maxWaitNanos));
+            return snapshot;
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package org.example.chatai.service;
+
+import org.example.chatai.vo.BatchQaReq;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Map;
+
+public interface IBatchQaService {
+
+    /**
+     * 创建批量问答任务并开始执行，返回任务 ID
+     */
+    String submit(BatchQaReq req) throws Exception;
+
+    /**
+     * 任务进度，任务不存在返回 null
+     */
+    Map<String, Object> progress(String jobId);
+
+    boolean cancel(String jobId);
+
+    List<Map<String, Object>> jobs();
+
+    /**
+     * 按完成顺序以 NDJSON 输出第 from 条起的结果；follow 为 true 时一直输出到任务结束
+     */
+    void streamResults(String jobId, long from, boolean follow, OutputStream out) throws IOException;
+}
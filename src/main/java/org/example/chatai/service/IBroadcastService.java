@@ -0,0 +1,23 @@
+package org.example.chatai.service;
+
+import org.example.chatai.vo.BroadcastReq;
+
+import java.util.List;
+import java.util.Map;
+
+public interface IBroadcastService {
+
+    /**
+     * 创建群发任务并开始发送，返回任务 ID
+     */
+    String submit(BroadcastReq req) throws Exception;
+
+    /**
+     * 任务进度，任务不存在返回 null
+     */
+    Map<String, Object> progress(String jobId);
+
+    boolean cancel(String jobId);
+
+    List<Map<String, Object>> jobs();
+}
@@ -0,0 +1,27 @@
+package org.example.chatai.service;
+
+import java.util.Map;
+
+/**
+ * 对话上下文存储，聊天请求通过它读取历史并追加新的一轮
+ * <p>
+ * 由 chat.context.store 选择实现：redis 为多实例共享的 Redis 存储（{@link org.example.chatai.impl.RedisConversationStoreImpl}）；
+ * local 为本机内存映射文件（{@link org.example.chatai.impl.LocalConversationStoreImpl}），适合单实例部署，每条消息省一次网络往返；
+ * degrade 平时读写 Redis 并同步写一份到本机，Redis 出错或变慢时切到本机存储，恢复后把期间的轮次补写回 Redis
+ * （{@link org.example.chatai.impl.DegradingConversationStoreImpl}）。
+ * 后台摘要仍直接操作 Redis 中的上下文（见 {@link ChatContextService}），local 模式下不生效。
+ */
+public interface IConversationStore {
+
+    /**
+     * 读取用户的历史上下文（"\nUser: ...\nAI: ..." 拼接），没有时返回空字符串
+     */
+    String load(String userId);
+
+    /**
+     * 追加一轮问答，只保留最近 N 轮并刷新过期时间
+     */
+    void append(String userId, String question, String answer);
+
+    Map<String, Object> stats();
+}
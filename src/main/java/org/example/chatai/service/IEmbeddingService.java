@@ -0,0 +1,17 @@
+package org.example.chatai.service;
+
+/**
+ * 文本向量化服务，语义缓存通过它比较问题的相似度
+ * <p>
+ * 默认实现为本地确定性的哈希向量（{@link org.example.chatai.impl.HashingEmbeddingServiceImpl}），
+ * 接入真实的向量模型时提供另一个实现并标记为 @Primary 即可。
+ */
+public interface IEmbeddingService {
+
+    /**
+     * 返回 L2 归一化后的向量，长度等于 {@link #dimension()}
+     */
+    float[] embed(String text);
+
+    int dimension();
+}
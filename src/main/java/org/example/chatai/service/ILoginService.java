@@ -6,7 +6,20 @@ public interface ILoginService {
 
     String createQrCodeTicket() throws Exception;
 
+    /**
+     * 扫码完成后返回 openid，ticket 随即失效；未扫码返回 null
+     */
     String checkLogin(String ticket);
 
+    /**
+     * 为已扫码的 openid 发放登录 token（随机值，服务端映射到 openid），需要确认身份的接口只认 token
+     */
+    String issueLoginToken(String openid);
+
+    /**
+     * 由登录 token 解析 openid，token 无效或过期返回 null
+     */
+    String resolveOpenid(String loginToken);
+
     void saveLoginState(String ticket, String openid) throws IOException;
 }
@@ -0,0 +1,15 @@
+package org.example.chatai.service;
+
+/**
+ * 对话摘要服务，后台摘要任务用它把较早的若干轮压缩成一段文字
+ * <p>
+ * 由 chat.summary.provider 选择实现：local 为本地抽取式摘要（{@link org.example.chatai.impl.ExtractiveSummaryServiceImpl}），
+ * 不调用外部接口，便于本地调试；openai 调用模型生成摘要（{@link org.example.chatai.impl.OpenAISummaryServiceImpl}）。
+ */
+public interface ISummaryService {
+
+    /**
+     * 对话文本为提示词格式（"\nUser: ...\nAI: ..."，可能以上一次的 "\nSummary: ..." 开头），返回摘要正文，失败返回 null
+     */
+    String summarize(String conversation);
+}
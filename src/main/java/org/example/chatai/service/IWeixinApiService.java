@@ -1,8 +1,10 @@
 package org.example.chatai.service;
 
 
+import org.example.chatai.vo.WeixinCustomMessageVO;
 import org.example.chatai.vo.WeixinQrCodeReq;
 import org.example.chatai.vo.WeixinQrCodeRes;
+import org.example.chatai.vo.WeixinTemplateMessageRes;
 import org.example.chatai.vo.WeixinTemplateMessageVO;
 import org.example.chatai.vo.WeixinTokenRes;
 import retrofit2.Call;
@@ -25,4 +27,10 @@ public interface IWeixinApiService {
     @POST("cgi-bin/message/template/send")
     Call<Void> sendMessage(@Query("access_token") String accessToken, @Body WeixinTemplateMessageVO weixinTemplateMessageVO);
 
+    @POST("cgi-bin/message/template/send")
+    Call<WeixinTemplateMessageRes> sendTemplateMessage(@Query("access_token") String accessToken, @Body WeixinTemplateMessageVO weixinTemplateMessageVO);
+
+    @POST("cgi-bin/message/custom/send")
+    Call<WeixinTemplateMessageRes> sendCustomMessage(@Query("access_token") String accessToken, @Body WeixinCustomMessageVO weixinCustomMessageVO);
+
 }
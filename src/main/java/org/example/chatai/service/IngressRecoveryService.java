@@ -0,0 +1,80 @@
+package org.example.chatai.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.example.chatai.common.DeliveryBudget;
+import org.example.chatai.common.IngressLog;
+import org.example.chatai.vo.WeixinCustomMessageVO;
+import org.example.chatai.vo.WeixinTemplateMessageRes;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.Resource;
+import java.util.List;
+
+/**
+ * 重放入站日志中上次进程退出时还没处理完的消息
+ * <p>
+ * 原来的 HTTP 请求已经断开，无法被动回复，回答改用客服消息接口补发给用户。
+ * 重放同样走公平调度，按用户排队，不会挤占新消息。
+ */
+@Slf4j
+@Service
+public class IngressRecoveryService {
+
+    @Resource
+    private IngressLog ingressLog;
+    @Resource
+    private FairRequestScheduler fairRequestScheduler;
+    @Resource
+    private OpenAIService openAIService;
+    @Resource
+    private IWeixinApiService weixinApiService;
+    @Resource
+    private DeliveryBudget deliveryBudget;
+    @Resource
+    private WeixinAccessTokenService accessTokenService;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void replay() {
+        if (!ingressLog.isEnabled()) {
+            return;
+        }
+        List<IngressLog.Entry> entries = ingressLog.recover();
+        for (IngressLog.Entry entry : entries) {
+            fairRequestScheduler.submit(entry.getOpenid(), () -> {
+                String answer = openAIService.ask(entry.getOpenid(), entry.getContent(), DeliveryBudget.Channel.CUSTOM_MESSAGE);
+                if (StringUtils.isNotBlank(answer)) {
+                    deliver(entry.getOpenid(), answer);
+                }
+                return answer;
+            }).whenComplete((answer, e) -> {
+                if (e != null) {
+                    log.error("重放入站消息失败，openid: {}", entry.getOpenid(), e);
+                }
+                ingressLog.complete(entry.getHandle());
+            });
+        }
+        if (!entries.isEmpty()) {
+            log.info("已提交 {} 条入站消息重放", entries.size());
+        }
+    }
+
+    private void deliver(String openid, String answer) throws Exception {
+        String content = answer.replace("\n", "").replace("\r", "");
+        if (content.startsWith("AI:")) {
+            content = content.substring(3).trim();
+        }
+        content = deliveryBudget.fit(DeliveryBudget.Channel.CUSTOM_MESSAGE, content);
+        WeixinCustomMessageVO message = new WeixinCustomMessageVO(openid, content);
+        WeixinTemplateMessageRes res = weixinApiService.sendCustomMessage(accessTokenService.get(), message).execute().body();
+        if (res != null && (res.getErrcode() == 40001 || res.getErrcode() == 42001)) {
+            accessTokenService.invalidate();
+            res = weixinApiService.sendCustomMessage(accessTokenService.get(), message).execute().body();
+        }
+        if (res == null || res.getErrcode() != 0) {
+            log.warn("补发客服消息失败，openid: {}，errcode: {}", openid, res == null ? null : res.getErrcode());
+        }
+    }
+}
@@ -1,20 +1,28 @@
 package org.example.chatai.service;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.io.CountingInputStream;
+import com.google.common.io.CountingOutputStream;
 import lombok.extern.slf4j.Slf4j;
 import org.example.chatai.chat.config.OpenAIConfig;
 import org.example.chatai.chat.req.OpenAIRequest;
-import org.example.chatai.chat.res.OpenAIResponse;
+import org.example.chatai.common.ChatEvents;
+import org.example.chatai.common.Deadline;
+import org.example.chatai.common.DeliveryBudget;
+import org.example.chatai.common.OpenAICodec;
+import org.example.chatai.common.PayloadLogPolicy;
+import org.example.chatai.common.RequestTiming;
+import org.example.chatai.common.RuntimeSettings;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.http.*;
 import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
+import org.springframework.web.client.ResourceAccessException;
 import org.springframework.web.client.RestTemplate;
-import org.springframework.data.redis.core.StringRedisTemplate;
 
+import java.io.InputStream;
 import java.util.Collections;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.TimeUnit;
 
 @Slf4j
 @Service
@@ -22,86 +30,227 @@ public class OpenAIService {
 
     private final OpenAIConfig openAIConfig;
     private final RestTemplate restTemplate;
-    private final ObjectMapper objectMapper;
-    private final StringRedisTemplate redisTemplate; // 添加 Redis 模板
+    private final RestTemplate webRestTemplate; // 网页接口使用的较长读超时
+    private final RestTemplate offlineRestTemplate; // 批量任务和后台摘要使用的读超时
+    private final OpenAICodec openAICodec;
+    private final IConversationStore conversationStore; // 上下文存储，由 chat.context.store 选择实现
+    private final PayloadLogPolicy payloadLogPolicy;
+    private final SemanticAnswerCache semanticAnswerCache;
+    private final ChatRecordService chatRecordService;
+    private final UsageStatsService usageStatsService;
+    private final RuntimeSettings runtimeSettings;
+    private final DeliveryBudget deliveryBudget;
 
     @Autowired
-    public OpenAIService(OpenAIConfig openAIConfig, RestTemplate restTemplate, ObjectMapper objectMapper,
-                         StringRedisTemplate redisTemplate) {
+    public OpenAIService(OpenAIConfig openAIConfig, RestTemplate restTemplate,
+                         @Qualifier("webRestTemplate") RestTemplate webRestTemplate,
+                         @Qualifier("offlineRestTemplate") RestTemplate offlineRestTemplate, OpenAICodec openAICodec,
+                         IConversationStore conversationStore, PayloadLogPolicy payloadLogPolicy,
+                         SemanticAnswerCache semanticAnswerCache, ChatRecordService chatRecordService,
+                         UsageStatsService usageStatsService, RuntimeSettings runtimeSettings,
+                         DeliveryBudget deliveryBudget) {
         this.openAIConfig = openAIConfig;
         this.restTemplate = restTemplate;
-        this.objectMapper = objectMapper;
-        this.redisTemplate = redisTemplate; // 初始化 Redis 模板
+        this.webRestTemplate = webRestTemplate;
+        this.offlineRestTemplate = offlineRestTemplate;
+        this.openAICodec = openAICodec;
+        this.conversationStore = conversationStore;
+        this.payloadLogPolicy = payloadLogPolicy;
+        this.semanticAnswerCache = semanticAnswerCache;
+        this.chatRecordService = chatRecordService;
+        this.usageStatsService = usageStatsService;
+        this.runtimeSettings = runtimeSettings;
+        this.deliveryBudget = deliveryBudget;
     }
 
     @Async
     public CompletableFuture<String> askQuestion(String userId, String question) {
-        try {
-            log.info("Received question from user [{}]: {}", userId, question);
+        return CompletableFuture.completedFuture(ask(userId, question, DeliveryBudget.Channel.WEB));
+    }
 
-            // 构建 Redis 缓存键
-            String cacheKey = "chat:context:" + userId;
+    /**
+     * 同步调用 OpenAI，由调用方决定在哪个线程执行（如 {@link FairRequestScheduler}）；
+     * channel 为回答的送达渠道，生成长度按渠道的字节预算限制
+     */
+    public String ask(String userId, String question, DeliveryBudget.Channel channel) {
+        long start = System.nanoTime();
+        try {
+            log.info("Received question from user [{}]: {}", userId, payloadLogPolicy.render(question));
 
-            // 从 Redis 获取历史上下文
-            String previousContext = redisTemplate.opsForValue().get(cacheKey);
-            if (previousContext == null) {
+            // 读取历史上下文（Redis / 本机存储）
+            Deadline.check("redis_load");
+            long loadStart = System.nanoTime();
+            String previousContext = conversationStore.load(userId);
+            RequestTiming.record("redis_load", loadStart);
+            if (previousContext.isEmpty()) {
                 log.info("No previous context found for user [{}], initializing new context.", userId);
-                previousContext = ""; // 如果没有历史上下文，初始化为空字符串
             } else {
-                log.info("Retrieved previous context for user [{}]: {}", userId, previousContext);
+                log.info("Retrieved previous context for user [{}]: {} chars", userId, previousContext.length());
+            }
+
+            // 新会话的第一个问题与上下文无关，先查语义缓存
+            boolean cacheable = previousContext.isEmpty() && semanticAnswerCache.isEnabled();
+            if (cacheable) {
+                long cacheStart = System.nanoTime();
+                String cached = semanticAnswerCache.get(question);
+                RequestTiming.record("semantic_cache", cacheStart);
+                if (cached != null) {
+                    log.info("Semantic cache hit for user [{}]", userId);
+                    conversationStore.append(userId, question, cached);
+                    chatRecordService.record(userId, question, cached);
+                    usageStatsService.record(userId, System.nanoTime() - start);
+                    return cached;
+                }
             }
 
             // 拼接新的上下文
             String context = previousContext + "\nUser: " + question;
 
-            // 打印上下文内容
-            log.info("Updated context for user [{}]: {}", userId, context);
-
-            // 构建请求头
-            HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(MediaType.APPLICATION_JSON);
-            headers.setBearerAuth(openAIConfig.getKey());
+            // 打印上下文内容（截断/抽样，避免日志量随对话长度平方增长）
+            if (log.isDebugEnabled()) {
+                log.debug("Updated context for user [{}]: {}", userId, payloadLogPolicy.render(context));
+            }
 
             // 构建请求体
             OpenAIRequest request = new OpenAIRequest();
-            request.setModel("gpt-3.5-turbo");
+            request.setModel(runtimeSettings.getString(RuntimeSettings.OPENAI_MODEL));
             OpenAIRequest.Message message = new OpenAIRequest.Message("user", context);
             request.setMessages(Collections.singletonList(message));
 
-            // 打印请求体日志，确保上下文正确
-            log.debug("Constructed OpenAI request for user [{}]: {}", userId, objectMapper.writeValueAsString(request));
+            // 打印请求体日志，确保上下文正确（只在 debug 打开时序列化）
+            if (log.isDebugEnabled()) {
+                log.debug("Constructed OpenAI request for user [{}]: {}", userId,
+                        payloadLogPolicy.render(openAICodec.render(request)));
+            }
 
-            // 发送请求
-            HttpEntity<OpenAIRequest> entity = new HttpEntity<>(request, headers);
-            ResponseEntity<OpenAIResponse> response = restTemplate.exchange(
-                    openAIConfig.getEndpoint(),
-                    HttpMethod.POST,
-                    entity,
-                    OpenAIResponse.class
-            );
+            // 发送请求：请求体直接写入输出流，响应流式解析只取回答
+            Deadline.check("upstream");
+            long upstreamStart = System.nanoTime();
+            OpenAICodec.Answer result;
+            try {
+                result = complete(request, channel);
+            } catch (ResourceAccessException e) {
+                // 连接与读取超时按剩余时间收紧过，此时的超时即截止时间已到
+                Deadline deadline = Deadline.current();
+                if (deadline != null && deadline.isExpired()) {
+                    throw Deadline.abandon("upstream");
+                }
+                throw e;
+            } finally {
+                RequestTiming.record("upstream", upstreamStart);
+            }
 
             // 处理 OpenAI 返回结果
-            if (response.getStatusCode() == HttpStatus.OK && response.getBody() != null
-                    && !response.getBody().getChoices().isEmpty()) {
-                String answer = response.getBody().getChoices().get(0).getMessage().getContent();
-                log.info("Successfully received response from OpenAI for user [{}]: {}", userId, answer);
-
-                // 将新的对话内容追加到上下文
-                String updatedContext = context + "\nAI: " + answer;
+            if (result != null && result.getContent() != null) {
+                String answer = result.getContent();
+                log.info("Successfully received response from OpenAI for user [{}]: {}", userId, payloadLogPolicy.render(answer));
 
-                // 写入 Redis 中的上下文
-                redisTemplate.opsForValue().set(cacheKey, updatedContext, 30, TimeUnit.MINUTES); // 设置过期时间为 30 分钟
-                log.info("Successfully updated Redis context for user [{}]: {}", userId, updatedContext);
+                // 将新的一轮问答追加到上下文（裁剪、续期由存储一并完成）
+                // 回答已来不及送达时不写入，否则用户下一轮会看到一段从未收到的上下文
+                Deadline.check("redis_append");
+                long appendStart = System.nanoTime();
+                conversationStore.append(userId, question, answer);
+                RequestTiming.record("redis_append", appendStart);
+                log.info("Successfully updated context for user [{}]", userId);
+                chatRecordService.record(userId, question, answer);
+                usageStatsService.record(userId, System.nanoTime() - start);
+                // 被预算截住的回答不完整，不放进各渠道共用的语义缓存
+                if (cacheable && !result.isCutoff() && !"length".equals(result.getFinishReason())) {
+                    semanticAnswerCache.put(question, answer);
+                }
 
-                return CompletableFuture.completedFuture(answer);
+                return answer;
             } else {
-                log.warn("Received unexpected response from OpenAI for user [{}]: status={}, body={}",
-                        userId, response.getStatusCode(), response.getBody());
-                return CompletableFuture.completedFuture("抱歉，我现在无法回答，请稍后再试");
+                log.warn("OpenAI returned no answer for user [{}]", userId);
+                return "抱歉，我现在无法回答，请稍后再试";
             }
+        } catch (Deadline.ExceededException e) {
+            throw e;
         } catch (Exception e) {
             log.error("Error while calling OpenAI API for user [{}]", userId, e);
-            return CompletableFuture.completedFuture("服务暂时不可用，请稍后重试");
+            return "服务暂时不可用，请稍后重试";
+        }
+    }
+
+    /**
+     * 单次调用 OpenAI：不读写上下文、不落库，非 200 响应返回 null。
+     * 供批量任务和后台摘要使用，读超时取 chat.http.offline-read-timeout-ms，不受公众号回复时限约束
+     */
+    public OpenAICodec.Answer complete(OpenAIRequest request) {
+        return execute(request, 0, offlineRestTemplate);
+    }
+
+    /**
+     * 按送达渠道的字节预算设置 max_tokens；开启流式时回答达到预算即停止读取，并关闭响应流断开上游连接，
+     * 不再等待和支付剩余部分的生成。网页渠道使用 chat.http.web-read-timeout-ms，其余渠道使用共用的读超时
+     */
+    public OpenAICodec.Answer complete(OpenAIRequest request, DeliveryBudget.Channel channel) {
+        RestTemplate client = channel == DeliveryBudget.Channel.WEB ? webRestTemplate : restTemplate;
+        Integer maxTokens = deliveryBudget.maxTokens(channel);
+        if (maxTokens == null) {
+            return execute(request, 0, client);
+        }
+        request.setMaxTokens(maxTokens);
+        int budgetBytes = 0;
+        if (deliveryBudget.isStream()) {
+            request.setStream(true);
+            budgetBytes = deliveryBudget.budgetBytes(channel);
+        }
+        OpenAICodec.Answer answer = execute(request, budgetBytes, client);
+        deliveryBudget.record(channel, maxTokens, answer);
+        return answer;
+    }
+
+    private OpenAICodec.Answer execute(OpenAIRequest request, int budgetBytes, RestTemplate client) {
+        boolean stream = Boolean.TRUE.equals(request.getStream());
+        ChatEvents.UpstreamCall event = new ChatEvents.UpstreamCall();
+        event.begin();
+        // 只在录制时统计收发字节数
+        boolean counting = event.isEnabled();
+        try {
+            return client.execute(openAIConfig.getEndpoint(), HttpMethod.POST, httpRequest -> {
+                httpRequest.getHeaders().setContentType(MediaType.APPLICATION_JSON);
+                httpRequest.getHeaders().setBearerAuth(openAIConfig.getKey());
+                if (log.isDebugEnabled()) {
+                    log.debug("OpenAI request headers: {}", PayloadLogPolicy.redact(httpRequest.getHeaders()));
+                }
+                if (counting) {
+                    CountingOutputStream out = new CountingOutputStream(httpRequest.getBody());
+                    openAICodec.writeRequest(request, out);
+                    event.bytesOut = out.getCount();
+                } else {
+                    openAICodec.writeRequest(request, httpRequest.getBody());
+                }
+            }, httpResponse -> {
+                event.status = httpResponse.getRawStatusCode();
+                if (httpResponse.getStatusCode() != HttpStatus.OK) {
+                    log.warn("Received unexpected response from OpenAI: status={}", httpResponse.getStatusCode());
+                    return null;
+                }
+                InputStream body = httpResponse.getBody();
+                CountingInputStream in = counting ? new CountingInputStream(body) : null;
+                OpenAICodec.Answer answer;
+                try {
+                    answer = stream
+                            ? openAICodec.readStream(in != null ? in : body, budgetBytes)
+                            : openAICodec.readAnswer(in != null ? in : body);
+                } catch (Deadline.ExceededException e) {
+                    // 同提前停止：直接断开，不读完剩余的生成
+                    body.close();
+                    throw e;
+                }
+                if (in != null) {
+                    event.bytesIn = in.getCount();
+                }
+                if (answer.isCutoff()) {
+                    // 未读完时关闭响应流会断开连接而不是读完剩余内容（RestTemplate 随后的 drain 在已关闭的流上直接失败返回）
+                    body.close();
+                }
+                return answer;
+            });
+        } finally {
+            event.model = request.getModel();
+            event.finish();
         }
     }
 }
@@ -0,0 +1,268 @@
+package org.example.chatai.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.example.chatai.vo.WeixinQrCodeReq;
+import org.example.chatai.vo.WeixinQrCodeRes;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 预生成的扫码登录二维码 ticket 池
+ * <p>
+ * 登录页取 ticket 时直接从池中取出一个（O(1)），不再同步获取 access_token 并调用 qrcode/create；
+ * 池中数量低于目标值时由后台线程异步补充。每个 ticket 使用独立的场景值（Redis 自增分配，多实例不重复），
+ * 扫码事件可以据此区分。ticket 按创建顺序出池，剩余有效期不足 expire-margin-seconds 的直接丢弃，
+ * 保证发出去的 ticket 在用户扫码时仍然有效。目标数量按最近的取用速率（指数加权平均）乘以备货时长计算，
+ * 限制在 min-size 与 max-size 之间。池空时退回同步生成并计入 misses。
+ */
+@Slf4j
+@Service
+public class QrTicketPool {
+
+    private static final String SCENE_SEQ_KEY = "chat:login:qr:scene-seq";
+
+    // 每次刷新时，本周期取用速率在平均值中的权重
+    private static final double DEMAND_ALPHA = 0.2;
+
+    @Value("${chat.login.qr.pool-enabled:true}")
+    private boolean enabled;
+
+    @Value("${chat.login.qr.expire-seconds:2592000}")
+    private int expireSeconds;
+
+    @Value("${chat.login.qr.expire-margin-seconds:600}")
+    private int expireMarginSeconds;
+
+    @Value("${chat.login.qr.min-size:5}")
+    private int minSize;
+
+    @Value("${chat.login.qr.max-size:200}")
+    private int maxSize;
+
+    // 按当前取用速率备够多少秒的量
+    @Value("${chat.login.qr.lead-seconds:120}")
+    private int leadSeconds;
+
+    @Value("${chat.login.qr.refill-interval-ms:1000}")
+    private long refillIntervalMillis;
+
+    @Resource
+    private IWeixinApiService weixinApiService;
+    @Resource
+    private WeixinAccessTokenService accessTokenService;
+    @Resource
+    private StringRedisTemplate redisTemplate;
+
+    private final ConcurrentLinkedQueue<Ticket> pool = new ConcurrentLinkedQueue<>();
+    // ConcurrentLinkedQueue.size() 需要遍历，数量单独计数
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicBoolean refilling = new AtomicBoolean();
+    private ExecutorService refillExecutor;
+
+    private final LongAdder handedOut = new LongAdder();
+    private final LongAdder demandSinceRefresh = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder created = new LongAdder();
+    private final LongAdder createFailures = new LongAdder();
+    private final LongAdder createNanos = new LongAdder();
+    private final LongAdder expired = new LongAdder();
+    private volatile double demandPerSecond;
+    private volatile int target;
+
+    /**
+     * 池中的一个 ticket
+     */
+    public static final class Ticket {
+        private final String ticket;
+        private final int sceneId;
+        private final String url;
+        private final long expiresAt;
+
+        private Ticket(String ticket, int sceneId, String url, long expiresAt) {
+            this.ticket = ticket;
+            this.sceneId = sceneId;
+            this.url = url;
+            this.expiresAt = expiresAt;
+        }
+
+        public String getTicket() {
+            return ticket;
+        }
+
+        public int getSceneId() {
+            return sceneId;
+        }
+
+        public String getUrl() {
+            return url;
+        }
+
+        public long getExpiresAt() {
+            return expiresAt;
+        }
+    }
+
+    @PostConstruct
+    public void init() {
+        target = minSize;
+        refillExecutor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "chat-qr-ticket-refill");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (enabled) {
+            triggerRefill();
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        refillExecutor.shutdownNow();
+    }
+
+    /**
+     * 取出一个可用的 ticket；池空时同步生成一个
+     */
+    public Ticket take() throws IOException {
+        handedOut.increment();
+        demandSinceRefresh.increment();
+        if (enabled) {
+            long deadline = System.currentTimeMillis() + expireMarginSeconds * 1000L;
+            Ticket ticket;
+            while ((ticket = pool.poll()) != null) {
+                size.decrementAndGet();
+                if (ticket.expiresAt > deadline) {
+                    // 低于目标一半时提前补充，不等下一次定时刷新
+                    if (size.get() < target / 2) {
+                        triggerRefill();
+                    }
+                    return ticket;
+                }
+                expired.increment();
+            }
+            misses.increment();
+            triggerRefill();
+        }
+        return create();
+    }
+
+    /**
+     * 定时更新取用速率与目标数量，并在不足时补充
+     */
+    @Scheduled(fixedDelayString = "${chat.login.qr.refill-interval-ms:1000}")
+    public void refresh() {
+        if (!enabled) {
+            return;
+        }
+        double rate = demandSinceRefresh.sumThenReset() * 1000.0 / refillIntervalMillis;
+        demandPerSecond = DEMAND_ALPHA * rate + (1 - DEMAND_ALPHA) * demandPerSecond;
+        target = Math.max(minSize, Math.min(maxSize, (int) Math.ceil(demandPerSecond * leadSeconds)));
+        discardExpired();
+        if (size.get() < target) {
+            triggerRefill();
+        }
+    }
+
+    public Map<String, Object> stats() {
+        long count = created.sum();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("size", size.get());
+        stats.put("target", target);
+        stats.put("demandPerMinute", demandPerSecond * 60);
+        stats.put("handedOut", handedOut.sum());
+        stats.put("misses", misses.sum());
+        stats.put("created", count);
+        stats.put("createFailures", createFailures.sum());
+        stats.put("avgCreateMillis", count == 0 ? 0 : createNanos.sum() / count / 1e6);
+        stats.put("expired", expired.sum());
+        stats.put("refilling", refilling.get());
+        return stats;
+    }
+
+    private void triggerRefill() {
+        if (!refilling.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            refillExecutor.execute(this::refill);
+        } catch (RuntimeException e) {
+            refilling.set(false);
+            log.warn("提交二维码 ticket 补充任务失败", e);
+        }
+    }
+
+    private void refill() {
+        try {
+            while (size.get() < target) {
+                Ticket ticket = create();
+                pool.offer(ticket);
+                size.incrementAndGet();
+            }
+        } catch (Exception e) {
+            // 下一次定时刷新时重试
+            log.warn("补充二维码 ticket 失败，池中剩余 {} 个", size.get(), e);
+        } finally {
+            refilling.set(false);
+        }
+    }
+
+    // 队首是最早创建的，遇到第一个未过期的即可停止
+    private void discardExpired() {
+        long deadline = System.currentTimeMillis() + expireMarginSeconds * 1000L;
+        Ticket head;
+        while ((head = pool.peek()) != null && head.expiresAt <= deadline) {
+            if (pool.remove(head)) {
+                size.decrementAndGet();
+                expired.increment();
+            }
+        }
+    }
+
+    private Ticket create() throws IOException {
+        long start = System.nanoTime();
+        int sceneId = nextSceneId();
+        WeixinQrCodeReq weixinQrCodeReq = WeixinQrCodeReq.builder()
+                .expire_seconds(expireSeconds)
+                .action_name(WeixinQrCodeReq.ActionNameTypeVO.QR_SCENE.getCode())
+                .action_info(WeixinQrCodeReq.ActionInfo.builder()
+                        .scene(WeixinQrCodeReq.ActionInfo.Scene.builder()
+                                .scene_id(sceneId)
+                                .build())
+                        .build())
+                .build();
+        WeixinQrCodeRes res = weixinApiService.createQrCode(accessTokenService.get(), weixinQrCodeReq).execute().body();
+        if (res == null || res.getTicket() == null) {
+            createFailures.increment();
+            if (res != null && res.getErrcode() != null && (res.getErrcode() == 40001 || res.getErrcode() == 42001)) {
+                accessTokenService.invalidate();
+            }
+            throw new IOException("生成二维码 ticket 失败: " + (res == null ? "empty response" : res.getErrcode() + " " + res.getErrmsg()));
+        }
+        long lifetimeSeconds = res.getExpire_seconds() == null ? expireSeconds : res.getExpire_seconds();
+        created.increment();
+        createNanos.add(System.nanoTime() - start);
+        return new Ticket(res.getTicket(), sceneId, res.getUrl(), System.currentTimeMillis() + lifetimeSeconds * 1000L);
+    }
+
+    // 场景值为 32 位正整数，多实例共用一个序列
+    private int nextSceneId() {
+        Long seq = redisTemplate.opsForValue().increment(SCENE_SEQ_KEY);
+        return (int) ((seq == null ? 0 : seq) % Integer.MAX_VALUE) + 1;
+    }
+}
@@ -0,0 +1,229 @@
+package org.example.chatai.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.example.chatai.common.RuntimeSettings;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 语义答案缓存
+ * <p>
+ * 问题经 {@link IEmbeddingService} 向量化后，用多表随机超平面 LSH 做近似最近邻检索，候选再按余弦相似度精排，
+ * 超过阈值即直接返回缓存的回答。条目数有上限（内存约为 条目数 × 维度 × 4 字节），按 LRU 和 TTL 淘汰。
+ */
+@Slf4j
+@Service
+public class SemanticAnswerCache {
+
+    @Resource
+    private IEmbeddingService embeddingService;
+
+    // 容量与 TTL 可在运行时调整，TTL 只影响之后写入的条目
+    @Resource
+    private RuntimeSettings runtimeSettings;
+
+    @Value("${chat.semantic-cache.enabled:false}")
+    private boolean enabled;
+
+    @Value("${chat.semantic-cache.threshold:0.92}")
+    private double threshold;
+
+    @Value("${chat.semantic-cache.tables:8}")
+    private int tables;
+
+    @Value("${chat.semantic-cache.bits:12}")
+    private int bits;
+
+    // 每张表 bits 个随机超平面
+    private float[][][] hyperplanes;
+    private List<Map<Integer, List<Entry>>> buckets;
+    // 访问顺序的 LinkedHashMap 即 LRU 链表
+    private final LinkedHashMap<Entry, Boolean> lru = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final LongAdder lookups = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder lookupNanos = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    @PostConstruct
+    public void init() {
+        int dimension = embeddingService.dimension();
+        Random random = new Random(42);
+        hyperplanes = new float[tables][bits][dimension];
+        buckets = new ArrayList<>(tables);
+        for (int t = 0; t < tables; t++) {
+            for (int b = 0; b < bits; b++) {
+                for (int d = 0; d < dimension; d++) {
+                    hyperplanes[t][b][d] = (float) random.nextGaussian();
+                }
+            }
+            buckets.add(new HashMap<>());
+        }
+        // 调小容量时立即淘汰到新上限
+        runtimeSettings.onChange(RuntimeSettings.SEMANTIC_CACHE_MAX_ENTRIES, value -> {
+            synchronized (this) {
+                evict(System.currentTimeMillis());
+            }
+        });
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 查找语义相近的问题的缓存回答，未命中返回 null
+     */
+    public String get(String question) {
+        if (!enabled) {
+            return null;
+        }
+        long start = System.nanoTime();
+        lookups.increment();
+        float[] vector = embeddingService.embed(question);
+        int[] signatures = signatures(vector);
+        long now = System.currentTimeMillis();
+        Entry best = null;
+        double bestScore = threshold;
+        synchronized (this) {
+            Map<Entry, Boolean> seen = new IdentityHashMap<>();
+            for (int t = 0; t < tables; t++) {
+                List<Entry> bucket = buckets.get(t).get(signatures[t]);
+                if (bucket == null) {
+                    continue;
+                }
+                for (Entry entry : bucket) {
+                    if (seen.put(entry, Boolean.TRUE) != null || entry.expiresAt < now) {
+                        continue;
+                    }
+                    double score = dot(vector, entry.vector);
+                    if (score >= bestScore) {
+                        bestScore = score;
+                        best = entry;
+                    }
+                }
+            }
+            if (best != null) {
+                lru.get(best);
+            }
+        }
+        lookupNanos.add(System.nanoTime() - start);
+        if (best == null) {
+            return null;
+        }
+        hits.increment();
+        log.debug("Semantic cache hit, similarity={}", bestScore);
+        return best.answer;
+    }
+
+    /**
+     * 缓存一个问题的回答
+     */
+    public void put(String question, String answer) {
+        if (!enabled) {
+            return;
+        }
+        float[] vector = embeddingService.embed(question);
+        Entry entry = new Entry(vector, signatures(vector), answer,
+                System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(runtimeSettings.getLong(RuntimeSettings.SEMANTIC_CACHE_TTL_MINUTES)));
+        synchronized (this) {
+            lru.put(entry, Boolean.TRUE);
+            for (int t = 0; t < tables; t++) {
+                buckets.get(t).computeIfAbsent(entry.signatures[t], k -> new ArrayList<>(2)).add(entry);
+            }
+            evict(System.currentTimeMillis());
+        }
+    }
+
+    public Map<String, Object> stats() {
+        long count = lookups.sum();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        synchronized (this) {
+            stats.put("entries", lru.size());
+        }
+        stats.put("maxEntries", runtimeSettings.getInt(RuntimeSettings.SEMANTIC_CACHE_MAX_ENTRIES));
+        stats.put("lookups", count);
+        stats.put("hits", hits.sum());
+        stats.put("hitRate", count == 0 ? 0 : (double) hits.sum() / count);
+        stats.put("avgLookupMicros", count == 0 ? 0 : lookupNanos.sum() / count / 1000.0);
+        stats.put("evictions", evictions.sum());
+        return stats;
+    }
+
+    // 超出容量时按 LRU 淘汰，顺带清理链表头部已过期的条目
+    private void evict(long now) {
+        int maxEntries = runtimeSettings.getInt(RuntimeSettings.SEMANTIC_CACHE_MAX_ENTRIES);
+        Iterator<Entry> iterator = lru.keySet().iterator();
+        while (iterator.hasNext()) {
+            Entry eldest = iterator.next();
+            if (lru.size() <= maxEntries && eldest.expiresAt >= now) {
+                break;
+            }
+            iterator.remove();
+            unlink(eldest);
+            evictions.increment();
+        }
+    }
+
+    private void unlink(Entry entry) {
+        for (int t = 0; t < tables; t++) {
+            List<Entry> bucket = buckets.get(t).get(entry.signatures[t]);
+            if (bucket != null) {
+                bucket.remove(entry);
+                if (bucket.isEmpty()) {
+                    buckets.get(t).remove(entry.signatures[t]);
+                }
+            }
+        }
+    }
+
+    private int[] signatures(float[] vector) {
+        int[] signatures = new int[tables];
+        for (int t = 0; t < tables; t++) {
+            int signature = 0;
+            for (int b = 0; b < bits; b++) {
+                if (dot(vector, hyperplanes[t][b]) >= 0) {
+                    signature |= 1 << b;
+                }
+            }
+            signatures[t] = signature;
+        }
+        return signatures;
+    }
+
+    private static double dot(float[] a, float[] b) {
+        double sum = 0;
+        for (int i = 0; i < a.length; i++) {
+            sum += a[i] * b[i];
+        }
+        return sum;
+    }
+
+    private static final class Entry {
+        private final float[] vector;
+        private final int[] signatures;
+        private final String answer;
+        private final long expiresAt;
+
+        private Entry(float[] vector, int[] signatures, String answer, long expiresAt) {
+            this.vector = vector;
+            this.signatures = signatures;
+            this.answer = answer;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,446 @@
+package org.example.chatai.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.example.chatai.common.ChatRecord;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 用量统计：日活、每日消息数、回答耗时分布与用户消息数
+ * <p>
+ * 热路径只把事件放进内存队列，定时在本地聚合后用一次 pipeline 写入 Redis：
+ * 日活用 HyperLogLog（每天约 12KB，误差约 0.81%），耗时按 2 的幂分桶计数，用户消息数用有序集合。
+ * 查询时每项都是 O(1) 或 O(log N) 的读取，不扫描 chat 表。回填任务从聊天记录重建除耗时以外的计数。
+ * <p>
+ * 回填期间实时统计照常写入正式 key：开始时先原子地给消息数与用户消息数做一份快照，再读取最大记录 id，
+ * 重建结果写入临时 key，最后由一个脚本原子合并：计数 = 重建值 + (当前值 - 快照值)，即快照之后的实时增量不会丢；
+ * 日活取重建结果与当前值的并集。快照与读取最大 id 之间、以及聊天记录与用量事件各自异步落库造成的错位，
+ * 只影响这一瞬间前后在途的少量消息。
+ */
+@Slf4j
+@Service
+public class UsageStatsService {
+
+    private static final String KEY_PREFIX = "chat:stats:";
+    // 回填的临时 key 与快照，不在 chat:stats: 下，扫描正式 key 时不会混入
+    private static final String BACKFILL_PREFIX = "chat:stats-backfill:";
+    private static final String TEMP_PREFIX = BACKFILL_PREFIX + "tmp:";
+    private static final String SNAPSHOT_PREFIX = BACKFILL_PREFIX + "snap:";
+    private static final String ALL_TIME_USER_MESSAGES = "user_messages";
+    private static final DateTimeFormatter DAY = DateTimeFormatter.BASIC_ISO_DATE;
+    // 耗时分桶上限 2^LATENCY_BUCKETS ms，更慢的都计入最后一个桶
+    private static final int LATENCY_BUCKETS = 18;
+
+    // 快照脚本：KEYS 按 {正式 key, 快照 key} 成对传入，计数复制值，有序集合整体复制
+    private static final RedisScript<Long> SNAPSHOT_SCRIPT = new DefaultRedisScript<>(
+            "for i = 1, #KEYS, 2 do " +
+            "  local t = redis.call('TYPE', KEYS[i])['ok'] " +
+            "  redis.call('DEL', KEYS[i + 1]) " +
+            "  if t == 'string' then redis.call('SET', KEYS[i + 1], redis.call('GET', KEYS[i])) " +
+            "  elseif t == 'zset' then redis.call('ZUNIONSTORE', KEYS[i + 1], 1, KEYS[i]) end " +
+            "end " +
+            "return #KEYS / 2", Long.class);
+
+    // 合并脚本：KEYS 按 {正式 key, 临时 key, 快照 key} 三个一组，ARGV[1] 为过期秒数，其后依次为每组的类型；
+    // count / zset 为 重建值 + 当前值 - 快照值，hll 取并集，all 为不过期的累计有序集合
+    private static final RedisScript<Long> MERGE_SCRIPT = new DefaultRedisScript<>(
+            "local ttl = tonumber(ARGV[1]) " +
+            "for i = 1, #KEYS, 3 do " +
+            "  local live, tmp, snap = KEYS[i], KEYS[i + 1], KEYS[i + 2] " +
+            "  local kind = ARGV[(i - 1) / 3 + 2] " +
+            "  if kind == 'count' then " +
+            "    local v = tonumber(redis.call('GET', tmp) or '0') + tonumber(redis.call('GET', live) or '0') " +
+            "      - tonumber(redis.call('GET', snap) or '0') " +
+            "    if v > 0 then redis.call('SET', live, string.format('%d', v), 'EX', ttl) else redis.call('DEL', live) end " +
+            "  elseif kind == 'hll' then " +
+            "    redis.call('PFMERGE', live, tmp) " +
+            "    redis.call('EXPIRE', live, ttl) " +
+            "  else " +
+            "    redis.call('ZUNIONSTORE', live, 3, tmp, live, snap, 'WEIGHTS', 1, 1, -1) " +
+            "    redis.call('ZREMRANGEBYSCORE', live, '-inf', 0) " +
+            "    if kind == 'zset' then redis.call('EXPIRE', live, ttl) end " +
+            "  end " +
+            "  redis.call('DEL', tmp, snap) " +
+            "end " +
+            "return #KEYS / 3", Long.class);
+
+    @Resource
+    private StringRedisTemplate redisTemplate;
+
+    @Resource
+    private ChatRecordRepository chatRecordRepository;
+
+    @Value("${chat.usage-stats.enabled:true}")
+    private boolean enabled;
+
+    @Value("${chat.usage-stats.retention-days:90}")
+    private long retentionDays;
+
+    private final LinkedBlockingQueue<Event> pending;
+    private final ZoneId zone = ZoneId.systemDefault();
+    private final AtomicReference<CompletableFuture<Map<String, Object>>> backfill = new AtomicReference<>();
+    // 回填要跑很久且主要在等数据库，不占用公共 ForkJoinPool
+    private final ExecutorService backfillExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "chat-usage-backfill");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public UsageStatsService(@Value("${chat.usage-stats.queue-capacity:20000}") int queueCapacity) {
+        this.pending = new LinkedBlockingQueue<>(queueCapacity);
+    }
+
+    /**
+     * 记录一次回答，latencyNanos 小于 0 表示没有耗时（如回填）
+     */
+    public void record(String userId, long latencyNanos) {
+        if (!enabled) {
+            return;
+        }
+        if (!pending.offer(new Event(userId, System.currentTimeMillis(), latencyNanos))) {
+            log.debug("用量统计队列已满，丢弃事件，userId: {}", userId);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${chat.usage-stats.flush-interval-ms:1000}")
+    public void flush() {
+        List<Event> events = new ArrayList<>();
+        pending.drainTo(events);
+        if (events.isEmpty()) {
+            return;
+        }
+        try {
+            write(aggregate(events), KEY_PREFIX);
+        } catch (Exception e) {
+            log.error("写入用量统计失败，丢弃 {} 条事件", events.size(), e);
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        backfillExecutor.shutdownNow();
+        flush();
+    }
+
+    /**
+     * 某一天的统计，day 为 yyyyMMdd
+     */
+    public Map<String, Object> daily(String day, int topUsers) {
+        List<Object> results = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            conn.pfCount(dauKey(day));
+            conn.get(messagesKey(day));
+            conn.hGetAll(latencyKey(day));
+            conn.zRevRangeWithScores(userMessagesKey(day), 0, topUsers - 1);
+            return null;
+        });
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("day", day);
+        stats.put("activeUsers", results.get(0));
+        stats.put("messages", results.get(1) == null ? 0L : Long.parseLong((String) results.get(1)));
+        @SuppressWarnings("unchecked")
+        Map<String, String> latency = (Map<String, String>) results.get(2);
+        stats.put("latency", latencySummary(latency));
+        List<Map<String, Object>> top = new ArrayList<>();
+        @SuppressWarnings("unchecked")
+        Set<ZSetOperations.TypedTuple<String>> tuples = (Set<ZSetOperations.TypedTuple<String>>) results.get(3);
+        if (tuples != null) {
+            for (ZSetOperations.TypedTuple<String> tuple : tuples) {
+                Map<String, Object> user = new LinkedHashMap<>();
+                user.put("userId", tuple.getValue());
+                user.put("messages", tuple.getScore() == null ? 0 : tuple.getScore().longValue());
+                top.add(user);
+            }
+        }
+        stats.put("topUsers", top);
+        return stats;
+    }
+
+    /**
+     * 单个用户的消息数：累计与指定日期
+     */
+    public Map<String, Object> user(String userId, String day) {
+        List<Object> results = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            conn.zScore(KEY_PREFIX + ALL_TIME_USER_MESSAGES, userId);
+            conn.zScore(userMessagesKey(day), userId);
+            return null;
+        });
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("userId", userId);
+        stats.put("totalMessages", results.get(0) == null ? 0 : ((Double) results.get(0)).longValue());
+        stats.put("day", day);
+        stats.put("dayMessages", results.get(1) == null ? 0 : ((Double) results.get(1)).longValue());
+        return stats;
+    }
+
+    public String today() {
+        return LocalDate.now(zone).format(DAY);
+    }
+
+    /**
+     * 从聊天记录回填日活、消息数和用户消息数（耗时无法从记录恢复，保留原值）。
+     * 只回填开始时已存在的记录，回填期间实时写入的事件照常累计，完成时原子合并，查询不会看到中间状态。
+     */
+    public synchronized CompletableFuture<Map<String, Object>> backfill(int batchSize) {
+        CompletableFuture<Map<String, Object>> running = backfill.get();
+        if (running != null && !running.isDone()) {
+            return running;
+        }
+        CompletableFuture<Map<String, Object>> future = CompletableFuture.supplyAsync(() -> runBackfill(batchSize), backfillExecutor);
+        backfill.set(future);
+        return future;
+    }
+
+    private Map<String, Object> runBackfill(int batchSize) {
+        long start = System.currentTimeMillis();
+        // 清理上次中断留下的临时 key
+        Set<String> leftover = scanKeys(BACKFILL_PREFIX + "*");
+        if (!leftover.isEmpty()) {
+            redisTemplate.delete(leftover);
+        }
+        // 先快照再读最大 id：快照之后的实时增量在合并时加回，最大 id 之前的记录由重建覆盖
+        List<String> snapshotKeys = new ArrayList<>();
+        for (String suffix : suffixes(KEY_PREFIX, "messages:*", "user_messages*")) {
+            snapshotKeys.add(KEY_PREFIX + suffix);
+            snapshotKeys.add(SNAPSHOT_PREFIX + suffix);
+        }
+        if (!snapshotKeys.isEmpty()) {
+            redisTemplate.execute(SNAPSHOT_SCRIPT, snapshotKeys);
+        }
+        Long maxId = chatRecordRepository.findMaxId();
+        long after = 0;
+        long records = 0;
+        while (maxId != null && after < maxId) {
+            List<ChatRecord> page = chatRecordRepository.findByIdGreaterThanAndIdLessThanEqualOrderByIdAsc(
+                    after, maxId, PageRequest.of(0, batchSize));
+            if (page.isEmpty()) {
+                break;
+            }
+            List<Event> events = new ArrayList<>(page.size());
+            for (ChatRecord record : page) {
+                events.add(new Event(record.getUserId(), record.getCreatedAt().getTime(), -1));
+            }
+            write(aggregate(events), TEMP_PREFIX);
+            records += page.size();
+            after = page.get(page.size() - 1).getId();
+        }
+        int merged = merge();
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("records", records);
+        result.put("maxId", maxId);
+        result.put("mergedKeys", merged);
+        result.put("elapsedMillis", System.currentTimeMillis() - start);
+        log.info("用量统计回填完成，记录 {} 条，耗时 {} ms", records, result.get("elapsedMillis"));
+        return result;
+    }
+
+    // 正式 key 与临时 key 涉及的所有日期一起合并，临时 key 中没有的日期只保留快照之后的增量（与重建前清空一致）
+    private int merge() {
+        Set<String> suffixes = suffixes(KEY_PREFIX, "dau:*", "messages:*", "user_messages*");
+        suffixes.addAll(suffixes(TEMP_PREFIX, "dau:*", "messages:*", "user_messages*"));
+        if (suffixes.isEmpty()) {
+            return 0;
+        }
+        List<String> keys = new ArrayList<>(suffixes.size() * 3);
+        List<String> args = new ArrayList<>(suffixes.size() + 1);
+        args.add(String.valueOf(TimeUnit.DAYS.toSeconds(retentionDays)));
+        for (String suffix : suffixes) {
+            keys.add(KEY_PREFIX + suffix);
+            keys.add(TEMP_PREFIX + suffix);
+            keys.add(SNAPSHOT_PREFIX + suffix);
+            if (suffix.equals(ALL_TIME_USER_MESSAGES)) {
+                args.add("all");
+            } else if (suffix.startsWith("dau:")) {
+                args.add("hll");
+            } else if (suffix.startsWith("messages:")) {
+                args.add("count");
+            } else {
+                args.add("zset");
+            }
+        }
+        Long merged = redisTemplate.execute(MERGE_SCRIPT, keys, args.toArray());
+        return merged == null ? 0 : merged.intValue();
+    }
+
+    // 按前缀扫描，返回去掉前缀后的 key
+    private Set<String> suffixes(String prefix, String... patterns) {
+        Set<String> suffixes = new TreeSet<>();
+        for (String pattern : patterns) {
+            for (String key : scanKeys(prefix + pattern)) {
+                suffixes.add(key.substring(prefix.length()));
+            }
+        }
+        return suffixes;
+    }
+
+    // 用 SCAN 而不是 KEYS，避免阻塞 Redis
+    private Set<String> scanKeys(String pattern) {
+        return redisTemplate.execute((RedisCallback<Set<String>>) connection -> {
+            Set<String> keys = new HashSet<>();
+            try (Cursor<byte[]> cursor = connection.scan(ScanOptions.scanOptions().match(pattern).count(1000).build())) {
+                while (cursor.hasNext()) {
+                    keys.add(new String(cursor.next(), StandardCharsets.UTF_8));
+                }
+            }
+            return keys;
+        });
+    }
+
+    private Map<String, DayAggregate> aggregate(List<Event> events) {
+        Map<String, DayAggregate> days = new HashMap<>();
+        for (Event event : events) {
+            String day = Instant.ofEpochMilli(event.timestamp).atZone(zone).toLocalDate().format(DAY);
+            DayAggregate aggregate = days.computeIfAbsent(day, k -> new DayAggregate());
+            aggregate.messages++;
+            aggregate.userMessages.merge(event.userId, 1L, Long::sum);
+            if (event.latencyNanos >= 0) {
+                long millis = TimeUnit.NANOSECONDS.toMillis(event.latencyNanos);
+                aggregate.latencyCount++;
+                aggregate.latencySumMillis += millis;
+                aggregate.latencyBuckets[bucket(millis)]++;
+            }
+        }
+        return days;
+    }
+
+    // prefix 为正式 key 或回填临时 key 的前缀
+    private void write(Map<String, DayAggregate> days, String prefix) {
+        long ttlSeconds = TimeUnit.DAYS.toSeconds(retentionDays);
+        redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (Map.Entry<String, DayAggregate> entry : days.entrySet()) {
+                String day = entry.getKey();
+                DayAggregate aggregate = entry.getValue();
+                conn.pfAdd(prefix + "dau:" + day, aggregate.userMessages.keySet().toArray(new String[0]));
+                conn.incrBy(prefix + "messages:" + day, aggregate.messages);
+                for (Map.Entry<String, Long> user : aggregate.userMessages.entrySet()) {
+                    conn.zIncrBy(prefix + "user_messages:" + day, user.getValue(), user.getKey());
+                    conn.zIncrBy(prefix + ALL_TIME_USER_MESSAGES, user.getValue(), user.getKey());
+                }
+                if (aggregate.latencyCount > 0) {
+                    conn.hIncrBy(latencyKey(day), "count", aggregate.latencyCount);
+                    conn.hIncrBy(latencyKey(day), "sum_ms", aggregate.latencySumMillis);
+                    for (int i = 0; i < LATENCY_BUCKETS; i++) {
+                        if (aggregate.latencyBuckets[i] > 0) {
+                            conn.hIncrBy(latencyKey(day), "b" + i, aggregate.latencyBuckets[i]);
+                        }
+                    }
+                    conn.expire(latencyKey(day), ttlSeconds);
+                }
+                conn.expire(prefix + "dau:" + day, ttlSeconds);
+                conn.expire(prefix + "messages:" + day, ttlSeconds);
+                conn.expire(prefix + "user_messages:" + day, ttlSeconds);
+            }
+            return null;
+        });
+    }
+
+    // 按桶估算分位数，返回桶的上界（ms）
+    private static Map<String, Object> latencySummary(Map<String, String> latency) {
+        Map<String, Object> summary = new LinkedHashMap<>();
+        long count = latency == null || latency.get("count") == null ? 0 : Long.parseLong(latency.get("count"));
+        summary.put("count", count);
+        if (count == 0) {
+            return summary;
+        }
+        summary.put("avgMillis", Long.parseLong(latency.get("sum_ms")) / count);
+        long[] buckets = new long[LATENCY_BUCKETS];
+        for (int i = 0; i < LATENCY_BUCKETS; i++) {
+            String value = latency.get("b" + i);
+            buckets[i] = value == null ? 0 : Long.parseLong(value);
+        }
+        summary.put("p50Millis", quantile(buckets, count, 0.50));
+        summary.put("p90Millis", quantile(buckets, count, 0.90));
+        summary.put("p99Millis", quantile(buckets, count, 0.99));
+        return summary;
+    }
+
+    private static long quantile(long[] buckets, long count, double q) {
+        long rank = (long) Math.ceil(count * q);
+        long seen = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            seen += buckets[i];
+            if (seen >= rank) {
+                return 1L << i;
+            }
+        }
+        return 1L << (buckets.length - 1);
+    }
+
+    // 第 i 个桶为 (2^(i-1), 2^i] ms
+    private static int bucket(long millis) {
+        if (millis <= 1) {
+            return 0;
+        }
+        return Math.min(LATENCY_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(millis - 1));
+    }
+
+    private static String dauKey(String day) {
+        return KEY_PREFIX + "dau:" + day;
+    }
+
+    private static String messagesKey(String day) {
+        return KEY_PREFIX + "messages:" + day;
+    }
+
+    private static String latencyKey(String day) {
+        return KEY_PREFIX + "latency:" + day;
+    }
+
+    private static String userMessagesKey(String day) {
+        return KEY_PREFIX + "user_messages:" + day;
+    }
+
+    private static final class Event {
+        private final String userId;
+        private final long timestamp;
+        private final long latencyNanos;
+
+        private Event(String userId, long timestamp, long latencyNanos) {
+            this.userId = userId;
+            this.timestamp = timestamp;
+            this.latencyNanos = latencyNanos;
+        }
+    }
+
+    private static final class DayAggregate {
+        private long messages;
+        private final Map<String, Long> userMessages = new HashMap<>();
+        private long latencyCount;
+        private long latencySumMillis;
+        private final long[] latencyBuckets = new long[LATENCY_BUCKETS];
+    }
+}
@@ -0,0 +1,54 @@
+package org.example.chatai.service;
+
+import com.google.common.cache.Cache;
+import org.example.chatai.vo.WeixinTokenRes;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import retrofit2.Call;
+
+import javax.annotation.Resource;
+import java.io.IOException;
+
+/**
+ * 公众号 access_token：缓存未命中时加锁获取，多个发送线程同时过期只请求一次
+ */
+@Service
+public class WeixinAccessTokenService {
+
+    @Value("${weixin.config.app-id}")
+    private String appid;
+    @Value("${weixin.config.app-secret}")
+    private String appSecret;
+
+    @Resource
+    private Cache<String, String> weixinAccessToken;
+    @Resource
+    private IWeixinApiService weixinApiService;
+
+    public String get() throws IOException {
+        String accessToken = weixinAccessToken.getIfPresent(appid);
+        if (null != accessToken) {
+            return accessToken;
+        }
+        synchronized (this) {
+            accessToken = weixinAccessToken.getIfPresent(appid);
+            if (null == accessToken) {
+                Call<WeixinTokenRes> call = weixinApiService.getToken("client_credential", appid, appSecret);
+                WeixinTokenRes weixinTokenRes = call.execute().body();
+                if (weixinTokenRes == null || weixinTokenRes.getAccess_token() == null) {
+                    throw new IOException("获取 access_token 失败");
+                }
+                accessToken = weixinTokenRes.getAccess_token();
+                weixinAccessToken.put(appid, accessToken);
+            }
+            return accessToken;
+        }
+    }
+
+    /**
+     * 接口返回 40001/42001 时丢弃缓存的 token
+     */
+    public void invalidate() {
+        weixinAccessToken.invalidate(appid);
+    }
+}
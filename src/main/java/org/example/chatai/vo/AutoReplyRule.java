@@ -0,0 +1,23 @@
+package org.example.chatai.vo;
+
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * 关键词自动回复规则
+ */
+@Data
+public class AutoReplyRule {
+    private String id;
+    // 命中任一关键词即为候选（忽略大小写）
+    private List<String> keywords;
+    // 为 true 时要求整条消息（去掉空白与标点后）等于关键词
+    private boolean exact;
+    // 可选：候选规则再用正则校验整条消息
+    private String regex;
+    // 回复内容，支持 {openid}、{content} 占位符
+    private String reply;
+    // 多条规则命中时取优先级最高的
+    private int priority;
+}
@@ -0,0 +1,20 @@
+package org.example.chatai.vo;
+
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * 批量问答任务
+ */
+@Data
+public class BatchQaReq {
+    private List<String> questions;
+    // 可选的系统提示词，对每个问题都相同
+    private String systemPrompt;
+    // 为空时使用运行时参数 openai.api.model
+    private String model;
+    // 同时在途的请求数与每秒请求数，为空时使用 chat.batch-qa.default-*
+    private Integer concurrency;
+    private Double ratePerSecond;
+}
@@ -0,0 +1,21 @@
+package org.example.chatai.vo;
+
+import lombok.Data;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 模板消息群发任务
+ */
+@Data
+public class BroadcastReq {
+    // 为空时使用 weixin.config.template_id
+    private String templateId;
+    private String url;
+    // 模板字段，值支持 {openid} 占位符
+    private Map<String, String> data;
+    // 接收人来源：openids 使用下面的列表，chat_users 为聊天记录中的全部用户
+    private String source = "openids";
+    private List<String> openids;
+}
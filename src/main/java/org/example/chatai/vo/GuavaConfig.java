@@ -23,4 +23,12 @@ public class GuavaConfig {
                 .build();
     }
 
+    // 扫码登录成功后发给前端的登录 token -> openid，与前端 cookie 的 30 天有效期一致
+    @Bean(name = "loginToken")
+    public Cache<String, String> loginToken() {
+        return CacheBuilder.newBuilder()
+                .expireAfterWrite(30, TimeUnit.DAYS)
+                .build();
+    }
+
 }
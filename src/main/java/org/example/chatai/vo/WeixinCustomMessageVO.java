@@ -0,0 +1,22 @@
+package org.example.chatai.vo;
+
+import lombok.Data;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * 客服文本消息，用于被动回复已经超时后的补发
+ */
+@Data
+public class WeixinCustomMessageVO {
+
+    private String touser;
+    private String msgtype = "text";
+    private Map<String, String> text;
+
+    public WeixinCustomMessageVO(String touser, String content) {
+        this.touser = touser;
+        this.text = Collections.singletonMap("content", content);
+    }
+}
@@ -7,4 +7,7 @@ public class WeixinQrCodeRes {
     private String ticket;
     private Long expire_seconds;
     private String url;
+    // 失败时返回
+    private Integer errcode;
+    private String errmsg;
 }
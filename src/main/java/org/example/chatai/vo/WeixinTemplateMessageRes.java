@@ -0,0 +1,11 @@
+package org.example.chatai.vo;
+
+import lombok.Data;
+
+@Data
+public class WeixinTemplateMessageRes {
+    // 0 表示成功；-1 系统繁忙，40001/42001 token 失效，43004 用户未关注，45009 接口调用超过限额
+    private int errcode;
+    private String errmsg;
+    private Long msgid;
+}
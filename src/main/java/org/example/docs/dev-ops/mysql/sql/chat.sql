@@ -24,6 +24,17 @@ CREATE TABLE IF NOT EXISTS chat_record
 ) ENGINE = InnoDB
   DEFAULT CHARSET = utf8mb4 COMMENT ='聊天记录表';
 
+-- 创建表 chat（ChatRecord 实体对应的表）
+CREATE TABLE IF NOT EXISTS chat
+(
+    id         BIGINT AUTO_INCREMENT PRIMARY KEY COMMENT '主键 ID',
+    user_id    VARCHAR(255) NOT NULL COMMENT '用户 ID',
+    question   TEXT         NOT NULL COMMENT '用户提问',
+    answer     TEXT         NOT NULL COMMENT 'AI 回答',
+    created_at DATETIME     NOT NULL COMMENT '记录创建时间',
+    INDEX idx_user_id_id (user_id, id) COMMENT '按用户取最近记录'
+) ENGINE = InnoDB
+  DEFAULT CHARSET = utf8mb4 COMMENT ='聊天记录表';
 
 /*!40111 SET SQL_NOTES = @OLD_SQL_NOTES */;
 /*!40101 SET SQL_MODE = @OLD_SQL_MODE */;
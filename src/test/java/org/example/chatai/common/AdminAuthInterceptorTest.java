@@ -0,0 +1,82 @@
+package org.example.chatai.common;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.net.URI;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+class AdminAuthInterceptorTest {
+
+    private static final String TOKEN = "s3cret";
+
+    @RestController
+    @RequestMapping("/api/v1/admin/")
+    static class StubAdminController {
+        @GetMapping("ping")
+        public String ping() {
+            return "pong";
+        }
+    }
+
+    @RestController
+    @RequestMapping("/api/v1/chat/")
+    static class StubPublicController {
+        @GetMapping("ping")
+        public String ping() {
+            return "pong";
+        }
+    }
+
+    private MockMvc mockMvc(String token) {
+        return MockMvcBuilders.standaloneSetup(new StubAdminController(), new StubPublicController())
+                .addInterceptors(new AdminAuthInterceptor(token, new ObjectMapper()))
+                .build();
+    }
+
+    @Test
+    void acceptsMatchingToken() throws Exception {
+        mockMvc(TOKEN).perform(get("/api/v1/admin/ping").header(AdminAuthInterceptor.HEADER, TOKEN))
+                .andExpect(status().isOk())
+                .andExpect(content().string("pong"));
+    }
+
+    @Test
+    void rejectsMissingOrWrongToken() throws Exception {
+        MockMvc mockMvc = mockMvc(TOKEN);
+        mockMvc.perform(get("/api/v1/admin/ping")).andExpect(status().isUnauthorized());
+        mockMvc.perform(get("/api/v1/admin/ping").header(AdminAuthInterceptor.HEADER, "s3cre"))
+                .andExpect(status().isUnauthorized());
+    }
+
+    @Test
+    void rejectsEverythingWhenTokenNotConfigured() throws Exception {
+        mockMvc("").perform(get("/api/v1/admin/ping").header(AdminAuthInterceptor.HEADER, ""))
+                .andExpect(status().isUnauthorized());
+    }
+
+    @Test
+    void rejectsPathsThatOnlyRouteAfterNormalization() throws Exception {
+        MockMvc mockMvc = mockMvc(TOKEN);
+        for (String path : new String[]{"/api/v1//admin/ping", "/api/v1/admin;x=1/ping", "/api/v1/%61dmin/ping",
+                "/api/v1/admin/ping;jsessionid=1", "/api//v1/admin//ping"}) {
+            // 带上令牌时能路由到管理接口，说明这些写法确实会命中处理器
+            mockMvc.perform(get(URI.create(path)).header(AdminAuthInterceptor.HEADER, TOKEN))
+                    .andExpect(status().isOk());
+            mockMvc.perform(get(URI.create(path))).andExpect(status().isUnauthorized());
+        }
+    }
+
+    @Test
+    void leavesOtherEndpointsOpen() throws Exception {
+        mockMvc(TOKEN).perform(get("/api/v1/chat/ping")).andExpect(status().isOk());
+    }
+}
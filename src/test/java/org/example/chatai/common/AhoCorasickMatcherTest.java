@@ -0,0 +1,82 @@
+package org.example.chatai.common;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AhoCorasickMatcherTest {
+
+    @Test
+    void findsOverlappingAndNestedPatterns() {
+        AhoCorasickMatcher matcher = AhoCorasickMatcher.build(Arrays.asList("he", "she", "his", "hers"));
+        assertEquals(set(0, 1, 3), new HashSet<>(matcher.match("ushers")));
+        assertEquals(set(2), new HashSet<>(matcher.match("this")));
+        assertTrue(matcher.match("xyz").isEmpty());
+    }
+
+    @Test
+    void followsFailureLinksAcrossChinese() {
+        AhoCorasickMatcher matcher = AhoCorasickMatcher.build(Arrays.asList("怎么登录", "登录", "登录不了", "扫码"));
+        assertEquals(set(0, 1), new HashSet<>(matcher.match("请问怎么登录")));
+        assertEquals(set(1, 2, 3), new HashSet<>(matcher.match("扫码后登录不了")));
+        // 怎么登 不完整，回退到 登录
+        assertEquals(set(1), new HashSet<>(matcher.match("怎么登怎登录")));
+    }
+
+    @Test
+    void reportsRepeatedPatternOnce() {
+        AhoCorasickMatcher matcher = AhoCorasickMatcher.build(Collections.singletonList("aa"));
+        assertEquals(Collections.singletonList(0), matcher.match("aaaaaa"));
+    }
+
+    @Test
+    void keepsDuplicatePatternIndexesAndSkipsEmpty() {
+        AhoCorasickMatcher matcher = AhoCorasickMatcher.build(Arrays.asList("", "abc", "abc", null));
+        assertEquals(set(1, 2), new HashSet<>(matcher.match("xabcx")));
+        assertTrue(AhoCorasickMatcher.build(Collections.emptyList()).match("abc").isEmpty());
+    }
+
+    @Test
+    void agreesWithNaiveSearch() {
+        Random random = new Random(1);
+        List<String> patterns = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            patterns.add(randomText(random, 1 + random.nextInt(4)));
+        }
+        AhoCorasickMatcher matcher = AhoCorasickMatcher.build(patterns);
+        for (int round = 0; round < 200; round++) {
+            String text = randomText(random, random.nextInt(40));
+            Set<Integer> expected = new HashSet<>();
+            for (int p = 0; p < patterns.size(); p++) {
+                if (text.contains(patterns.get(p))) {
+                    expected.add(p);
+                }
+            }
+            List<Integer> actual = matcher.match(text);
+            assertEquals(expected, new HashSet<>(actual), text);
+            assertEquals(expected.size(), actual.size(), text);
+        }
+    }
+
+    // 小字母表，保证大量重叠与失败转移
+    private static String randomText(Random random, int length) {
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            sb.append("ab登录".charAt(random.nextInt(4)));
+        }
+        return sb.toString();
+    }
+
+    private static Set<Integer> set(Integer... values) {
+        return new HashSet<>(Arrays.asList(values));
+    }
+}
@@ -0,0 +1,120 @@
+package org.example.chatai.common;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 新旧上下文格式的体积与编解码耗时对比：旧格式为 "\nUser: 问题\nAI: 回答" 的 UTF-8 整串，
+ * 新格式为 {@link ContextCodec} 的二进制编码（超过阈值时 Deflate 压缩）
+ * <p>
+ * 默认构建不执行，用 mvn test -Pbenchmark 运行
+ */
+@Tag("benchmark")
+class ContextCodecBenchmarkTest {
+
+    private static final int TURNS = 2000;
+    private static final int ROUNDS = 20;
+
+    // 常见问答里的短语，随机拼接成接近真实对话的文本（纯随机汉字几乎无法压缩，不能代表实际情况）
+    private static final String[] PHRASES = {
+            "你好，", "请问", "怎么登录", "扫码以后没有反应", "我想了解一下", "这个问题", "可以帮我", "翻译成英文",
+            "下面这段话", "谢谢！", "好的，", "根据你的描述，", "建议你先", "检查一下网络连接", "然后重新打开页面。",
+            "如果还是不行，", "可以尝试清除缓存", "或者更换浏览器。", "另外，", "需要注意的是，", "在大多数情况下，",
+            "这是因为", "系统会自动", "保存你的设置", "首先，", "其次，", "最后，", "总的来说，", "希望对你有帮助。",
+            "如果有其他问题，", "欢迎继续提问。", "the quick brown fox ", "Java ", "Redis ", "Spring Boot ", "123456 ",
+    };
+
+    @Test
+    void comparesSizeAndCostWithLegacyFormat() {
+        Random random = new Random(27);
+        System.out.println("上下文编码基准（每档 " + TURNS + " 轮，耗时为每轮平均）");
+        System.out.println("回答长度\t旧格式字节\t新格式字节\t压缩比\t旧编码 µs\t新编码 µs\t旧解码 µs\t新解码 µs");
+        for (int answerChars : new int[]{40, 200, 800, 3000}) {
+            String[] questions = new String[TURNS];
+            String[] answers = new String[TURNS];
+            for (int i = 0; i < TURNS; i++) {
+                questions[i] = text(random, 20);
+                answers[i] = text(random, answerChars);
+            }
+            ContextCodec codec = new ContextCodec();
+            ReflectionTestUtils.setField(codec, "compressThreshold", 256);
+
+            byte[][] legacy = new byte[TURNS][];
+            byte[][] encoded = new byte[TURNS][];
+            long legacyBytes = 0;
+            long encodedBytes = 0;
+            for (int i = 0; i < TURNS; i++) {
+                legacy[i] = legacyEncode(questions[i], answers[i]);
+                encoded[i] = codec.encode(questions[i], answers[i]);
+                legacyBytes += legacy[i].length;
+                encodedBytes += encoded[i].length;
+                assertEquals(new String(legacy[i], StandardCharsets.UTF_8), codec.decode(encoded[i]));
+            }
+
+            long legacyEncode = time(() -> {
+                for (int i = 0; i < TURNS; i++) {
+                    legacyEncode(questions[i], answers[i]);
+                }
+            });
+            long newEncode = time(() -> {
+                for (int i = 0; i < TURNS; i++) {
+                    codec.encode(questions[i], answers[i]);
+                }
+            });
+            long legacyDecode = time(() -> {
+                for (int i = 0; i < TURNS; i++) {
+                    new String(legacy[i], StandardCharsets.UTF_8);
+                }
+            });
+            long newDecode = time(() -> {
+                for (int i = 0; i < TURNS; i++) {
+                    codec.decode(encoded[i]);
+                }
+            });
+            System.out.printf("%d\t%d\t%d\t%.2f\t%.2f\t%.2f\t%.2f\t%.2f%n", answerChars, legacyBytes, encodedBytes,
+                    (double) legacyBytes / encodedBytes, micros(legacyEncode), micros(newEncode),
+                    micros(legacyDecode), micros(newDecode));
+
+            // 短回答不压缩，只多出版本、标志位与长度前缀，不能比旧格式大出太多
+            assertTrue(encodedBytes < legacyBytes + TURNS * 8L, "短回答的编码开销过大");
+            if (answerChars >= 800) {
+                assertTrue(encodedBytes * 2 < legacyBytes, "长回答压缩后应不到原来的一半");
+            }
+        }
+    }
+
+    private static byte[] legacyEncode(String question, String answer) {
+        return ("\nUser: " + question + "\nAI: " + answer).getBytes(StandardCharsets.UTF_8);
+    }
+
+    // 预热后计时 ROUNDS 轮，返回每轮问答的平均纳秒数
+    private static long time(Runnable pass) {
+        for (int i = 0; i < ROUNDS; i++) {
+            pass.run();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            pass.run();
+        }
+        return (System.nanoTime() - start) / ROUNDS / TURNS;
+    }
+
+    private static double micros(long nanos) {
+        return nanos / 1000.0;
+    }
+
+    private static String text(Random random, int chars) {
+        StringBuilder sb = new StringBuilder(chars + 16);
+        while (sb.length() < chars) {
+            sb.append(PHRASES[random.nextInt(PHRASES.length)]);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,69 @@
+package org.example.chatai.common;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ContextCodecTest {
+
+    private ContextCodec codec;
+
+    @BeforeEach
+    void setUp() {
+        codec = new ContextCodec();
+        ReflectionTestUtils.setField(codec, "compressThreshold", 256);
+    }
+
+    @Test
+    void roundTripsShortTurnUncompressed() {
+        byte[] encoded = codec.encode("你好", "Hello!");
+        assertEquals(ContextCodec.VERSION_1, encoded[0]);
+        assertEquals(0, encoded[1]);
+        assertEquals("\nUser: 你好\nAI: Hello!", codec.decode(encoded));
+    }
+
+    @Test
+    void roundTripsLongTurnCompressed() {
+        StringBuilder answer = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            answer.append("重复的回答内容 repeated answer ").append(i % 7).append('\n');
+        }
+        byte[] encoded = codec.encode("长问题", answer.toString());
+        assertEquals(1, encoded[1] & 0x01);
+        assertTrue(encoded.length < answer.toString().getBytes(StandardCharsets.UTF_8).length / 2);
+        assertEquals("\nUser: 长问题\nAI: " + answer, codec.decode(encoded));
+    }
+
+    @Test
+    void doesNotCompressBelowThreshold() {
+        StringBuilder answer = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            answer.append('a');
+        }
+        byte[] encoded = codec.encode("q", answer.toString());
+        assertEquals(0, encoded[1] & 0x01);
+        assertEquals("\nUser: q\nAI: " + answer, codec.decode(encoded));
+    }
+
+    @Test
+    void roundTripsEmptyAndSupplementaryCharacters() {
+        assertEquals("\nUser: \nAI: ", codec.decode(codec.encode("", "")));
+        assertEquals("\nUser: 😀𠀀\nAI: ok", codec.decode(codec.encode("😀𠀀", "ok")));
+    }
+
+    @Test
+    void decodesSummary() {
+        assertEquals("\nSummary: 用户在问登录问题", codec.decode(codec.encodeSummary("用户在问登录问题")));
+    }
+
+    @Test
+    void decodesLegacyPlainText() {
+        String legacy = "\nUser: 旧数据\nAI: 旧回答";
+        assertEquals(legacy, codec.decode(legacy.getBytes(StandardCharsets.UTF_8)));
+    }
+}
@@ -0,0 +1,104 @@
+package org.example.chatai.common;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DeadlineTest {
+
+    @AfterEach
+    void tearDown() {
+        Deadline.attach(null);
+    }
+
+    @Test
+    void isNoOpWithoutBoundDeadline() {
+        assertNull(Deadline.current());
+        Deadline.check("hop");
+        assertEquals(5000, Deadline.clamp("hop", 5000));
+    }
+
+    @Test
+    void attachReturnsPrevious() {
+        Deadline first = Deadline.after(1000);
+        Deadline second = Deadline.after(2000);
+        assertNull(Deadline.attach(first));
+        assertSame(first, Deadline.attach(second));
+        assertSame(second, Deadline.attach(null));
+        assertNull(Deadline.current());
+    }
+
+    @Test
+    void clampsToRemainingTime() {
+        Deadline.attach(Deadline.after(1000));
+        int clamped = Deadline.clamp("hop", 5000);
+        assertTrue(clamped > 900 && clamped <= 1000, String.valueOf(clamped));
+        assertEquals(200, Deadline.clamp("hop", 200));
+        Deadline.check("hop");
+    }
+
+    @Test
+    void abandonsExpiredWorkByHop() {
+        long before = abandoned("deadline-test-check");
+        Deadline.attach(Deadline.after(0));
+        Deadline.ExceededException e = assertThrows(Deadline.ExceededException.class, () -> Deadline.check("deadline-test-check"));
+        assertEquals("deadline-test-check", e.getHop());
+        assertThrows(Deadline.ExceededException.class, () -> Deadline.clamp("deadline-test-check", 5000));
+        assertEquals(before + 2, abandoned("deadline-test-check"));
+    }
+
+    @Test
+    void wallClockDeadlineCarriesRemainingTime() {
+        Deadline deadline = Deadline.at(System.currentTimeMillis() + 1000);
+        assertTrue(deadline.remainingMillis() > 900 && deadline.remainingMillis() <= 1000);
+        assertFalse(deadline.isExpired());
+        assertTrue(Deadline.at(System.currentTimeMillis() - 1).isExpired());
+    }
+
+    @Test
+    void boundFailsFutureAtDeadline() throws Exception {
+        long before = abandoned("deadline-test-bound");
+        CompletableFuture<String> future = new CompletableFuture<>();
+        Deadline.after(50).bound(future, "deadline-test-bound");
+        ExecutionException e = assertThrows(ExecutionException.class, () -> future.get(5, TimeUnit.SECONDS));
+        assertTrue(e.getCause() instanceof Deadline.ExceededException);
+        // 计时线程先结束 future 再计数
+        long deadline = System.currentTimeMillis() + 5000;
+        while (abandoned("deadline-test-bound") == before && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(before + 1, abandoned("deadline-test-bound"));
+        // 截止后完成不再改变结果
+        assertFalse(future.complete("late"));
+    }
+
+    @Test
+    void boundKeepsResultCompletedInTime() throws Exception {
+        long before = abandoned("deadline-test-in-time");
+        CompletableFuture<String> future = new CompletableFuture<>();
+        Deadline.after(100).bound(future, "deadline-test-in-time");
+        future.complete("ok");
+        Thread.sleep(200);
+        assertEquals("ok", future.get());
+        assertEquals(before, abandoned("deadline-test-in-time"));
+
+        CompletableFuture<String> expired = Deadline.after(0).bound(new CompletableFuture<>(), "deadline-test-in-time");
+        assertTrue(expired.isCompletedExceptionally());
+    }
+
+    // 计数是进程内全局的，按差值断言
+    private static long abandoned(String hop) {
+        Object count = Deadline.stats().get("abandoned." + hop);
+        return count == null ? 0 : (Long) count;
+    }
+}
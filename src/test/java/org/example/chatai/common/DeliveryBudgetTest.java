@@ -0,0 +1,111 @@
+package org.example.chatai.common;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DeliveryBudgetTest {
+
+    private final OpenAICodec codec = new OpenAICodec(new ObjectMapper());
+    private DeliveryBudget budget;
+
+    @BeforeEach
+    void setUp() {
+        budget = budget(true);
+    }
+
+    @Test
+    void derivesMaxTokensFromChannelBudget() {
+        assertEquals(10, budget.budgetBytes(DeliveryBudget.Channel.WEBHOOK));
+        assertEquals(5, budget.maxTokens(DeliveryBudget.Channel.WEBHOOK));
+        // 网页渠道预算折算后超过模型上限
+        assertEquals(8, budget.maxTokens(DeliveryBudget.Channel.WEB));
+
+        DeliveryBudget disabled = budget(false);
+        assertEquals(0, disabled.budgetBytes(DeliveryBudget.Channel.WEBHOOK));
+        assertNull(disabled.maxTokens(DeliveryBudget.Channel.WEBHOOK));
+        assertFalse(disabled.isStream());
+    }
+
+    @Test
+    void fitsTextWithoutSplittingCharacters() {
+        String fits = "0123456789";
+        assertSame(fits, budget.fit(DeliveryBudget.Channel.WEBHOOK, fits));
+        // 预算 10 字节，省略号占 3 字节，剩 7 字节：两个汉字（6 字节）后放不下第三个
+        assertEquals("你好…", budget.fit(DeliveryBudget.Channel.WEBHOOK, "你好世界"));
+        // 代理对占 4 字节，不能切开
+        assertEquals("a😀…", budget.fit(DeliveryBudget.Channel.WEBHOOK, "a😀😀😀"));
+        assertEquals("ab😀c…", budget.fit(DeliveryBudget.Channel.WEBHOOK, "ab😀c😀d"));
+        assertEquals(3L, channel(DeliveryBudget.Channel.WEBHOOK).get("truncated"));
+        assertEquals("你好世界", budget(false).fit(DeliveryBudget.Channel.WEBHOOK, "你好世界"));
+    }
+
+    @Test
+    void recordsStreamCutoffAndSavedTokens() throws IOException {
+        StringBuilder sse = new StringBuilder();
+        for (int i = 0; i < 10; i++) {
+            sse.append("data: {\"choices\":[{\"delta\":{\"content\":\"字字\"}}]}\n\n");
+        }
+        sse.append("data: [DONE]\n\n");
+        // 每个分片 6 字节，预算 10 字节在第 2 个分片后停止读取
+        OpenAICodec.Answer answer = codec.readStream(stream(sse.toString()), budget.budgetBytes(DeliveryBudget.Channel.WEBHOOK));
+        assertTrue(answer.isCutoff());
+
+        budget.record(DeliveryBudget.Channel.WEBHOOK, budget.maxTokens(DeliveryBudget.Channel.WEBHOOK), answer);
+
+        Map<String, Object> stats = channel(DeliveryBudget.Channel.WEBHOOK);
+        assertEquals(1L, stats.get("requests"));
+        assertEquals(1L, stats.get("cutoffs"));
+        // max_tokens 5，已生成 2 个分片
+        assertEquals(3L, stats.get("tokensSavedEstimate"));
+        assertEquals(0L, stats.get("tokensOverBudget"));
+    }
+
+    @Test
+    void recordsTokensOverBudgetWithoutStream() throws IOException {
+        String json = "{\"choices\":[{\"message\":{\"content\":\"01234567890123456789\"},\"finish_reason\":\"length\"}],"
+                + "\"usage\":{\"prompt_tokens\":3,\"completion_tokens\":10,\"total_tokens\":13}}";
+        OpenAICodec.Answer answer = codec.readAnswer(stream(json));
+
+        budget.record(DeliveryBudget.Channel.WEBHOOK, 5, answer);
+
+        Map<String, Object> stats = channel(DeliveryBudget.Channel.WEBHOOK);
+        assertEquals(1L, stats.get("capped"));
+        assertEquals(0L, stats.get("cutoffs"));
+        // 20 字节中 10 字节超出预算，折算一半的 token
+        assertEquals(5L, stats.get("tokensOverBudget"));
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> channel(DeliveryBudget.Channel channel) {
+        return (Map<String, Object>) budget.stats().get(channel.name().toLowerCase());
+    }
+
+    private static DeliveryBudget budget(boolean enabled) {
+        DeliveryBudget budget = new DeliveryBudget();
+        ReflectionTestUtils.setField(budget, "enabled", enabled);
+        ReflectionTestUtils.setField(budget, "stream", true);
+        ReflectionTestUtils.setField(budget, "webhookBytes", 10);
+        ReflectionTestUtils.setField(budget, "customMessageBytes", 2000);
+        ReflectionTestUtils.setField(budget, "webBytes", 16000);
+        ReflectionTestUtils.setField(budget, "bytesPerToken", 2.0);
+        ReflectionTestUtils.setField(budget, "maxTokensCap", 8);
+        return budget;
+    }
+
+    private static ByteArrayInputStream stream(String text) {
+        return new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8));
+    }
+}
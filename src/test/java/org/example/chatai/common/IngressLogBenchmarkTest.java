@@ -0,0 +1,80 @@
+package org.example.chatai.common;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 入站日志追加耗时的分位数：每条消息在请求线程上多出的就是一次 append（complete 只改一个字节）
+ * <p>
+ * 默认构建不执行，用 mvn test -Pbenchmark 运行
+ */
+@Tag("benchmark")
+class IngressLogBenchmarkTest {
+
+    private static final int WARMUP = 50_000;
+    private static final int APPENDS = 200_000;
+    // fsync 每次都落盘，次数少一些
+    private static final int FSYNC_APPENDS = 2_000;
+
+    private static final String OPENID = "oLVPpjqs9BhvzwPj5A-vTYAX3GLc";
+    private static final String CONTENT = "你好，请问扫码登录以后页面一直没有反应，应该怎么处理？";
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void measuresAppendLatency() throws IOException {
+        System.out.println("入站日志追加基准（一条典型消息：openid 28 字符、MsgId 19 位、内容 " + CONTENT.length() + " 个汉字）");
+        long[] pageCache = run("page-cache", false, WARMUP, APPENDS);
+        long[] fsync = run("fsync", true, 100, FSYNC_APPENDS);
+
+        assertTrue(percentile(pageCache, 0.5) < 50_000, "不落盘时追加的中位数应在微秒级");
+        assertTrue(percentile(fsync, 0.5) >= percentile(pageCache, 0.5));
+    }
+
+    private long[] run(String name, boolean fsync, int warmup, int appends) throws IOException {
+        IngressLog log = new IngressLog();
+        ReflectionTestUtils.setField(log, "enabled", true);
+        ReflectionTestUtils.setField(log, "dir", dir.resolve(name).toString());
+        ReflectionTestUtils.setField(log, "segmentBytes", 64 << 20);
+        ReflectionTestUtils.setField(log, "fsync", fsync);
+        log.init();
+        try {
+            for (int i = 0; i < warmup; i++) {
+                log.complete(log.append(OPENID, msgId(i), CONTENT));
+            }
+            long[] nanos = new long[appends];
+            for (int i = 0; i < appends; i++) {
+                long start = System.nanoTime();
+                long handle = log.append(OPENID, msgId(warmup + i), CONTENT);
+                nanos[i] = System.nanoTime() - start;
+                log.complete(handle);
+            }
+            assertEquals(0, log.stats().get("pending"));
+            Arrays.sort(nanos);
+            System.out.printf("%s\t%d 次\tp50 %.2f µs\tp99 %.2f µs\tp99.9 %.2f µs\tmax %.2f µs%n", name, appends,
+                    percentile(nanos, 0.5) / 1000.0, percentile(nanos, 0.99) / 1000.0,
+                    percentile(nanos, 0.999) / 1000.0, nanos[nanos.length - 1] / 1000.0);
+            return nanos;
+        } finally {
+            log.destroy();
+        }
+    }
+
+    private static String msgId(long i) {
+        return String.valueOf(7_300_000_000_000_000_000L + i);
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        return sorted[Math.min(sorted.length - 1, (int) (sorted.length * p))];
+    }
+}
@@ -0,0 +1,134 @@
+package org.example.chatai.common;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class IngressLogTest {
+
+    @TempDir
+    Path dir;
+
+    private final List<IngressLog> opened = new ArrayList<>();
+
+    @AfterEach
+    void tearDown() {
+        for (IngressLog log : opened) {
+            log.destroy();
+        }
+    }
+
+    @Test
+    void replaysOnlyUncompletedMessages() throws IOException {
+        IngressLog log = open(1 << 16);
+        long first = log.append("u1", "m1", "你好");
+        log.append("u2", "m2", "在吗");
+        log.complete(first);
+
+        List<IngressLog.Entry> entries = open(1 << 16).recover();
+        assertEquals(1, entries.size());
+        IngressLog.Entry entry = entries.get(0);
+        assertEquals("u2", entry.getOpenid());
+        assertEquals("m2", entry.getMsgId());
+        assertEquals("在吗", entry.getContent());
+    }
+
+    @Test
+    void recoverReturnsEntriesOnce() throws IOException {
+        open(1 << 16).append("u1", "m1", "q");
+        IngressLog reopened = open(1 << 16);
+        assertEquals(1, reopened.recover().size());
+        assertTrue(reopened.recover().isEmpty());
+    }
+
+    @Test
+    void skipsRetriesOfAnsweredAndDuplicateMsgIds() throws IOException {
+        IngressLog log = open(1 << 16);
+        // 第一次已回答，微信重试的记录还没处理完
+        long answered = log.append("u1", "m1", "问题一");
+        log.complete(answered);
+        log.append("u1", "m1", "问题一");
+        // 同一条消息两次都没处理完，只重放一次
+        log.append("u2", "m2", "问题二");
+        log.append("u2", "m2", "问题二");
+        // 没有 MsgId 的记录无法判断是否重复，全部重放
+        log.append("u3", null, "问题三");
+        log.append("u3", null, "问题三");
+
+        IngressLog reopened = open(1 << 16);
+        List<IngressLog.Entry> entries = reopened.recover();
+        assertEquals(3, entries.size());
+        assertEquals("m2", entries.get(0).getMsgId());
+        assertNull(entries.get(1).getMsgId());
+        assertNull(entries.get(2).getMsgId());
+        assertEquals(2L, reopened.stats().get("skippedDuplicates"));
+        assertEquals(3, reopened.stats().get("pending"));
+    }
+
+    @Test
+    void readsRecordsWithoutMsgId() throws IOException {
+        // 旧版本的记录：payload 只有 openid 与内容
+        byte[] openid = "legacy".getBytes(StandardCharsets.UTF_8);
+        byte[] content = "旧记录".getBytes(StandardCharsets.UTF_8);
+        int length = 2 + openid.length + 4 + content.length;
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        buffer.putInt(length).put((byte) 0).putLong(7).putShort((short) openid.length).put(openid)
+                .putInt(content.length).put(content);
+        Files.write(dir.resolve("ingress-0000000001.log"), buffer.array());
+
+        IngressLog log = open(1 << 16);
+        List<IngressLog.Entry> entries = log.recover();
+        assertEquals(1, entries.size());
+        assertEquals("legacy", entries.get(0).getOpenid());
+        assertEquals("旧记录", entries.get(0).getContent());
+        assertNull(entries.get(0).getMsgId());
+        log.complete(entries.get(0).getHandle());
+        assertEquals(0, log.stats().get("pending"));
+    }
+
+    @Test
+    void rollsSegmentsAndDeletesDrainedOnes() throws IOException {
+        IngressLog log = open(256);
+        List<Long> handles = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            handles.add(log.append("user" + i, "msg" + i, "内容" + i));
+        }
+        assertTrue((Integer) log.stats().get("segments") > 2);
+        for (long handle : handles) {
+            log.complete(handle);
+        }
+        assertTrue((Long) log.stats().get("deletedSegments") > 0);
+        assertEquals(0, log.stats().get("pending"));
+
+        IngressLog reopened = open(256);
+        assertTrue(reopened.recover().isEmpty());
+        // 重放后只剩当前写入的分段与预创建的下一个分段
+        List<String> files = Files.list(dir).map(path -> path.getFileName().toString()).collect(Collectors.toList());
+        assertTrue(files.size() <= 2, files.toString());
+    }
+
+    private IngressLog open(int segmentBytes) throws IOException {
+        IngressLog log = new IngressLog();
+        ReflectionTestUtils.setField(log, "enabled", true);
+        ReflectionTestUtils.setField(log, "dir", dir.toString());
+        ReflectionTestUtils.setField(log, "segmentBytes", segmentBytes);
+        ReflectionTestUtils.setField(log, "fsync", false);
+        log.init();
+        opened.add(log);
+        return log;
+    }
+}
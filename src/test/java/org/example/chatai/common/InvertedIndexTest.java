@@ -0,0 +1,130 @@
+package org.example.chatai.common;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class InvertedIndexTest {
+
+    private static final String[] VOCABULARY = {"登录", "扫码", "失败", "天气", "翻译", "退款", "会员", "报错"};
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void intersectsTermsAcrossSegmentsAndBuffer() throws IOException {
+        try (InvertedIndex index = new InvertedIndex(dir.toFile(), 3, 10)) {
+            index.add(1, "u1", Arrays.asList("登录", "失败"));
+            index.add(2, "u1", Collections.singletonList("登录"));
+            // 第 3 条触发写分段，后面的留在内存缓冲
+            index.add(3, "u2", Arrays.asList("登录", "失败"));
+            index.add(4, "u1", Arrays.asList("登录", "失败", "扫码"));
+
+            assertEquals(1, index.stats().get("segments"));
+            assertEquals(1, index.stats().get("bufferedDocs"));
+            assertEquals(Arrays.asList(4L, 1L), index.search("u1", Arrays.asList("登录", "失败"), 10));
+            assertEquals(Arrays.asList(4L, 2L, 1L), index.search("u1", Collections.singletonList("登录"), 10));
+            assertEquals(Collections.singletonList(4L), index.search("u1", Collections.singletonList("登录"), 1));
+            assertTrue(index.search("u1", Arrays.asList("登录", "天气"), 10).isEmpty());
+            assertTrue(index.search("u1", Collections.emptyList(), 10).isEmpty());
+        }
+    }
+
+    @Test
+    void keepsUsersApart() throws IOException {
+        try (InvertedIndex index = new InvertedIndex(dir.toFile(), 1, 10)) {
+            index.add(1, "u1", Collections.singletonList("退款"));
+            index.add(2, "u2", Collections.singletonList("退款"));
+            index.add(3, "u10", Collections.singletonList("退款"));
+            assertEquals(Collections.singletonList(1L), index.search("u1", Collections.singletonList("退款"), 10));
+            assertEquals(Collections.singletonList(3L), index.search("u10", Collections.singletonList("退款"), 10));
+            assertTrue(index.search("u3", Collections.singletonList("退款"), 10).isEmpty());
+        }
+    }
+
+    @Test
+    void mergesSegmentsWithoutChangingResults() throws Exception {
+        Random random = new Random(7);
+        Map<Long, String> users = new HashMap<>();
+        Map<Long, Set<String>> docs = new HashMap<>();
+        try (InvertedIndex index = new InvertedIndex(dir.toFile(), 4, 2)) {
+            for (long docId = 1; docId <= 200; docId++) {
+                String user = "u" + random.nextInt(5);
+                Set<String> terms = randomTerms(random);
+                users.put(docId, user);
+                docs.put(docId, terms);
+                index.add(docId, user, terms);
+            }
+            awaitMerges(index);
+            // 50 个小分段按层级合并后只剩对数级别
+            assertTrue((Integer) index.stats().get("segments") < 10, index.stats().toString());
+            assertEquals(200L - 200 % 4, index.stats().get("segmentDocs"));
+
+            for (int round = 0; round < 100; round++) {
+                String user = "u" + random.nextInt(5);
+                List<String> query = new ArrayList<>(randomTerms(random));
+                List<Long> expected = new ArrayList<>();
+                for (long docId = 200; docId >= 1; docId--) {
+                    if (users.get(docId).equals(user) && docs.get(docId).containsAll(query)) {
+                        expected.add(docId);
+                    }
+                }
+                assertEquals(expected, index.search(user, query, 1000), user + " " + query);
+            }
+        }
+    }
+
+    @Test
+    void reopensFromManifest() throws IOException {
+        File directory = dir.toFile();
+        try (InvertedIndex index = new InvertedIndex(directory, 3, 10)) {
+            for (long docId = 1; docId <= 7; docId++) {
+                index.add(docId, "u1", Collections.singletonList(docId % 2 == 0 ? "会员" : "报错"));
+            }
+        }
+        // 关闭时缓冲写入分段，重启后全部可查
+        try (InvertedIndex reopened = new InvertedIndex(directory, 3, 10)) {
+            assertEquals(7L, reopened.getMaxDocId());
+            assertEquals(Arrays.asList(6L, 4L, 2L), reopened.search("u1", Collections.singletonList("会员"), 10));
+            assertEquals(Arrays.asList(7L, 5L, 3L, 1L), reopened.search("u1", Collections.singletonList("报错"), 10));
+        }
+    }
+
+    private static Set<String> randomTerms(Random random) {
+        Set<String> terms = new HashSet<>();
+        int count = 1 + random.nextInt(3);
+        while (terms.size() < count) {
+            terms.add(VOCABULARY[random.nextInt(VOCABULARY.length)]);
+        }
+        return terms;
+    }
+
+    // 一次合并完成后才会检查下一层，连续两次看到没有合并且分段数不变才算合并结束
+    private static void awaitMerges(InvertedIndex index) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        Object previous = null;
+        while (System.currentTimeMillis() < deadline) {
+            Map<String, Object> stats = index.stats();
+            if (!Boolean.TRUE.equals(stats.get("merging")) && stats.get("segments").equals(previous)) {
+                return;
+            }
+            previous = Boolean.TRUE.equals(stats.get("merging")) ? null : stats.get("segments");
+            Thread.sleep(50);
+        }
+    }
+}
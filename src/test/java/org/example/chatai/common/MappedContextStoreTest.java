@@ -0,0 +1,166 @@
+package org.example.chatai.common;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MappedContextStoreTest {
+
+    private static final int CAPACITY = 4096;
+    private static final long TTL = TimeUnit.MINUTES.toMillis(30);
+
+    @TempDir
+    Path dir;
+
+    private final List<MappedContextStore> opened = new ArrayList<>();
+
+    @AfterEach
+    void tearDown() {
+        for (MappedContextStore store : opened) {
+            store.destroy();
+        }
+    }
+
+    @Test
+    void appendsAndTrimsToMaxTurns() throws IOException {
+        MappedContextStore store = open(CAPACITY);
+        assertNull(store.get("u1"));
+        for (int i = 0; i < 5; i++) {
+            store.append("u1", bytes("turn" + i), 3, TTL);
+        }
+        assertTurns(store.get("u1"), "turn2", "turn3", "turn4");
+        assertNull(store.get("u2"));
+    }
+
+    @Test
+    void wrapsAndEvictsOldestUsers() throws IOException {
+        MappedContextStore store = open(CAPACITY);
+        // 每条记录约 150 字节，写满一圈多
+        int users = 60;
+        for (int i = 0; i < users; i++) {
+            store.append("user" + i, bytes(turnText(i)), 10, TTL);
+        }
+        Map<String, Object> stats = store.stats();
+        assertTrue((Long) stats.get("evicted") > 0);
+        assertTrue((Long) stats.get("usedBytes") <= CAPACITY);
+        assertNull(store.get("user0"));
+        for (int i = users - 5; i < users; i++) {
+            assertTurns(store.get("user" + i), turnText(i));
+        }
+        // 新版本记录使旧记录作废：反复追加同一用户仍可读到最新内容
+        for (int round = 0; round < 40; round++) {
+            store.append("hot", bytes("round" + round), 2, TTL);
+        }
+        assertTurns(store.get("hot"), "round38", "round39");
+    }
+
+    @Test
+    void rebuildsIndexFromFileAfterReopen() throws IOException {
+        MappedContextStore store = open(CAPACITY);
+        int users = 50;
+        for (int i = 0; i < users; i++) {
+            store.append("user" + i, bytes(turnText(i)), 10, TTL);
+            if (i % 3 == 0) {
+                store.append("user" + i, bytes("more" + i), 10, TTL);
+            }
+        }
+        List<List<byte[]>> before = new ArrayList<>();
+        for (int i = 0; i < users; i++) {
+            before.add(store.get("user" + i));
+        }
+        store.destroy();
+
+        MappedContextStore reopened = open(CAPACITY);
+        int present = 0;
+        for (int i = 0; i < users; i++) {
+            List<byte[]> expected = before.get(i);
+            List<byte[]> actual = reopened.get("user" + i);
+            if (expected == null) {
+                assertNull(actual, "user" + i);
+                continue;
+            }
+            present++;
+            assertNotNull(actual, "user" + i);
+            assertEquals(expected.size(), actual.size());
+            for (int t = 0; t < expected.size(); t++) {
+                assertArrayEquals(expected.get(t), actual.get(t));
+            }
+        }
+        assertTrue(present > 0);
+        assertEquals(present, reopened.stats().get("users"));
+    }
+
+    @Test
+    void discardsFileWhenCapacityChanges() throws IOException {
+        MappedContextStore store = open(CAPACITY);
+        store.append("u1", bytes("turn"), 10, TTL);
+        store.destroy();
+        assertNull(open(CAPACITY * 2).get("u1"));
+    }
+
+    @Test
+    void expiresByTtl() throws IOException {
+        MappedContextStore store = open(CAPACITY);
+        store.append("u1", bytes("turn"), 10, 0);
+        assertNull(store.get("u1"));
+        assertEquals(1L, store.stats().get("expired"));
+    }
+
+    @Test
+    void dropsOldestTurnsWhenLargerThanFile() throws IOException {
+        MappedContextStore store = open(CAPACITY);
+        byte[] big = new byte[1500];
+        List<byte[]> turns = Arrays.asList(big, big, big, bytes("last"));
+        store.put("u1", turns, TTL);
+        List<byte[]> stored = store.get("u1");
+        assertNotNull(stored);
+        assertTrue(stored.size() < turns.size());
+        assertArrayEquals(bytes("last"), stored.get(stored.size() - 1));
+    }
+
+    private MappedContextStore open(int capacity) throws IOException {
+        MappedContextStore store = new MappedContextStore();
+        ReflectionTestUtils.setField(store, "store", "local");
+        ReflectionTestUtils.setField(store, "path", dir.resolve("context.dat").toString());
+        ReflectionTestUtils.setField(store, "capacity", capacity);
+        store.init();
+        opened.add(store);
+        return store;
+    }
+
+    private static String turnText(int i) {
+        StringBuilder sb = new StringBuilder("turn-").append(i).append('-');
+        while (sb.length() < 120) {
+            sb.append((char) ('a' + i % 26));
+        }
+        return sb.toString();
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void assertTurns(List<byte[]> actual, String... expected) {
+        assertNotNull(actual);
+        assertEquals(expected.length, actual.size());
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], new String(actual.get(i), StandardCharsets.UTF_8));
+        }
+    }
+}
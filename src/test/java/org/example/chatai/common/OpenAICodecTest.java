@@ -0,0 +1,125 @@
+package org.example.chatai.common;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.example.chatai.chat.req.OpenAIRequest;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OpenAICodecTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final OpenAICodec codec = new OpenAICodec(objectMapper);
+
+    @Test
+    void readsFirstChoiceAndUsage() throws IOException {
+        String json = "{\"id\":\"chatcmpl-1\",\"object\":\"chat.completion\",\"created\":1,"
+                + "\"meta\":{\"nested\":[1,{\"a\":[2,3]}]},"
+                + "\"choices\":["
+                + "{\"index\":0,\"message\":{\"role\":\"assistant\",\"content\":\"你好，\\\"世界\\\"\\n\",\"extra\":{\"x\":1}},"
+                + "\"logprobs\":null,\"finish_reason\":\"stop\"},"
+                + "{\"index\":1,\"message\":{\"role\":\"assistant\",\"content\":\"second\"},\"finish_reason\":\"length\"}],"
+                + "\"usage\":{\"prompt_tokens\":12,\"completion_tokens\":5,\"total_tokens\":17,\"details\":{\"cached\":0}}}";
+        OpenAICodec.Answer answer = codec.readAnswer(stream(json));
+        assertEquals("你好，\"世界\"\n", answer.getContent());
+        assertEquals("stop", answer.getFinishReason());
+        assertEquals(12, answer.getPromptTokens());
+        assertEquals(5, answer.getCompletionTokens());
+        assertEquals(17, answer.getTotalTokens());
+        assertFalse(answer.isCutoff());
+    }
+
+    @Test
+    void readsErrorBodyWithoutContent() throws IOException {
+        OpenAICodec.Answer answer = codec.readAnswer(stream("{\"error\":{\"message\":\"bad\",\"type\":\"invalid_request_error\"}}"));
+        assertNull(answer.getContent());
+        assertEquals(0, answer.getTotalTokens());
+    }
+
+    @Test
+    void readsStreamUntilDone() throws IOException {
+        String sse = "data: {\"choices\":[{\"delta\":{\"role\":\"assistant\"}}]}\n\n"
+                + ": keep-alive\n\n"
+                + "data: {\"choices\":[{\"delta\":{\"content\":\"你好\"}}]}\n\n"
+                + "data: {\"choices\":[{\"delta\":{\"content\":\"，世界\"}}]}\n\n"
+                + "data: {\"choices\":[{\"delta\":{},\"finish_reason\":\"stop\"}]}\n\n"
+                + "data: [DONE]\n\n"
+                + "data: {\"choices\":[{\"delta\":{\"content\":\"不应读到\"}}]}\n\n";
+        OpenAICodec.Answer answer = codec.readStream(stream(sse), 0);
+        assertEquals("你好，世界", answer.getContent());
+        assertEquals("stop", answer.getFinishReason());
+        assertEquals(2, answer.getChunks());
+        // 没有 usage 时按分片数估算
+        assertEquals(2, answer.getCompletionTokens());
+        assertFalse(answer.isCutoff());
+    }
+
+    @Test
+    void usesStreamUsageWhenPresent() throws IOException {
+        String sse = "data: {\"choices\":[{\"delta\":{\"content\":\"a\"}}]}\n"
+                + "data: {\"choices\":[],\"usage\":{\"prompt_tokens\":3,\"completion_tokens\":1,\"total_tokens\":4}}\n"
+                + "data: [DONE]\n";
+        OpenAICodec.Answer answer = codec.readStream(stream(sse), 0);
+        assertEquals("a", answer.getContent());
+        assertEquals(3, answer.getPromptTokens());
+        assertEquals(1, answer.getCompletionTokens());
+        assertEquals(4, answer.getTotalTokens());
+    }
+
+    @Test
+    void stopsStreamAtByteBudget() throws IOException {
+        StringBuilder sse = new StringBuilder();
+        for (int i = 0; i < 10; i++) {
+            sse.append("data: {\"choices\":[{\"delta\":{\"content\":\"字字\"}}]}\n\n");
+        }
+        sse.append("data: [DONE]\n\n");
+        // 每个分片 6 字节，预算 10 字节在第 2 个分片后停止
+        OpenAICodec.Answer answer = codec.readStream(stream(sse.toString()), 10);
+        assertTrue(answer.isCutoff());
+        assertEquals(2, answer.getChunks());
+        assertEquals("字字字字", answer.getContent());
+    }
+
+    @Test
+    void writesRequestWithoutClosingStream() throws IOException {
+        OpenAIRequest request = new OpenAIRequest();
+        request.setModel("gpt-3.5-turbo");
+        request.setMessages(Collections.singletonList(new OpenAIRequest.Message("user", "你好")));
+        request.setMaxTokens(100);
+        boolean[] closed = {false};
+        ByteArrayOutputStream out = new ByteArrayOutputStream() {
+            @Override
+            public void close() {
+                closed[0] = true;
+            }
+        };
+        codec.writeRequest(request, out);
+        assertFalse(closed[0]);
+        JsonNode written = objectMapper.readTree(out.toByteArray());
+        assertEquals("gpt-3.5-turbo", written.get("model").asText());
+        assertEquals("你好", written.get("messages").get(0).get("content").asText());
+        assertEquals(100, written.get("max_tokens").asInt());
+        assertFalse(written.has("stream"));
+    }
+
+    @Test
+    void countsUtf8Length() {
+        assertEquals(0, OpenAICodec.utf8Length(""));
+        assertEquals("aé字😀".getBytes(StandardCharsets.UTF_8).length, OpenAICodec.utf8Length("aé字😀"));
+    }
+
+    private static InputStream stream(String text) {
+        return new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,134 @@
+package org.example.chatai.common;
+
+import ch.qos.logback.classic.AsyncAppender;
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.encoder.PatternLayoutEncoder;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.Appender;
+import ch.qos.logback.core.FileAppender;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.File;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 热路径日志的开销：对比改造前（同步写文件、每条消息输出完整上下文）与改造后（异步追加器、报文截断、
+ * 完整上下文只在 debug 输出）每条消息在请求线程上的耗时与写入的字节数
+ * <p>
+ * 默认构建不执行，用 mvn test -Pbenchmark 运行
+ */
+@Tag("benchmark")
+class PayloadLogBenchmarkTest {
+
+    private static final int CONVERSATIONS = 500;
+    // 每个会话的轮数，上下文随轮数增长，完整输出时日志量与轮数平方成正比
+    private static final int TURNS = 20;
+    private static final int ANSWER_CHARS = 200;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void comparesHotPathLoggingModes() {
+        PayloadLogPolicy policy = new PayloadLogPolicy();
+        ReflectionTestUtils.setField(policy, "maxLength", 256);
+        ReflectionTestUtils.setField(policy, "fullSampleRate", 0.01);
+        String answer = repeat("回答内容", ANSWER_CHARS / 4);
+
+        System.out.println("日志基准（" + CONVERSATIONS + " 个会话 × " + TURNS + " 轮，耗时为请求线程上每条消息的平均值）");
+        System.out.println("模式\t每条 µs\t写入 KB");
+        Result before = run("sync-full", false, (log, context) -> {
+            log.info("Retrieved previous context: {}", context);
+            log.info("Response: {}", answer);
+        });
+        Result asyncFull = run("async-full", true, (log, context) -> {
+            log.info("Retrieved previous context: {}", context);
+            log.info("Response: {}", answer);
+        });
+        Result after = run("async-policy", true, (log, context) -> {
+            log.info("Retrieved previous context: {} chars", context.length());
+            if (log.isDebugEnabled()) {
+                log.debug("Updated context: {}", policy.render(context));
+            }
+            log.info("Response: {}", policy.render(answer));
+        });
+        System.out.printf("render 平均 %s ns%n", policy.stats().get("avgRenderNanos"));
+
+        assertTrue(after.bytes * 5 < before.bytes, "改造后写入量应不到改造前的五分之一");
+        assertTrue(after.nanosPerMessage < before.nanosPerMessage, "改造后请求线程上的耗时应更低");
+        assertTrue(asyncFull.bytes > 0);
+    }
+
+    private Result run(String name, boolean async, LogCall call) {
+        LoggerContext context = new LoggerContext();
+        File file = dir.resolve(name + ".log").toFile();
+        PatternLayoutEncoder encoder = new PatternLayoutEncoder();
+        encoder.setContext(context);
+        encoder.setPattern("%d{yyyy-MM-dd HH:mm:ss.SSS} %5p [%t] %logger{39} : %m%n");
+        encoder.start();
+        FileAppender<ILoggingEvent> fileAppender = new FileAppender<>();
+        fileAppender.setContext(context);
+        fileAppender.setFile(file.getPath());
+        fileAppender.setEncoder(encoder);
+        fileAppender.start();
+        Appender<ILoggingEvent> appender = fileAppender;
+        if (async) {
+            // 与 logback-spring.xml 一致
+            AsyncAppender asyncAppender = new AsyncAppender();
+            asyncAppender.setContext(context);
+            asyncAppender.setQueueSize(8192);
+            asyncAppender.setNeverBlock(true);
+            asyncAppender.addAppender(fileAppender);
+            asyncAppender.start();
+            appender = asyncAppender;
+        }
+        Logger log = context.getLogger(name);
+        log.setLevel(Level.INFO);
+        log.setAdditive(false);
+        log.addAppender(appender);
+
+        long start = System.nanoTime();
+        for (int c = 0; c < CONVERSATIONS; c++) {
+            StringBuilder conversation = new StringBuilder();
+            for (int t = 0; t < TURNS; t++) {
+                call.log(log, conversation.toString());
+                conversation.append("\nUser: 第").append(t).append("个问题\nAI: ").append(repeat("回答内容", ANSWER_CHARS / 4));
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        // 停止时异步队列写完再统计字节数，不计入请求线程耗时
+        context.stop();
+        Result result = new Result(elapsed / (CONVERSATIONS * TURNS), file.length());
+        System.out.printf("%s\t%.2f\t%d%n", name, result.nanosPerMessage / 1000.0, result.bytes / 1024);
+        return result;
+    }
+
+    private static String repeat(String text, int times) {
+        StringBuilder sb = new StringBuilder(text.length() * times);
+        for (int i = 0; i < times; i++) {
+            sb.append(text);
+        }
+        return sb.toString();
+    }
+
+    private interface LogCall {
+        void log(Logger log, String context);
+    }
+
+    private static final class Result {
+        private final long nanosPerMessage;
+        private final long bytes;
+
+        private Result(long nanosPerMessage, long bytes) {
+            this.nanosPerMessage = nanosPerMessage;
+            this.bytes = bytes;
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package org.example.chatai.common;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class PayloadLogPolicyTest {
+
+    @Test
+    void truncatesUnlessSampled() {
+        PayloadLogPolicy policy = policy(0);
+        assertNull(policy.render(null));
+        assertEquals("0123456789", policy.render("0123456789"));
+        assertEquals("0123456789...(12 chars)", policy.render("0123456789ab"));
+        assertEquals(2L, policy.stats().get("truncatedChars"));
+
+        // 抽样率为 1 时总是输出全文
+        assertEquals("0123456789ab", policy(1).render("0123456789ab"));
+    }
+
+    @Test
+    void redactsAuthorizationOnCopy() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        headers.setBearerAuth("sk-secret");
+
+        HttpHeaders redacted = PayloadLogPolicy.redact(headers);
+
+        assertEquals(Collections.singletonList("******"), redacted.get(HttpHeaders.AUTHORIZATION));
+        assertEquals(MediaType.APPLICATION_JSON, redacted.getContentType());
+        // 原请求头不受影响，照常发出
+        assertEquals("Bearer sk-secret", headers.getFirst(HttpHeaders.AUTHORIZATION));
+
+        HttpHeaders plain = new HttpHeaders();
+        plain.setContentType(MediaType.APPLICATION_JSON);
+        assertSame(plain, PayloadLogPolicy.redact(plain));
+    }
+
+    private static PayloadLogPolicy policy(double fullSampleRate) {
+        PayloadLogPolicy policy = new PayloadLogPolicy();
+        ReflectionTestUtils.setField(policy, "maxLength", 10);
+        ReflectionTestUtils.setField(policy, "fullSampleRate", fullSampleRate);
+        return policy;
+    }
+}
@@ -0,0 +1,146 @@
+package org.example.chatai.common;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.HashOperations;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+class RuntimeSettingsTest {
+
+    private StringRedisTemplate redisTemplate;
+    private HashOperations<String, Object, Object> hashOperations;
+    private RuntimeSettings settings;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        redisTemplate = mock(StringRedisTemplate.class);
+        hashOperations = mock(HashOperations.class);
+        when(redisTemplate.opsForHash()).thenReturn(hashOperations);
+        MockEnvironment environment = new MockEnvironment()
+                .withProperty(RuntimeSettings.SCHEDULER_MAX_CONCURRENCY, "8");
+        settings = new RuntimeSettings(redisTemplate, environment);
+        ReflectionTestUtils.setField(settings, "enabled", true);
+    }
+
+    @Test
+    void startsFromEnvironmentAndDefaults() {
+        assertEquals(8, settings.getInt(RuntimeSettings.SCHEDULER_MAX_CONCURRENCY));
+        assertEquals(5000, settings.getInt(RuntimeSettings.HTTP_CONNECT_TIMEOUT_MS));
+        assertEquals(30L, settings.getLong(RuntimeSettings.CONTEXT_TTL_MINUTES));
+        assertEquals(50.0, settings.getDouble(RuntimeSettings.BROADCAST_RATE_PER_SECOND));
+        assertEquals("gpt-3.5-turbo", settings.getString(RuntimeSettings.OPENAI_MODEL));
+    }
+
+    @Test
+    void rejectsInvalidStartupValue() {
+        MockEnvironment environment = new MockEnvironment()
+                .withProperty(RuntimeSettings.CONTEXT_MAX_TURNS, "0");
+        assertThrows(IllegalArgumentException.class, () -> new RuntimeSettings(null, environment));
+    }
+
+    @Test
+    void updateAppliesWholeBatchAndNotifiesListeners() {
+        List<Object> notified = new ArrayList<>();
+        settings.onChange(RuntimeSettings.SCHEDULER_MAX_CONCURRENCY, notified::add);
+        Map<String, String> changes = new LinkedHashMap<>();
+        changes.put(RuntimeSettings.SCHEDULER_MAX_CONCURRENCY, " 32 ");
+        changes.put(RuntimeSettings.OPENAI_MODEL, "gpt-4o-mini");
+
+        settings.update(changes);
+
+        assertEquals(32, settings.getInt(RuntimeSettings.SCHEDULER_MAX_CONCURRENCY));
+        assertEquals("gpt-4o-mini", settings.getString(RuntimeSettings.OPENAI_MODEL));
+        assertEquals(1, notified.size());
+        assertEquals(32, notified.get(0));
+        verify(redisTemplate).execute(any(RedisScript.class), anyList(),
+                any(), any(), any(), any());
+        Map<String, Object> stats = settings.stats();
+        assertEquals(1L, stats.get("applied"));
+        assertEquals(2, ((List<?>) stats.get("history")).size());
+    }
+
+    @Test
+    void updateRejectsWholeBatchWhenAnyValueIsInvalid() {
+        List<Object> notified = new ArrayList<>();
+        settings.onChange(RuntimeSettings.SCHEDULER_MAX_CONCURRENCY, notified::add);
+        Map<String, String> changes = new LinkedHashMap<>();
+        changes.put(RuntimeSettings.SCHEDULER_MAX_CONCURRENCY, "32");
+        changes.put(RuntimeSettings.HTTP_CONNECT_TIMEOUT_MS, "50");
+
+        assertThrows(IllegalArgumentException.class, () -> settings.update(changes));
+
+        // 合法的那一项也不生效，也不写入 Redis
+        assertEquals(8, settings.getInt(RuntimeSettings.SCHEDULER_MAX_CONCURRENCY));
+        assertTrue(notified.isEmpty());
+        verifyNoInteractions(redisTemplate);
+        assertThrows(IllegalArgumentException.class,
+                () -> settings.update(singleton(RuntimeSettings.CONTEXT_TTL_MINUTES, "abc")));
+        assertThrows(IllegalArgumentException.class,
+                () -> settings.update(singleton("chat.unknown", "1")));
+    }
+
+    @Test
+    void blankValueRestoresDefault() {
+        settings.update(singleton(RuntimeSettings.CONTEXT_MAX_TURNS, "5"));
+        assertEquals(5, settings.getInt(RuntimeSettings.CONTEXT_MAX_TURNS));
+        settings.update(singleton(RuntimeSettings.CONTEXT_MAX_TURNS, ""));
+        assertEquals(20, settings.getInt(RuntimeSettings.CONTEXT_MAX_TURNS));
+        assertTrue(((Map<?, ?>) settings.stats().get("overrides")).isEmpty());
+    }
+
+    @Test
+    void refreshKeepsSnapshotWhenRedisBatchIsInvalid() {
+        Map<Object, Object> hash = new HashMap<>();
+        hash.put(RuntimeSettings.SCHEDULER_MAX_CONCURRENCY, "64");
+        hash.put(RuntimeSettings.BROADCAST_RATE_PER_SECOND, "-1");
+        when(hashOperations.entries("chat:runtime:settings")).thenReturn(hash);
+
+        settings.refresh();
+        settings.refresh();
+
+        assertEquals(8, settings.getInt(RuntimeSettings.SCHEDULER_MAX_CONCURRENCY));
+        Map<String, Object> stats = settings.stats();
+        assertEquals(2L, stats.get("rejected"));
+        assertTrue(((String) stats.get("lastError")).startsWith(RuntimeSettings.BROADCAST_RATE_PER_SECOND));
+
+        hash.put(RuntimeSettings.BROADCAST_RATE_PER_SECOND, "20");
+        settings.refresh();
+        assertEquals(64, settings.getInt(RuntimeSettings.SCHEDULER_MAX_CONCURRENCY));
+        assertEquals(20.0, settings.getDouble(RuntimeSettings.BROADCAST_RATE_PER_SECOND));
+        assertNull(settings.stats().get("lastError"));
+    }
+
+    @Test
+    void refreshSurvivesRedisFailure() {
+        when(hashOperations.entries("chat:runtime:settings")).thenThrow(new IllegalStateException("down"));
+        settings.refresh();
+        assertEquals(8, settings.getInt(RuntimeSettings.SCHEDULER_MAX_CONCURRENCY));
+    }
+
+    private static Map<String, String> singleton(String name, String value) {
+        Map<String, String> changes = new HashMap<>();
+        changes.put(name, value);
+        return changes;
+    }
+}
@@ -0,0 +1,189 @@
+package org.example.chatai.impl;
+
+import org.example.chatai.common.ContextCodec;
+import org.example.chatai.common.MappedContextStore;
+import org.example.chatai.common.RuntimeSettings;
+import org.example.chatai.service.ChatContextService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.InOrder;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.clearInvocations;
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class DegradingConversationStoreImplTest {
+
+    @TempDir
+    Path dir;
+
+    private ChatContextService chatContextService;
+    private StringRedisTemplate redisTemplate;
+    private MappedContextStore mappedContextStore;
+    private ContextCodec contextCodec;
+    private DegradingConversationStoreImpl store;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() throws IOException {
+        chatContextService = mock(ChatContextService.class);
+        redisTemplate = mock(StringRedisTemplate.class);
+        when(redisTemplate.execute(any(RedisCallback.class))).thenReturn("PONG");
+
+        mappedContextStore = new MappedContextStore();
+        ReflectionTestUtils.setField(mappedContextStore, "store", "degrade");
+        ReflectionTestUtils.setField(mappedContextStore, "path", dir.resolve("context.dat").toString());
+        ReflectionTestUtils.setField(mappedContextStore, "capacity", 1 << 16);
+        mappedContextStore.init();
+        contextCodec = new ContextCodec();
+        ReflectionTestUtils.setField(contextCodec, "compressThreshold", 256);
+
+        store = new DegradingConversationStoreImpl();
+        ReflectionTestUtils.setField(store, "latencyMillis", 1000L);
+        ReflectionTestUtils.setField(store, "failureThreshold", 2);
+        ReflectionTestUtils.setField(store, "maxPendingTurns", 100);
+        ReflectionTestUtils.setField(store, "chatContextService", chatContextService);
+        ReflectionTestUtils.setField(store, "mappedContextStore", mappedContextStore);
+        ReflectionTestUtils.setField(store, "contextCodec", contextCodec);
+        ReflectionTestUtils.setField(store, "runtimeSettings", new RuntimeSettings(null, new MockEnvironment()));
+        ReflectionTestUtils.setField(store, "redisTemplate", redisTemplate);
+    }
+
+    @AfterEach
+    void tearDown() {
+        mappedContextStore.destroy();
+    }
+
+    @Test
+    void degradesAfterConsecutiveFailuresAndServesLocally() {
+        redisDown();
+        store.append("u1", "q1", "a1");
+        assertEquals(false, store.stats().get("degraded"));
+        store.append("u2", "q2", "a2");
+        assertEquals(true, store.stats().get("degraded"));
+
+        // 降级后不再访问 Redis
+        store.append("u3", "q3", "a3");
+        store.append("u3", "q4", "a4");
+        assertEquals(context("q3", "a3", "q4", "a4"), store.load("u3"));
+        verify(chatContextService, times(2)).append(anyString(), anyString(), anyString());
+        verify(chatContextService, never()).load(anyString());
+        assertEquals(4, store.stats().get("pendingTurns"));
+    }
+
+    @Test
+    void resyncsPendingTurnsInOrderBeforeLeavingDegrade() {
+        degrade();
+        store.append("u1", "q3", "a3");
+
+        // PING 失败时保持降级
+        when(redisTemplate.execute(any(RedisCallback.class))).thenThrow(new IllegalStateException("down"));
+        store.probe();
+        assertEquals(true, store.stats().get("degraded"));
+
+        redisUp();
+        clearInvocations(chatContextService);
+        store.probe();
+
+        InOrder order = inOrder(chatContextService);
+        order.verify(chatContextService).append("u1", "q1", "a1");
+        order.verify(chatContextService).append("u2", "q2", "a2");
+        order.verify(chatContextService).append("u1", "q3", "a3");
+        Map<String, Object> stats = store.stats();
+        assertEquals(false, stats.get("degraded"));
+        assertEquals(0, stats.get("pendingTurns"));
+        assertEquals(0, stats.get("pendingUsers"));
+        assertEquals(3L, stats.get("resyncedTurns"));
+        assertEquals(1L, stats.get("recoverCount"));
+    }
+
+    @Test
+    void stopsResyncAtFailedTurn() {
+        degrade();
+        redisUp();
+        doThrow(new IllegalStateException("timeout")).when(chatContextService).append("u2", "q2", "a2");
+
+        store.probe();
+
+        // 第二轮补写失败，停在这一轮，不退出降级
+        assertEquals(true, store.stats().get("degraded"));
+        assertEquals(1, store.stats().get("pendingTurns"));
+        doNothing().when(chatContextService).append("u2", "q2", "a2");
+        store.probe();
+        assertEquals(false, store.stats().get("degraded"));
+        assertEquals(0, store.stats().get("pendingTurns"));
+    }
+
+    @Test
+    void queuesBehindPendingTurnsWithoutDegrading() {
+        // 单次写入失败未达到降级阈值，这一轮排队补写
+        doThrow(new IllegalStateException("timeout")).when(chatContextService).append("u1", "q1", "a1");
+        store.append("u1", "q1", "a1");
+        assertEquals(false, store.stats().get("degraded"));
+
+        // 同一用户的后续轮次不能抢在前一轮之前写进 Redis，读取也走本机
+        store.append("u1", "q2", "a2");
+        store.append("u2", "q3", "a3");
+        assertEquals(context("q1", "a1", "q2", "a2"), store.load("u1"));
+        verify(chatContextService, never()).append("u1", "q2", "a2");
+        verify(chatContextService).append("u2", "q3", "a3");
+        verify(chatContextService, never()).load("u1");
+
+        doNothing().when(chatContextService).append("u1", "q1", "a1");
+        clearInvocations(chatContextService);
+        store.probe();
+
+        InOrder order = inOrder(chatContextService);
+        order.verify(chatContextService).append("u1", "q1", "a1");
+        order.verify(chatContextService).append("u1", "q2", "a2");
+        when(chatContextService.load("u1")).thenReturn("redis");
+        assertEquals("redis", store.load("u1"));
+        assertEquals(0, store.stats().get("pendingUsers"));
+    }
+
+    // 两个用户各写失败一次，达到降级阈值
+    private void degrade() {
+        doThrow(new IllegalStateException("down")).when(chatContextService).append(anyString(), anyString(), anyString());
+        store.append("u1", "q1", "a1");
+        store.append("u2", "q2", "a2");
+        assertEquals(true, store.stats().get("degraded"));
+    }
+
+    private void redisDown() {
+        doThrow(new IllegalStateException("down")).when(chatContextService).append(anyString(), anyString(), anyString());
+    }
+
+    @SuppressWarnings("unchecked")
+    private void redisUp() {
+        doNothing().when(chatContextService).append(anyString(), anyString(), anyString());
+        doReturn("PONG").when(redisTemplate).execute(any(RedisCallback.class));
+    }
+
+    private String context(String... turns) {
+        StringBuilder context = new StringBuilder();
+        for (int i = 0; i < turns.length; i += 2) {
+            context.append(contextCodec.decode(contextCodec.encode(turns[i], turns[i + 1])));
+        }
+        return context.toString();
+    }
+}
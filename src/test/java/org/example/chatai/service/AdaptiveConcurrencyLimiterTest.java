@@ -0,0 +1,106 @@
+package org.example.chatai.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AdaptiveConcurrencyLimiterTest {
+
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(5000);
+
+    @Test
+    void shedsAtLimitAndAdmitsAfterRelease() {
+        AdaptiveConcurrencyLimiter limiter = limiter(true, 2);
+        assertTrue(limiter.tryAcquire());
+        assertTrue(limiter.tryAcquire());
+        assertFalse(limiter.tryAcquire());
+        limiter.release();
+        assertTrue(limiter.tryAcquire());
+        assertEquals(2, limiter.stats().get("inFlight"));
+        assertEquals(3L, limiter.stats().get("admitted"));
+        assertEquals(1L, limiter.stats().get("shed"));
+    }
+
+    @Test
+    void growsOnlyWhenLimitIsUsedAndFast() {
+        AdaptiveConcurrencyLimiter limiter = limiter(true, 4);
+        // 未用满时快速返回不增长
+        for (int i = 0; i < 20; i++) {
+            assertTrue(limiter.tryAcquire());
+            limiter.release(FAST);
+        }
+        assertEquals(4, limiter.stats().get("limit"));
+        // 保持用满时每次完成 +1/limit，约一个窗口后 +1
+        for (int i = 0; i < 4; i++) {
+            assertTrue(limiter.tryAcquire());
+        }
+        for (int i = 0; i < 5; i++) {
+            limiter.release(FAST);
+            assertTrue(limiter.tryAcquire());
+        }
+        assertEquals(5, limiter.stats().get("limit"));
+    }
+
+    @Test
+    void backsOffOncePerWindowAndKeepsMinimum() {
+        AdaptiveConcurrencyLimiter limiter = limiter(true, 10);
+        expireDecreaseWindow(limiter);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(limiter.tryAcquire());
+        }
+        // 一批慢请求在同一窗口内只减一次
+        for (int i = 0; i < 5; i++) {
+            limiter.release(SLOW);
+        }
+        assertEquals(8, limiter.stats().get("limit"));
+        assertEquals(5L, limiter.stats().get("slow"));
+
+        for (int i = 0; i < 20; i++) {
+            expireDecreaseWindow(limiter);
+            assertTrue(limiter.tryAcquire());
+            limiter.release(SLOW);
+        }
+        assertEquals(4, limiter.stats().get("limit"));
+    }
+
+    @Test
+    void releaseWithoutSampleKeepsLimit() {
+        AdaptiveConcurrencyLimiter limiter = limiter(true, 1);
+        assertTrue(limiter.tryAcquire());
+        limiter.release();
+        assertEquals(1, limiter.stats().get("limit"));
+        assertEquals(0, limiter.stats().get("inFlight"));
+    }
+
+    @Test
+    void admitsEverythingWhenDisabled() {
+        AdaptiveConcurrencyLimiter limiter = limiter(false, 1);
+        for (int i = 0; i < 10; i++) {
+            assertTrue(limiter.tryAcquire());
+        }
+        assertEquals(0L, limiter.stats().get("shed"));
+    }
+
+    // nanoTime 起点任意，直接把上次减小的时间挪到一个窗口之前
+    private static void expireDecreaseWindow(AdaptiveConcurrencyLimiter limiter) {
+        ReflectionTestUtils.setField(limiter, "lastDecreaseNanos", System.nanoTime() - 2 * SLOW);
+    }
+
+    private static AdaptiveConcurrencyLimiter limiter(boolean enabled, int initialLimit) {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter();
+        ReflectionTestUtils.setField(limiter, "enabled", enabled);
+        ReflectionTestUtils.setField(limiter, "initialLimit", initialLimit);
+        ReflectionTestUtils.setField(limiter, "minLimit", 4);
+        ReflectionTestUtils.setField(limiter, "maxLimit", 200);
+        ReflectionTestUtils.setField(limiter, "targetLatencyMillis", 3000L);
+        ReflectionTestUtils.setField(limiter, "backoffRatio", 0.8);
+        limiter.init();
+        return limiter;
+    }
+}
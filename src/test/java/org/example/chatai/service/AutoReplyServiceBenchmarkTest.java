@@ -0,0 +1,104 @@
+package org.example.chatai.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.example.chatai.vo.AutoReplyRule;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 规则数达到数万条时的构建与匹配耗时：自动机匹配与规则数量无关，平均每条消息应在微秒级
+ * <p>
+ * 默认构建不执行，用 mvn test -Pbenchmark 运行
+ */
+@Tag("benchmark")
+class AutoReplyServiceBenchmarkTest {
+
+    private static final int RULES = 50_000;
+    private static final int MESSAGES = 100_000;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void matchesTensOfThousandsOfRules() throws Exception {
+        Random random = new Random(42);
+        List<AutoReplyRule> rules = new ArrayList<>(RULES + 2);
+        List<String> keywords = new ArrayList<>(RULES);
+        for (int i = 0; i < RULES; i++) {
+            String keyword = "规则" + randomHan(random, 3) + i;
+            keywords.add(keyword);
+            rules.add(rule("r" + i, Collections.singletonList(keyword), null, "回复" + i, i % 10));
+        }
+        // 仅正则的规则合并成一个分支正则预筛
+        rules.add(rule("order", null, "订单号\\s*\\d{8}", "请稍候，正在查询订单", 100));
+        rules.add(rule("phone", null, "(?i)tel:\\d{11}", "已记录电话", 100));
+        Path file = dir.resolve("auto-reply-rules.json");
+        new ObjectMapper().writeValue(file.toFile(), rules);
+
+        AutoReplyService service = new AutoReplyService(new DefaultResourceLoader(), new ObjectMapper());
+        ReflectionTestUtils.setField(service, "enabled", true);
+        ReflectionTestUtils.setField(service, "rulesLocation", file.toUri().toString());
+        service.init();
+        Map<String, Object> stats = service.stats();
+        assertEquals(RULES + 2, stats.get("rules"));
+        assertEquals(2, stats.get("regexOnlyRules"));
+        assertEquals(true, stats.get("regexOnlyPrefiltered"));
+
+        String[] messages = new String[1024];
+        for (int i = 0; i < messages.length; i++) {
+            messages[i] = randomHan(random, 20) + keywords.get(random.nextInt(RULES)) + randomHan(random, 20);
+        }
+        // 预热
+        for (int i = 0; i < MESSAGES; i++) {
+            service.match("openid", messages[i & (messages.length - 1)]);
+        }
+        long start = System.nanoTime();
+        int hits = 0;
+        for (int i = 0; i < MESSAGES; i++) {
+            if (service.match("openid", messages[i & (messages.length - 1)]) != null) {
+                hits++;
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        System.out.printf("自动回复基准：规则 %d 条，构建 %s ms，匹配 %d 条消息平均 %.2f µs%n",
+                RULES, service.stats().get("buildMillis"), MESSAGES, elapsed / 1000.0 / MESSAGES);
+
+        assertEquals(MESSAGES, hits);
+        assertEquals("回复123", service.match("openid", "请问" + keywords.get(123) + "怎么办"));
+        assertEquals("请稍候，正在查询订单", service.match("openid", "我的订单号 20240101 没有到"));
+        assertNull(service.match("openid", "完全无关的一句话"));
+        assertTrue(elapsed / MESSAGES < 1_000_000, "平均每条消息匹配超过 1 ms");
+    }
+
+    private static AutoReplyRule rule(String id, List<String> keywords, String regex, String reply, int priority) {
+        AutoReplyRule rule = new AutoReplyRule();
+        rule.setId(id);
+        rule.setKeywords(keywords);
+        rule.setRegex(regex);
+        rule.setReply(reply);
+        rule.setPriority(priority);
+        return rule;
+    }
+
+    private static String randomHan(Random random, int length) {
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            sb.append((char) (0x4E00 + random.nextInt(0x5000)));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,88 @@
+package org.example.chatai.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.example.chatai.vo.AutoReplyRule;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class AutoReplyServiceTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void picksHighestPriorityCandidate() throws IOException {
+        AutoReplyService service = service(Arrays.asList(
+                rule("login", Arrays.asList("怎么登录", "登录不了"), null, false, "扫码登录", 10),
+                rule("whoami", Collections.singletonList("你是谁"), null, true, "我是助手 {openid}", 10),
+                rule("refund", Collections.singletonList("退款"), "退款.*订单", false, "退款说明", 20)));
+
+        assertEquals("扫码登录", service.match("u1", "请问，怎么 登录？"));
+        // exact 规则要求整条消息等于关键词
+        assertEquals("我是助手 u1", service.match("u1", "你是谁？"));
+        assertNull(service.match("u1", "你是谁啊"));
+        // 关键词命中后还要通过正则校验，优先级更高的规则胜出
+        assertEquals("退款说明", service.match("u1", "登录不了，想退款这个订单"));
+        assertEquals("扫码登录", service.match("u1", "登录不了，想退款"));
+    }
+
+    @Test
+    void prefiltersRegexOnlyRulesWithOneAlternation() throws IOException {
+        AutoReplyService service = service(Arrays.asList(
+                rule("order", null, "订单号\\s*\\d{8}", false, "查询订单", 10),
+                rule("phone", null, "(?i)TEL:\\d{11}", false, "已记录电话", 20)));
+
+        Map<String, Object> stats = service.stats();
+        assertEquals(2, stats.get("regexOnlyRules"));
+        assertEquals(true, stats.get("regexOnlyPrefiltered"));
+        assertEquals("查询订单", service.match("u1", "我的订单号 20240101 没到"));
+        // 内联标志只作用于所在分支
+        assertEquals("已记录电话", service.match("u1", "tel:13800000000 订单号 20240101"));
+        assertNull(service.match("u1", "ORDER 20240101"));
+    }
+
+    @Test
+    void checksEachRegexWhenBackReferenceCannotBeMerged() throws IOException {
+        AutoReplyService service = service(Arrays.asList(
+                rule("repeat", null, "(\\d)\\1{3}", false, "重复数字", 10),
+                rule("order", null, "订单号\\s*\\d{8}", false, "查询订单", 5)));
+
+        assertEquals(false, service.stats().get("regexOnlyPrefiltered"));
+        assertEquals("重复数字", service.match("u1", "验证码 7777"));
+        assertEquals("查询订单", service.match("u1", "订单号 20240101"));
+        assertNull(service.match("u1", "验证码 1234"));
+    }
+
+    private AutoReplyService service(List<AutoReplyRule> rules) throws IOException {
+        Path file = dir.resolve("auto-reply-rules.json");
+        new ObjectMapper().writeValue(file.toFile(), rules);
+        AutoReplyService service = new AutoReplyService(new DefaultResourceLoader(), new ObjectMapper());
+        ReflectionTestUtils.setField(service, "enabled", true);
+        ReflectionTestUtils.setField(service, "rulesLocation", file.toUri().toString());
+        service.init();
+        return service;
+    }
+
+    private static AutoReplyRule rule(String id, List<String> keywords, String regex, boolean exact, String reply, int priority) {
+        AutoReplyRule rule = new AutoReplyRule();
+        rule.setId(id);
+        rule.setKeywords(keywords);
+        rule.setRegex(regex);
+        rule.setExact(exact);
+        rule.setReply(reply);
+        rule.setPriority(priority);
+        return rule;
+    }
+}
@@ -0,0 +1,121 @@
+package org.example.chatai.service;
+
+import org.example.chatai.common.ContextCodec;
+import org.example.chatai.common.RuntimeSettings;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ChatContextServiceTest {
+
+    private final ContextCodec codec = new ContextCodec();
+    // 依次作为读取脚本的返回值
+    private final Deque<List<Object>> replies = new ArrayDeque<>();
+    // 每次读取脚本带上的近端缓存版本号
+    private final List<String> knownVersions = new ArrayList<>();
+    private StringRedisTemplate redisTemplate;
+    private ChatContextService service;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        ReflectionTestUtils.setField(codec, "compressThreshold", 256);
+        RedisConnection connection = mock(RedisConnection.class, invocation -> {
+            if (!"eval".equals(invocation.getMethod().getName())) {
+                return null;
+            }
+            // eval(script, returnType, numKeys, key, versionKey, knownVersion)
+            knownVersions.add(new String((byte[]) invocation.getArguments()[5], StandardCharsets.UTF_8));
+            return replies.poll();
+        });
+        redisTemplate = mock(StringRedisTemplate.class);
+        when(redisTemplate.execute(any(RedisCallback.class)))
+                .thenAnswer(invocation -> ((RedisCallback<?>) invocation.getArgument(0)).doInRedis(connection));
+
+        service = new ChatContextService(redisTemplate, codec, mock(ChatRecordRepository.class),
+                new RuntimeSettings(null, new MockEnvironment()));
+        ReflectionTestUtils.setField(service, "rebuildEnabled", false);
+        ReflectionTestUtils.setField(service, "nearCacheEnabled", true);
+    }
+
+    @Test
+    void nearCacheHitValidatesVersionInsideLoadScript() {
+        replies.add(reply(5L, "q1", "a1"));
+        replies.add(Collections.singletonList(5L));
+
+        String first = service.load("u1");
+        String second = service.load("u1");
+
+        assertEquals(turn("q1", "a1"), first);
+        assertEquals(first, second);
+        // 第一次没有缓存带 0，第二次带上缓存的版本，脚本只返回版本号
+        assertEquals(Arrays.asList("0", "5"), knownVersions);
+        Map<String, Object> stats = service.stats();
+        assertEquals(1L, stats.get("nearMisses"));
+        assertEquals(1L, stats.get("nearHits"));
+        verify(redisTemplate, never()).opsForValue();
+    }
+
+    @Test
+    void staleNearCacheReloadsInSameRoundTrip() {
+        replies.add(reply(5L, "q1", "a1"));
+        // 其他节点追加了一轮，版本号已变
+        replies.add(reply(7L, "q1", "a1", "q2", "a2"));
+        replies.add(Collections.singletonList(7L));
+
+        service.load("u1");
+        assertEquals(turn("q1", "a1") + turn("q2", "a2"), service.load("u1"));
+        assertEquals(turn("q1", "a1") + turn("q2", "a2"), service.load("u1"));
+
+        assertEquals(Arrays.asList("0", "5", "7"), knownVersions);
+        assertEquals(1L, service.stats().get("nearStale"));
+        assertEquals(1L, service.stats().get("nearHits"));
+    }
+
+    @Test
+    void missingContextDropsNearEntry() {
+        replies.add(reply(5L, "q1", "a1"));
+        replies.add(Collections.emptyList());
+        replies.add(Collections.emptyList());
+
+        service.load("u1");
+        // 上下文已过期，不能再用本机缓存
+        assertEquals("", service.load("u1"));
+        assertEquals("", service.load("u1"));
+        assertEquals(Arrays.asList("0", "5", "0"), knownVersions);
+        assertEquals(0L, service.stats().get("nearCacheEntries"));
+    }
+
+    private List<Object> reply(long version, String... turns) {
+        List<Object> reply = new ArrayList<>();
+        reply.add(version);
+        for (int i = 0; i < turns.length; i += 2) {
+            reply.add(codec.encode(turns[i], turns[i + 1]));
+        }
+        return reply;
+    }
+
+    private String turn(String question, String answer) {
+        return codec.decode(codec.encode(question, answer));
+    }
+}
@@ -0,0 +1,164 @@
+package org.example.chatai.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.RedisStreamCommands;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.PendingMessage;
+import org.springframework.data.redis.connection.stream.PendingMessages;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamRecords;
+import org.springframework.data.redis.connection.stream.StringRecord;
+import org.springframework.data.redis.core.HashOperations;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StreamOperations;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ChatWorkQueueTest {
+
+    private static final String STREAM_KEY = "chat:jobs:stream";
+    private static final String GROUP = "chat-workers";
+
+    private StringRedisTemplate redisTemplate;
+    private StreamOperations<String, Object, Object> streamOperations;
+    private StringRedisConnection connection;
+    private ChatWorkQueue queue;
+    private String nodeId;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        redisTemplate = mock(StringRedisTemplate.class);
+        streamOperations = mock(StreamOperations.class);
+        HashOperations<String, Object, Object> hashOperations = mock(HashOperations.class);
+        connection = mock(StringRedisConnection.class);
+        when(redisTemplate.opsForStream()).thenReturn(streamOperations);
+        when(redisTemplate.opsForHash()).thenReturn(hashOperations);
+        when(hashOperations.entries(anyString())).thenReturn(Collections.emptyMap());
+        when(redisTemplate.execute(any(RedisCallback.class)))
+                .thenAnswer(invocation -> ((RedisCallback<?>) invocation.getArgument(0)).doInRedis(connection));
+        when(redisTemplate.executePipelined(any(RedisCallback.class))).thenAnswer(invocation -> {
+            ((RedisCallback<?>) invocation.getArgument(0)).doInRedis(connection);
+            return Collections.emptyList();
+        });
+
+        queue = new ChatWorkQueue();
+        ReflectionTestUtils.setField(queue, "redisTemplate", redisTemplate);
+        ReflectionTestUtils.setField(queue, "enabled", true);
+        ReflectionTestUtils.setField(queue, "reclaimIdleMillis", 15000L);
+        ReflectionTestUtils.setField(queue, "maxDeliveries", 3L);
+        nodeId = (String) ReflectionTestUtils.getField(queue, "nodeId");
+    }
+
+    @Test
+    void claimsIdleRecordsIntoLocalQueue() {
+        pending(message("1-0", 20000, 1), message("2-0", 20000, 2));
+        when(connection.xClaim(eq(STREAM_KEY), eq(GROUP), eq(nodeId), any(RedisStreamCommands.XClaimOptions.class)))
+                .thenReturn(Arrays.asList(record("1-0"), record("2-0")));
+
+        queue.reclaim();
+
+        ArgumentCaptor<RedisStreamCommands.XClaimOptions> options = ArgumentCaptor.forClass(RedisStreamCommands.XClaimOptions.class);
+        verify(connection).xClaim(eq(STREAM_KEY), eq(GROUP), eq(nodeId), options.capture());
+        assertEquals(Arrays.asList("1-0", "2-0"), Arrays.asList(options.getValue().getIdsAsStringArray()));
+        // XCLAIM 带上最小空闲时间，其他实例已抢先认领的不会重复认领
+        assertEquals(Duration.ofMillis(15000), options.getValue().getMinIdleTime());
+        assertEquals(Arrays.asList("1-0", "2-0"), reclaimedIds());
+    }
+
+    @Test
+    void skipsRecentAndLocallyProcessingRecords() {
+        processing().add("2-0");
+        pending(message("1-0", 1000, 1), message("2-0", 20000, 1));
+
+        queue.reclaim();
+
+        verify(connection, never()).xClaim(anyString(), anyString(), anyString(), any(RedisStreamCommands.XClaimOptions.class));
+        assertTrue(reclaimedIds().isEmpty());
+    }
+
+    @Test
+    void dropsRecordsDeliveredTooManyTimes() {
+        pending(message("1-0", 20000, 3), message("2-0", 20000, 1));
+        when(connection.xClaim(eq(STREAM_KEY), eq(GROUP), eq(nodeId), any(RedisStreamCommands.XClaimOptions.class)))
+                .thenReturn(Collections.singletonList(record("2-0")));
+
+        queue.reclaim();
+
+        verify(connection).xAck(STREAM_KEY, GROUP, "1-0");
+        verify(connection).xDel(STREAM_KEY, "1-0");
+        verify(connection, never()).xAck(STREAM_KEY, GROUP, "2-0");
+        assertEquals(Collections.singletonList("2-0"), reclaimedIds());
+        assertEquals(1L, ((LongAdder) ReflectionTestUtils.getField(queue, "deadLettered")).sum());
+    }
+
+    @Test
+    void ignoresClaimedRecordsAlreadyDeleted() {
+        pending(message("1-0", 20000, 1));
+        // 已被 XDEL 的记录 XCLAIM 返回空内容
+        StringRecord deleted = StreamRecords.string(Collections.<String, String>emptyMap())
+                .withStreamKey(STREAM_KEY).withId(RecordId.of("1-0"));
+        when(connection.xClaim(eq(STREAM_KEY), eq(GROUP), eq(nodeId), any(RedisStreamCommands.XClaimOptions.class)))
+                .thenReturn(new ArrayList<>(Collections.singletonList(deleted)));
+
+        queue.reclaim();
+
+        assertTrue(reclaimedIds().isEmpty());
+    }
+
+    @Test
+    void doesNothingWhenDisabled() {
+        ReflectionTestUtils.setField(queue, "enabled", false);
+        queue.reclaim();
+        verify(redisTemplate, never()).opsForStream();
+    }
+
+    private void pending(PendingMessage... messages) {
+        when(streamOperations.pending(STREAM_KEY, GROUP, Range.unbounded(), 100))
+                .thenReturn(new PendingMessages(GROUP, Arrays.asList(messages)));
+    }
+
+    private static PendingMessage message(String id, long idleMillis, long deliveries) {
+        return new PendingMessage(RecordId.of(id), Consumer.from(GROUP, "other-node"), Duration.ofMillis(idleMillis), deliveries);
+    }
+
+    private static StringRecord record(String id) {
+        return StreamRecords.string(Collections.singletonMap("jobId", "job-" + id))
+                .withStreamKey(STREAM_KEY).withId(RecordId.of(id));
+    }
+
+    @SuppressWarnings("unchecked")
+    private Set<String> processing() {
+        return (Set<String>) ReflectionTestUtils.getField(queue, "processing");
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<String> reclaimedIds() {
+        Queue<StringRecord> reclaimed = (Queue<StringRecord>) ReflectionTestUtils.getField(queue, "reclaimed");
+        return reclaimed.stream().map(record -> record.getId().getValue()).collect(Collectors.toList());
+    }
+}
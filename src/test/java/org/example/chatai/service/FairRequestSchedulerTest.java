@@ -0,0 +1,132 @@
+package org.example.chatai.service;
+
+import org.example.chatai.common.Deadline;
+import org.example.chatai.common.RuntimeSettings;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FairRequestSchedulerTest {
+
+    private FairRequestScheduler scheduler;
+
+    @AfterEach
+    void tearDown() {
+        scheduler.destroy();
+    }
+
+    @Test
+    void runsOneTaskPerUserInSubmitOrder() throws Exception {
+        scheduler = scheduler(4);
+        List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        List<CompletableFuture<Integer>> futures = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            int index = i;
+            futures.add(scheduler.submit("u1", () -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                if (index == 0) {
+                    release.await();
+                }
+                order.add(index);
+                running.decrementAndGet();
+                return index;
+            }));
+        }
+        // 并发有余量，但同一用户的后续任务仍排在第一个后面
+        Thread.sleep(100);
+        assertFalse(futures.get(1).isDone());
+        release.countDown();
+        for (CompletableFuture<Integer> future : futures) {
+            future.get(5, TimeUnit.SECONDS);
+        }
+        assertEquals(Arrays.asList(0, 1, 2), order);
+        assertEquals(1, maxRunning.get());
+    }
+
+    @Test
+    void rotatesBetweenUsers() throws Exception {
+        scheduler = scheduler(1);
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<Object> first = scheduler.submit("hog", () -> {
+            release.await();
+            return order.add("hog0");
+        });
+        CompletableFuture<Object> second = scheduler.submit("hog", () -> order.add("hog1"));
+        CompletableFuture<Object> third = scheduler.submit("hog", () -> order.add("hog2"));
+        CompletableFuture<Object> other = scheduler.submit("other", () -> order.add("other"));
+        release.countDown();
+        CompletableFuture.allOf(first, second, third, other).get(5, TimeUnit.SECONDS);
+        // 高频用户的第一条执行完后排到队尾，其他用户不必等它的全部消息
+        assertEquals(Arrays.asList("hog0", "other", "hog1", "hog2"), order);
+    }
+
+    @Test
+    void skipsTaskWhoseDeadlineExpiredInQueue() throws Exception {
+        scheduler = scheduler(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<Boolean> blocker = scheduler.submit("u1", () -> release.await(5, TimeUnit.SECONDS));
+        AtomicBoolean ran = new AtomicBoolean();
+        Deadline previous = Deadline.attach(Deadline.after(1));
+        CompletableFuture<Boolean> expired;
+        try {
+            expired = scheduler.submit("u2", () -> ran.getAndSet(true));
+        } finally {
+            Deadline.attach(previous);
+        }
+        Thread.sleep(20);
+        release.countDown();
+        blocker.get(5, TimeUnit.SECONDS);
+        ExecutionException e = assertThrows(ExecutionException.class, () -> expired.get(5, TimeUnit.SECONDS));
+        assertTrue(e.getCause() instanceof Deadline.ExceededException);
+        assertEquals("queue", ((Deadline.ExceededException) e.getCause()).getHop());
+        assertFalse(ran.get());
+    }
+
+    @Test
+    void resizeDispatchesQueuedWork() throws Exception {
+        scheduler = scheduler(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<Boolean> blocker = scheduler.submit("u1", () -> release.await(5, TimeUnit.SECONDS));
+        CompletableFuture<String> queued = scheduler.submit("u2", () -> "done");
+        Thread.sleep(100);
+        assertFalse(queued.isDone());
+        assertEquals(1, scheduler.stats().get("inFlight"));
+
+        scheduler.resize(2);
+        assertEquals("done", queued.get(5, TimeUnit.SECONDS));
+        assertFalse(blocker.isDone());
+        assertEquals(2, scheduler.stats().get("maxConcurrency"));
+        release.countDown();
+        blocker.get(5, TimeUnit.SECONDS);
+    }
+
+    private static FairRequestScheduler scheduler(int maxConcurrency) {
+        MockEnvironment environment = new MockEnvironment()
+                .withProperty(RuntimeSettings.SCHEDULER_MAX_CONCURRENCY, String.valueOf(maxConcurrency));
+        FairRequestScheduler scheduler = new FairRequestScheduler();
+        ReflectionTestUtils.setField(scheduler, "runtimeSettings", new RuntimeSettings(null, environment));
+        scheduler.init();
+        return scheduler;
+    }
+}
@@ -0,0 +1,196 @@
+package org.example.chatai.service;
+
+import org.example.chatai.vo.WeixinQrCodeReq;
+import org.example.chatai.vo.WeixinQrCodeRes;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.test.util.ReflectionTestUtils;
+import retrofit2.Call;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class QrTicketPoolTest {
+
+    private static final long LONG_LIFETIME = 2592000L;
+    // 短于 600 秒的出池余量，一创建就算过期
+    private static final long SHORT_LIFETIME = 300L;
+
+    private IWeixinApiService weixinApiService;
+    private WeixinAccessTokenService accessTokenService;
+    private final AtomicLong seq = new AtomicLong();
+    // 依次使用的有效期，用完后按长有效期生成
+    private final Deque<Long> lifetimes = new ArrayDeque<>();
+    private QrTicketPool pool;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() throws IOException {
+        weixinApiService = mock(IWeixinApiService.class);
+        accessTokenService = mock(WeixinAccessTokenService.class);
+        StringRedisTemplate redisTemplate = mock(StringRedisTemplate.class);
+        ValueOperations<String, String> valueOperations = mock(ValueOperations.class);
+        when(redisTemplate.opsForValue()).thenReturn(valueOperations);
+        when(valueOperations.increment(anyString())).thenAnswer(invocation -> seq.incrementAndGet());
+        when(accessTokenService.get()).thenReturn("token");
+        when(weixinApiService.createQrCode(anyString(), any(WeixinQrCodeReq.class))).thenAnswer(invocation -> {
+            WeixinQrCodeReq req = invocation.getArgument(1);
+            WeixinQrCodeRes res = new WeixinQrCodeRes();
+            res.setTicket("t" + req.getAction_info().getScene().getScene_id());
+            res.setExpire_seconds(nextLifetime());
+            return call(res);
+        });
+
+        pool = new QrTicketPool();
+        ReflectionTestUtils.setField(pool, "weixinApiService", weixinApiService);
+        ReflectionTestUtils.setField(pool, "accessTokenService", accessTokenService);
+        ReflectionTestUtils.setField(pool, "redisTemplate", redisTemplate);
+        ReflectionTestUtils.setField(pool, "enabled", true);
+        ReflectionTestUtils.setField(pool, "expireSeconds", (int) LONG_LIFETIME);
+        ReflectionTestUtils.setField(pool, "expireMarginSeconds", 600);
+        ReflectionTestUtils.setField(pool, "minSize", 3);
+        ReflectionTestUtils.setField(pool, "maxSize", 10);
+        ReflectionTestUtils.setField(pool, "leadSeconds", 120);
+        ReflectionTestUtils.setField(pool, "refillIntervalMillis", 1000L);
+    }
+
+    @AfterEach
+    void tearDown() {
+        pool.destroy();
+    }
+
+    @Test
+    void handsOutPooledTicketsInCreationOrder() throws IOException {
+        startFilled();
+
+        // 场景值由 Redis 自增序列加一得到
+        assertEquals("t2", pool.take().getTicket());
+        assertEquals("t3", pool.take().getTicket());
+        Map<String, Object> stats = pool.stats();
+        assertEquals(0L, stats.get("misses"));
+        assertEquals(0L, stats.get("expired"));
+        assertEquals(2L, stats.get("handedOut"));
+    }
+
+    @Test
+    void takeDiscardsTicketsExpiringWithinMargin() throws IOException {
+        lifetimes.add(SHORT_LIFETIME);
+        lifetimes.add(SHORT_LIFETIME);
+        startFilled();
+
+        QrTicketPool.Ticket ticket = pool.take();
+
+        assertEquals("t4", ticket.getTicket());
+        assertTrue(ticket.getExpiresAt() > System.currentTimeMillis() + 600_000L);
+        assertEquals(2L, pool.stats().get("expired"));
+        assertEquals(0L, pool.stats().get("misses"));
+    }
+
+    @Test
+    void emptyPoolFallsBackToSynchronousCreate() throws IOException {
+        for (int i = 0; i < 3; i++) {
+            lifetimes.add(SHORT_LIFETIME);
+        }
+        startFilled();
+
+        // 池中全部过期，丢弃后同步生成；后台补充同时在分配场景值，只能确认不是池中的旧 ticket
+        assertTrue(pool.take().getSceneId() > 4);
+        assertEquals(3L, pool.stats().get("expired"));
+        assertEquals(1L, pool.stats().get("misses"));
+        await(() -> (Integer) pool.stats().get("size") == 3);
+    }
+
+    @Test
+    void refreshDropsExpiredHeadAndRefills() {
+        for (int i = 0; i < 3; i++) {
+            lifetimes.add(SHORT_LIFETIME);
+        }
+        startFilled();
+
+        pool.refresh();
+
+        assertEquals(3L, pool.stats().get("expired"));
+        await(() -> (Integer) pool.stats().get("size") == 3);
+        assertEquals(6L, pool.stats().get("created"));
+    }
+
+    @Test
+    void targetFollowsDemandWithinBounds() throws IOException {
+        startFilled();
+        for (int i = 0; i < 10; i++) {
+            pool.take();
+        }
+
+        // 10 次/秒 的取用，平均后 2 次/秒，备货 120 秒超过上限
+        pool.refresh();
+        assertEquals(10, pool.stats().get("target"));
+        await(() -> (Integer) pool.stats().get("size") == 10);
+
+        // 没有取用后平均速率逐步衰减，回到下限
+        for (int i = 0; i < 40; i++) {
+            pool.refresh();
+        }
+        assertEquals(3, pool.stats().get("target"));
+    }
+
+    @Test
+    void invalidatesAccessTokenOnExpiredTokenError() throws IOException {
+        ReflectionTestUtils.setField(pool, "enabled", false);
+        WeixinQrCodeRes res = new WeixinQrCodeRes();
+        res.setErrcode(40001);
+        res.setErrmsg("invalid credential");
+        Call<WeixinQrCodeRes> failed = call(res);
+        when(weixinApiService.createQrCode(anyString(), any(WeixinQrCodeReq.class))).thenReturn(failed);
+        pool.init();
+
+        assertThrows(IOException.class, () -> pool.take());
+        verify(accessTokenService).invalidate();
+        assertEquals(1L, pool.stats().get("createFailures"));
+    }
+
+    private void startFilled() {
+        pool.init();
+        await(() -> (Integer) pool.stats().get("size") == 3 && !(Boolean) pool.stats().get("refilling"));
+    }
+
+    private synchronized Long nextLifetime() {
+        Long lifetime = lifetimes.poll();
+        return lifetime == null ? LONG_LIFETIME : lifetime;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Call<WeixinQrCodeRes> call(WeixinQrCodeRes res) throws IOException {
+        Call<WeixinQrCodeRes> call = mock(Call.class);
+        when(call.execute()).thenReturn(retrofit2.Response.success(res));
+        return call;
+    }
+
+    private static void await(BooleanSupplier condition) {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "等待超时");
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package org.example.chatai.service;
+
+import org.example.chatai.common.RuntimeSettings;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class SemanticAnswerCacheTest {
+
+    private static final int DIMENSION = 16;
+
+    @Test
+    void hitsAboveThresholdAndMissesBelow() {
+        StubEmbedding embedding = new StubEmbedding();
+        embedding.define("怎么登录", 1, 0);
+        // 与 怎么登录 的余弦约 0.995
+        embedding.define("如何登录", 1, 0.1);
+        // 余弦约 0.894，低于阈值 0.92
+        embedding.define("登录失败", 1, 0.5);
+        embedding.define("天气如何", 0, 1);
+        SemanticAnswerCache cache = cache(embedding, 100);
+
+        assertNull(cache.get("怎么登录"));
+        cache.put("怎么登录", "扫码登录");
+        assertEquals("扫码登录", cache.get("怎么登录"));
+        assertEquals("扫码登录", cache.get("如何登录"));
+        assertNull(cache.get("登录失败"));
+        assertNull(cache.get("天气如何"));
+
+        Map<String, Object> stats = cache.stats();
+        assertEquals(5L, stats.get("lookups"));
+        assertEquals(2L, stats.get("hits"));
+    }
+
+    @Test
+    void prefersMostSimilarEntry() {
+        StubEmbedding embedding = new StubEmbedding();
+        embedding.define("a", 1, 0.05);
+        embedding.define("b", 1, -0.2);
+        embedding.define("query", 1, 0);
+        SemanticAnswerCache cache = cache(embedding, 100);
+        cache.put("b", "answer-b");
+        cache.put("a", "answer-a");
+        assertEquals("answer-a", cache.get("query"));
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedBeyondCapacity() {
+        StubEmbedding embedding = new StubEmbedding();
+        embedding.define("q1", 1, 0, 0);
+        embedding.define("q2", 0, 1, 0);
+        embedding.define("q3", 0, 0, 1);
+        SemanticAnswerCache cache = cache(embedding, 2);
+
+        cache.put("q1", "a1");
+        cache.put("q2", "a2");
+        // 访问 q1 后 q2 成为最久未使用
+        assertEquals("a1", cache.get("q1"));
+        cache.put("q3", "a3");
+
+        assertNull(cache.get("q2"));
+        assertEquals("a1", cache.get("q1"));
+        assertEquals("a3", cache.get("q3"));
+        assertEquals(2, cache.stats().get("entries"));
+        assertEquals(1L, cache.stats().get("evictions"));
+    }
+
+    @Test
+    void skipsExpiredEntriesAndEvictsThemOnNextPut() {
+        StubEmbedding embedding = new StubEmbedding();
+        embedding.define("q1", 1, 0, 0);
+        embedding.define("q2", 0, 1, 0);
+        SemanticAnswerCache cache = cache(embedding, 100);
+
+        cache.put("q1", "a1");
+        assertEquals("a1", cache.get("q1"));
+        expireAll(cache);
+        assertNull(cache.get("q1"));
+
+        cache.put("q2", "a2");
+        assertEquals(1, cache.stats().get("entries"));
+        assertEquals(1L, cache.stats().get("evictions"));
+        assertEquals("a2", cache.get("q2"));
+    }
+
+    private static SemanticAnswerCache cache(IEmbeddingService embedding, int maxEntries) {
+        MockEnvironment environment = new MockEnvironment()
+                .withProperty(RuntimeSettings.SEMANTIC_CACHE_MAX_ENTRIES, String.valueOf(maxEntries));
+        SemanticAnswerCache cache = new SemanticAnswerCache();
+        ReflectionTestUtils.setField(cache, "embeddingService", embedding);
+        ReflectionTestUtils.setField(cache, "runtimeSettings", new RuntimeSettings(null, environment));
+        ReflectionTestUtils.setField(cache, "enabled", true);
+        ReflectionTestUtils.setField(cache, "threshold", 0.92);
+        ReflectionTestUtils.setField(cache, "tables", 8);
+        ReflectionTestUtils.setField(cache, "bits", 12);
+        cache.init();
+        return cache;
+    }
+
+    // TTL 最小 1 分钟，直接把已有条目的过期时间改到过去
+    @SuppressWarnings("unchecked")
+    private static void expireAll(SemanticAnswerCache cache) {
+        Map<Object, Boolean> lru = (Map<Object, Boolean>) ReflectionTestUtils.getField(cache, "lru");
+        for (Object entry : lru.keySet()) {
+            ReflectionTestUtils.setField(entry, "expiresAt", System.currentTimeMillis() - 1);
+        }
+    }
+
+    // 按问题返回预设向量（归一化），未定义的问题返回固定的第三方向
+    private static final class StubEmbedding implements IEmbeddingService {
+
+        private final Map<String, float[]> vectors = new HashMap<>();
+
+        void define(String text, double... components) {
+            float[] vector = new float[DIMENSION];
+            double norm = 0;
+            for (int i = 0; i < components.length; i++) {
+                norm += components[i] * components[i];
+            }
+            norm = Math.sqrt(norm);
+            for (int i = 0; i < components.length; i++) {
+                vector[i] = (float) (components[i] / norm);
+            }
+            vectors.put(text, vector);
+        }
+
+        @Override
+        public float[] embed(String text) {
+            float[] vector = vectors.get(text);
+            if (vector == null) {
+                throw new IllegalArgumentException("未定义的问题: " + text);
+            }
+            return vector;
+        }
+
+        @Override
+        public int dimension() {
+            return DIMENSION;
+        }
+    }
+}
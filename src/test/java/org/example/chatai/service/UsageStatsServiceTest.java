@@ -0,0 +1,150 @@
+package org.example.chatai.service;
+
+import org.example.chatai.common.ChatRecord;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class UsageStatsServiceTest {
+
+    private static final String DAY = "20261019";
+
+    private StringRedisTemplate redisTemplate;
+    private ChatRecordRepository repository;
+    private StringRedisConnection pipeline;
+    // 回填线程名，确认不在公共 ForkJoinPool 上执行
+    private volatile String backfillThread;
+    private UsageStatsService service;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        redisTemplate = mock(StringRedisTemplate.class);
+        repository = mock(ChatRecordRepository.class);
+        pipeline = mock(StringRedisConnection.class);
+
+        // 正式 key 中已有当天的计数，回填前临时 key 前缀下没有残留
+        RedisConnection connection = mock(RedisConnection.class);
+        when(connection.scan(any(ScanOptions.class))).thenAnswer(invocation -> {
+            String pattern = ((ScanOptions) invocation.getArgument(0)).getPattern();
+            List<byte[]> keys = new ArrayList<>();
+            if (pattern.equals("chat:stats:messages:*")) {
+                keys.add(("chat:stats:messages:" + DAY).getBytes(StandardCharsets.UTF_8));
+            } else if (pattern.equals("chat:stats:user_messages*")) {
+                keys.add(("chat:stats:user_messages:" + DAY).getBytes(StandardCharsets.UTF_8));
+                keys.add("chat:stats:user_messages".getBytes(StandardCharsets.UTF_8));
+            } else if (pattern.equals("chat:stats-backfill:tmp:dau:*")) {
+                // 重建写入的日活临时 key，当天的正式日活 key 还不存在
+                keys.add(("chat:stats-backfill:tmp:dau:" + DAY).getBytes(StandardCharsets.UTF_8));
+            }
+            return cursor(keys);
+        });
+        when(redisTemplate.execute(any(RedisCallback.class)))
+                .thenAnswer(invocation -> ((RedisCallback<?>) invocation.getArgument(0)).doInRedis(connection));
+        when(redisTemplate.executePipelined(any(RedisCallback.class))).thenAnswer(invocation -> {
+            ((RedisCallback<?>) invocation.getArgument(0)).doInRedis(pipeline);
+            return Collections.emptyList();
+        });
+
+        when(repository.findMaxId()).thenAnswer(invocation -> {
+            backfillThread = Thread.currentThread().getName();
+            return 2L;
+        });
+        when(repository.findByIdGreaterThanAndIdLessThanEqualOrderByIdAsc(anyLong(), anyLong(), any(Pageable.class)))
+                .thenReturn(Arrays.asList(record(1L, "u1"), record(2L, "u2")));
+
+        service = new UsageStatsService(100);
+        ReflectionTestUtils.setField(service, "redisTemplate", redisTemplate);
+        ReflectionTestUtils.setField(service, "chatRecordRepository", repository);
+        ReflectionTestUtils.setField(service, "enabled", true);
+        ReflectionTestUtils.setField(service, "retentionDays", 90L);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void backfillRebuildsIntoTempKeysAndMergesAtomically() throws Exception {
+        Map<String, Object> result = service.backfill(100).get(5, TimeUnit.SECONDS);
+
+        assertEquals(2L, result.get("records"));
+        assertEquals("chat-usage-backfill", backfillThread);
+
+        // 先快照正式 key，再读最大 id，快照之后的实时增量在合并时加回
+        ArgumentCaptor<List<String>> snapshotKeys = ArgumentCaptor.forClass(List.class);
+        ArgumentCaptor<List<String>> mergeKeys = ArgumentCaptor.forClass(List.class);
+        ArgumentCaptor<String> mergeArgs = ArgumentCaptor.forClass(String.class);
+        InOrder order = inOrder(redisTemplate, repository);
+        order.verify(redisTemplate).execute(any(RedisScript.class), snapshotKeys.capture());
+        order.verify(repository).findMaxId();
+        order.verify(redisTemplate).execute(any(RedisScript.class), mergeKeys.capture(), mergeArgs.capture());
+        assertEquals(Arrays.asList(
+                "chat:stats:messages:" + DAY, "chat:stats-backfill:snap:messages:" + DAY,
+                "chat:stats:user_messages", "chat:stats-backfill:snap:user_messages",
+                "chat:stats:user_messages:" + DAY, "chat:stats-backfill:snap:user_messages:" + DAY),
+                snapshotKeys.getValue());
+
+        // 重建只写临时 key，不删除也不改动正式 key
+        verify(redisTemplate, never()).delete(any(Collection.class));
+        verify(pipeline).incrBy("chat:stats-backfill:tmp:messages:" + DAY, 2L);
+        verify(pipeline).zIncrBy("chat:stats-backfill:tmp:user_messages", 1.0, "u1");
+        verify(pipeline, never()).incrBy(eq("chat:stats:messages:" + DAY), anyLong());
+        verify(pipeline, never()).zIncrBy(eq("chat:stats:user_messages"), any(Double.class), anyString());
+
+        List<String> keys = mergeKeys.getValue();
+        assertEquals(12, keys.size());
+        assertTrue(keys.containsAll(Arrays.asList("chat:stats:dau:" + DAY, "chat:stats-backfill:tmp:dau:" + DAY,
+                "chat:stats-backfill:snap:dau:" + DAY)));
+        assertEquals(Arrays.asList("7776000", "hll", "count", "all", "zset"), mergeArgs.getAllValues());
+    }
+
+    private static ChatRecord record(long id, String userId) {
+        ChatRecord record = new ChatRecord();
+        record.setId(id);
+        record.setUserId(userId);
+        record.setCreatedAt(Date.from(LocalDate.of(2026, 10, 19).atTime(12, 0).atZone(ZoneId.systemDefault()).toInstant()));
+        return record;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Cursor<byte[]> cursor(List<byte[]> keys) {
+        Iterator<byte[]> iterator = keys.iterator();
+        Cursor<byte[]> cursor = mock(Cursor.class);
+        when(cursor.hasNext()).thenAnswer(invocation -> iterator.hasNext());
+        when(cursor.next()).thenAnswer(invocation -> iterator.next());
+        return cursor;
+    }
+}
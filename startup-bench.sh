@@ -0,0 +1,43 @@
+#!/bin/sh
+# 启动基准：启动容器，计时到第一次成功的公众号验签请求（time-to-first-successful-webhook）
+# 用法：./startup-bench.sh [镜像] [额外 docker run 参数...]
+#   ./startup-bench.sh system/chatai:1.0
+#   ./startup-bench.sh system/chatai:faststart --network my-network
+
+IMAGE=${1:-system/chatai:faststart}
+[ $# -gt 0 ] && shift
+PORT=${PORT:-18088}
+TOKEN=${WEIXIN_TOKEN:-wxtoken}
+ADMIN_TOKEN=${CHAT_ADMIN_TOKEN:-bench}
+NAME=chatai-startup-bench
+
+TIMESTAMP=$(date +%s)
+NONCE=bench
+ECHOSTR=ok
+# 与 SignatureUtil 一致：token、timestamp、nonce 字典序排序后拼接做 sha1
+SIGNATURE=$(printf '%s\n' "$TOKEN" "$TIMESTAMP" "$NONCE" | LC_ALL=C sort | tr -d '\n' | sha1sum | cut -d' ' -f1)
+URL="http://127.0.0.1:$PORT/api/v1/weixin/portal/receive?signature=$SIGNATURE&timestamp=$TIMESTAMP&nonce=$NONCE&echostr=$ECHOSTR"
+
+docker rm -f $NAME >/dev/null 2>&1
+START=$(date +%s%3N)
+docker run -d --name $NAME -p $PORT:8088 -e PARAMS="--chat.admin.token=$ADMIN_TOKEN" "$@" "$IMAGE" >/dev/null || exit 1
+
+while :; do
+    BODY=$(curl -s -m 1 "$URL")
+    if [ "$BODY" = "$ECHOSTR" ]; then
+        break
+    fi
+    if [ $(( $(date +%s%3N) - START )) -gt 120000 ]; then
+        echo "超时：120s 内没有成功处理公众号请求"
+        docker logs --tail 50 $NAME
+        docker rm -f $NAME >/dev/null
+        exit 1
+    fi
+    sleep 0.05
+done
+END=$(date +%s%3N)
+
+echo "镜像: $IMAGE"
+echo "time-to-first-successful-webhook: $((END - START)) ms"
+curl -s -H "X-Admin-Token: $ADMIN_TOKEN" "http://127.0.0.1:$PORT/api/v1/admin/startup_stats"; echo
+docker rm -f $NAME >/dev/null